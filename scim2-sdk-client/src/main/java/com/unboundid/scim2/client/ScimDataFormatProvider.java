@@ -0,0 +1,175 @@
+/*
+ * Copyright 2021 Ping Identity Corporation
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPLv2 only)
+ * or the terms of the GNU Lesser General Public License (LGPLv2.1 only)
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ */
+
+package com.unboundid.scim2.client;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.unboundid.scim2.common.utils.JsonUtils;
+import com.unboundid.scim2.common.utils.ScimDataFormat;
+
+import javax.ws.rs.Consumes;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import javax.ws.rs.ext.MessageBodyReader;
+import javax.ws.rs.ext.MessageBodyWriter;
+import javax.ws.rs.ext.Provider;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+
+import static com.unboundid.scim2.common.utils.ApiConstants.MEDIA_TYPE_SCIM_CBOR;
+import static com.unboundid.scim2.common.utils.ApiConstants.MEDIA_TYPE_SCIM_SMILE;
+
+/**
+ * A JAX-RS provider that reads and writes SCIM objects encoded with the CBOR
+ * or Smile binary data formats. The object mappers used are configured by the
+ * same {@link com.unboundid.scim2.common.utils.MapperFactory} as the JSON
+ * object mapper, so the tree model still uses case-insensitive object nodes.
+ * <p>
+ * {@link ScimService} registers this provider automatically, so a request
+ * builder only needs to set its accepted media types and content type to
+ * {@link com.unboundid.scim2.common.utils.ApiConstants#MEDIA_TYPE_SCIM_CBOR}
+ * or {@link com.unboundid.scim2.common.utils.ApiConstants#MEDIA_TYPE_SCIM_SMILE}
+ * to use a binary data format. Service providers should register it along
+ * with the JSON provider and the server SDK's ListResponseDataFormatWriter.
+ */
+@Provider
+@Consumes({MEDIA_TYPE_SCIM_CBOR, MEDIA_TYPE_SCIM_SMILE, "application/cbor",
+    "application/x-jackson-smile"})
+@Produces({MEDIA_TYPE_SCIM_CBOR, MEDIA_TYPE_SCIM_SMILE, "application/cbor",
+    "application/x-jackson-smile"})
+public class ScimDataFormatProvider
+    implements MessageBodyReader<Object>, MessageBodyWriter<Object>
+{
+  /**
+   * Types that are read and written by the standard JAX-RS providers.
+   */
+  private static final Class<?>[] UNTOUCHABLE_TYPES =
+      {
+          InputStream.class, Reader.class, OutputStream.class, Writer.class,
+          String.class, byte[].class, char[].class, StreamingOutput.class,
+          Response.class
+      };
+
+  /**
+   * Determine the binary data format of a media type.
+   *
+   * @param mediaType The media type.
+   * @return The binary data format or {@code null} if the media type is not
+   * for a binary data format that is available.
+   */
+  protected static ScimDataFormat getBinaryDataFormat(final MediaType mediaType)
+  {
+    if (mediaType == null)
+    {
+      return null;
+    }
+    ScimDataFormat dataFormat = ScimDataFormat.forMediaType(
+        mediaType.getType() + "/" + mediaType.getSubtype());
+    return dataFormat == ScimDataFormat.JSON || dataFormat == null ||
+        !dataFormat.isAvailable() ? null : dataFormat;
+  }
+
+  /**
+   * Determine whether a type is handled by one of the standard JAX-RS
+   * providers instead.
+   *
+   * @param type The type.
+   * @return {@code true} if this provider should not handle the type.
+   */
+  protected static boolean isUntouchable(final Class<?> type)
+  {
+    for (Class<?> untouchable : UNTOUCHABLE_TYPES)
+    {
+      if (untouchable.isAssignableFrom(type))
+      {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public boolean isReadable(final Class<?> type, final Type genericType,
+                            final Annotation[] annotations,
+                            final MediaType mediaType)
+  {
+    return getBinaryDataFormat(mediaType) != null && !isUntouchable(type);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public Object readFrom(final Class<Object> type, final Type genericType,
+                         final Annotation[] annotations,
+                         final MediaType mediaType,
+                         final MultivaluedMap<String, String> httpHeaders,
+                         final InputStream entityStream)
+      throws IOException
+  {
+    ObjectReader reader =
+        JsonUtils.getObjectReader(getBinaryDataFormat(mediaType));
+    return reader.forType(reader.getTypeFactory().constructType(genericType)).
+        without(JsonParser.Feature.AUTO_CLOSE_SOURCE).readValue(entityStream);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public boolean isWriteable(final Class<?> type, final Type genericType,
+                             final Annotation[] annotations,
+                             final MediaType mediaType)
+  {
+    return getBinaryDataFormat(mediaType) != null && !isUntouchable(type);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public long getSize(final Object value, final Class<?> type,
+                      final Type genericType, final Annotation[] annotations,
+                      final MediaType mediaType)
+  {
+    return -1;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public void writeTo(final Object value, final Class<?> type,
+                      final Type genericType, final Annotation[] annotations,
+                      final MediaType mediaType,
+                      final MultivaluedMap<String, Object> httpHeaders,
+                      final OutputStream entityStream)
+      throws IOException
+  {
+    JsonUtils.getObjectWriter(getBinaryDataFormat(mediaType)).
+        without(JsonGenerator.Feature.AUTO_CLOSE_TARGET).
+        writeValue(entityStream, value);
+  }
+}
@@ -79,7 +79,8 @@ public class ScimService implements ScimInterface
   {
     this.baseTarget = baseTarget.register(
         new JacksonJaxbJsonProvider(JsonUtils.createObjectMapper(),
-            JacksonJaxbJsonProvider.DEFAULT_ANNOTATIONS));
+            JacksonJaxbJsonProvider.DEFAULT_ANNOTATIONS)).register(
+        new ScimDataFormatProvider());
   }
 
   /**
@@ -46,6 +46,18 @@ public interface SearchResultHandler<T>
    */
   void totalResults(final int totalResults);
 
+  /**
+   * Handle the nextCursor in the search response. The default implementation
+   * ignores it.
+   *
+   * @param nextCursor The opaque cursor that requests the next page of
+   *                   results.
+   */
+  default void nextCursor(final String nextCursor)
+  {
+    // Ignored unless cursor pagination is used.
+  }
+
   /**
    * Handle a search result resource.
    *
@@ -37,6 +37,7 @@ public class ListResponseBuilder<T>
   private List<T> resources = new LinkedList<T>();
   private Integer startIndex;
   private Integer itemsPerPage;
+  private String nextCursor;
 
   /**
    * {@inheritDoc}
@@ -62,6 +63,14 @@ public class ListResponseBuilder<T>
     this.totalResults = totalResults;
   }
 
+  /**
+   * {@inheritDoc}
+   */
+  public void nextCursor(final String nextCursor)
+  {
+    this.nextCursor = nextCursor;
+  }
+
   /**
    * {@inheritDoc}
    */
@@ -93,6 +102,7 @@ public class ListResponseBuilder<T>
     properties.put("resources", resources);
     properties.put("startIndex", startIndex);
     properties.put("itemsPerPage", itemsPerPage);
+    properties.put("nextCursor", nextCursor);
     return new ListResponse<T>(properties);
   }
 }
@@ -20,7 +20,6 @@ package com.unboundid.scim2.client.requests;
 import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.node.ObjectNode;
-import com.unboundid.scim2.client.ScimService;
 import com.unboundid.scim2.client.SearchResultHandler;
 import com.unboundid.scim2.common.ScimResource;
 import com.unboundid.scim2.common.exceptions.ScimException;
@@ -30,13 +29,13 @@ import com.unboundid.scim2.common.messages.SortOrder;
 import com.unboundid.scim2.common.utils.ApiConstants;
 import com.unboundid.scim2.common.utils.JsonUtils;
 import com.unboundid.scim2.common.utils.SchemaUtils;
+import com.unboundid.scim2.common.utils.ScimDataFormat;
 import com.unboundid.scim2.common.utils.StaticUtils;
 
 import javax.ws.rs.client.Entity;
 import javax.ws.rs.client.Invocation;
 import javax.ws.rs.client.ResponseProcessingException;
 import javax.ws.rs.client.WebTarget;
-import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import java.io.IOException;
 import java.io.InputStream;
@@ -45,6 +44,7 @@ import java.util.Map;
 import java.util.Set;
 
 import static com.unboundid.scim2.common.utils.ApiConstants.QUERY_PARAMETER_FILTER;
+import static com.unboundid.scim2.common.utils.ApiConstants.QUERY_PARAMETER_PAGE_CURSOR;
 import static com.unboundid.scim2.common.utils.ApiConstants.QUERY_PARAMETER_PAGE_SIZE;
 import static com.unboundid.scim2.common.utils.ApiConstants.QUERY_PARAMETER_PAGE_START_INDEX;
 import static com.unboundid.scim2.common.utils.ApiConstants.QUERY_PARAMETER_SORT_BY;
@@ -61,6 +61,7 @@ public final class SearchRequestBuilder
   private SortOrder sortOrder;
   private Integer startIndex;
   private Integer count;
+  private String cursor;
 
   /**
    * Create a new  search request builder.
@@ -112,6 +113,24 @@ public final class SearchRequestBuilder
   {
     this.startIndex = startIndex;
     this.count = count;
+    this.cursor = null;
+    return this;
+  }
+
+  /**
+   * Request cursor-based pagination of resources.
+   *
+   * @param cursor the nextCursor returned with the previous page, or an empty
+   *               string to request the first page.
+   * @param count the desired maximum number of query results per page.
+   * @return This builder.
+   */
+  public SearchRequestBuilder cursor(final String cursor,
+                                     final int count)
+  {
+    this.cursor = cursor;
+    this.count = count;
+    this.startIndex = null;
     return this;
   }
 
@@ -137,6 +156,11 @@ public final class SearchRequestBuilder
       target = target.queryParam(QUERY_PARAMETER_PAGE_START_INDEX, startIndex);
       target = target.queryParam(QUERY_PARAMETER_PAGE_SIZE, count);
     }
+    if(cursor != null && count != null)
+    {
+      target = target.queryParam(QUERY_PARAMETER_PAGE_CURSOR, cursor);
+      target = target.queryParam(QUERY_PARAMETER_PAGE_SIZE, count);
+    }
     return target;
   }
 
@@ -239,12 +263,12 @@ public final class SearchRequestBuilder
       }
 
       SearchRequest searchRequest = new SearchRequest(attributeSet,
-          excludedAttributeSet, filter, sortBy, sortOrder, startIndex, count);
+          excludedAttributeSet, filter, sortBy, sortOrder, startIndex, count,
+          cursor);
 
       Invocation.Builder builder = target().
           path(ApiConstants.SEARCH_WITH_POST_PATH_EXTENSION).
-          request(ScimService.MEDIA_TYPE_SCIM_TYPE,
-                  MediaType.APPLICATION_JSON_TYPE);
+          request(getAccept().toArray(new String[getAccept().size()]));
       for (Map.Entry<String, List<Object>> header : headers.entrySet())
       {
         builder = builder.header(header.getKey(),
@@ -267,7 +291,11 @@ public final class SearchRequestBuilder
         InputStream inputStream = response.readEntity(InputStream.class);
         try
         {
-          JsonParser parser = JsonUtils.getObjectReader().
+          // Parse binary data formats if one was negotiated.
+          ScimDataFormat dataFormat = response.getMediaType() == null ? null :
+              ScimDataFormat.forMediaType(response.getMediaType().toString());
+          JsonParser parser = JsonUtils.getObjectReader(
+              dataFormat == null ? ScimDataFormat.JSON : dataFormat).
               getFactory().createParser(inputStream);
           try
           {
@@ -289,6 +317,9 @@ public final class SearchRequestBuilder
               } else if (field.equals("itemsPerPage"))
               {
                 resultHandler.itemsPerPage(parser.getIntValue());
+              } else if (field.equals("nextCursor"))
+              {
+                resultHandler.nextCursor(parser.getText());
               } else if (field.equals("Resources"))
               {
                 while (parser.nextToken() != JsonToken.END_ARRAY)
@@ -34,6 +34,7 @@ import com.unboundid.scim2.common.utils.JsonUtils;
 import com.unboundid.scim2.common.utils.SchemaUtils;
 
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -61,6 +62,12 @@ import java.util.Set;
  * {@link GenericScimResource#getObjectNode()}, followed by
  * {@link JsonUtils#nodeToValue(JsonNode, Class)}.</p>
  *
+ * <p>Each call to {@link #asGenericScimResource()} converts the object to a
+ * new {@link GenericScimResource}. Resources that are converted repeatedly
+ * without being modified, for example while sorting search results, may be
+ * made read-only with {@link #freeze()} so that they are only converted
+ * once.</p>
+ *
  * @see GenericScimResource
  */
 @JsonPropertyOrder({ "schemas", "id", "externalId" })
@@ -79,6 +86,10 @@ public abstract class BaseScimResource
   private final ObjectNode extensionObjectNode =
       JsonUtils.getJsonNodeFactory().objectNode();
 
+  private volatile boolean frozen;
+
+  private volatile GenericScimResource cachedGenericScimResource;
+
   /**
    * Constructs a new BaseScimResource object, and sets the urn if
    * the class extending this one is annotated.
@@ -107,6 +118,10 @@ public abstract class BaseScimResource
   @JsonIgnore
   public ObjectNode getExtensionObjectNode()
   {
+    if(frozen)
+    {
+      return this.extensionObjectNode.deepCopy();
+    }
     return this.extensionObjectNode;
   }
 
@@ -123,6 +138,7 @@ public abstract class BaseScimResource
    */
   public void setMeta(final Meta meta)
   {
+    checkNotFrozen();
     this.meta = meta;
   }
 
@@ -139,6 +155,7 @@ public abstract class BaseScimResource
    */
   public void setId(final String id)
   {
+    checkNotFrozen();
     this.id = id;
   }
 
@@ -155,6 +172,7 @@ public abstract class BaseScimResource
    */
   public void setExternalId(final String externalId)
   {
+    checkNotFrozen();
     this.externalId = externalId;
   }
 
@@ -168,6 +186,10 @@ public abstract class BaseScimResource
       schemaUrns = new HashSet<String>();
     }
 
+    if(frozen)
+    {
+      return Collections.unmodifiableSet(schemaUrns);
+    }
     return schemaUrns;
   }
 
@@ -176,6 +198,7 @@ public abstract class BaseScimResource
    */
   public void setSchemaUrns(final Collection<String> schemaUrns)
   {
+    checkNotFrozen();
     this.schemaUrns = new HashSet<String>(schemaUrns);
   }
 
@@ -195,6 +218,7 @@ public abstract class BaseScimResource
                         final JsonNode value)
       throws ScimException
   {
+    checkNotFrozen();
     if(SchemaUtils.isUrn(key) && value.isObject())
     {
       extensionObjectNode.set(key, value);
@@ -321,6 +345,7 @@ public abstract class BaseScimResource
   public void replaceExtensionValue(final Path path, final JsonNode value)
       throws ScimException
   {
+    checkNotFrozen();
     JsonUtils.replaceValue(path, extensionObjectNode, value);
   }
 
@@ -370,6 +395,7 @@ public abstract class BaseScimResource
   @JsonIgnore
   public <T> void setExtension(final T extension)
   {
+    checkNotFrozen();
     String schemaUrn = getSchemaUrnOrThrowException(extension.getClass());
     extensionObjectNode.set(schemaUrn, JsonUtils.valueToNode(extension));
     schemaUrns.add(schemaUrn);
@@ -387,6 +413,7 @@ public abstract class BaseScimResource
    */
   public <T> boolean removeExtension(final Class<T> clazz)
   {
+    checkNotFrozen();
     String schemaUrn = getSchemaUrnOrThrowException(clazz);
     if(extensionObjectNode.remove(schemaUrn) == null)
     {
@@ -444,6 +471,7 @@ public abstract class BaseScimResource
   public void addExtensionValue(final Path path, final ArrayNode values)
       throws ScimException
   {
+    checkNotFrozen();
     JsonUtils.addValue(path, extensionObjectNode, values);
 
   }
@@ -475,20 +503,110 @@ public abstract class BaseScimResource
   public boolean removeExtensionValues(final Path path)
       throws ScimException
   {
+    checkNotFrozen();
     List<JsonNode> nodes = JsonUtils.removeValues(path, extensionObjectNode);
     return !nodes.isEmpty();
   }
 
   /**
    * {@inheritDoc}
+   * <p>
+   * If this object is frozen with {@link #freeze()}, it was converted when
+   * it was frozen and the same GenericScimResource is returned by every call.
+   * It must not be modified by the caller.
    */
   public GenericScimResource asGenericScimResource()
   {
+    GenericScimResource cached = cachedGenericScimResource;
+    if(cached != null)
+    {
+      return cached;
+    }
     ObjectNode object =
         JsonUtils.valueToNode(this);
     return new GenericScimResource(object);
   }
 
+  /**
+   * Makes this object read-only and converts it to the GenericScimResource
+   * that {@link #asGenericScimResource()} returns from then on. A frozen
+   * object cannot be unfrozen, and freezing it again has no effect.
+   * <p>
+   * The setters and extension methods of a frozen object, including those of
+   * the subclasses provided by the SDK, throw an
+   * {@link IllegalStateException}. The schema URNs and lists returned by its
+   * getters are unmodifiable, and {@link #getExtensionObjectNode()} returns a
+   * copy. Subclasses that define their own attributes must call
+   * {@link #checkNotFrozen()} from their setters.
+   * <p>
+   * The freeze is shallow: complex values returned by the getters, such as
+   * the {@link Meta} or the values of multi-valued attributes, are not frozen
+   * and must not be modified. Since the object is converted when it is
+   * frozen, such changes are never reflected by
+   * {@link #asGenericScimResource()}. Use
+   * {@link JsonUtils#nodeToValue(JsonNode, Class)} on the result of
+   * {@link #asGenericScimResource()} to get a modifiable copy.
+   */
+  public void freeze()
+  {
+    synchronized(this)
+    {
+      if(frozen)
+      {
+        return;
+      }
+      cachedGenericScimResource =
+          new GenericScimResource(JsonUtils.<ObjectNode>valueToNode(this));
+      frozen = true;
+    }
+  }
+
+  /**
+   * Whether this object is frozen and read-only.
+   *
+   * @return {@code true} if this object was frozen with {@link #freeze()} or
+   * {@code false} otherwise.
+   */
+  @JsonIgnore
+  public boolean isFrozen()
+  {
+    return frozen;
+  }
+
+  /**
+   * Checks that this object may be modified. This must be called by setters
+   * and other methods that modify this object before making any change.
+   *
+   * @throws IllegalStateException If this object is frozen.
+   */
+  protected void checkNotFrozen()
+  {
+    if(frozen)
+    {
+      throw new IllegalStateException(
+          "Unable to modify a frozen " + getClass().getSimpleName());
+    }
+  }
+
+  /**
+   * Returns a list attribute of this object, which is unmodifiable if this
+   * object is frozen. Subclasses should use this in the getters of their
+   * multi-valued attributes. The values in the list are not copied, and
+   * must not be modified if this object is frozen.
+   *
+   * @param list The list, which may be {@code null}.
+   * @param <T> The type of the values.
+   * @return The list or an unmodifiable view of it.
+   */
+  protected <T> List<T> frozenList(final List<T> list)
+  {
+    if(frozen && list != null)
+    {
+      return Collections.unmodifiableList(list);
+    }
+    return list;
+  }
+
   /**
    * {@inheritDoc}
    */
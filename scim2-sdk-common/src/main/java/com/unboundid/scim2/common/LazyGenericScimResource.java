@@ -0,0 +1,70 @@
+/*
+ * Copyright 2021 Ping Identity Corporation
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPLv2 only)
+ * or the terms of the GNU Lesser General Public License (LGPLv2.1 only)
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ */
+
+package com.unboundid.scim2.common;
+
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.unboundid.scim2.common.utils.LazyGenericScimResourceDeserializer;
+
+/**
+ * <p>A generic SCIM object that may be read from JSON without parsing it into
+ * a tree. This can be used instead of {@link GenericScimResource} when only
+ * a few attributes of each resource are needed, for example:</p>
+ *
+ * <pre><code>
+ *   ListResponse&lt;LazyGenericScimResource&gt; response =
+ *       scimService.searchRequest("Users").
+ *           invoke(LazyGenericScimResource.class);
+ *   for(LazyGenericScimResource resource : response)
+ *   {
+ *     String id = resource.getId();
+ *     JsonNode version = resource.getValue("meta.version");
+ *   }
+ * </code></pre>
+ *
+ * <p>When deserialized, the resource is copied into UTF-8 encoded JSON bytes.
+ * Top-level attributes are parsed the first time they are read, and an
+ * unmodified resource is serialized by writing the bytes again. See
+ * {@link RawScimResource} for details.</p>
+ */
+@JsonDeserialize(using = LazyGenericScimResourceDeserializer.class)
+public final class LazyGenericScimResource extends RawScimResource
+{
+  /**
+   * Create a new LazyGenericScimResource from a UTF-8 encoded JSON object.
+   *
+   * @param bytes The UTF-8 encoded JSON object.
+   */
+  public LazyGenericScimResource(final byte[] bytes)
+  {
+    super(bytes);
+  }
+
+  /**
+   * Create a new LazyGenericScimResource from a UTF-8 encoded JSON object in
+   * a portion of a byte array.
+   *
+   * @param bytes The byte array containing the UTF-8 encoded JSON object.
+   * @param offset The offset of the JSON object in the array.
+   * @param length The length of the JSON object.
+   */
+  public LazyGenericScimResource(final byte[] bytes, final int offset,
+                                 final int length)
+  {
+    super(bytes, offset, length);
+  }
+}
@@ -0,0 +1,700 @@
+/*
+ * Copyright 2021 Ping Identity Corporation
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPLv2 only)
+ * or the terms of the GNU Lesser General Public License (LGPLv2.1 only)
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ */
+
+package com.unboundid.scim2.common;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.core.json.JsonGeneratorImpl;
+import com.fasterxml.jackson.core.util.JsonGeneratorDelegate;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.unboundid.scim2.common.exceptions.ScimException;
+import com.unboundid.scim2.common.types.Meta;
+import com.unboundid.scim2.common.utils.JsonUtils;
+import com.unboundid.scim2.common.utils.RawScimResourceSerializer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * <p>A SCIM resource that is already serialized as UTF-8 encoded JSON. This
+ * may be used by service providers that store resources as SCIM JSON to
+ * return them without deserializing and serializing them again.</p>
+ *
+ * <p>When written as JSON, the bytes are copied to the output as is. They are
+ * not checked unless requested, for example with {@link #validate()}, and
+ * must already contain everything the client should receive, including the
+ * meta.resourceType and meta.location attributes. When written in another
+ * data format, the JSON is converted as it is written.</p>
+ *
+ * <p>The bytes are parsed lazily. Reading an attribute with
+ * {@link #getValue(Path)} or one of the {@link ScimResource} getters only
+ * locates the top-level attributes and parses the one containing the value.
+ * The whole resource is parsed into a {@link GenericScimResource} when it is
+ * needed. Once the resource is modified through
+ * {@link #asGenericScimResource()} or one of the setters, it is written from
+ * the parsed resource instead of the bytes.</p>
+ *
+ * <p>The bytes are not copied, so they must not be changed while this object
+ * is in use.</p>
+ */
+@JsonSerialize(using = RawScimResourceSerializer.class)
+public class RawScimResource implements ScimResource
+{
+  private static final Path SCHEMAS = Path.root().attribute("schemas");
+  private static final Path ID = Path.root().attribute("id");
+  private static final Path EXTERNAL_ID = Path.root().attribute("externalId");
+  private static final Path META = Path.root().attribute("meta");
+
+  private final byte[] bytes;
+  private final int offset;
+  private final int length;
+
+  private Map<String, Integer> valueOffsets;
+  private ObjectNode parsedValues;
+  private GenericScimResource genericResource;
+  private boolean modified;
+
+  /**
+   * Create a new RawScimResource from a UTF-8 encoded JSON object.
+   *
+   * @param bytes The UTF-8 encoded JSON object.
+   */
+  public RawScimResource(final byte[] bytes)
+  {
+    this(bytes, 0, bytes.length);
+  }
+
+  /**
+   * Create a new RawScimResource from a UTF-8 encoded JSON object in a
+   * portion of a byte array.
+   *
+   * @param bytes The byte array containing the UTF-8 encoded JSON object.
+   * @param offset The offset of the JSON object in the array.
+   * @param length The length of the JSON object.
+   */
+  public RawScimResource(final byte[] bytes, final int offset,
+                         final int length)
+  {
+    if(offset < 0 || length < 0 || offset + length > bytes.length)
+    {
+      throw new IndexOutOfBoundsException("offset " + offset + " and length " +
+          length + " are out of bounds for an array of length " +
+          bytes.length);
+    }
+    this.bytes = bytes;
+    this.offset = offset;
+    this.length = length;
+  }
+
+  /**
+   * Create a new RawScimResource from the remaining bytes in a buffer
+   * containing a UTF-8 encoded JSON object. The buffer's backing array is
+   * used if it is accessible, otherwise the bytes are copied. The buffer's
+   * position is not changed.
+   *
+   * @param buffer The buffer containing the UTF-8 encoded JSON object.
+   */
+  public RawScimResource(final ByteBuffer buffer)
+  {
+    if(buffer.hasArray())
+    {
+      this.bytes = buffer.array();
+      this.offset = buffer.arrayOffset() + buffer.position();
+    }
+    else
+    {
+      this.bytes = new byte[buffer.remaining()];
+      buffer.duplicate().get(this.bytes);
+      this.offset = 0;
+    }
+    this.length = buffer.remaining();
+  }
+
+  /**
+   * Whether the resource may have been modified since it was created, in
+   * which case it is written from the parsed resource instead of the bytes.
+   *
+   * @return {@code true} if the resource may have been modified or
+   * {@code false} if it will be written from the bytes.
+   */
+  public boolean isModified()
+  {
+    return modified;
+  }
+
+  /**
+   * Check that the bytes contain a single well-formed JSON object.
+   *
+   * @throws IOException If the bytes are not a single well-formed JSON
+   * object.
+   */
+  public void validate() throws IOException
+  {
+    JsonParser parser = createParser();
+    try
+    {
+      if(parser.nextToken() != JsonToken.START_OBJECT)
+      {
+        throw new JsonParseException(parser,
+            "The raw resource is not a JSON object");
+      }
+      parser.skipChildren();
+      if(parser.nextToken() != null)
+      {
+        throw new JsonParseException(parser,
+            "Unexpected content after the raw resource's JSON object");
+      }
+    }
+    finally
+    {
+      parser.close();
+    }
+  }
+
+  /**
+   * Write this resource to a JSON generator. The bytes are copied as is when
+   * writing JSON text and the resource was not modified.
+   *
+   * @param generator The generator to write to.
+   * @throws IOException If an error occurs while writing.
+   */
+  public void writeTo(final JsonGenerator generator) throws IOException
+  {
+    if(modified)
+    {
+      JsonUtils.getObjectWriter().writeValue(generator,
+          genericResource.getObjectNode());
+    }
+    else if(isJsonText(generator))
+    {
+      generator.writeRawValue(new Utf8Value(bytes, offset, length));
+    }
+    else
+    {
+      JsonParser parser = createParser();
+      try
+      {
+        parser.nextToken();
+        generator.copyCurrentStructure(parser);
+      }
+      finally
+      {
+        parser.close();
+      }
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public String getId()
+  {
+    return getStringValue(ID);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public void setId(final String id)
+  {
+    asGenericScimResource().setId(id);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public String getExternalId()
+  {
+    return getStringValue(EXTERNAL_ID);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public void setExternalId(final String externalId)
+  {
+    asGenericScimResource().setExternalId(externalId);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public Meta getMeta()
+  {
+    try
+    {
+      JsonNode value = getValue(META);
+      if(value.isNull())
+      {
+        return null;
+      }
+      return JsonUtils.nodeToValue(value, Meta.class);
+    }
+    catch (Exception e)
+    {
+      // This should never happen.
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public void setMeta(final Meta meta)
+  {
+    asGenericScimResource().setMeta(meta);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public Collection<String> getSchemaUrns()
+  {
+    try
+    {
+      JsonNode value = getValue(SCHEMAS);
+      if(value.isNull() || !value.isArray())
+      {
+        return Collections.emptyList();
+      }
+      return JsonUtils.nodeToValues((ArrayNode) value, String.class);
+    }
+    catch (Exception e)
+    {
+      // This should never happen.
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public void setSchemaUrns(final Collection<String> schemaUrns)
+  {
+    asGenericScimResource().setSchemaUrns(schemaUrns);
+  }
+
+  /**
+   * Gets a single JsonNode from the resource, parsing only the top-level
+   * attribute that contains it. This value may be an ArrayNode. The returned
+   * value must not be modified; use {@link #asGenericScimResource()} to modify
+   * the resource.
+   *
+   * @param path the String path of the object.
+   * @return the JsonNode at the path, or a NullNode if nothing is found
+   * @throws ScimException thrown if an error occurs.
+   * @see GenericScimResource#getValue(String)
+   */
+  public JsonNode getValue(final String path)
+      throws ScimException
+  {
+    return getValue(Path.fromString(path));
+  }
+
+  /**
+   * Gets a single JsonNode from the resource, parsing only the top-level
+   * attribute that contains it. This value may be an ArrayNode. The returned
+   * value must not be modified; use {@link #asGenericScimResource()} to modify
+   * the resource.
+   *
+   * @param path the path of the object.
+   * @return the JsonNode at the path, or a NullNode if nothing is found
+   * @throws ScimException thrown if an error occurs.
+   * @see GenericScimResource#getValue(Path)
+   */
+  public JsonNode getValue(final Path path)
+      throws ScimException
+  {
+    if(genericResource != null)
+    {
+      return genericResource.getValue(path);
+    }
+
+    // Extension attributes are in an object named after the schema URN.
+    String field;
+    if(path.getSchemaUrn() != null)
+    {
+      field = path.getSchemaUrn();
+    }
+    else if(path.size() > 0)
+    {
+      field = path.getElement(0).getAttribute();
+    }
+    else
+    {
+      return parse().getValue(path);
+    }
+    return JsonUtils.getValue(path, parseValue(field));
+  }
+
+  /**
+   * {@inheritDoc}
+   * <p>
+   * The returned resource may be modified, so this resource is written from
+   * it instead of the bytes afterwards.
+   */
+  public GenericScimResource asGenericScimResource()
+  {
+    GenericScimResource resource = parse();
+    modified = true;
+    return resource;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public String toString()
+  {
+    if(modified)
+    {
+      return genericResource.toString();
+    }
+    return new String(bytes, offset, length, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Parse the bytes into a GenericScimResource if not already parsed.
+   *
+   * @return The parsed resource.
+   */
+  private GenericScimResource parse()
+  {
+    if(genericResource == null)
+    {
+      try
+      {
+        genericResource = JsonUtils.getObjectReader().
+            forType(GenericScimResource.class).
+            readValue(bytes, offset, length);
+      }
+      catch (IOException e)
+      {
+        throw new IllegalStateException(
+            "The raw resource is not a valid JSON object: " + e.getMessage(),
+            e);
+      }
+    }
+    return genericResource;
+  }
+
+  /**
+   * Gets the string value of a top-level attribute.
+   *
+   * @param path The path of the attribute.
+   * @return The string value or {@code null} if there is no value.
+   */
+  private String getStringValue(final Path path)
+  {
+    try
+    {
+      JsonNode value = getValue(path);
+      if(value.isNull())
+      {
+        return null;
+      }
+      return JsonUtils.nodeToValue(value, String.class);
+    }
+    catch (Exception e)
+    {
+      // This should never happen.
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Parse the value of a top-level attribute if not already parsed. The
+   * offsets of the top-level attribute values are found the first time this
+   * is called.
+   *
+   * @param field The name of the top-level attribute.
+   * @return An object node containing the top-level attributes parsed so far.
+   */
+  private ObjectNode parseValue(final String field)
+  {
+    try
+    {
+      if(valueOffsets == null)
+      {
+        indexValues();
+      }
+      Integer valueOffset = valueOffsets.remove(field);
+      if(valueOffset != null)
+      {
+        JsonParser parser = JsonUtils.getObjectReader().getFactory().
+            createParser(bytes, valueOffset, offset + length - valueOffset);
+        try
+        {
+          // Only the first value is read from the rest of the resource.
+          JsonNode value = JsonUtils.getObjectReader().readTree(parser);
+          parsedValues.set(field, value);
+        }
+        finally
+        {
+          parser.close();
+        }
+      }
+      return parsedValues;
+    }
+    catch (IOException e)
+    {
+      throw new IllegalStateException(
+          "The raw resource is not a valid JSON object: " + e.getMessage(),
+          e);
+    }
+  }
+
+  /**
+   * Find the offsets of the values of the top-level attributes.
+   *
+   * @throws IOException If the bytes are not a valid JSON object.
+   */
+  private void indexValues() throws IOException
+  {
+    Map<String, Integer> offsets =
+        new TreeMap<String, Integer>(String.CASE_INSENSITIVE_ORDER);
+    JsonParser parser = createParser();
+    try
+    {
+      if(parser.nextToken() != JsonToken.START_OBJECT)
+      {
+        throw new JsonParseException(parser,
+            "The raw resource is not a JSON object");
+      }
+      while(parser.nextToken() == JsonToken.FIELD_NAME)
+      {
+        String name = parser.getCurrentName();
+        parser.nextToken();
+        // Token offsets are relative to the start of the parsed bytes.
+        offsets.put(name,
+            offset + (int) parser.getTokenLocation().getByteOffset());
+        parser.skipChildren();
+      }
+    }
+    finally
+    {
+      parser.close();
+    }
+    valueOffsets = offsets;
+    parsedValues = JsonUtils.getJsonNodeFactory().objectNode();
+  }
+
+  /**
+   * Create a JSON parser for the bytes.
+   *
+   * @return A new JSON parser for the bytes.
+   * @throws IOException If an error occurs while creating the parser.
+   */
+  private JsonParser createParser() throws IOException
+  {
+    return JsonUtils.getObjectReader().getFactory().createParser(
+        bytes, offset, length);
+  }
+
+  /**
+   * Determines whether a generator writes JSON text, in which case the
+   * bytes may be written as a raw value.
+   *
+   * @param generator The generator.
+   * @return {@code true} if the generator writes JSON text.
+   */
+  private static boolean isJsonText(final JsonGenerator generator)
+  {
+    JsonGenerator g = generator;
+    while(g instanceof JsonGeneratorDelegate)
+    {
+      g = ((JsonGeneratorDelegate) g).getDelegate();
+    }
+    return g instanceof JsonGeneratorImpl;
+  }
+
+  /**
+   * A serializable string over UTF-8 encoded bytes that a UTF-8 JSON
+   * generator copies directly to its output buffer.
+   */
+  private static final class Utf8Value implements SerializableString
+  {
+    private final byte[] bytes;
+    private final int offset;
+    private final int length;
+    private SerializedString value;
+
+    /**
+     * Create a new value.
+     *
+     * @param bytes The byte array containing the value.
+     * @param offset The offset of the value in the array.
+     * @param length The length of the value.
+     */
+    Utf8Value(final byte[] bytes, final int offset, final int length)
+    {
+      this.bytes = bytes;
+      this.offset = offset;
+      this.length = length;
+    }
+
+    /**
+     * Retrieve the decoded value, which is only needed by generators that do
+     * not write UTF-8 bytes.
+     *
+     * @return The decoded value.
+     */
+    private SerializedString decoded()
+    {
+      if(value == null)
+      {
+        value = new SerializedString(
+            new String(bytes, offset, length, StandardCharsets.UTF_8));
+      }
+      return value;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String getValue()
+    {
+      return decoded().getValue();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int charLength()
+    {
+      return decoded().charLength();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public char[] asQuotedChars()
+    {
+      return decoded().asQuotedChars();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public byte[] asUnquotedUTF8()
+    {
+      if(offset == 0 && length == bytes.length)
+      {
+        return bytes;
+      }
+      return Arrays.copyOfRange(bytes, offset, offset + length);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public byte[] asQuotedUTF8()
+    {
+      return decoded().asQuotedUTF8();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int appendQuotedUTF8(final byte[] buffer, final int bufferOffset)
+    {
+      return decoded().appendQuotedUTF8(buffer, bufferOffset);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int appendQuoted(final char[] buffer, final int bufferOffset)
+    {
+      return decoded().appendQuoted(buffer, bufferOffset);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int appendUnquotedUTF8(final byte[] buffer, final int bufferOffset)
+    {
+      if(bufferOffset + length > buffer.length)
+      {
+        return -1;
+      }
+      System.arraycopy(bytes, offset, buffer, bufferOffset, length);
+      return length;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int appendUnquoted(final char[] buffer, final int bufferOffset)
+    {
+      return decoded().appendUnquoted(buffer, bufferOffset);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int writeQuotedUTF8(final OutputStream out) throws IOException
+    {
+      return decoded().writeQuotedUTF8(out);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int writeUnquotedUTF8(final OutputStream out) throws IOException
+    {
+      out.write(bytes, offset, length);
+      return length;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int putQuotedUTF8(final ByteBuffer buffer) throws IOException
+    {
+      return decoded().putQuotedUTF8(buffer);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int putUnquotedUTF8(final ByteBuffer buffer) throws IOException
+    {
+      if(length > buffer.remaining())
+      {
+        return -1;
+      }
+      buffer.put(bytes, offset, length);
+      return length;
+    }
+  }
+}
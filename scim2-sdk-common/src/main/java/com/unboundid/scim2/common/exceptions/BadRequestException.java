@@ -81,6 +81,12 @@ public class BadRequestException extends ScimException
    */
   public static final String INVALID_VERSION = "invalidVersion";
 
+  /**
+   * The SCIM detailed error keyword that indicates the specified pagination
+   * cursor is invalid, was issued for a different search, or has expired.
+   */
+  public static final String INVALID_CURSOR = "invalidCursor";
+
   /**
    * Create a new <code>BadRequestException</code> from the provided
    * information.
@@ -232,4 +238,16 @@ public class BadRequestException extends ScimException
   {
     return new BadRequestException(errorMessage, INVALID_VERSION);
   }
+
+  /**
+   * Factory method to create a new <code>BadRequestException</code> with the
+   * invalidCursor SCIM detailed error keyword.
+   *
+   * @param errorMessage  The error message for this SCIM exception.
+   * @return The new <code>BadRequestException</code>.
+   */
+  public static BadRequestException invalidCursor(final String errorMessage)
+  {
+    return new BadRequestException(errorMessage, INVALID_CURSOR);
+  }
 }
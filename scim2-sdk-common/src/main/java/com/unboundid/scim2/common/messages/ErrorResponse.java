@@ -79,6 +79,7 @@ public final class ErrorResponse extends BaseScimResource
    */
   public void setScimType(final String scimType)
   {
+    checkNotFrozen();
     this.scimType = scimType;
   }
 
@@ -97,6 +98,7 @@ public final class ErrorResponse extends BaseScimResource
    */
   public void setDetail(final String detail)
   {
+    checkNotFrozen();
     this.detail = detail;
   }
 
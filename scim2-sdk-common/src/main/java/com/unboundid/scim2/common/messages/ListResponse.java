@@ -20,12 +20,14 @@ package com.unboundid.scim2.common.messages;
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectReader;
 import com.fasterxml.jackson.databind.ObjectWriter;
 import com.unboundid.scim2.common.annotations.Schema;
 import com.unboundid.scim2.common.annotations.Attribute;
 import com.unboundid.scim2.common.BaseScimResource;
 import com.unboundid.scim2.common.utils.JsonUtils;
+import com.unboundid.scim2.common.utils.SchemaUtils;
 
 import java.io.IOException;
 import java.util.ArrayList;
@@ -67,6 +69,11 @@ public final class ListResponse<T> extends BaseScimResource
   @JsonProperty("itemsPerPage")
   private final Integer itemsPerPage;
 
+  @Attribute(description = "An opaque cursor that requests the next page " +
+      "of results")
+  @JsonProperty("nextCursor")
+  private final String nextCursor;
+
   /**
    * Create a new List Response.
    *
@@ -89,10 +96,21 @@ public final class ListResponse<T> extends BaseScimResource
       (Integer)properties.get("startIndex") : null;
     this.itemsPerPage =  properties.containsKey("itemsPerPage") ?
       (Integer)properties.get("itemsPerPage") : null;
+    this.nextCursor = (String)properties.get("nextCursor");
     if (properties.containsKey("schemas"))
     {
       this.setSchemaUrns((Collection<String>)properties.get("schemas"));
     }
+    for (Map.Entry<String, Object> property : props.entrySet())
+    {
+      // Keep extensions such as the approximate count of the results.
+      if (SchemaUtils.isUrn(property.getKey()) &&
+          property.getValue() instanceof Map)
+      {
+        getExtensionObjectNode().set(property.getKey(),
+            JsonUtils.<JsonNode>valueToNode(property.getValue()));
+      }
+    }
   }
 
   /**
@@ -110,10 +128,33 @@ public final class ListResponse<T> extends BaseScimResource
                       final List<T> resources,
                       final Integer startIndex,
                       final Integer itemsPerPage)
+  {
+    this(totalResults, resources, startIndex, itemsPerPage, null);
+  }
+
+  /**
+   * Create a new List Response.
+   *
+   * @param totalResults The total number of results returned.
+   * @param resources A multi-valued list of complex objects containing the
+   *                  requested resources
+   * @param startIndex The 1-based index of hte first result in the current
+   *                   set of list results
+   * @param itemsPerPage The number of resources returned in a list response
+   *                     page.
+   * @param nextCursor The opaque cursor that requests the next page of
+   *                   results or {@code null} if this is the last page.
+   */
+  public ListResponse(final int totalResults,
+                      final List<T> resources,
+                      final Integer startIndex,
+                      final Integer itemsPerPage,
+                      final String nextCursor)
   {
     this.totalResults = totalResults;
     this.startIndex   = startIndex;
     this.itemsPerPage = itemsPerPage;
+    this.nextCursor   = nextCursor;
 
     final ObjectReader reader = JsonUtils.getObjectReader();
     final ObjectWriter writer = JsonUtils.getObjectWriter();
@@ -141,6 +182,7 @@ public final class ListResponse<T> extends BaseScimResource
     this.resources = new ArrayList<T>(resources);
     this.startIndex = null;
     this.itemsPerPage = null;
+    this.nextCursor = null;
   }
 
   /**
@@ -189,6 +231,18 @@ public final class ListResponse<T> extends BaseScimResource
     return itemsPerPage;
   }
 
+  /**
+   * Retrieves the opaque cursor that requests the next page of results.
+   *
+   * @return The opaque cursor to pass as the cursor parameter of the next
+   * search request or {@code null} if cursor pagination is not used or this is
+   * the last page.
+   */
+  public String getNextCursor()
+  {
+    return nextCursor;
+  }
+
   /**
    * {@inheritDoc}
    */
@@ -237,6 +291,11 @@ public final class ListResponse<T> extends BaseScimResource
     {
       return false;
     }
+    if (nextCursor != null ? !nextCursor.equals(that.nextCursor) :
+        that.nextCursor != null)
+    {
+      return false;
+    }
 
     return true;
   }
@@ -252,6 +311,7 @@ public final class ListResponse<T> extends BaseScimResource
     result = 31 * result + resources.hashCode();
     result = 31 * result + (startIndex != null ? startIndex.hashCode() : 0);
     result = 31 * result + (itemsPerPage != null ? itemsPerPage.hashCode() : 0);
+    result = 31 * result + (nextCursor != null ? nextCursor.hashCode() : 0);
     return result;
   }
 
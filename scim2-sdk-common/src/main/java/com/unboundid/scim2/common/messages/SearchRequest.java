@@ -71,6 +71,12 @@ public final class SearchRequest extends BaseScimResource
   @JsonProperty
   private final Integer count;
 
+  @Attribute(description = "An opaque string returned as the nextCursor " +
+      "of a previous page that indicates the page of query results to " +
+      "return")
+  @JsonProperty
+  private final String cursor;
+
   /**
    * Create a new SearchRequest.
    *
@@ -87,6 +93,37 @@ public final class SearchRequest extends BaseScimResource
    * @param startIndex the 1-based index of the first query result.
    * @param count the desired maximum number of query results per page.
    */
+  public SearchRequest(final Set<String> attributes,
+                       final Set<String> excludedAttributes,
+                       final String filter,
+                       final String sortBy,
+                       final SortOrder sortOrder,
+                       final Integer startIndex,
+                       final Integer count)
+  {
+    this(attributes, excludedAttributes, filter, sortBy, sortOrder,
+        startIndex, count, null);
+  }
+
+  /**
+   * Create a new SearchRequest.
+   *
+   * @param attributes the list of strings indicating the names of resource
+   *                   attributes to return in the response overriding the set
+   *                   of attributes that would be returned by default.
+   * @param excludedAttributes the list of strings indicating the names of
+   *                           resource attributes to be removed from the
+   *                           default set of attributes to return.
+   * @param filter the filter string used to request a subset of resources.
+   * @param sortBy the string indicating the attribute whose value shall be used
+   *               to order the returned responses.
+   * @param sortOrder the order in which the sortBy parameter is applied.
+   * @param startIndex the 1-based index of the first query result.
+   * @param count the desired maximum number of query results per page.
+   * @param cursor the opaque cursor of the page of query results to return,
+   *               or an empty string to request the first page with cursor
+   *               pagination.
+   */
   @JsonCreator
   public SearchRequest(@JsonProperty(QUERY_PARAMETER_ATTRIBUTES)
                        final Set<String> attributes,
@@ -101,7 +138,9 @@ public final class SearchRequest extends BaseScimResource
                        @JsonProperty(QUERY_PARAMETER_PAGE_START_INDEX)
                        final Integer startIndex,
                        @JsonProperty(QUERY_PARAMETER_PAGE_SIZE)
-                       final Integer count)
+                       final Integer count,
+                       @JsonProperty(QUERY_PARAMETER_PAGE_CURSOR)
+                       final String cursor)
   {
     this.attributes = attributes;
     this.excludedAttributes = excludedAttributes;
@@ -110,6 +149,7 @@ public final class SearchRequest extends BaseScimResource
     this.sortOrder = sortOrder;
     this.startIndex = startIndex;
     this.count = count;
+    this.cursor = cursor;
   }
 
   /**
@@ -192,6 +232,18 @@ public final class SearchRequest extends BaseScimResource
     return count;
   }
 
+  /**
+   * Retrieves the opaque cursor of the page of query results to return.
+   *
+   * @return the opaque cursor of the page of query results to return, an
+   * empty string to request the first page with cursor pagination, or
+   * {@code null} if cursor pagination is not used.
+   */
+  public String getCursor()
+  {
+    return cursor;
+  }
+
   /**
    * {@inheritDoc}
    */
@@ -245,6 +297,10 @@ public final class SearchRequest extends BaseScimResource
     {
       return false;
     }
+    if (cursor != null ? !cursor.equals(that.cursor) : that.cursor != null)
+    {
+      return false;
+    }
 
     return true;
   }
@@ -264,6 +320,7 @@ public final class SearchRequest extends BaseScimResource
     result = 31 * result + (sortOrder != null ? sortOrder.hashCode() : 0);
     result = 31 * result + (startIndex != null ? startIndex.hashCode() : 0);
     result = 31 * result + (count != null ? count.hashCode() : 0);
+    result = 31 * result + (cursor != null ? cursor.hashCode() : 0);
     return result;
   }
 }
@@ -65,6 +65,7 @@ public class GroupResource extends BaseScimResource
    */
   public GroupResource setDisplayName(final String displayName)
   {
+    checkNotFrozen();
     this.displayName = displayName;
     return this;
   }
@@ -76,7 +77,7 @@ public class GroupResource extends BaseScimResource
    */
   public List<Member> getMembers()
   {
-    return members;
+    return frozenList(members);
   }
 
   /**
@@ -87,6 +88,7 @@ public class GroupResource extends BaseScimResource
    */
   public GroupResource setMembers(final List<Member> members)
   {
+    checkNotFrozen();
     this.members = members;
     return this;
   }
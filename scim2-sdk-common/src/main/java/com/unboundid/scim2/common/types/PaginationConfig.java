@@ -0,0 +1,248 @@
+/*
+ * Copyright 2021 Ping Identity Corporation
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPLv2 only)
+ * or the terms of the GNU Lesser General Public License (LGPLv2.1 only)
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ */
+
+package com.unboundid.scim2.common.types;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.unboundid.scim2.common.annotations.Attribute;
+
+/**
+ * A complex type that specifies Pagination configuration options.
+ */
+public class PaginationConfig
+{
+  /**
+   * The defaultPaginationMethod value for cursor-based pagination.
+   */
+  public static final String METHOD_CURSOR = "cursor";
+
+  /**
+   * The defaultPaginationMethod value for index-based pagination.
+   */
+  public static final String METHOD_INDEX = "index";
+
+  @Attribute(description = "Boolean value specifying whether cursor-based " +
+      "pagination is supported.",
+      mutability = AttributeDefinition.Mutability.READ_ONLY,
+      isRequired = true)
+  private final boolean cursor;
+
+  @Attribute(description = "Boolean value specifying whether index-based " +
+      "pagination is supported.",
+      mutability = AttributeDefinition.Mutability.READ_ONLY,
+      isRequired = true)
+  private final boolean index;
+
+  @Attribute(description = "The pagination method used when a search " +
+      "request does not specify one.",
+      mutability = AttributeDefinition.Mutability.READ_ONLY,
+      canonicalValues = { METHOD_CURSOR, METHOD_INDEX })
+  private final String defaultPaginationMethod;
+
+  @Attribute(description = "An integer value specifying the number of " +
+      "results returned per page when a search request does not specify a " +
+      "count.",
+      mutability = AttributeDefinition.Mutability.READ_ONLY)
+  private final Integer defaultPageSize;
+
+  @Attribute(description = "An integer value specifying the maximum " +
+      "number of results returned per page.",
+      mutability = AttributeDefinition.Mutability.READ_ONLY)
+  private final Integer maxPageSize;
+
+  @Attribute(description = "An integer value specifying the minimum " +
+      "number of seconds a cursor remains valid.",
+      mutability = AttributeDefinition.Mutability.READ_ONLY)
+  private final Integer cursorTimeout;
+
+  /**
+   * Create a new complex type that specifies Pagination configuration
+   * options.
+   *
+   * @param cursor Boolean value specifying whether cursor-based pagination is
+   *               supported.
+   * @param index Boolean value specifying whether index-based pagination is
+   *              supported.
+   * @param defaultPaginationMethod The pagination method used when a search
+   *                                request does not specify one, or
+   *                                {@code null} if not specified.
+   * @param defaultPageSize The number of results returned per page when a
+   *                        search request does not specify a count, or
+   *                        {@code null} if not specified.
+   * @param maxPageSize The maximum number of results returned per page, or
+   *                    {@code null} if not specified.
+   * @param cursorTimeout The minimum number of seconds a cursor remains valid,
+   *                      or {@code null} if cursors do not expire.
+   */
+  @JsonCreator
+  public PaginationConfig(
+      @JsonProperty(value = "cursor", required = true) final boolean cursor,
+      @JsonProperty(value = "index", required = true) final boolean index,
+      @JsonProperty(value = "defaultPaginationMethod")
+      final String defaultPaginationMethod,
+      @JsonProperty(value = "defaultPageSize") final Integer defaultPageSize,
+      @JsonProperty(value = "maxPageSize") final Integer maxPageSize,
+      @JsonProperty(value = "cursorTimeout") final Integer cursorTimeout)
+  {
+    this.cursor = cursor;
+    this.index = index;
+    this.defaultPaginationMethod = defaultPaginationMethod;
+    this.defaultPageSize = defaultPageSize;
+    this.maxPageSize = maxPageSize;
+    this.cursorTimeout = cursorTimeout;
+  }
+
+  /**
+   * Retrieves the boolean value specifying whether cursor-based pagination is
+   * supported.
+   *
+   * @return {@code true} if cursor-based pagination is supported or
+   * {@code false} otherwise.
+   */
+  public boolean isCursor()
+  {
+    return cursor;
+  }
+
+  /**
+   * Retrieves the boolean value specifying whether index-based pagination is
+   * supported.
+   *
+   * @return {@code true} if index-based pagination is supported or
+   * {@code false} otherwise.
+   */
+  public boolean isIndex()
+  {
+    return index;
+  }
+
+  /**
+   * Retrieves the pagination method used when a search request does not
+   * specify one.
+   *
+   * @return The pagination method used when a search request does not specify
+   * one, or {@code null} if not specified.
+   */
+  public String getDefaultPaginationMethod()
+  {
+    return defaultPaginationMethod;
+  }
+
+  /**
+   * Retrieves the number of results returned per page when a search request
+   * does not specify a count.
+   *
+   * @return The number of results returned per page when a search request
+   * does not specify a count, or {@code null} if not specified.
+   */
+  public Integer getDefaultPageSize()
+  {
+    return defaultPageSize;
+  }
+
+  /**
+   * Retrieves the maximum number of results returned per page.
+   *
+   * @return The maximum number of results returned per page, or {@code null}
+   * if not specified.
+   */
+  public Integer getMaxPageSize()
+  {
+    return maxPageSize;
+  }
+
+  /**
+   * Retrieves the minimum number of seconds a cursor remains valid.
+   *
+   * @return The minimum number of seconds a cursor remains valid, or
+   * {@code null} if cursors do not expire.
+   */
+  public Integer getCursorTimeout()
+  {
+    return cursorTimeout;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public boolean equals(final Object o)
+  {
+    if (this == o)
+    {
+      return true;
+    }
+    if (o == null || getClass() != o.getClass())
+    {
+      return false;
+    }
+
+    PaginationConfig that = (PaginationConfig) o;
+
+    if (cursor != that.cursor)
+    {
+      return false;
+    }
+    if (index != that.index)
+    {
+      return false;
+    }
+    if (defaultPaginationMethod != null ?
+        !defaultPaginationMethod.equals(that.defaultPaginationMethod) :
+        that.defaultPaginationMethod != null)
+    {
+      return false;
+    }
+    if (defaultPageSize != null ?
+        !defaultPageSize.equals(that.defaultPageSize) :
+        that.defaultPageSize != null)
+    {
+      return false;
+    }
+    if (maxPageSize != null ? !maxPageSize.equals(that.maxPageSize) :
+        that.maxPageSize != null)
+    {
+      return false;
+    }
+    if (cursorTimeout != null ? !cursorTimeout.equals(that.cursorTimeout) :
+        that.cursorTimeout != null)
+    {
+      return false;
+    }
+
+    return true;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public int hashCode()
+  {
+    int result = (cursor ? 1 : 0);
+    result = 31 * result + (index ? 1 : 0);
+    result = 31 * result + (defaultPaginationMethod != null ?
+        defaultPaginationMethod.hashCode() : 0);
+    result = 31 * result + (defaultPageSize != null ?
+        defaultPageSize.hashCode() : 0);
+    result = 31 * result + (maxPageSize != null ? maxPageSize.hashCode() : 0);
+    result = 31 * result + (cursorTimeout != null ?
+        cursorTimeout.hashCode() : 0);
+    return result;
+  }
+}
@@ -90,6 +90,40 @@ public class ServiceProviderConfigResource extends BaseScimResource
       multiValueClass = AuthenticationScheme.class)
   private final List<AuthenticationScheme> authenticationSchemes;
 
+  @Attribute(description = "A complex type that specifies Pagination " +
+      "configuration options.",
+      mutability = AttributeDefinition.Mutability.READ_ONLY)
+  private final PaginationConfig pagination;
+
+  /**
+   * Create a new ServiceProviderConfig.
+   *
+   * @param documentationUri An HTTP addressable URI pointing to the service
+   *                         provider's human consumable help documentation.
+   * @param patch A complex type that specifies PATCH configuration options.
+   * @param bulk A complex type that specifies Bulk configuration options.
+   * @param filter A complex type that specifies FILTER options.
+   * @param changePassword A complex type that specifies Change Password
+   *                       configuration options.
+   * @param sort A complex type that specifies Sort configuration options.
+   * @param etag A complex type that specifies Etag configuration options.
+   * @param authenticationSchemes A complex type that specifies supported
+   *                              Authentication Scheme properties.
+   */
+  public ServiceProviderConfigResource(
+      final String documentationUri,
+      final PatchConfig patch,
+      final BulkConfig bulk,
+      final FilterConfig filter,
+      final ChangePasswordConfig changePassword,
+      final SortConfig sort,
+      final ETagConfig etag,
+      final List<AuthenticationScheme> authenticationSchemes)
+  {
+    this(documentationUri, patch, bulk, filter, changePassword, sort, etag,
+        authenticationSchemes, null);
+  }
+
   /**
    * Create a new ServiceProviderConfig.
    *
@@ -104,6 +138,8 @@ public class ServiceProviderConfigResource extends BaseScimResource
    * @param etag A complex type that specifies Etag configuration options.
    * @param authenticationSchemes A complex type that specifies supported
    *                              Authentication Scheme properties.
+   * @param pagination A complex type that specifies Pagination configuration
+   *                   options or {@code null} if not specified.
    */
   @JsonCreator
   public ServiceProviderConfigResource(
@@ -117,7 +153,8 @@ public class ServiceProviderConfigResource extends BaseScimResource
       @JsonProperty(value = "sort", required = true) final SortConfig sort,
       @JsonProperty(value = "etag", required = true) final ETagConfig etag,
       @JsonProperty(value = "authenticationSchemes", required = true)
-      final List<AuthenticationScheme> authenticationSchemes)
+      final List<AuthenticationScheme> authenticationSchemes,
+      @JsonProperty(value = "pagination") final PaginationConfig pagination)
   {
     this.documentationUri = documentationUri;
     this.patch = patch;
@@ -128,6 +165,7 @@ public class ServiceProviderConfigResource extends BaseScimResource
     this.etag = etag;
     this.authenticationSchemes = authenticationSchemes == null ? null :
         Collections.unmodifiableList(authenticationSchemes);
+    this.pagination = pagination;
   }
 
   /**
@@ -216,6 +254,18 @@ public class ServiceProviderConfigResource extends BaseScimResource
     return authenticationSchemes;
   }
 
+  /**
+   * Retrieves the complex type that specifies Pagination configuration
+   * options.
+   *
+   * @return The complex type that specifies Pagination configuration options
+   * or {@code null} if not specified.
+   */
+  public PaginationConfig getPagination()
+  {
+    return pagination;
+  }
+
   /**
    * {@inheritDoc}
    */
@@ -272,6 +322,11 @@ public class ServiceProviderConfigResource extends BaseScimResource
     {
       return false;
     }
+    if (pagination != null ? !pagination.equals(that.pagination) :
+        that.pagination != null)
+    {
+      return false;
+    }
 
     return true;
   }
@@ -294,6 +349,7 @@ public class ServiceProviderConfigResource extends BaseScimResource
     result = 31 * result + (etag != null ? etag.hashCode() : 0);
     result = 31 * result + (authenticationSchemes != null ?
         authenticationSchemes.hashCode() : 0);
+    result = 31 * result + (pagination != null ? pagination.hashCode() : 0);
     return result;
   }
 }
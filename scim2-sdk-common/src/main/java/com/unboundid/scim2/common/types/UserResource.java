@@ -243,6 +243,7 @@ public class UserResource extends BaseScimResource
    */
   public UserResource setUserName(final String userName)
   {
+    checkNotFrozen();
     this.userName = userName;
     return this;
   }
@@ -265,6 +266,7 @@ public class UserResource extends BaseScimResource
    */
   public UserResource setName(final Name name)
   {
+    checkNotFrozen();
     this.name = name;
     return this;
   }
@@ -287,6 +289,7 @@ public class UserResource extends BaseScimResource
    */
   public UserResource setDisplayName(final String displayName)
   {
+    checkNotFrozen();
     this.displayName = displayName;
     return this;
   }
@@ -311,6 +314,7 @@ public class UserResource extends BaseScimResource
    */
   public UserResource setNickName(final String nickName)
   {
+    checkNotFrozen();
     this.nickName = nickName;
     return this;
   }
@@ -337,6 +341,7 @@ public class UserResource extends BaseScimResource
    */
   public UserResource setProfileUrl(final URI profileUrl)
   {
+    checkNotFrozen();
     this.profileUrl = profileUrl;
     return this;
   }
@@ -359,6 +364,7 @@ public class UserResource extends BaseScimResource
    */
   public UserResource setTitle(final String title)
   {
+    checkNotFrozen();
     this.title = title;
     return this;
   }
@@ -387,6 +393,7 @@ public class UserResource extends BaseScimResource
    */
   public UserResource setUserType(final String userType)
   {
+    checkNotFrozen();
     this.userType = userType;
     return this;
   }
@@ -413,6 +420,7 @@ public class UserResource extends BaseScimResource
    */
   public UserResource setPreferredLanguage(final String preferredLanguage)
   {
+    checkNotFrozen();
     this.preferredLanguage = preferredLanguage;
     return this;
   }
@@ -437,6 +445,7 @@ public class UserResource extends BaseScimResource
    */
   public UserResource setLocale(final String locale)
   {
+    checkNotFrozen();
     this.locale = locale;
     return this;
   }
@@ -462,6 +471,7 @@ public class UserResource extends BaseScimResource
    */
   public UserResource setTimezone(final String timezone)
   {
+    checkNotFrozen();
     this.timezone = timezone;
     return this;
   }
@@ -485,6 +495,7 @@ public class UserResource extends BaseScimResource
    */
   public UserResource setActive(final Boolean active)
   {
+    checkNotFrozen();
     this.active = active;
     return this;
   }
@@ -507,6 +518,7 @@ public class UserResource extends BaseScimResource
    */
   public UserResource setPassword(final String password)
   {
+    checkNotFrozen();
     this.password = password;
     return this;
   }
@@ -518,7 +530,7 @@ public class UserResource extends BaseScimResource
    */
   public List<Email> getEmails()
   {
-    return emails;
+    return frozenList(emails);
   }
 
   /**
@@ -529,6 +541,7 @@ public class UserResource extends BaseScimResource
    */
   public UserResource setEmails(final List<Email> emails)
   {
+    checkNotFrozen();
     this.emails = emails;
     return this;
   }
@@ -540,7 +553,7 @@ public class UserResource extends BaseScimResource
    */
   public List<PhoneNumber> getPhoneNumbers()
   {
-    return phoneNumbers;
+    return frozenList(phoneNumbers);
   }
 
   /**
@@ -551,6 +564,7 @@ public class UserResource extends BaseScimResource
    */
   public UserResource setPhoneNumbers(final List<PhoneNumber> phoneNumbers)
   {
+    checkNotFrozen();
     this.phoneNumbers = phoneNumbers;
     return this;
   }
@@ -562,7 +576,7 @@ public class UserResource extends BaseScimResource
    */
   public List<InstantMessagingAddress> getIms()
   {
-    return ims;
+    return frozenList(ims);
   }
 
   /**
@@ -573,6 +587,7 @@ public class UserResource extends BaseScimResource
    */
   public UserResource setIms(final List<InstantMessagingAddress> ims)
   {
+    checkNotFrozen();
     this.ims = ims;
     return this;
   }
@@ -584,7 +599,7 @@ public class UserResource extends BaseScimResource
    */
   public List<Photo> getPhotos()
   {
-    return photos;
+    return frozenList(photos);
   }
 
   /**
@@ -595,6 +610,7 @@ public class UserResource extends BaseScimResource
    */
   public UserResource setPhotos(final List<Photo> photos)
   {
+    checkNotFrozen();
     this.photos = photos;
     return this;
   }
@@ -606,7 +622,7 @@ public class UserResource extends BaseScimResource
    */
   public List<Address> getAddresses()
   {
-    return addresses;
+    return frozenList(addresses);
   }
 
   /**
@@ -617,6 +633,7 @@ public class UserResource extends BaseScimResource
    */
   public UserResource setAddresses(final List<Address> addresses)
   {
+    checkNotFrozen();
     this.addresses = addresses;
     return this;
   }
@@ -629,7 +646,7 @@ public class UserResource extends BaseScimResource
    */
   public List<Group> getGroups()
   {
-    return groups;
+    return frozenList(groups);
   }
 
   /**
@@ -641,6 +658,7 @@ public class UserResource extends BaseScimResource
    */
   public UserResource setGroups(final List<Group> groups)
   {
+    checkNotFrozen();
     this.groups = groups;
     return this;
   }
@@ -653,7 +671,7 @@ public class UserResource extends BaseScimResource
    */
   public List<Entitlement> getEntitlements()
   {
-    return entitlements;
+    return frozenList(entitlements);
   }
 
   /**
@@ -665,6 +683,7 @@ public class UserResource extends BaseScimResource
    */
   public UserResource setEntitlements(final List<Entitlement> entitlements)
   {
+    checkNotFrozen();
     this.entitlements = entitlements;
     return this;
   }
@@ -677,7 +696,7 @@ public class UserResource extends BaseScimResource
    */
   public List<Role> getRoles()
   {
-    return roles;
+    return frozenList(roles);
   }
 
   /**
@@ -689,6 +708,7 @@ public class UserResource extends BaseScimResource
    */
   public UserResource setRoles(final List<Role> roles)
   {
+    checkNotFrozen();
     this.roles = roles;
     return this;
   }
@@ -700,7 +720,7 @@ public class UserResource extends BaseScimResource
    */
   public List<X509Certificate> getX509Certificates()
   {
-    return x509Certificates;
+    return frozenList(x509Certificates);
   }
 
   /**
@@ -712,6 +732,7 @@ public class UserResource extends BaseScimResource
   public UserResource setX509Certificates(
       final List<X509Certificate> x509Certificates)
   {
+    checkNotFrozen();
     this.x509Certificates = x509Certificates;
     return this;
   }
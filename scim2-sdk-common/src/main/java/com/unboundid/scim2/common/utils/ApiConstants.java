@@ -60,6 +60,16 @@ public class ApiConstants
    */
   public static final String MEDIA_TYPE_SCIM = "application/scim+json";
 
+  /**
+   * The media type string for SCIM messages encoded as CBOR.
+   */
+  public static final String MEDIA_TYPE_SCIM_CBOR = "application/scim+cbor";
+
+  /**
+   * The media type string for SCIM messages encoded as Smile.
+   */
+  public static final String MEDIA_TYPE_SCIM_SMILE = "application/scim+smile";
+
   /**
    * The HTTP query parameter used in a URI to exclude specific SCIM attributes.
    */
@@ -97,5 +107,18 @@ public class ApiConstants
    * a page of results.
    */
   public static final String QUERY_PARAMETER_PAGE_SIZE = "count";
+
+  /**
+   * The HTTP query parameter used in a URI to specify the opaque cursor of
+   * the page of results to return.
+   */
+  public static final String QUERY_PARAMETER_PAGE_CURSOR = "cursor";
+
+  /**
+   * The URN of the list response extension whose boolean "approximate"
+   * attribute indicates that the totalResults is an estimate.
+   */
+  public static final String COUNT_EXTENSION_SCHEMA =
+      "urn:pingidentity:scim:api:messages:2.0:Count";
 }
 
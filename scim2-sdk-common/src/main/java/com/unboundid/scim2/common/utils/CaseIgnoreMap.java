@@ -187,6 +187,30 @@ public class CaseIgnoreMap implements Map<String, JsonNode>
     }
   }
 
+  /**
+   * Canonical keys shared by all maps so that the attribute names of
+   * resources that are kept in memory are not duplicated.
+   */
+  private static final SymbolTable<CaseIgnoreKey> KEYS =
+      new SymbolTable<CaseIgnoreKey>(2048)
+      {
+        /**
+         * {@inheritDoc}
+         */
+        protected String getString(final CaseIgnoreKey symbol)
+        {
+          return symbol.getKey();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        protected CaseIgnoreKey create(final String string)
+        {
+          return new CaseIgnoreKey(string);
+        }
+      };
+
   private final LinkedHashMap<CaseIgnoreKey, JsonNode> attributes;
 
   /**
@@ -253,7 +277,7 @@ public class CaseIgnoreMap implements Map<String, JsonNode>
    */
   public JsonNode put(final String key, final JsonNode value)
   {
-    return attributes.put(new CaseIgnoreKey(key), value);
+    return attributes.put(KEYS.get(key), value);
   }
 
   /**
@@ -271,7 +295,7 @@ public class CaseIgnoreMap implements Map<String, JsonNode>
   {
     for (Entry<? extends String, ? extends JsonNode> entry : m.entrySet())
     {
-      attributes.put(new CaseIgnoreKey(entry.getKey()), entry.getValue());
+      attributes.put(KEYS.get(entry.getKey()), entry.getValue());
     }
   }
 
@@ -41,7 +41,7 @@ public class DateDeserializer extends JsonDeserializer<Date>
     String dateStr = jp.getText();
     try
     {
-      return DateTimeUtils.parse(dateStr).getTime();
+      return new Date(DateTimeUtils.parseEpochMillis(dateStr));
     }
     catch (IllegalArgumentException e)
     {
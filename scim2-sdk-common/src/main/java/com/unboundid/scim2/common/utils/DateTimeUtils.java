@@ -19,16 +19,95 @@ package com.unboundid.scim2.common.utils;
 import javax.xml.bind.DatatypeConverter;
 import java.util.Calendar;
 import java.util.Date;
+import java.util.GregorianCalendar;
 import java.util.TimeZone;
 
 /**
  * Utility methods for handling SCIM 2 DateTime values. The SCIM 2 DateTime
  * type is defined as a valid xsd:dateTime in RFC 7643, section 2.3.5.
+ * <p>
+ * Values in the form produced by SCIM service providers, with a four digit
+ * year, optional fractional seconds and an explicit time zone, are parsed and
+ * formatted directly using proleptic Gregorian arithmetic like java.time,
+ * without intermediate {@link Calendar} objects. Any other value, as well as
+ * instants before the Gregorian calendar cutover, is handled by
+ * {@link DatatypeConverter} so results are always identical to it.
  */
 public final class DateTimeUtils
 {
   private static final TimeZone DEFAULT_TIME_ZONE = TimeZone.getTimeZone("UTC");
 
+  /**
+   * The cutover from the Julian to the Gregorian calendar used by default by
+   * {@link GregorianCalendar}.
+   */
+  private static final long GREGORIAN_CUTOVER_MILLIS = -12219292800000L;
+
+  /**
+   * The first instant of the year 10000.
+   */
+  private static final long YEAR_10000_MILLIS = 253402300800000L;
+
+  /**
+   * The Gregorian change date of calendars produced by
+   * {@link DatatypeConverter#parseDateTime(String)}.
+   */
+  private static final Date PURE_GREGORIAN_CHANGE = new Date(Long.MIN_VALUE);
+
+  private static final long MILLIS_PER_DAY = 86400000L;
+
+  private static final int SECONDS_PER_DAY = 86400;
+
+  /**
+   * The returned value when a string is not in the directly supported form.
+   */
+  private static final long UNSUPPORTED = Long.MIN_VALUE;
+
+  /**
+   * The maximum absolute time zone offset in minutes.
+   */
+  private static final int MAX_OFFSET_MINUTES = 14 * 60;
+
+  /**
+   * The number of recently formatted UTC instants to cache.
+   */
+  private static final int FORMAT_CACHE_SIZE = 256;
+
+  /**
+   * A recently formatted UTC instant.
+   */
+  private static final class FormattedInstant
+  {
+    private final long epochMillis;
+    private final String value;
+
+    /**
+     * Create a new formatted instant.
+     *
+     * @param epochMillis The instant in milliseconds since the epoch.
+     * @param value The formatted value.
+     */
+    private FormattedInstant(final long epochMillis, final String value)
+    {
+      this.epochMillis = epochMillis;
+      this.value = value;
+    }
+  }
+
+  /**
+   * Recently formatted UTC instants, indexed by a hash of the instant. Entries
+   * are immutable so racy updates only lose cached values.
+   */
+  private static final FormattedInstant[] FORMAT_CACHE =
+      new FormattedInstant[FORMAT_CACHE_SIZE];
+
+  /**
+   * Time zones for offsets in minutes used by parsed calendars, indexed by
+   * the offset plus {@link #MAX_OFFSET_MINUTES}.
+   */
+  private static final TimeZone[] OFFSET_TIME_ZONES =
+      new TimeZone[2 * MAX_OFFSET_MINUTES + 1];
+
   /**
    * Formats a {@link Date} value as a SCIM 2 DateTime string.
    *
@@ -37,7 +116,7 @@ public final class DateTimeUtils
    */
   public static String format(final Date date)
   {
-    return format(date, DEFAULT_TIME_ZONE);
+    return format(date.getTime());
   }
 
   /**
@@ -49,9 +128,7 @@ public final class DateTimeUtils
    */
   public static String format(final Date date, final TimeZone timeZone)
   {
-    Calendar calendar = Calendar.getInstance(timeZone);
-    calendar.setTime(date);
-    return format(calendar);
+    return format(date.getTime(), timeZone);
   }
 
   /**
@@ -62,9 +139,102 @@ public final class DateTimeUtils
    */
   public static String format(final Calendar calendar)
   {
+    long epochMillis = calendar.getTimeInMillis();
+    if (calendar instanceof GregorianCalendar &&
+        ((GregorianCalendar) calendar).getGregorianChange().getTime() <=
+            GREGORIAN_CUTOVER_MILLIS)
+    {
+      StringBuilder builder = new StringBuilder(29);
+      if (formatDirect(epochMillis, calendar.getTimeZone(), builder))
+      {
+        return builder.toString();
+      }
+    }
     return DatatypeConverter.printDateTime(calendar);
   }
 
+  /**
+   * Formats an instant as a SCIM 2 DateTime string in UTC. Recently formatted
+   * instants are cached, since many resources share the same timestamps.
+   *
+   * @param epochMillis The instant in milliseconds since the epoch.
+   * @return The value as a SCIM 2 DateTime string.
+   */
+  public static String format(final long epochMillis)
+  {
+    int index = (int) (epochMillis ^ (epochMillis >>> 32)) * 0x9E3779B9 >>> 24;
+    FormattedInstant cached = FORMAT_CACHE[index];
+    if (cached != null && cached.epochMillis == epochMillis)
+    {
+      return cached.value;
+    }
+    String value = format(epochMillis, DEFAULT_TIME_ZONE);
+    FORMAT_CACHE[index] = new FormattedInstant(epochMillis, value);
+    return value;
+  }
+
+  /**
+   * Formats an instant as a SCIM 2 DateTime string.
+   *
+   * @param epochMillis The instant in milliseconds since the epoch.
+   * @param timeZone The time zone.
+   * @return The value as a SCIM 2 DateTime string.
+   */
+  public static String format(final long epochMillis, final TimeZone timeZone)
+  {
+    StringBuilder builder = new StringBuilder(29);
+    format(epochMillis, timeZone, builder);
+    return builder.toString();
+  }
+
+  /**
+   * Formats an instant as a SCIM 2 DateTime string and appends it to a
+   * string builder.
+   *
+   * @param epochMillis The instant in milliseconds since the epoch.
+   * @param timeZone The time zone.
+   * @param builder The string builder to append to.
+   */
+  public static void format(final long epochMillis, final TimeZone timeZone,
+                            final StringBuilder builder)
+  {
+    if (!formatDirect(epochMillis, timeZone, builder))
+    {
+      Calendar calendar = Calendar.getInstance(timeZone);
+      calendar.setTimeInMillis(epochMillis);
+      builder.append(DatatypeConverter.printDateTime(calendar));
+    }
+  }
+
+  /**
+   * Formats an instant with nanosecond precision as a SCIM 2 DateTime string
+   * in UTC. Fractional seconds are written without trailing zeros.
+   *
+   * @param epochNanos The instant in nanoseconds since the epoch.
+   * @return The value as a SCIM 2 DateTime string.
+   */
+  public static String formatEpochNanos(final long epochNanos)
+  {
+    long epochSeconds = Math.floorDiv(epochNanos, 1000000000L);
+    int nanos = (int) Math.floorMod(epochNanos, 1000000000L);
+    StringBuilder builder = new StringBuilder(35);
+    // The earliest nanosecond instant is well after the Gregorian cutover.
+    appendDateTime(epochSeconds * 1000L, builder);
+    if (nanos != 0)
+    {
+      int digits = 9;
+      while (nanos % 10 == 0)
+      {
+        nanos /= 10;
+        digits--;
+      }
+      builder.append('.');
+      appendDigits(nanos, digits, builder);
+    }
+    builder.append('Z');
+    return builder.toString();
+  }
+
   /**
    * Converts a SCIM 2 DateTime string to a {@link Calendar}.
    *
@@ -76,6 +246,402 @@ public final class DateTimeUtils
   public static Calendar parse(final String dateStr)
       throws IllegalArgumentException
   {
-    return DatatypeConverter.parseDateTime(dateStr);
+    long epochSeconds = parseEpochSeconds(dateStr);
+    if (epochSeconds == UNSUPPORTED)
+    {
+      return DatatypeConverter.parseDateTime(dateStr);
+    }
+
+    GregorianCalendar calendar = new GregorianCalendar(
+        offsetTimeZone(parseOffsetMinutes(dateStr)));
+    calendar.setGregorianChange(PURE_GREGORIAN_CHANGE);
+    calendar.setTimeInMillis(
+        epochSeconds * 1000L + parseNanos(dateStr) / 1000000);
+    return calendar;
+  }
+
+  /**
+   * Converts a SCIM 2 DateTime string to an instant in milliseconds since the
+   * epoch. Fractional seconds beyond milliseconds are truncated.
+   *
+   * @param dateStr A SCIM 2 DateTime string.
+   * @return The instant in milliseconds since the epoch.
+   * @throws IllegalArgumentException if the string cannot be parsed as an
+   * xsd:dateTime value.
+   */
+  public static long parseEpochMillis(final CharSequence dateStr)
+      throws IllegalArgumentException
+  {
+    long epochSeconds = parseEpochSeconds(dateStr);
+    if (epochSeconds == UNSUPPORTED)
+    {
+      return DatatypeConverter.parseDateTime(
+          dateStr.toString()).getTimeInMillis();
+    }
+    return epochSeconds * 1000L + parseNanos(dateStr) / 1000000;
+  }
+
+  /**
+   * Converts a SCIM 2 DateTime string to an instant in nanoseconds since the
+   * epoch. Fractional seconds beyond nanoseconds are truncated. Values that
+   * are not in the directly supported form keep millisecond precision only.
+   *
+   * @param dateStr A SCIM 2 DateTime string.
+   * @return The instant in nanoseconds since the epoch.
+   * @throws IllegalArgumentException if the string cannot be parsed as an
+   * xsd:dateTime value or the instant cannot be represented in nanoseconds.
+   */
+  public static long parseEpochNanos(final CharSequence dateStr)
+      throws IllegalArgumentException
+  {
+    long epochSeconds = parseEpochSeconds(dateStr);
+    try
+    {
+      if (epochSeconds == UNSUPPORTED)
+      {
+        return Math.multiplyExact(DatatypeConverter.parseDateTime(
+            dateStr.toString()).getTimeInMillis(), 1000000L);
+      }
+      return Math.addExact(Math.multiplyExact(epochSeconds, 1000000000L),
+          parseNanos(dateStr));
+    }
+    catch (ArithmeticException e)
+    {
+      throw new IllegalArgumentException("'" + dateStr +
+          "' cannot be represented in nanoseconds since the epoch", e);
+    }
+  }
+
+  /**
+   * Formats an instant without a Calendar if the result is sure to be
+   * identical to {@link DatatypeConverter#printDateTime(Calendar)}.
+   *
+   * @param epochMillis The instant in milliseconds since the epoch.
+   * @param timeZone The time zone.
+   * @param builder The string builder to append to.
+   * @return {@code true} if the instant was formatted or {@code false} if
+   * nothing was appended.
+   */
+  private static boolean formatDirect(final long epochMillis,
+                                      final TimeZone timeZone,
+                                      final StringBuilder builder)
+  {
+    int offsetMillis = timeZone.getOffset(epochMillis);
+    long localMillis = epochMillis + offsetMillis;
+    if (epochMillis < GREGORIAN_CUTOVER_MILLIS ||
+        localMillis < GREGORIAN_CUTOVER_MILLIS ||
+        localMillis >= YEAR_10000_MILLIS ||
+        offsetMillis % 60000 != 0)
+    {
+      return false;
+    }
+
+    appendDateTime(localMillis, builder);
+    int millis = (int) Math.floorMod(localMillis, 1000L);
+    if (millis != 0)
+    {
+      builder.append('.');
+      appendDigits(millis, 3, builder);
+    }
+    if (offsetMillis == 0)
+    {
+      builder.append('Z');
+    }
+    else
+    {
+      int offsetMinutes = offsetMillis / 60000;
+      builder.append(offsetMinutes < 0 ? '-' : '+');
+      offsetMinutes = Math.abs(offsetMinutes);
+      appendDigits(offsetMinutes / 60, 2, builder);
+      builder.append(':');
+      appendDigits(offsetMinutes % 60, 2, builder);
+    }
+    return true;
+  }
+
+  /**
+   * Append the date and time up to whole seconds of a local instant in the
+   * proleptic Gregorian calendar.
+   *
+   * @param localMillis The local instant in milliseconds since the epoch.
+   * @param builder The string builder to append to.
+   */
+  private static void appendDateTime(final long localMillis,
+                                     final StringBuilder builder)
+  {
+    long days = Math.floorDiv(localMillis, MILLIS_PER_DAY);
+    int secondOfDay = (int) (Math.floorMod(localMillis, MILLIS_PER_DAY) / 1000);
+
+    // Convert days since the epoch to a civil date.
+    long z = days + 719468;
+    long era = (z >= 0 ? z : z - 146096) / 146097;
+    long dayOfEra = z - era * 146097;
+    long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 -
+        dayOfEra / 146096) / 365;
+    long dayOfYear = dayOfEra -
+        (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+    long shiftedMonth = (5 * dayOfYear + 2) / 153;
+    int day = (int) (dayOfYear - (153 * shiftedMonth + 2) / 5 + 1);
+    int month = (int) (shiftedMonth < 10 ? shiftedMonth + 3 : shiftedMonth - 9);
+    long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+
+    appendDigits((int) year, 4, builder);
+    builder.append('-');
+    appendDigits(month, 2, builder);
+    builder.append('-');
+    appendDigits(day, 2, builder);
+    builder.append('T');
+    appendDigits(secondOfDay / 3600, 2, builder);
+    builder.append(':');
+    appendDigits(secondOfDay / 60 % 60, 2, builder);
+    builder.append(':');
+    appendDigits(secondOfDay % 60, 2, builder);
+  }
+
+  /**
+   * Append a non-negative value padded with leading zeros.
+   *
+   * @param value The value.
+   * @param digits The minimum number of digits.
+   * @param builder The string builder to append to.
+   */
+  private static void appendDigits(final int value, final int digits,
+                                   final StringBuilder builder)
+  {
+    for (int divisor = pow10(digits - 1); divisor > 0; divisor /= 10)
+    {
+      builder.append((char) ('0' + value / divisor % 10));
+    }
+  }
+
+  /**
+   * Compute a power of ten.
+   *
+   * @param exponent The non-negative exponent.
+   * @return Ten raised to the exponent.
+   */
+  private static int pow10(final int exponent)
+  {
+    int result = 1;
+    for (int i = 0; i < exponent; i++)
+    {
+      result *= 10;
+    }
+    return result;
+  }
+
+  /**
+   * Parse the whole seconds of a DateTime string in the directly supported
+   * form: yyyy-MM-ddTHH:mm:ss with an optional fraction and a required time
+   * zone of 'Z' or (+|-)hh:mm.
+   *
+   * @param s The DateTime string.
+   * @return The instant in seconds since the epoch or {@link #UNSUPPORTED} if
+   * the string is not in the directly supported form.
+   */
+  private static long parseEpochSeconds(final CharSequence s)
+  {
+    if (s.length() < 20 || s.charAt(4) != '-' || s.charAt(7) != '-' ||
+        s.charAt(10) != 'T' || s.charAt(13) != ':' || s.charAt(16) != ':')
+    {
+      return UNSUPPORTED;
+    }
+
+    int year = parseDigits(s, 0, 4);
+    int month = parseDigits(s, 5, 2);
+    int day = parseDigits(s, 8, 2);
+    int hour = parseDigits(s, 11, 2);
+    int minute = parseDigits(s, 14, 2);
+    int second = parseDigits(s, 17, 2);
+    if (year < 1 || month < 1 || month > 12 || day < 1 ||
+        day > daysInMonth(year, month) || hour < 0 || hour > 23 ||
+        minute < 0 || minute > 59 || second < 0 || second > 59)
+    {
+      return UNSUPPORTED;
+    }
+
+    int offsetMinutes = parseOffsetMinutes(s);
+    if (offsetMinutes == Integer.MIN_VALUE)
+    {
+      return UNSUPPORTED;
+    }
+
+    return daysFromCivil(year, month, day) * SECONDS_PER_DAY +
+        hour * 3600 + minute * 60 + second - offsetMinutes * 60L;
+  }
+
+  /**
+   * Parse the fractional seconds of a DateTime string in the directly
+   * supported form.
+   *
+   * @param s The DateTime string.
+   * @return The fractional seconds in nanoseconds.
+   */
+  private static int parseNanos(final CharSequence s)
+  {
+    int nanos = 0;
+    int multiplier = 100000000;
+    if (s.charAt(19) == '.')
+    {
+      for (int i = 20; i < s.length() && isDigit(s.charAt(i)); i++)
+      {
+        nanos += (s.charAt(i) - '0') * multiplier;
+        multiplier /= 10;
+      }
+    }
+    return nanos;
+  }
+
+  /**
+   * Parse the time zone offset of a DateTime string, validating the optional
+   * fraction that precedes it.
+   *
+   * @param s The DateTime string.
+   * @return The time zone offset in minutes or {@link Integer#MIN_VALUE} if
+   * the fraction or time zone is not in the directly supported form.
+   */
+  private static int parseOffsetMinutes(final CharSequence s)
+  {
+    int length = s.length();
+    int zoneStart = 19;
+    if (s.charAt(zoneStart) == '.')
+    {
+      zoneStart++;
+      while (zoneStart < length && isDigit(s.charAt(zoneStart)))
+      {
+        zoneStart++;
+      }
+      if (zoneStart == 20)
+      {
+        return Integer.MIN_VALUE;
+      }
+    }
+
+    if (zoneStart == length - 1 && s.charAt(zoneStart) == 'Z')
+    {
+      return 0;
+    }
+    if (zoneStart != length - 6 || s.charAt(zoneStart + 3) != ':')
+    {
+      return Integer.MIN_VALUE;
+    }
+    char sign = s.charAt(zoneStart);
+    int hours = parseDigits(s, zoneStart + 1, 2);
+    int minutes = parseDigits(s, zoneStart + 4, 2);
+    if ((sign != '+' && sign != '-') || hours < 0 || minutes < 0 ||
+        minutes > 59 || hours * 60 + minutes > MAX_OFFSET_MINUTES)
+    {
+      return Integer.MIN_VALUE;
+    }
+    int offsetMinutes = hours * 60 + minutes;
+    return sign == '-' ? -offsetMinutes : offsetMinutes;
+  }
+
+  /**
+   * Parse a fixed number of decimal digits.
+   *
+   * @param s The string to parse.
+   * @param start The index of the first digit.
+   * @param digits The number of digits.
+   * @return The parsed value or -1 if any character is not a digit.
+   */
+  private static int parseDigits(final CharSequence s, final int start,
+                                 final int digits)
+  {
+    int value = 0;
+    for (int i = start; i < start + digits; i++)
+    {
+      char c = s.charAt(i);
+      if (!isDigit(c))
+      {
+        return -1;
+      }
+      value = value * 10 + (c - '0');
+    }
+    return value;
+  }
+
+  /**
+   * Determine whether a character is an ASCII decimal digit.
+   *
+   * @param c The character.
+   * @return {@code true} if the character is an ASCII decimal digit.
+   */
+  private static boolean isDigit(final char c)
+  {
+    return c >= '0' && c <= '9';
+  }
+
+  /**
+   * Determine the number of days in a month of the proleptic Gregorian
+   * calendar.
+   *
+   * @param year The year.
+   * @param month The month from 1 to 12.
+   * @return The number of days in the month.
+   */
+  private static int daysInMonth(final int year, final int month)
+  {
+    if (month == 2)
+    {
+      boolean leap = (year % 4 == 0 && year % 100 != 0) || year % 400 == 0;
+      return leap ? 29 : 28;
+    }
+    return month == 4 || month == 6 || month == 9 || month == 11 ? 30 : 31;
+  }
+
+  /**
+   * Compute the number of days since the epoch of a date in the proleptic
+   * Gregorian calendar.
+   *
+   * @param year The year.
+   * @param month The month from 1 to 12.
+   * @param day The day of the month.
+   * @return The number of days since 1970-01-01.
+   */
+  private static long daysFromCivil(final int year, final int month,
+                                    final int day)
+  {
+    long y = month <= 2 ? year - 1 : year;
+    long era = (y >= 0 ? y : y - 399) / 400;
+    long yearOfEra = y - era * 400;
+    long dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 +
+        day - 1;
+    long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 +
+        dayOfYear;
+    return era * 146097 + dayOfEra - 719468;
+  }
+
+  /**
+   * Retrieve a time zone for a fixed offset with the same ID as the time zone
+   * of calendars produced by {@link DatatypeConverter#parseDateTime(String)}.
+   *
+   * @param offsetMinutes The time zone offset in minutes.
+   * @return A new time zone instance for the offset.
+   */
+  private static TimeZone offsetTimeZone(final int offsetMinutes)
+  {
+    int index = offsetMinutes + MAX_OFFSET_MINUTES;
+    TimeZone timeZone = OFFSET_TIME_ZONES[index];
+    if (timeZone == null)
+    {
+      int absoluteMinutes = Math.abs(offsetMinutes);
+      int hours = absoluteMinutes / 60;
+      int minutes = absoluteMinutes % 60;
+      StringBuilder id = new StringBuilder(8);
+      id.append("GMT").append(offsetMinutes < 0 ? '-' : '+').append(hours);
+      if (minutes != 0)
+      {
+        if (minutes < 10)
+        {
+          id.append('0');
+        }
+        id.append(minutes);
+      }
+      timeZone = TimeZone.getTimeZone(id.toString());
+      OFFSET_TIME_ZONES[index] = timeZone;
+    }
+    // Time zones are mutable so each calendar gets its own copy.
+    return (TimeZone) timeZone.clone();
   }
 }
@@ -26,11 +26,17 @@ import com.unboundid.scim2.common.filters.Filter;
 import com.unboundid.scim2.common.messages.PatchOperation;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Level;
 
 
@@ -40,6 +46,99 @@ import java.util.logging.Level;
  */
 public class JsonDiff
 {
+  /**
+   * A source and target node pair to diff using
+   * {@link #diffAll(Iterable, boolean, int, boolean, DiffResultHandler)}.
+   */
+  public static final class Pair
+  {
+    private final ObjectNode source;
+    private final ObjectNode target;
+
+    /**
+     * Create a new source and target node pair.
+     *
+     * @param source The source node for which the set of modifications should
+     *               be generated.
+     * @param target The target node, which is what the source node should
+     *               look like if the returned modifications are applied.
+     */
+    public Pair(final ObjectNode source, final ObjectNode target)
+    {
+      this.source = source;
+      this.target = target;
+    }
+
+    /**
+     * Retrieves the source node.
+     *
+     * @return The source node.
+     */
+    public ObjectNode getSource()
+    {
+      return source;
+    }
+
+    /**
+     * Retrieves the target node.
+     *
+     * @return The target node.
+     */
+    public ObjectNode getTarget()
+    {
+      return target;
+    }
+  }
+
+  /**
+   * Interface to receive the results of a bulk diff. Results are always
+   * delivered on the thread that invoked
+   * {@link #diffAll(Iterable, boolean, int, boolean, DiffResultHandler)}, so
+   * implementations do not need to be thread-safe.
+   */
+  public interface DiffResultHandler
+  {
+    /**
+     * Handle the diff of a single pair.
+     *
+     * @param index The zero-based position of the pair in the input.
+     * @param pair The pair that was diffed.
+     * @param operations The patch operations that can be applied to the
+     *                   source node in order to make it match the target
+     *                   node.
+     */
+    void handle(long index, Pair pair, List<PatchOperation> operations);
+  }
+
+  /**
+   * The result of diffing a single pair on a worker thread.
+   */
+  private static final class DiffResult
+  {
+    private final long index;
+    private final Pair pair;
+    private final List<PatchOperation> operations;
+    private final Throwable failure;
+
+    /**
+     * Create a new diff result.
+     *
+     * @param index The position of the pair in the input.
+     * @param pair The pair that was diffed.
+     * @param operations The operations or {@code null} if the diff failed.
+     * @param failure The failure or {@code null} if the diff succeeded.
+     */
+    private DiffResult(final long index, final Pair pair,
+                       final List<PatchOperation> operations,
+                       final Throwable failure)
+    {
+      this.index = index;
+      this.pair = pair;
+      this.operations = operations;
+      this.failure = failure;
+    }
+  }
+
   /**
    * Generates a list of patch operations that can be applied to the source
    * node in order to make it match the target node.
@@ -73,6 +172,156 @@ public class JsonDiff
   }
 
 
+  /**
+   * Generates the patch operations for many source and target node pairs
+   * using the common fork-join pool. See
+   * {@link #diffAll(Iterable, boolean, int, boolean, DiffResultHandler,
+   * Executor)} for details. The common pool is shared with the rest of the
+   * JVM, so fewer pairs than the parallelism may be diffed concurrently
+   * when its threads are busy or when it has fewer threads.
+   *
+   * @param pairs The source and target node pairs to diff.
+   * @param removeMissing Whether to remove fields that are missing in the
+   *                      target nodes.
+   * @param parallelism The maximum number of pairs to diff concurrently.
+   * @param preserveOrder {@code true} to deliver the results in input order
+   *                      or {@code false} to deliver them as soon as they
+   *                      are completed.
+   * @param handler The handler that will receive the results on the calling
+   *                thread.
+   * @throws InterruptedException If the calling thread is interrupted while
+   *                              waiting for results.
+   */
+  public void diffAll(final Iterable<Pair> pairs,
+                      final boolean removeMissing,
+                      final int parallelism,
+                      final boolean preserveOrder,
+                      final DiffResultHandler handler)
+      throws InterruptedException
+  {
+    diffAll(pairs, removeMissing, parallelism, preserveOrder, handler,
+        ForkJoinPool.commonPool());
+  }
+
+
+  /**
+   * Generates the patch operations for many source and target node pairs
+   * using the provided executor. The pairs are read lazily from the
+   * provided iterable. At most {@code parallelism} pairs are submitted to
+   * the executor and not yet completed at any time, and at most
+   * {@code 2 * parallelism} pairs are in flight (submitted but not yet
+   * delivered to the handler), which leaves room for results that complete
+   * out of order to wait for the earlier ones. Memory usage therefore
+   * remains bounded regardless of the number of pairs. If a
+   * diff fails, including with an {@code Error}, or the handler throws an
+   * exception, the pairs that have not been started yet are skipped and the
+   * failure is thrown on the calling thread.
+   *
+   * @param pairs The source and target node pairs to diff.
+   * @param removeMissing Whether to remove fields that are missing in the
+   *                      target nodes.
+   * @param parallelism The maximum number of pairs to diff concurrently.
+   * @param preserveOrder {@code true} to deliver the results in input order
+   *                      or {@code false} to deliver them as soon as they
+   *                      are completed.
+   * @param handler The handler that will receive the results on the calling
+   *                thread.
+   * @param executor The executor that will diff the pairs. It is not shut
+   *                 down by this method.
+   * @throws InterruptedException If the calling thread is interrupted while
+   *                              waiting for results.
+   */
+  public void diffAll(final Iterable<Pair> pairs,
+                      final boolean removeMissing,
+                      final int parallelism,
+                      final boolean preserveOrder,
+                      final DiffResultHandler handler,
+                      final Executor executor)
+      throws InterruptedException
+  {
+    if (parallelism < 1)
+    {
+      throw new IllegalArgumentException(
+          "parallelism must be greater than 0");
+    }
+
+    final int maxInFlight = parallelism * 2;
+    final BlockingQueue<DiffResult> completed =
+        new LinkedBlockingQueue<DiffResult>();
+    final Map<Long, DiffResult> outOfOrder = new HashMap<Long, DiffResult>();
+    final Iterator<Pair> iterator = pairs.iterator();
+    final AtomicBoolean cancelled = new AtomicBoolean();
+    try
+    {
+      long submitted = 0;
+      long delivered = 0;
+      int running = 0;
+      while (iterator.hasNext() || delivered < submitted)
+      {
+        while (running < parallelism &&
+            submitted - delivered < maxInFlight && iterator.hasNext())
+        {
+          final long index = submitted++;
+          running++;
+          final Pair pair = iterator.next();
+          executor.execute(new Runnable()
+          {
+            public void run()
+            {
+              if (cancelled.get())
+              {
+                return;
+              }
+              try
+              {
+                completed.add(new DiffResult(index, pair,
+                    diff(pair.getSource(), pair.getTarget(), removeMissing),
+                    null));
+              }
+              catch (Throwable t)
+              {
+                completed.add(new DiffResult(index, pair, null, t));
+              }
+            }
+          });
+        }
+
+        DiffResult result = completed.take();
+        running--;
+        if (result.failure instanceof RuntimeException)
+        {
+          throw (RuntimeException) result.failure;
+        }
+        if (result.failure instanceof Error)
+        {
+          throw (Error) result.failure;
+        }
+        if (result.failure != null)
+        {
+          throw new RuntimeException(result.failure);
+        }
+        if (!preserveOrder)
+        {
+          handler.handle(result.index, result.pair, result.operations);
+          delivered++;
+          continue;
+        }
+
+        outOfOrder.put(result.index, result);
+        while ((result = outOfOrder.remove(delivered)) != null)
+        {
+          handler.handle(result.index, result.pair, result.operations);
+          delivered++;
+        }
+      }
+    }
+    finally
+    {
+      cancelled.set(true);
+    }
+  }
+
+
   /**
    * Internal diff that is used to recursively diff source and target object
    * nodes.
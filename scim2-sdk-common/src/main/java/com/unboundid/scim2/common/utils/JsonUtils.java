@@ -40,6 +40,8 @@ import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
 
 /**
  * Utility methods to manipulate JSON nodes using paths.
@@ -48,6 +50,8 @@ public class JsonUtils
 {
   private static MapperFactory mapperFactory = new MapperFactory();
   private static ObjectMapper SDK_OBJECT_MAPPER = createObjectMapper();
+  private static final Map<ScimDataFormat, ObjectMapper> DATA_FORMAT_MAPPERS =
+      new ConcurrentHashMap<ScimDataFormat, ObjectMapper>();
   public abstract static class NodeVisitor
   {
     /**
@@ -802,6 +806,65 @@ public class JsonUtils
     return new JsonDiff().diff(source, target, removeMissing);
   }
 
+  /**
+   * Generates the patch operations for many source and target node pairs
+   * using the common fork-join pool, which is shared with the rest of the
+   * JVM. See
+   * {@link JsonDiff#diffAll(Iterable, boolean, int, boolean,
+   * JsonDiff.DiffResultHandler)} for details.
+   *
+   * @param pairs The source and target node pairs to diff.
+   * @param removeMissing Whether to remove fields that are missing in the
+   *                      target nodes.
+   * @param parallelism The maximum number of pairs to diff concurrently.
+   * @param preserveOrder {@code true} to deliver the results in input order
+   *                      or {@code false} to deliver them as soon as they
+   *                      are completed.
+   * @param handler The handler that will receive the results on the calling
+   *                thread.
+   * @throws InterruptedException If the calling thread is interrupted while
+   *                              waiting for results.
+   */
+  public static void diffAll(
+      final Iterable<JsonDiff.Pair> pairs, final boolean removeMissing,
+      final int parallelism, final boolean preserveOrder,
+      final JsonDiff.DiffResultHandler handler)
+      throws InterruptedException
+  {
+    new JsonDiff().diffAll(pairs, removeMissing, parallelism, preserveOrder,
+        handler);
+  }
+
+  /**
+   * Generates the patch operations for many source and target node pairs
+   * using the provided executor. See
+   * {@link JsonDiff#diffAll(Iterable, boolean, int, boolean,
+   * JsonDiff.DiffResultHandler, Executor)} for details.
+   *
+   * @param pairs The source and target node pairs to diff.
+   * @param removeMissing Whether to remove fields that are missing in the
+   *                      target nodes.
+   * @param parallelism The maximum number of pairs to diff concurrently.
+   * @param preserveOrder {@code true} to deliver the results in input order
+   *                      or {@code false} to deliver them as soon as they
+   *                      are completed.
+   * @param handler The handler that will receive the results on the calling
+   *                thread.
+   * @param executor The executor that will diff the pairs. It is not shut
+   *                 down by this method.
+   * @throws InterruptedException If the calling thread is interrupted while
+   *                              waiting for results.
+   */
+  public static void diffAll(
+      final Iterable<JsonDiff.Pair> pairs, final boolean removeMissing,
+      final int parallelism, final boolean preserveOrder,
+      final JsonDiff.DiffResultHandler handler, final Executor executor)
+      throws InterruptedException
+  {
+    new JsonDiff().diffAll(pairs, removeMissing, parallelism, preserveOrder,
+        handler, executor);
+  }
+
 
 
   /**
@@ -929,6 +992,60 @@ public class JsonUtils
     return SDK_OBJECT_MAPPER.writer();
   }
 
+  /**
+   * Factory method for constructing a SCIM compatible Jackson
+   * {@link ObjectReader} with default settings for a data format. Note that
+   * the resulting instance is NOT usable as is, without defining expected
+   * value type with ObjectReader.forType.
+   *
+   * @param dataFormat The data format to read.
+   * @return A Jackson {@link ObjectReader} with default settings.
+   */
+  public static ObjectReader getObjectReader(final ScimDataFormat dataFormat)
+  {
+    return getObjectMapper(dataFormat).reader();
+  }
+
+  /**
+   * Factory method for constructing a SCIM compatible Jackson
+   * {@link ObjectWriter} with default settings for a data format.
+   *
+   * @param dataFormat The data format to write.
+   * @return A Jackson {@link ObjectWriter} with default settings.
+   */
+  public static ObjectWriter getObjectWriter(final ScimDataFormat dataFormat)
+  {
+    return getObjectMapper(dataFormat).writer();
+  }
+
+  /**
+   * Retrieve the SDK's ObjectMapper singleton for a data format, creating it
+   * with the current MapperFactory on first use.
+   *
+   * @param dataFormat The data format.
+   * @return The ObjectMapper for the data format.
+   */
+  private static ObjectMapper getObjectMapper(final ScimDataFormat dataFormat)
+  {
+    if (dataFormat == ScimDataFormat.JSON)
+    {
+      return SDK_OBJECT_MAPPER;
+    }
+    ObjectMapper mapper = DATA_FORMAT_MAPPERS.get(dataFormat);
+    if (mapper == null)
+    {
+      mapper = mapperFactory.createObjectMapper(
+          dataFormat.createJsonFactory());
+      ObjectMapper existing =
+          DATA_FORMAT_MAPPERS.putIfAbsent(dataFormat, mapper);
+      if (existing != null)
+      {
+        mapper = existing;
+      }
+    }
+    return mapper;
+  }
+
   /**
    * Retrieve the SCIM compatible Jackson JsonNodeFactory that may be used
    * to create tree model JsonNode instances.
@@ -1020,7 +1137,7 @@ public class JsonUtils
           "non-textual node cannot be parsed as DateTime type");
     }
     String text = node.textValue().trim();
-    return DateTimeUtils.parse(text).getTime();
+    return new Date(DateTimeUtils.parseEpochMillis(text));
   }
 
   /**
@@ -1050,6 +1167,7 @@ public class JsonUtils
   {
     JsonUtils.mapperFactory = customMapperFactory;
     SDK_OBJECT_MAPPER = customMapperFactory.createObjectMapper();
+    DATA_FORMAT_MAPPERS.clear();
   }
 
 }
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2021 Ping Identity Corporation
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPLv2 only)
+ * or the terms of the GNU Lesser General Public License (LGPLv2.1 only)
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ */
+
+package com.unboundid.scim2.common.utils;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.util.ByteArrayBuilder;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.JsonDeserializer;
+import com.unboundid.scim2.common.LazyGenericScimResource;
+
+import java.io.IOException;
+
+/**
+ * Deserializer for lazy generic scim objects, which copies the tokens of
+ * each object to JSON bytes without building a tree.
+ */
+public class LazyGenericScimResourceDeserializer
+    extends JsonDeserializer<LazyGenericScimResource>
+{
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public LazyGenericScimResource deserialize(final JsonParser jp,
+      final DeserializationContext ctxt)
+      throws IOException
+  {
+    if(jp.getCurrentToken() != JsonToken.START_OBJECT)
+    {
+      return (LazyGenericScimResource) ctxt.handleUnexpectedToken(
+          LazyGenericScimResource.class, jp);
+    }
+
+    ByteArrayBuilder builder = new ByteArrayBuilder();
+    JsonGenerator generator = JsonUtils.getObjectReader().getFactory().
+        createGenerator(builder);
+    try
+    {
+      generator.copyCurrentStructure(jp);
+    }
+    finally
+    {
+      generator.close();
+    }
+    return new LazyGenericScimResource(builder.toByteArray());
+  }
+}
@@ -18,24 +18,37 @@
 package com.unboundid.scim2.common.utils;
 
 import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.JsonFactory;
 import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.MapperFeature;
+import com.fasterxml.jackson.databind.Module;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationFeature;
 import com.fasterxml.jackson.databind.module.SimpleModule;
 
+import java.lang.reflect.InvocationTargetException;
 import java.util.Calendar;
 import java.util.Collections;
 import java.util.Date;
 import java.util.Map;
+import java.util.logging.Level;
 
 /**
  * Class used to customize the object mapper that is used by the SCIM 2 SDK.
  */
 public class MapperFactory
 {
+  /**
+   * The Jackson modules that generate accessors, in order of preference.
+   */
+  private static final String[] GENERATED_ACCESSORS_MODULES =
+      {
+          "com.fasterxml.jackson.module.blackbird.BlackbirdModule",
+          "com.fasterxml.jackson.module.afterburner.AfterburnerModule"
+      };
+
   private static Map<DeserializationFeature, Boolean> deserializationCustomFeatures =
       Collections.<DeserializationFeature, Boolean>emptyMap();
   private static Map<JsonParser.Feature, Boolean> jsonParserCustomFeatures =
@@ -46,6 +59,8 @@ public class MapperFactory
       Collections.<MapperFeature, Boolean>emptyMap();
   private static Map<SerializationFeature, Boolean> serializationCustomFeatures =
       Collections.<SerializationFeature, Boolean>emptyMap();
+  private static Class<? extends Module> generatedAccessorsModule = null;
+  private static int maxDeduplicatedTextLength = 0;
 
   /**
    * Sets custom deserialization features for any JSON ObjectMapper that is
@@ -127,6 +142,71 @@ public class MapperFactory
     return this;
   }
 
+  /**
+   * Sets whether any JSON ObjectMapper that is used and returned by the SCIM 2
+   * SDK should serialize and deserialize POJOs such as {@code UserResource}
+   * and {@code GroupResource} using generated bytecode accessors instead of
+   * reflection. This reduces the CPU cost of (de)serializing each resource
+   * and produces identical JSON. This requires the optional
+   * jackson-module-blackbird or jackson-module-afterburner dependency, and
+   * Blackbird is used if both are available. This class should be used to
+   * configure any object mapper customizations needed prior to using any
+   * method in the JsonUtils class.
+   *
+   * @param enabled {@code true} to use generated accessors or {@code false}
+   *                to use reflection.
+   * @return this object.
+   * @throws IllegalStateException If generated accessors are enabled but
+   *                               neither module is available.
+   */
+  public MapperFactory setGeneratedAccessors(final boolean enabled)
+  {
+    if (!enabled)
+    {
+      generatedAccessorsModule = null;
+      return this;
+    }
+
+    for (String className : GENERATED_ACCESSORS_MODULES)
+    {
+      try
+      {
+        generatedAccessorsModule = Class.forName(className, true,
+            MapperFactory.class.getClassLoader()).asSubclass(Module.class);
+        return this;
+      }
+      catch (ClassNotFoundException e)
+      {
+        Debug.debugException(Level.FINEST, e);
+      }
+    }
+    throw new IllegalStateException("Generated accessors require " +
+        "jackson-module-blackbird or jackson-module-afterburner");
+  }
+
+  /**
+   * Sets the maximum length of textual values that any JSON ObjectMapper that
+   * is used and returned by the SCIM 2 SDK should deduplicate when reading
+   * JSON nodes. Equal short values, such as {@code "work"} or schema URNs,
+   * then share a single text node, which reduces the memory used by resources
+   * that are kept as JSON nodes. Attribute names are always shared. This class
+   * should be used to configure any object mapper customizations needed prior
+   * to using any method in the JsonUtils class.
+   *
+   * @param maxLength The maximum length of textual values to deduplicate, or
+   *                  zero to not deduplicate textual values.
+   * @return this object.
+   */
+  public MapperFactory setTextValueDeduplication(final int maxLength)
+  {
+    if (maxLength < 0)
+    {
+      throw new IllegalArgumentException("maxLength must not be negative");
+    }
+    maxDeduplicatedTextLength = maxLength;
+    return this;
+  }
+
   /**
    * Creates a custom SCIM compatible Jackson ObjectMapper. Creating new
    * ObjectMapper instances are expensive so instances should be shared if
@@ -138,7 +218,22 @@ public class MapperFactory
    */
   public static ObjectMapper createObjectMapper()
   {
-    ObjectMapper mapper = new ObjectMapper(new ScimJsonFactory());
+    return createObjectMapper(new ScimJsonFactory());
+  }
+
+  /**
+   * Creates a custom SCIM compatible Jackson ObjectMapper that reads and writes
+   * using the provided factory, which may be for a binary data format such as
+   * CBOR or Smile. The object mapper is otherwise configured exactly like the
+   * one returned by {@link #createObjectMapper()}.
+   *
+   * @param jsonFactory The factory for parsers and generators.
+   * @return an Object Mapper with the correct options set for serializing
+   *     and deserializing SCIM objects.
+   */
+  public static ObjectMapper createObjectMapper(final JsonFactory jsonFactory)
+  {
+    ObjectMapper mapper = new ObjectMapper(jsonFactory);
 
     // Don't serialize POJO nulls as JSON nulls.
     mapper.setSerializationInclusion(JsonInclude.Include.NON_NULL);
@@ -156,7 +251,27 @@ public class MapperFactory
     mapper.configure(MapperFeature.ACCEPT_CASE_INSENSITIVE_PROPERTIES, true);
 
     // Use the case-insensitive JsonNodes.
-    mapper.setNodeFactory(new ScimJsonNodeFactory());
+    mapper.setNodeFactory(new ScimJsonNodeFactory(maxDeduplicatedTextLength));
+
+    if (generatedAccessorsModule != null)
+    {
+      try
+      {
+        mapper.registerModule(
+            generatedAccessorsModule.getDeclaredConstructor().newInstance());
+      }
+      catch (InvocationTargetException e)
+      {
+        throw new IllegalStateException(
+            "Unable to create " + generatedAccessorsModule.getName(),
+            e.getCause());
+      }
+      catch (ReflectiveOperationException e)
+      {
+        throw new IllegalStateException(
+            "Unable to create " + generatedAccessorsModule.getName(), e);
+      }
+    }
 
     for (DeserializationFeature feature : deserializationCustomFeatures.keySet())
     {
@@ -0,0 +1,193 @@
+/*
+ * Copyright 2021 Ping Identity Corporation
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPLv2 only)
+ * or the terms of the GNU Lesser General Public License (LGPLv2.1 only)
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ */
+
+package com.unboundid.scim2.common.utils;
+
+import com.fasterxml.jackson.core.JsonFactory;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.logging.Level;
+
+import static com.unboundid.scim2.common.utils.ApiConstants.MEDIA_TYPE_SCIM;
+import static com.unboundid.scim2.common.utils.ApiConstants.MEDIA_TYPE_SCIM_CBOR;
+import static com.unboundid.scim2.common.utils.ApiConstants.MEDIA_TYPE_SCIM_SMILE;
+
+/**
+ * The data formats that SCIM messages may be encoded with. JSON is the format
+ * defined by RFC 7644. CBOR and Smile are binary encodings of the same data
+ * model that may be negotiated between clients and service providers that
+ * both support them to reduce payload sizes and parsing costs. They require
+ * the optional jackson-dataformat-cbor and jackson-dataformat-smile
+ * dependencies, and {@link #isAvailable} reports whether they are present.
+ */
+public enum ScimDataFormat
+{
+  /**
+   * Textual JSON.
+   */
+  JSON(MEDIA_TYPE_SCIM, null, null)
+  {
+    @Override
+    JsonFactory createJsonFactory()
+    {
+      return new ScimJsonFactory();
+    }
+  },
+
+  /**
+   * Concise Binary Object Representation as defined by RFC 8949.
+   */
+  CBOR(MEDIA_TYPE_SCIM_CBOR,
+      "com.fasterxml.jackson.dataformat.cbor.CBORFactory",
+      "jackson-dataformat-cbor"),
+
+  /**
+   * The Jackson Smile binary JSON format.
+   */
+  SMILE(MEDIA_TYPE_SCIM_SMILE,
+      "com.fasterxml.jackson.dataformat.smile.SmileFactory",
+      "jackson-dataformat-smile");
+
+  private final String mediaType;
+  private final String factoryClassName;
+  private final String artifactId;
+  private volatile Class<? extends JsonFactory> factoryClass;
+
+  /**
+   * Create a new data format.
+   *
+   * @param mediaType The SCIM media type of the data format.
+   * @param factoryClassName The name of the factory class of the data format,
+   *                         which is loaded when first used.
+   * @param artifactId The artifact that provides the factory class.
+   */
+  ScimDataFormat(final String mediaType, final String factoryClassName,
+                 final String artifactId)
+  {
+    this.mediaType = mediaType;
+    this.factoryClassName = factoryClassName;
+    this.artifactId = artifactId;
+  }
+
+  /**
+   * Retrieve the SCIM media type of this data format.
+   *
+   * @return The SCIM media type of this data format.
+   */
+  public String getMediaType()
+  {
+    return mediaType;
+  }
+
+  /**
+   * Determine whether the Jackson data format module needed to read and
+   * write this data format is available.
+   *
+   * @return {@code true} if this data format can be used.
+   */
+  public boolean isAvailable()
+  {
+    return factoryClassName == null || getFactoryClass() != null;
+  }
+
+  /**
+   * Load the factory class of this data format.
+   *
+   * @return The factory class or {@code null} if it is not available.
+   */
+  private Class<? extends JsonFactory> getFactoryClass()
+  {
+    if (factoryClass == null)
+    {
+      try
+      {
+        factoryClass = Class.forName(factoryClassName, true,
+            ScimDataFormat.class.getClassLoader()).asSubclass(
+            JsonFactory.class);
+      }
+      catch (ClassNotFoundException e)
+      {
+        Debug.debugException(Level.FINEST, e);
+      }
+    }
+    return factoryClass;
+  }
+
+  /**
+   * Create a new factory for parsers and generators of this data format.
+   *
+   * @return A new factory for parsers and generators of this data format.
+   * @throws IllegalStateException If the data format is not available.
+   */
+  JsonFactory createJsonFactory()
+  {
+    final Class<? extends JsonFactory> c = getFactoryClass();
+    if (c == null)
+    {
+      throw new IllegalStateException("The " + name() +
+          " data format requires the " + artifactId + " dependency");
+    }
+    try
+    {
+      return c.getDeclaredConstructor().newInstance();
+    }
+    catch (InvocationTargetException e)
+    {
+      throw new IllegalStateException(
+          "Unable to create " + c.getName(), e.getCause());
+    }
+    catch (ReflectiveOperationException e)
+    {
+      throw new IllegalStateException("Unable to create " + c.getName(), e);
+    }
+  }
+
+  /**
+   * Determine the data format of a media type. Besides the SCIM media types,
+   * "application/json" and other "+json" types are JSON, "application/cbor" is
+   * CBOR and "application/x-jackson-smile" is Smile. Media type parameters are
+   * ignored.
+   *
+   * @param mediaType The media type.
+   * @return The data format of the media type or {@code null} if the media
+   * type is {@code null} or not one of the supported data formats.
+   */
+  public static ScimDataFormat forMediaType(final String mediaType)
+  {
+    if (mediaType == null)
+    {
+      return null;
+    }
+
+    int parametersStart = mediaType.indexOf(';');
+    String type = StaticUtils.toLowerCase((parametersStart < 0 ?
+        mediaType : mediaType.substring(0, parametersStart)).trim());
+    if (type.equals("application/json") || type.endsWith("+json"))
+    {
+      return JSON;
+    }
+    if (type.equals("application/cbor") || type.endsWith("+cbor"))
+    {
+      return CBOR;
+    }
+    if (type.equals("application/x-jackson-smile") || type.endsWith("+smile"))
+    {
+      return SMILE;
+    }
+    return null;
+  }
+}
@@ -19,15 +19,100 @@ package com.unboundid.scim2.common.utils;
 
 import com.fasterxml.jackson.databind.node.JsonNodeFactory;
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.databind.node.TextNode;
 
 /**
- * Created by boli on 7/29/15.
+ * A JsonNodeFactory that creates case-insensitive object nodes. Attribute
+ * names are shared between object nodes through a bounded symbol table. The
+ * factory may optionally also share the text nodes for short textual values,
+ * such as {@code "work"}, {@code "User"}, or schema URNs, which saves memory
+ * when many similar resources are kept as JSON nodes. Boolean nodes are always
+ * shared.
  */
 public class ScimJsonNodeFactory extends JsonNodeFactory
 {
+  /**
+   * Text nodes shared by all factories that deduplicate textual values.
+   */
+  private static final SymbolTable<TextNode> TEXT_NODES =
+      new SymbolTable<TextNode>(8192)
+      {
+        /**
+         * {@inheritDoc}
+         */
+        protected String getString(final TextNode symbol)
+        {
+          return symbol.textValue();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        protected TextNode create(final String string)
+        {
+          return new TextNode(string);
+        }
+      };
+
+  private final int maxDeduplicatedTextLength;
+
+  /**
+   * Create a new factory that does not deduplicate textual values.
+   */
+  public ScimJsonNodeFactory()
+  {
+    this(0);
+  }
+
+  /**
+   * Create a new factory that deduplicates textual values up to the provided
+   * length.
+   *
+   * @param maxDeduplicatedTextLength The maximum length of textual values
+   *                                  whose text nodes are shared, or zero to
+   *                                  not share text nodes.
+   */
+  public ScimJsonNodeFactory(final int maxDeduplicatedTextLength)
+  {
+    if (maxDeduplicatedTextLength < 0)
+    {
+      throw new IllegalArgumentException(
+          "maxDeduplicatedTextLength must not be negative");
+    }
+    this.maxDeduplicatedTextLength = maxDeduplicatedTextLength;
+  }
+
+  /**
+   * Retrieve the maximum length of textual values whose text nodes are shared.
+   *
+   * @return The maximum length of textual values whose text nodes are shared,
+   *         or zero if text nodes are not shared.
+   */
+  public int getMaxDeduplicatedTextLength()
+  {
+    return maxDeduplicatedTextLength;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
   @Override
   public ObjectNode objectNode()
   {
     return new CaseIgnoreObjectNode(this);
   }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public TextNode textNode(final String text)
+  {
+    if (text != null && !text.isEmpty() &&
+        text.length() <= maxDeduplicatedTextLength)
+    {
+      return TEXT_NODES.get(text);
+    }
+    return super.textNode(text);
+  }
 }
@@ -0,0 +1,1216 @@
+/*
+ * Copyright 2021 Ping Identity Corporation
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPLv2 only)
+ * or the terms of the GNU Lesser General Public License (LGPLv2.1 only)
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ */
+
+package com.unboundid.scim2.common.utils;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.databind.node.TextNode;
+import com.unboundid.scim2.common.Path;
+import com.unboundid.scim2.common.filters.Filter;
+import com.unboundid.scim2.common.messages.PatchOperation;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.logging.Level;
+
+/**
+ * This class can be used to calculate the diffs between two SCIM/JSON
+ * resources that are too large to comfortably hold in memory, such as groups
+ * with hundreds of thousands of members. Both resources are read from
+ * {@link JsonParser}s and the resulting patch operations are passed to a
+ * {@link PatchOperationHandler} as they are produced.
+ * <p>
+ * Top-level multi-valued attributes with more values than the configured
+ * threshold, whose values are either strings or complex values with a string
+ * {@code value} sub-attribute, are keyed by that value and compared using a
+ * sort-merge join. The keyed values are held in sorted in-memory buffers
+ * that are spilled to temporary files whenever the configured memory limit
+ * is exceeded. Keys are compared case-insensitively, since value filters
+ * match attributes that are not case exact case-insensitively. An attribute
+ * where several values have keys that only differ by case, or the same key,
+ * cannot be patched by key, so it is read back into memory and compared using
+ * {@link JsonDiff}, like all other attributes.
+ * <p>
+ * A value that is present in both resources but differs is removed and
+ * re-added rather than patched in place. Values that only appear in the
+ * target are added in batches.
+ */
+public class StreamingJsonDiff
+{
+  /**
+   * The default maximum number of bytes of keyed values to hold in memory.
+   */
+  public static final long DEFAULT_MEMORY_LIMIT = 16L * 1024L * 1024L;
+
+  /**
+   * The default number of values a multi-valued attribute must exceed before
+   * its values are keyed and compared using a sort-merge join.
+   */
+  public static final int DEFAULT_KEYED_VALUES_THRESHOLD = 1000;
+
+  /**
+   * The maximum number of values to include in a single add operation.
+   */
+  private static final int ADD_BATCH_SIZE = 1000;
+
+  /**
+   * The maximum number of spilled runs to read at the same time. Keyed
+   * values with more runs are merged in several passes.
+   */
+  private static final int MAX_MERGE_RUNS = 64;
+
+  /**
+   * Interface to receive the patch operations as they are produced.
+   */
+  public interface PatchOperationHandler
+  {
+    /**
+     * Handle a patch operation.
+     *
+     * @param operation The patch operation to apply to the source resource.
+     * @throws IOException If an error occurs while handling the operation.
+     */
+    void handle(PatchOperation operation) throws IOException;
+  }
+
+  private final long memoryLimit;
+  private final int keyedValuesThreshold;
+  private final ObjectReader reader = JsonUtils.getObjectReader();
+  private final ObjectWriter writer = JsonUtils.getObjectWriter();
+
+  /**
+   * Create a new streaming diff using the default memory limit and keyed
+   * values threshold.
+   */
+  public StreamingJsonDiff()
+  {
+    this(DEFAULT_MEMORY_LIMIT, DEFAULT_KEYED_VALUES_THRESHOLD);
+  }
+
+  /**
+   * Create a new streaming diff.
+   *
+   * @param memoryLimit The maximum number of bytes of keyed values from both
+   *                    resources to hold in memory before spilling them to
+   *                    temporary files.
+   * @param keyedValuesThreshold The number of values a multi-valued attribute
+   *                             must exceed before its values are keyed and
+   *                             compared using a sort-merge join.
+   */
+  public StreamingJsonDiff(final long memoryLimit,
+                           final int keyedValuesThreshold)
+  {
+    this.memoryLimit = memoryLimit;
+    this.keyedValuesThreshold = keyedValuesThreshold;
+  }
+
+  /**
+   * Generates the patch operations that can be applied to the source
+   * resource in order to make it match the target resource.
+   *
+   * @param source The parser positioned at or before the start of the source
+   *               resource.
+   * @param target The parser positioned at or before the start of the target
+   *               resource.
+   * @param removeMissing Whether to remove fields that are missing in the
+   *                      target resource.
+   * @param handler The handler that will receive the patch operations.
+   * @throws IOException If an error occurs while reading the resources,
+   *                     spilling values to disk, or handling an operation.
+   */
+  public void diff(final JsonParser source, final JsonParser target,
+                   final boolean removeMissing,
+                   final PatchOperationHandler handler)
+      throws IOException
+  {
+    final Budget budget = new Budget(memoryLimit);
+    final Document sourceDoc = new Document();
+    final Document targetDoc = new Document();
+    try
+    {
+      readDocument(source, sourceDoc, budget);
+      readDocument(target, targetDoc, budget);
+
+      final TreeSet<String> keyedFields =
+          new TreeSet<String>(String.CASE_INSENSITIVE_ORDER);
+      keyedFields.addAll(sourceDoc.keyed.keySet());
+      keyedFields.addAll(targetDoc.keyed.keySet());
+      for (String field : keyedFields)
+      {
+        diffKeyedField(field, sourceDoc, targetDoc, removeMissing, budget,
+            handler);
+      }
+
+      for (PatchOperation operation :
+          new JsonDiff().diff(sourceDoc.small, targetDoc.small, removeMissing))
+      {
+        handler.handle(operation);
+      }
+    }
+    finally
+    {
+      sourceDoc.close();
+      targetDoc.close();
+    }
+  }
+
+  /**
+   * Diff a top-level field whose values are keyed in at least one of the
+   * resources.
+   *
+   * @param field The name of the field.
+   * @param sourceDoc The source resource.
+   * @param targetDoc The target resource.
+   * @param removeMissing Whether to remove fields that are missing in the
+   *                      target resource.
+   * @param budget The memory budget.
+   * @param handler The handler that will receive the patch operations.
+   * @throws IOException If an error occurs.
+   */
+  private void diffKeyedField(final String field,
+                              final Document sourceDoc,
+                              final Document targetDoc,
+                              final boolean removeMissing,
+                              final Budget budget,
+                              final PatchOperationHandler handler)
+      throws IOException
+  {
+    final Path path = Path.root().attribute(field);
+    KeyedValues sourceValues = sourceDoc.keyed.get(field);
+    KeyedValues targetValues = targetDoc.keyed.get(field);
+
+    if (targetValues == null)
+    {
+      final JsonNode targetNode = targetDoc.small.remove(field);
+      if (targetNode == null)
+      {
+        if (removeMissing)
+        {
+          handler.handle(PatchOperation.remove(path));
+        }
+        return;
+      }
+      targetValues = toKeyedValues(targetNode, budget);
+      if (targetValues == null)
+      {
+        // Explicitly cleared or not comparable by key.
+        handler.handle(isEmpty(targetNode) ?
+            PatchOperation.remove(path) :
+            PatchOperation.replace(path, targetNode));
+        return;
+      }
+      targetDoc.keyed.put(field, targetValues);
+    }
+
+    if (sourceValues == null)
+    {
+      final JsonNode sourceNode = sourceDoc.small.remove(field);
+      sourceValues = sourceNode == null ? null :
+          toKeyedValues(sourceNode, budget);
+      if (sourceValues == null)
+      {
+        if (sourceNode != null && !isEmpty(sourceNode))
+        {
+          handler.handle(PatchOperation.remove(path));
+        }
+        addAll(path, targetValues, handler);
+        return;
+      }
+      sourceDoc.keyed.put(field, sourceValues);
+    }
+
+    if (sourceValues.hasDuplicateKeys() || targetValues.hasDuplicateKeys())
+    {
+      // Value filters cannot tell these values apart.
+      final ObjectNode sourceNode = JsonUtils.getJsonNodeFactory().objectNode();
+      final ObjectNode targetNode = JsonUtils.getJsonNodeFactory().objectNode();
+      sourceNode.set(field, readValues(sourceValues));
+      targetNode.set(field, readValues(targetValues));
+      for (PatchOperation operation :
+          new JsonDiff().diff(sourceNode, targetNode, removeMissing))
+      {
+        handler.handle(operation);
+      }
+      return;
+    }
+
+    final Cursor sourceCursor = sourceValues.cursor();
+    try
+    {
+      final Cursor targetCursor = targetValues.cursor();
+      try
+      {
+        merge(field, sourceCursor, targetCursor, handler);
+      }
+      finally
+      {
+        targetCursor.close();
+      }
+    }
+    finally
+    {
+      sourceCursor.close();
+    }
+  }
+
+  /**
+   * Compare the values of a keyed field using a sort-merge join.
+   *
+   * @param field The name of the field.
+   * @param sourceCursor The cursor over the unique source values.
+   * @param targetCursor The cursor over the unique target values.
+   * @param handler The handler that will receive the patch operations.
+   * @throws IOException If an error occurs.
+   */
+  private void merge(final String field, final Cursor sourceCursor,
+                     final Cursor targetCursor,
+                     final PatchOperationHandler handler)
+      throws IOException
+  {
+    final Path path = Path.root().attribute(field);
+    ArrayNode toAdd = JsonUtils.getJsonNodeFactory().arrayNode();
+    Entry sourceEntry = sourceCursor.next();
+    Entry targetEntry = targetCursor.next();
+    while (sourceEntry != null || targetEntry != null)
+    {
+      final int c = sourceEntry == null ? 1 : targetEntry == null ? -1 :
+          sourceEntry.sortKey.compareTo(targetEntry.sortKey);
+      if (c < 0)
+      {
+        handler.handle(PatchOperation.remove(valuePath(field, sourceEntry)));
+        sourceEntry = sourceCursor.next();
+      }
+      else if (c > 0)
+      {
+        toAdd.add(readValue(targetEntry));
+        targetEntry = targetCursor.next();
+      }
+      else
+      {
+        if (!Arrays.equals(sourceEntry.value, targetEntry.value))
+        {
+          final JsonNode targetValue = readValue(targetEntry);
+          if (!readValue(sourceEntry).equals(targetValue))
+          {
+            handler.handle(
+                PatchOperation.remove(valuePath(field, sourceEntry)));
+            toAdd.add(targetValue);
+          }
+        }
+        sourceEntry = sourceCursor.next();
+        targetEntry = targetCursor.next();
+      }
+
+      if (toAdd.size() >= ADD_BATCH_SIZE)
+      {
+        handler.handle(PatchOperation.add(path, toAdd));
+        toAdd = JsonUtils.getJsonNodeFactory().arrayNode();
+      }
+    }
+    if (toAdd.size() > 0)
+    {
+      handler.handle(PatchOperation.add(path, toAdd));
+    }
+  }
+
+  /**
+   * Add all keyed values in batches.
+   *
+   * @param path The path of the attribute to add the values to.
+   * @param values The values to add.
+   * @param handler The handler that will receive the patch operations.
+   * @throws IOException If an error occurs.
+   */
+  private void addAll(final Path path, final KeyedValues values,
+                      final PatchOperationHandler handler)
+      throws IOException
+  {
+    final Cursor cursor = values.cursor();
+    try
+    {
+      ArrayNode toAdd = JsonUtils.getJsonNodeFactory().arrayNode();
+      Entry entry;
+      while ((entry = cursor.next()) != null)
+      {
+        toAdd.add(readValue(entry));
+        if (toAdd.size() >= ADD_BATCH_SIZE)
+        {
+          handler.handle(PatchOperation.add(path, toAdd));
+          toAdd = JsonUtils.getJsonNodeFactory().arrayNode();
+        }
+      }
+      if (toAdd.size() > 0)
+      {
+        handler.handle(PatchOperation.add(path, toAdd));
+      }
+    }
+    finally
+    {
+      cursor.close();
+    }
+  }
+
+  /**
+   * Read all keyed values back into memory.
+   *
+   * @param values The keyed values.
+   * @return An array node with all values, including the values with
+   *         duplicate keys.
+   * @throws IOException If an error occurs.
+   */
+  private ArrayNode readValues(final KeyedValues values) throws IOException
+  {
+    final ArrayNode array = JsonUtils.getJsonNodeFactory().arrayNode();
+    final Cursor cursor = values.cursor();
+    try
+    {
+      Entry entry;
+      while ((entry = cursor.next()) != null)
+      {
+        array.add(readValue(entry));
+      }
+    }
+    finally
+    {
+      cursor.close();
+    }
+    return array;
+  }
+
+  /**
+   * Read a resource from the parser, keying any large multi-valued
+   * attributes.
+   *
+   * @param parser The parser to read from.
+   * @param doc The document to populate.
+   * @param budget The memory budget.
+   * @throws IOException If an error occurs.
+   */
+  private void readDocument(final JsonParser parser, final Document doc,
+                            final Budget budget)
+      throws IOException
+  {
+    JsonToken token = parser.currentToken();
+    if (token == null)
+    {
+      token = parser.nextToken();
+    }
+    if (token != JsonToken.START_OBJECT)
+    {
+      throw new JsonParseException(parser, "Expected a JSON object");
+    }
+
+    while (parser.nextToken() == JsonToken.FIELD_NAME)
+    {
+      final String field = parser.getCurrentName();
+      if (parser.nextToken() == JsonToken.START_ARRAY)
+      {
+        readArray(parser, field, doc, budget);
+      }
+      else
+      {
+        doc.small.set(field, reader.<JsonNode>readTree(parser));
+      }
+    }
+  }
+
+  /**
+   * Read a top-level array from the parser. The values are kept in memory
+   * until there are more than the keyed values threshold, at which point
+   * they are moved to a {@link KeyedValues} if all of them have a key.
+   *
+   * @param parser The parser positioned at the start of the array.
+   * @param field The name of the field.
+   * @param doc The document to populate.
+   * @param budget The memory budget.
+   * @throws IOException If an error occurs.
+   */
+  private void readArray(final JsonParser parser, final String field,
+                         final Document doc, final Budget budget)
+      throws IOException
+  {
+    final ArrayNode values = JsonUtils.getJsonNodeFactory().arrayNode();
+    KeyedValues keyed = null;
+    boolean keyable = true;
+    while (parser.nextToken() != JsonToken.END_ARRAY)
+    {
+      final JsonNode value = reader.readTree(parser);
+      final String key = keyable ? keyOf(value) : null;
+      if (key == null)
+      {
+        if (keyed != null)
+        {
+          // Not comparable by key after all so all values must be held in
+          // memory.
+          values.addAll(readValues(keyed));
+          keyed.close();
+          keyed = null;
+        }
+        keyable = false;
+        values.add(value);
+      }
+      else if (keyed != null)
+      {
+        keyed.put(key, writer.writeValueAsBytes(value));
+      }
+      else
+      {
+        values.add(value);
+        if (values.size() > keyedValuesThreshold)
+        {
+          keyed = toKeyedValues(values, budget);
+          values.removeAll();
+        }
+      }
+    }
+
+    if (keyed != null)
+    {
+      doc.keyed.put(field, keyed);
+    }
+    else
+    {
+      doc.small.set(field, values);
+    }
+  }
+
+  /**
+   * Move the values of an in-memory array to a new {@link KeyedValues}.
+   *
+   * @param node The array node.
+   * @param budget The memory budget.
+   * @return The keyed values or {@code null} if the node is not a non-empty
+   *         array whose values all have a key.
+   * @throws IOException If an error occurs.
+   */
+  private KeyedValues toKeyedValues(final JsonNode node, final Budget budget)
+      throws IOException
+  {
+    if (!node.isArray() || node.size() == 0)
+    {
+      return null;
+    }
+    for (JsonNode value : node)
+    {
+      if (keyOf(value) == null)
+      {
+        return null;
+      }
+    }
+    final KeyedValues keyed = new KeyedValues(budget);
+    for (JsonNode value : node)
+    {
+      keyed.put(keyOf(value), writer.writeValueAsBytes(value));
+    }
+    return keyed;
+  }
+
+  /**
+   * Parse the value of an entry.
+   *
+   * @param entry The entry.
+   * @return The parsed value.
+   * @throws IOException If an error occurs.
+   */
+  private JsonNode readValue(final Entry entry) throws IOException
+  {
+    return reader.readTree(entry.value);
+  }
+
+  /**
+   * Determine the key of a value in a multi-valued attribute.
+   *
+   * @param value The value.
+   * @return The string value itself, the string {@code value} sub-attribute
+   *         of a complex value, or {@code null} if the value has no key.
+   */
+  private static String keyOf(final JsonNode value)
+  {
+    if (value.isTextual())
+    {
+      return value.textValue();
+    }
+    if (value.isObject() && value.path("value").isTextual())
+    {
+      return value.path("value").textValue();
+    }
+    return null;
+  }
+
+  /**
+   * Build the path that references a single keyed value.
+   *
+   * @param field The name of the multi-valued attribute.
+   * @param entry The entry of the value.
+   * @return The path with a value filter on the key.
+   */
+  private static Path valuePath(final String field, final Entry entry)
+  {
+    return Path.root().attribute(field, Filter.eq(
+        Path.root().attribute("value"), TextNode.valueOf(entry.key)));
+  }
+
+  /**
+   * Determine whether a node explicitly clears an attribute.
+   *
+   * @param node The node.
+   * @return {@code true} if the node is null or an empty array.
+   */
+  private static boolean isEmpty(final JsonNode node)
+  {
+    return node.isNull() || (node.isArray() && node.size() == 0);
+  }
+
+  /**
+   * A keyed value and its serialized JSON.
+   */
+  private static final class Entry
+  {
+    private final String key;
+    private final String sortKey;
+    private final byte[] value;
+
+    /**
+     * Create a new entry.
+     *
+     * @param key The key.
+     * @param value The serialized JSON value.
+     */
+    private Entry(final String key, final byte[] value)
+    {
+      this.key = key;
+      this.sortKey = StaticUtils.toLowerCase(key);
+      this.value = value;
+    }
+  }
+
+  /**
+   * A cursor over entries in ascending case-insensitive key order. Cursors
+   * must be closed when they are no longer needed.
+   */
+  private interface Cursor extends Closeable
+  {
+    /**
+     * Retrieve the next entry.
+     *
+     * @return The next entry or {@code null} if there are no more entries.
+     * @throws IOException If an error occurs.
+     */
+    Entry next() throws IOException;
+  }
+
+  /**
+   * Tracks the number of bytes held in memory by all keyed values of a diff.
+   */
+  private static final class Budget
+  {
+    private final long limit;
+    private final List<KeyedValues> keyedValues = new ArrayList<KeyedValues>();
+    private long used;
+
+    /**
+     * Create a new budget.
+     *
+     * @param limit The maximum number of bytes to hold in memory.
+     */
+    private Budget(final long limit)
+    {
+      this.limit = limit;
+    }
+
+    /**
+     * Account for additional bytes held in memory. If the limit is exceeded,
+     * the largest keyed values are spilled to disk until at most half of the
+     * limit is used, so that each spill frees a worthwhile amount of memory.
+     *
+     * @param bytes The number of bytes.
+     * @throws IOException If an error occurs while spilling.
+     */
+    private void reserve(final long bytes) throws IOException
+    {
+      used += bytes;
+      if (used <= limit)
+      {
+        return;
+      }
+      final List<KeyedValues> largestFirst =
+          new ArrayList<KeyedValues>(keyedValues);
+      Collections.sort(largestFirst, new Comparator<KeyedValues>()
+      {
+        public int compare(final KeyedValues o1, final KeyedValues o2)
+        {
+          return Long.compare(o2.bufferBytes, o1.bufferBytes);
+        }
+      });
+      for (KeyedValues values : largestFirst)
+      {
+        if (used <= limit / 2)
+        {
+          break;
+        }
+        values.spill();
+      }
+    }
+  }
+
+  /**
+   * The values of a multi-valued attribute sorted by key. Values are kept in
+   * memory until the budget is exceeded, at which point they are written as
+   * a sorted run to a temporary file. Values with duplicate keys are kept,
+   * both in memory and in the runs, and {@link #hasDuplicateKeys} reports
+   * whether there are any.
+   */
+  private static final class KeyedValues implements Closeable
+  {
+    private final Budget budget;
+    private final List<File> runs = new ArrayList<File>();
+    private final List<Integer> runSizes = new ArrayList<Integer>();
+    private final List<Entry> duplicates = new ArrayList<Entry>();
+    private TreeMap<String, Entry> buffer = new TreeMap<String, Entry>();
+    private long bufferBytes;
+    private Boolean duplicateKeys;
+
+    /**
+     * Create a new empty set of keyed values.
+     *
+     * @param budget The memory budget.
+     */
+    private KeyedValues(final Budget budget)
+    {
+      this.budget = budget;
+      budget.keyedValues.add(this);
+    }
+
+    /**
+     * Add a value.
+     *
+     * @param key The key of the value.
+     * @param value The serialized JSON value.
+     * @throws IOException If an error occurs while spilling.
+     */
+    private void put(final String key, final byte[] value) throws IOException
+    {
+      final Entry entry = new Entry(key, value);
+      // Rough estimate of the memory used by the keys, value and map entry.
+      final long bytes = 4L * key.length() + value.length + 96L;
+      if (buffer.containsKey(entry.sortKey))
+      {
+        duplicates.add(entry);
+        duplicateKeys = Boolean.TRUE;
+      }
+      else
+      {
+        buffer.put(entry.sortKey, entry);
+        if (duplicateKeys == Boolean.FALSE)
+        {
+          duplicateKeys = null;
+        }
+      }
+      bufferBytes += bytes;
+      budget.reserve(bytes);
+    }
+
+    /**
+     * Write the in-memory values, including the values with duplicate keys,
+     * to a temporary file.
+     *
+     * @throws IOException If an error occurs.
+     */
+    private void spill() throws IOException
+    {
+      if (buffer.isEmpty())
+      {
+        return;
+      }
+      final int size = buffer.size() + duplicates.size();
+      writeRun(bufferedCursor(), size);
+      buffer = new TreeMap<String, Entry>();
+      duplicates.clear();
+      budget.used -= bufferBytes;
+      bufferBytes = 0;
+    }
+
+    /**
+     * Write the entries of a cursor to a new run, and close the cursor.
+     *
+     * @param cursor The cursor.
+     * @param size The number of entries of the cursor.
+     * @throws IOException If an error occurs.
+     */
+    private void writeRun(final Cursor cursor, final int size)
+        throws IOException
+    {
+      try
+      {
+        final File file = File.createTempFile("scim-diff-", ".run");
+        runs.add(file);
+        runSizes.add(size);
+        final DataOutputStream out = new DataOutputStream(
+            new BufferedOutputStream(new FileOutputStream(file)));
+        try
+        {
+          for (int i = 0; i < size; i++)
+          {
+            final Entry entry = cursor.next();
+            final byte[] key = StaticUtils.getUTF8Bytes(entry.key);
+            out.writeInt(key.length);
+            out.write(key);
+            out.writeInt(entry.value.length);
+            out.write(entry.value);
+          }
+        }
+        finally
+        {
+          out.close();
+        }
+      }
+      finally
+      {
+        cursor.close();
+      }
+    }
+
+    /**
+     * Merge the oldest spilled runs until no more than
+     * {@link #MAX_MERGE_RUNS} remain, so that they can all be read at the
+     * same time.
+     *
+     * @throws IOException If an error occurs.
+     */
+    private void mergeRuns() throws IOException
+    {
+      while (runs.size() > MAX_MERGE_RUNS)
+      {
+        final List<File> merged =
+            new ArrayList<File>(runs.subList(0, MAX_MERGE_RUNS));
+        final List<Cursor> sources = new ArrayList<Cursor>(MAX_MERGE_RUNS);
+        int size = 0;
+        try
+        {
+          for (int i = 0; i < MAX_MERGE_RUNS; i++)
+          {
+            sources.add(new RunCursor(runs.get(i), runSizes.get(i)));
+            size += runSizes.get(i);
+          }
+        }
+        catch (IOException e)
+        {
+          for (Cursor source : sources)
+          {
+            source.close();
+          }
+          throw e;
+        }
+        writeRun(new MergeCursor(sources), size);
+        runs.subList(0, MAX_MERGE_RUNS).clear();
+        runSizes.subList(0, MAX_MERGE_RUNS).clear();
+        deleteFiles(merged);
+      }
+    }
+
+    /**
+     * Create a cursor over the in-memory values, including the values with
+     * duplicate keys.
+     *
+     * @return The cursor.
+     * @throws IOException If an error occurs.
+     */
+    private Cursor bufferedCursor() throws IOException
+    {
+      final Cursor values = new IteratorCursor(buffer.values().iterator());
+      if (duplicates.isEmpty())
+      {
+        return values;
+      }
+      final TreeMap<String, List<Entry>> sorted =
+          new TreeMap<String, List<Entry>>();
+      for (Entry entry : duplicates)
+      {
+        List<Entry> entries = sorted.get(entry.sortKey);
+        if (entries == null)
+        {
+          entries = new ArrayList<Entry>(1);
+          sorted.put(entry.sortKey, entries);
+        }
+        entries.add(entry);
+      }
+      final List<Entry> entries = new ArrayList<Entry>(duplicates.size());
+      for (List<Entry> list : sorted.values())
+      {
+        entries.addAll(list);
+      }
+      return new MergeCursor(Arrays.<Cursor>asList(values,
+          new IteratorCursor(entries.iterator())));
+    }
+
+    /**
+     * Determine whether several values have keys that are equal when compared
+     * case-insensitively. Values in different spilled runs are only compared
+     * by reading the runs back.
+     *
+     * @return {@code true} if several values have the same key.
+     * @throws IOException If an error occurs.
+     */
+    private boolean hasDuplicateKeys() throws IOException
+    {
+      if (duplicateKeys == null)
+      {
+        duplicateKeys = Boolean.FALSE;
+        if (!runs.isEmpty())
+        {
+          final Cursor cursor = cursor();
+          try
+          {
+            String lastKey = null;
+            Entry entry;
+            while ((entry = cursor.next()) != null)
+            {
+              if (entry.sortKey.equals(lastKey))
+              {
+                duplicateKeys = Boolean.TRUE;
+                break;
+              }
+              lastKey = entry.sortKey;
+            }
+          }
+          finally
+          {
+            cursor.close();
+          }
+        }
+      }
+      return duplicateKeys;
+    }
+
+    /**
+     * Create a cursor over all values merged from the spilled runs and the
+     * in-memory buffer, including the values with duplicate keys.
+     *
+     * @return The cursor.
+     * @throws IOException If an error occurs.
+     */
+    private Cursor cursor() throws IOException
+    {
+      mergeRuns();
+      final List<Cursor> sources = new ArrayList<Cursor>(runs.size() + 1);
+      try
+      {
+        for (int i = 0; i < runs.size(); i++)
+        {
+          sources.add(new RunCursor(runs.get(i), runSizes.get(i)));
+        }
+        sources.add(bufferedCursor());
+        return sources.size() == 1 ? sources.get(0) :
+            new MergeCursor(sources);
+      }
+      catch (IOException e)
+      {
+        for (Cursor source : sources)
+        {
+          source.close();
+        }
+        throw e;
+      }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void close()
+    {
+      budget.used -= bufferBytes;
+      budget.keyedValues.remove(this);
+      buffer.clear();
+      duplicates.clear();
+      bufferBytes = 0;
+      deleteFiles(runs);
+      runs.clear();
+      runSizes.clear();
+    }
+
+    /**
+     * Delete temporary files.
+     *
+     * @param files The files to delete.
+     */
+    private static void deleteFiles(final List<File> files)
+    {
+      for (File file : files)
+      {
+        if (!file.delete())
+        {
+          Debug.debug(Level.WARNING, DebugType.OTHER,
+              "Unable to delete temporary file " + file);
+        }
+      }
+    }
+  }
+
+  /**
+   * A cursor over in-memory entries that are already sorted.
+   */
+  private static final class IteratorCursor implements Cursor
+  {
+    private final Iterator<Entry> iterator;
+
+    /**
+     * Create a cursor over in-memory entries.
+     *
+     * @param iterator The iterator over the sorted entries.
+     */
+    private IteratorCursor(final Iterator<Entry> iterator)
+    {
+      this.iterator = iterator;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Entry next()
+    {
+      return iterator.hasNext() ? iterator.next() : null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void close()
+    {
+      // Nothing to release.
+    }
+  }
+
+  /**
+   * A cursor over the entries of a run written to a temporary file.
+   */
+  private static final class RunCursor implements Cursor
+  {
+    private final DataInputStream in;
+    private int remaining;
+
+    /**
+     * Open a cursor over a run.
+     *
+     * @param file The file containing the run.
+     * @param size The number of entries in the run.
+     * @throws IOException If an error occurs.
+     */
+    private RunCursor(final File file, final int size) throws IOException
+    {
+      this.in = new DataInputStream(
+          new BufferedInputStream(new FileInputStream(file)));
+      this.remaining = size;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Entry next() throws IOException
+    {
+      if (remaining == 0)
+      {
+        return null;
+      }
+      remaining--;
+      final byte[] key = new byte[in.readInt()];
+      in.readFully(key);
+      final byte[] value = new byte[in.readInt()];
+      in.readFully(value);
+      return new Entry(new String(key, "UTF-8"), value);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void close() throws IOException
+    {
+      in.close();
+    }
+  }
+
+  /**
+   * A cursor that merges several sorted cursors. Entries with the same key
+   * are all returned.
+   */
+  private static final class MergeCursor implements Cursor
+  {
+    private final List<Cursor> cursors;
+    private final PriorityQueue<Head> heads = new PriorityQueue<Head>();
+
+    /**
+     * The current entry of one of the merged cursors.
+     */
+    private static final class Head implements Comparable<Head>
+    {
+      private final Cursor cursor;
+      private final int order;
+      private Entry entry;
+
+      /**
+       * Create a new head.
+       *
+       * @param cursor The cursor.
+       * @param order The position of the cursor, used to break ties.
+       * @param entry The current entry of the cursor.
+       */
+      private Head(final Cursor cursor, final int order, final Entry entry)
+      {
+        this.cursor = cursor;
+        this.order = order;
+        this.entry = entry;
+      }
+
+      /**
+       * {@inheritDoc}
+       */
+      public int compareTo(final Head o)
+      {
+        final int c = entry.sortKey.compareTo(o.entry.sortKey);
+        return c != 0 ? c : Integer.compare(order, o.order);
+      }
+
+      /**
+       * {@inheritDoc}
+       */
+      @Override
+      public boolean equals(final Object o)
+      {
+        return this == o;
+      }
+
+      /**
+       * {@inheritDoc}
+       */
+      @Override
+      public int hashCode()
+      {
+        return order;
+      }
+    }
+
+    /**
+     * Create a new merge cursor.
+     *
+     * @param cursors The sorted cursors to merge, which are closed when this
+     *                cursor is closed.
+     * @throws IOException If an error occurs.
+     */
+    private MergeCursor(final List<Cursor> cursors) throws IOException
+    {
+      this.cursors = cursors;
+      for (int i = 0; i < cursors.size(); i++)
+      {
+        final Entry entry = cursors.get(i).next();
+        if (entry != null)
+        {
+          heads.add(new Head(cursors.get(i), i, entry));
+        }
+      }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Entry next() throws IOException
+    {
+      final Head head = heads.poll();
+      if (head == null)
+      {
+        return null;
+      }
+      final Entry entry = head.entry;
+      head.entry = head.cursor.next();
+      if (head.entry != null)
+      {
+        heads.add(head);
+      }
+      return entry;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void close() throws IOException
+    {
+      IOException failure = null;
+      for (Cursor cursor : cursors)
+      {
+        try
+        {
+          cursor.close();
+        }
+        catch (IOException e)
+        {
+          failure = e;
+        }
+      }
+      heads.clear();
+      if (failure != null)
+      {
+        throw failure;
+      }
+    }
+  }
+
+  /**
+   * The contents of a resource, split between attributes held in memory and
+   * keyed multi-valued attributes.
+   */
+  private static final class Document implements Closeable
+  {
+    private final ObjectNode small =
+        JsonUtils.getJsonNodeFactory().objectNode();
+    private final Map<String, KeyedValues> keyed =
+        new TreeMap<String, KeyedValues>(String.CASE_INSENSITIVE_ORDER);
+
+    /**
+     * {@inheritDoc}
+     */
+    public void close()
+    {
+      for (KeyedValues values : keyed.values())
+      {
+        values.close();
+      }
+      keyed.clear();
+    }
+  }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2021 Ping Identity Corporation
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPLv2 only)
+ * or the terms of the GNU Lesser General Public License (LGPLv2.1 only)
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ */
+
+package com.unboundid.scim2.common.utils;
+
+/**
+ * A bounded table of canonical, immutable symbols that are created from
+ * strings, such as attribute names or common attribute values. Each string
+ * hashes to a single slot that holds the most recently created symbol, so the
+ * table never grows and frequently used strings stay in it while rarely used
+ * ones are replaced. Symbols must be immutable and only have final fields
+ * because slots are read and written without synchronization.
+ *
+ * @param <T> The type of symbol.
+ */
+abstract class SymbolTable<T>
+{
+  private final Object[] slots;
+
+  /**
+   * Create a new symbol table.
+   *
+   * @param size The number of slots, which must be a power of two.
+   */
+  SymbolTable(final int size)
+  {
+    if (size <= 0 || (size & (size - 1)) != 0)
+    {
+      throw new IllegalArgumentException("size must be a power of two");
+    }
+    slots = new Object[size];
+  }
+
+  /**
+   * Retrieve the canonical symbol for a string, creating it if the string is
+   * not in the table.
+   *
+   * @param string The string.
+   * @return The canonical symbol for the string.
+   */
+  @SuppressWarnings("unchecked")
+  T get(final String string)
+  {
+    int hash = string.hashCode();
+    int slot = (hash ^ (hash >>> 16)) & (slots.length - 1);
+    T symbol = (T) slots[slot];
+    if (symbol == null || !string.equals(getString(symbol)))
+    {
+      symbol = create(string);
+      slots[slot] = symbol;
+    }
+    return symbol;
+  }
+
+  /**
+   * Retrieve the string a symbol was created from.
+   *
+   * @param symbol The symbol.
+   * @return The string the symbol was created from.
+   */
+  protected abstract String getString(final T symbol);
+
+  /**
+   * Create a new symbol for a string.
+   *
+   * @param string The string.
+   * @return The new symbol.
+   */
+  protected abstract T create(final String string);
+}
@@ -0,0 +1,292 @@
+/*
+ * Copyright 2021 Ping Identity Corporation
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPLv2 only)
+ * or the terms of the GNU Lesser General Public License (LGPLv2.1 only)
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ */
+
+package com.unboundid.scim2.common;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.fail;
+
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import com.unboundid.scim2.common.utils.DateTimeUtils;
+
+import javax.xml.bind.DatatypeConverter;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.Random;
+import java.util.TimeZone;
+
+
+/**
+ * Test coverage for {@code DateTimeUtils}, which must produce exactly the same
+ * results as {@code DatatypeConverter}.
+ */
+public class DateTimeUtilsTestCase
+{
+  private static final String[] TIME_ZONES =
+      {
+          "UTC", "America/New_York", "America/St_Johns", "Asia/Kolkata",
+          "Australia/Lord_Howe", "Pacific/Chatham", "Europe/Amsterdam"
+      };
+
+  /**
+   * Retrieves DateTime strings to parse.
+   *
+   * @return The DateTime strings to parse.
+   */
+  @DataProvider
+  public Object[][] dateTimeStrings()
+  {
+    return new Object[][]
+        {
+            new Object[] { "2015-02-27T11:28:39Z" },
+            new Object[] { "2015-02-27T11:28:39.5Z" },
+            new Object[] { "2015-02-27T11:28:39.000Z" },
+            new Object[] { "2015-02-27T11:28:39.1239Z" },
+            new Object[] { "2015-02-27T11:28:39.123456789123Z" },
+            new Object[] { "2015-02-27T11:28:39-06:00" },
+            new Object[] { "2015-02-27T11:28:39.25+05:30" },
+            new Object[] { "2015-02-27T11:28:39-00:00" },
+            new Object[] { "2015-02-27T11:28:39+14:00" },
+            new Object[] { "2015-02-27T11:28:39-09:05" },
+            new Object[] { "2016-02-29T00:00:00Z" },
+            new Object[] { "2000-02-29T23:59:59Z" },
+            new Object[] { "9999-12-31T23:59:59.999-14:00" },
+            new Object[] { "0001-01-01T00:00:00Z" },
+            new Object[] { "1000-06-15T12:00:00+01:00" },
+            new Object[] { "1582-10-10T12:00:00Z" },
+            new Object[] { "-0044-03-15T12:00:00Z" },
+            new Object[] { "12345-01-01T00:00:00Z" },
+            new Object[] { "2015-02-27T24:00:00Z" },
+            new Object[] { " 2015-02-27T11:28:39Z " },
+            new Object[] { "2015-02-27T11:28:39" },
+            new Object[] { "2015-02-27" },
+            new Object[] { "2015-02-27T11:28:39+05:60" },
+        };
+  }
+
+  /**
+   * Retrieves invalid DateTime strings.
+   *
+   * @return The invalid DateTime strings.
+   */
+  @DataProvider
+  public Object[][] invalidDateTimeStrings()
+  {
+    return new Object[][]
+        {
+            new Object[] { "" },
+            new Object[] { "2015-02-27T11:28Z" },
+            new Object[] { "2015-02-29T11:28:39Z" },
+            new Object[] { "2015-13-27T11:28:39Z" },
+            new Object[] { "2015-02-27T11:61:39Z" },
+            new Object[] { "2015-02-27T11:28:39.Z" },
+            new Object[] { "2015-02-27T11:28:39+15:00" },
+            new Object[] { "2015-02-27 11:28:39Z" },
+            new Object[] { "2015-02-27T11:28:39z" },
+            new Object[] { "not a date" },
+        };
+  }
+
+  /**
+   * Tests that formatting produces the same strings as DatatypeConverter.
+   */
+  @Test
+  public void testFormat()
+  {
+    Random random = new Random(42);
+    for (String id : TIME_ZONES)
+    {
+      TimeZone timeZone = TimeZone.getTimeZone(id);
+      for (int i = 0; i < 2000; i++)
+      {
+        // Instants between the years 1000 and 3000, with whole seconds half
+        // the time.
+        long epochMillis = -30610224000000L +
+            (long) (random.nextDouble() * 63113904000000L);
+        if (random.nextBoolean())
+        {
+          epochMillis -= Math.floorMod(epochMillis, 1000L);
+        }
+
+        Calendar calendar = Calendar.getInstance(timeZone);
+        calendar.setTimeInMillis(epochMillis);
+        String expected = DatatypeConverter.printDateTime(calendar);
+
+        Date date = new Date(epochMillis);
+        assertEquals(DateTimeUtils.format(date, timeZone), expected);
+        assertEquals(DateTimeUtils.format(epochMillis, timeZone), expected);
+        assertEquals(DateTimeUtils.format(calendar), expected);
+        if (id.equals("UTC"))
+        {
+          assertEquals(DateTimeUtils.format(date), expected);
+          assertEquals(DateTimeUtils.format(epochMillis), expected);
+        }
+      }
+    }
+  }
+
+  /**
+   * Tests that formatting a parsed calendar produces the same string as
+   * DatatypeConverter.
+   *
+   * @param dateStr The DateTime string.
+   */
+  @Test(dataProvider = "dateTimeStrings")
+  public void testFormatParsed(final String dateStr)
+  {
+    assertEquals(DateTimeUtils.format(DateTimeUtils.parse(dateStr)),
+        DatatypeConverter.printDateTime(
+            DatatypeConverter.parseDateTime(dateStr)));
+  }
+
+  /**
+   * Tests that parsing produces the same values as DatatypeConverter.
+   *
+   * @param dateStr The DateTime string.
+   */
+  @Test(dataProvider = "dateTimeStrings")
+  public void testParse(final String dateStr)
+  {
+    Calendar expected = DatatypeConverter.parseDateTime(dateStr);
+    assertEquals(DateTimeUtils.parse(dateStr), expected);
+    assertEquals(DateTimeUtils.parseEpochMillis(dateStr),
+        expected.getTimeInMillis());
+    assertEquals(DateTimeUtils.parseEpochMillis(new StringBuilder(dateStr)),
+        expected.getTimeInMillis());
+  }
+
+  /**
+   * Tests that invalid strings are rejected like DatatypeConverter.
+   *
+   * @param dateStr The invalid DateTime string.
+   */
+  @Test(dataProvider = "invalidDateTimeStrings")
+  public void testParseInvalid(final String dateStr)
+  {
+    try
+    {
+      DatatypeConverter.parseDateTime(dateStr);
+      fail("DatatypeConverter accepted '" + dateStr + "'");
+    }
+    catch (IllegalArgumentException e)
+    {
+      // Expected.
+    }
+
+    try
+    {
+      DateTimeUtils.parse(dateStr);
+      fail("Expected IllegalArgumentException for '" + dateStr + "'");
+    }
+    catch (IllegalArgumentException e)
+    {
+      // Expected.
+    }
+
+    try
+    {
+      DateTimeUtils.parseEpochMillis(dateStr);
+      fail("Expected IllegalArgumentException for '" + dateStr + "'");
+    }
+    catch (IllegalArgumentException e)
+    {
+      // Expected.
+    }
+  }
+
+  /**
+   * Tests random round trips through parse and format.
+   */
+  @Test
+  public void testRoundTrip()
+  {
+    Random random = new Random(7);
+    for (String id : TIME_ZONES)
+    {
+      TimeZone timeZone = TimeZone.getTimeZone(id);
+      for (int i = 0; i < 1000; i++)
+      {
+        // Instants from 1940, after the zones adopted offsets in whole
+        // minutes, to the year 10000.
+        long epochMillis = -946771200000L +
+            (long) (random.nextDouble() * 254349071999999L);
+        String formatted = DateTimeUtils.format(epochMillis, timeZone);
+        assertEquals(DateTimeUtils.parse(formatted),
+            DatatypeConverter.parseDateTime(formatted));
+        assertEquals(DateTimeUtils.parseEpochMillis(formatted), epochMillis);
+      }
+    }
+  }
+
+  /**
+   * Tests parsing and formatting with nanosecond precision.
+   */
+  @Test
+  public void testEpochNanos()
+  {
+    assertEquals(DateTimeUtils.parseEpochNanos("1970-01-01T00:00:00Z"), 0L);
+    assertEquals(DateTimeUtils.parseEpochNanos(
+        "2015-02-27T11:28:39.123456789Z"), 1425036519123456789L);
+    assertEquals(DateTimeUtils.parseEpochNanos(
+        "2015-02-27T12:28:39.1234567899+01:00"), 1425036519123456789L);
+    assertEquals(DateTimeUtils.parseEpochNanos(
+        "1969-12-31T23:59:59.999999999Z"), -1L);
+
+    assertEquals(DateTimeUtils.formatEpochNanos(1425036519123456789L),
+        "2015-02-27T11:28:39.123456789Z");
+    assertEquals(DateTimeUtils.formatEpochNanos(1425036519120000000L),
+        "2015-02-27T11:28:39.12Z");
+    assertEquals(DateTimeUtils.formatEpochNanos(1425036519000000000L),
+        "2015-02-27T11:28:39Z");
+    assertEquals(DateTimeUtils.formatEpochNanos(-1L),
+        "1969-12-31T23:59:59.999999999Z");
+
+    Random random = new Random(11);
+    for (int i = 0; i < 1000; i++)
+    {
+      long epochNanos = random.nextLong();
+      assertEquals(DateTimeUtils.parseEpochNanos(
+          DateTimeUtils.formatEpochNanos(epochNanos)), epochNanos);
+    }
+
+    try
+    {
+      DateTimeUtils.parseEpochNanos("2300-01-01T00:00:00Z");
+      fail("Expected IllegalArgumentException");
+    }
+    catch (IllegalArgumentException e)
+    {
+      // Expected.
+    }
+  }
+
+  /**
+   * Tests that recently formatted instants are cached.
+   */
+  @Test
+  public void testFormatCache()
+  {
+    long epochMillis = 1425036519123L;
+    String formatted = DateTimeUtils.format(epochMillis);
+    assertEquals(formatted, "2015-02-27T11:28:39.123Z");
+    assertSame(DateTimeUtils.format(epochMillis), formatted);
+    assertSame(DateTimeUtils.format(new Date(epochMillis)), formatted);
+  }
+}
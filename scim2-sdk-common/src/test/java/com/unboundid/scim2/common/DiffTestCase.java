@@ -28,6 +28,7 @@ import com.unboundid.scim2.common.types.InstantMessagingAddress;
 import com.unboundid.scim2.common.types.Name;
 import com.unboundid.scim2.common.types.PhoneNumber;
 import com.unboundid.scim2.common.types.Photo;
+import com.unboundid.scim2.common.utils.JsonDiff;
 import com.unboundid.scim2.common.utils.JsonUtils;
 import org.testng.Assert;
 import org.testng.annotations.Test;
@@ -35,8 +36,12 @@ import org.testng.annotations.Test;
 import java.io.IOException;
 import java.math.BigDecimal;
 import java.net.URI;
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertTrue;
@@ -1092,6 +1097,208 @@ public class DiffTestCase
     Assert.assertEquals(d.size(), 0);
   }
 
+  /**
+   * Test that a bulk diff produces the same results as diffing each pair
+   * individually, both in input order and in completion order.
+   *
+   * @throws Exception if an error occurs.
+   */
+  @Test
+  public void testDiffAll() throws Exception
+  {
+    final List<JsonDiff.Pair> pairs = new ArrayList<JsonDiff.Pair>();
+    for (int i = 0; i < 200; i++)
+    {
+      ObjectNode source = JsonUtils.getJsonNodeFactory().objectNode();
+      ObjectNode target = JsonUtils.getJsonNodeFactory().objectNode();
+      source.put("userName", "user" + i);
+      target.put("userName", "user" + i);
+      source.put("title", "title" + i);
+      target.put("title", "title" + (i % 3 == 0 ? i : i + 1));
+      target.putArray("emails").addObject().put("value", i + "@example.com");
+      pairs.add(new JsonDiff.Pair(source, target));
+    }
+
+    for (final boolean preserveOrder : new boolean[] { true, false })
+    {
+      final List<Long> indexes = new ArrayList<Long>();
+      JsonUtils.diffAll(pairs, true, 4, preserveOrder,
+          new JsonDiff.DiffResultHandler()
+          {
+            public void handle(final long index, final JsonDiff.Pair pair,
+                               final List<PatchOperation> operations)
+            {
+              assertEquals(operations, JsonUtils.diff(
+                  pair.getSource(), pair.getTarget(), true));
+              indexes.add(index);
+            }
+          });
+
+      assertEquals(indexes.size(), pairs.size());
+      for (int i = 0; i < pairs.size(); i++)
+      {
+        if (preserveOrder)
+        {
+          assertEquals(indexes.get(i).longValue(), i);
+        }
+        else
+        {
+          assertTrue(indexes.contains((long) i));
+        }
+      }
+    }
+  }
+
+  /**
+   * Test that a bulk diff delivers errors thrown while diffing a pair to the
+   * calling thread instead of waiting for a result forever, and that it
+   * uses the provided executor without shutting it down.
+   *
+   * @throws Exception if an error occurs.
+   */
+  @Test(timeOut = 60000)
+  public void testDiffAllFailure() throws Exception
+  {
+    final List<JsonDiff.Pair> pairs = new ArrayList<JsonDiff.Pair>();
+    for (int i = 0; i < 20; i++)
+    {
+      ObjectNode source = JsonUtils.getJsonNodeFactory().objectNode();
+      ObjectNode target = JsonUtils.getJsonNodeFactory().objectNode();
+      source.put("userName", "user" + i);
+      target.put("userName", "user" + (i + 1));
+      pairs.add(new JsonDiff.Pair(source, target));
+    }
+
+    JsonDiff failingDiff = new JsonDiff()
+    {
+      @Override
+      public List<PatchOperation> diff(final ObjectNode source,
+                                       final ObjectNode target,
+                                       final boolean removeMissing)
+      {
+        if (source.path("userName").textValue().equals("user10"))
+        {
+          throw new StackOverflowError();
+        }
+        return super.diff(source, target, removeMissing);
+      }
+    };
+
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try
+    {
+      try
+      {
+        failingDiff.diffAll(pairs, true, 2, true,
+            new JsonDiff.DiffResultHandler()
+            {
+              public void handle(final long index, final JsonDiff.Pair pair,
+                                 final List<PatchOperation> operations)
+              {
+                // Ignore the results.
+              }
+            }, executor);
+        fail("Expected StackOverflowError");
+      }
+      catch (StackOverflowError e)
+      {
+        // Expected.
+      }
+
+      final List<Long> indexes = new ArrayList<Long>();
+      JsonUtils.diffAll(pairs, true, 2, true,
+          new JsonDiff.DiffResultHandler()
+          {
+            public void handle(final long index, final JsonDiff.Pair pair,
+                               final List<PatchOperation> operations)
+            {
+              indexes.add(index);
+            }
+          }, executor);
+      assertEquals(indexes.size(), pairs.size());
+      assertTrue(!executor.isShutdown());
+    }
+    finally
+    {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Test that a bulk diff never diffs more pairs concurrently than its
+   * parallelism, even when the executor has more threads.
+   *
+   * @throws Exception if an error occurs.
+   */
+  @Test(timeOut = 60000)
+  public void testDiffAllParallelism() throws Exception
+  {
+    final List<JsonDiff.Pair> pairs = new ArrayList<JsonDiff.Pair>();
+    for (int i = 0; i < 100; i++)
+    {
+      ObjectNode source = JsonUtils.getJsonNodeFactory().objectNode();
+      ObjectNode target = JsonUtils.getJsonNodeFactory().objectNode();
+      source.put("userName", "user" + i);
+      target.put("userName", "user" + (i + 1));
+      pairs.add(new JsonDiff.Pair(source, target));
+    }
+
+    final AtomicInteger running = new AtomicInteger();
+    final AtomicInteger maxRunning = new AtomicInteger();
+    JsonDiff countingDiff = new JsonDiff()
+    {
+      @Override
+      public List<PatchOperation> diff(final ObjectNode source,
+                                       final ObjectNode target,
+                                       final boolean removeMissing)
+      {
+        int current = running.incrementAndGet();
+        try
+        {
+          while (true)
+          {
+            int max = maxRunning.get();
+            if (current <= max || maxRunning.compareAndSet(max, current))
+            {
+              break;
+            }
+          }
+          Thread.sleep(1);
+          return super.diff(source, target, removeMissing);
+        }
+        catch (InterruptedException e)
+        {
+          throw new RuntimeException(e);
+        }
+        finally
+        {
+          running.decrementAndGet();
+        }
+      }
+    };
+
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    try
+    {
+      final List<Long> indexes = new ArrayList<Long>();
+      countingDiff.diffAll(pairs, true, 2, true,
+          new JsonDiff.DiffResultHandler()
+          {
+            public void handle(final long index, final JsonDiff.Pair pair,
+                               final List<PatchOperation> operations)
+            {
+              indexes.add(index);
+            }
+          }, executor);
+      assertEquals(indexes.size(), pairs.size());
+      assertTrue(maxRunning.get() <= 2);
+    }
+    finally
+    {
+      executor.shutdownNow();
+    }
+  }
+
   private void removeNullNodes(JsonNode object)
   {
     Iterator<JsonNode> i = object.elements();
@@ -21,26 +21,34 @@ import com.fasterxml.jackson.annotation.JsonAnyGetter;
 import com.fasterxml.jackson.annotation.JsonAnySetter;
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.google.common.collect.ImmutableMap;
 import com.unboundid.scim2.common.exceptions.ScimException;
 import com.unboundid.scim2.common.filters.Filter;
+import com.unboundid.scim2.common.types.GroupResource;
 import com.unboundid.scim2.common.types.Name;
+import com.unboundid.scim2.common.types.UserResource;
 import com.unboundid.scim2.common.utils.DateTimeUtils;
 import com.unboundid.scim2.common.utils.JsonUtils;
 import com.unboundid.scim2.common.utils.MapperFactory;
+import com.unboundid.scim2.common.utils.ScimDataFormat;
 import org.testng.Assert;
 import org.testng.annotations.DataProvider;
 import org.testng.annotations.Test;
 
 import java.io.IOException;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
 import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertNotEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
 
 /**
  * Test coverage for the JsonUtil methods.
@@ -1217,4 +1225,186 @@ public class JsonUtilsTestCase
     Assert.assertEquals(objectNode.path("hasValue").textValue(), "value1");
     Assert.assertTrue(objectNode.path("isNull").isMissingNode());
   }
+
+  /**
+   * Test that the generated accessors produce the same JSON as the default
+   * reflective serializers and deserializers.
+   *
+   * @throws Exception if an error occurs.
+   */
+  @Test
+  public void testGeneratedAccessors() throws Exception
+  {
+    ObjectMapper reflective = MapperFactory.createObjectMapper();
+    ObjectMapper generated;
+    try
+    {
+      new MapperFactory().setGeneratedAccessors(true);
+      generated = MapperFactory.createObjectMapper();
+    }
+    finally
+    {
+      new MapperFactory().setGeneratedAccessors(false);
+    }
+    Assert.assertEquals(generated.getRegisteredModuleIds().size(),
+        reflective.getRegisteredModuleIds().size() + 1);
+
+    String userJson = "{" +
+        "\"schemas\":[\"urn:ietf:params:scim:schemas:core:2.0:User\"," +
+        "\"urn:ietf:params:scim:schemas:extension:enterprise:2.0:User\"]," +
+        "\"id\":\"2819c223\"," +
+        "\"userName\":\"bjensen\"," +
+        "\"name\":{\"givenName\":\"Barbara\",\"familyName\":\"Jensen\"}," +
+        "\"emails\":[{\"value\":\"bjensen@example.com\"," +
+        "\"type\":\"work\",\"primary\":true}]," +
+        "\"active\":true," +
+        "\"meta\":{\"resourceType\":\"User\"," +
+        "\"created\":\"2010-01-23T04:56:22.000Z\"," +
+        "\"location\":\"https://example.com/v2/Users/2819c223\"}," +
+        "\"urn:ietf:params:scim:schemas:extension:enterprise:2.0:User\":" +
+        "{\"employeeNumber\":\"701984\"," +
+        "\"manager\":{\"value\":\"26118915\"}}" +
+        "}";
+    String groupJson = "{" +
+        "\"schemas\":[\"urn:ietf:params:scim:schemas:core:2.0:Group\"]," +
+        "\"id\":\"e9e30dba\"," +
+        "\"displayName\":\"Tour Guides\"," +
+        "\"members\":[{\"value\":\"2819c223\"," +
+        "\"$ref\":\"https://example.com/v2/Users/2819c223\"," +
+        "\"display\":\"Babs\"}]" +
+        "}";
+
+    for (int i = 0; i < 2; i++)
+    {
+      UserResource reflectiveUser =
+          reflective.readValue(userJson, UserResource.class);
+      UserResource generatedUser =
+          generated.readValue(userJson, UserResource.class);
+      assertEquals(generatedUser, reflectiveUser);
+      assertEquals(generated.writeValueAsString(generatedUser),
+          reflective.writeValueAsString(reflectiveUser));
+
+      GroupResource reflectiveGroup =
+          reflective.readValue(groupJson, GroupResource.class);
+      GroupResource generatedGroup =
+          generated.readValue(groupJson, GroupResource.class);
+      assertEquals(generatedGroup, reflectiveGroup);
+      assertEquals(generated.writeValueAsString(generatedGroup),
+          reflective.writeValueAsString(reflectiveGroup));
+    }
+  }
+
+  /**
+   * Test reading and writing resources with the binary data formats.
+   *
+   * @throws Exception If an error occurs.
+   */
+  @Test
+  public void testDataFormats() throws Exception
+  {
+    String userJson = "{" +
+        "\"schemas\":[\"urn:ietf:params:scim:schemas:core:2.0:User\"]," +
+        "\"id\":\"2819c223\"," +
+        "\"userName\":\"bjensen\"," +
+        "\"name\":{\"givenName\":\"Barbara\",\"familyName\":\"Jensen\"}," +
+        "\"emails\":[{\"value\":\"bjensen@example.com\"," +
+        "\"type\":\"work\",\"primary\":true}]," +
+        "\"active\":true," +
+        "\"meta\":{\"resourceType\":\"User\"," +
+        "\"created\":\"2010-01-23T04:56:22.000Z\"," +
+        "\"location\":\"https://example.com/v2/Users/2819c223\"}" +
+        "}";
+    UserResource user = JsonUtils.getObjectReader().forType(
+        UserResource.class).readValue(userJson);
+    byte[] json = JsonUtils.getObjectWriter().writeValueAsBytes(user);
+
+    for (ScimDataFormat dataFormat :
+        new ScimDataFormat[] { ScimDataFormat.CBOR, ScimDataFormat.SMILE })
+    {
+      assertEquals(ScimDataFormat.forMediaType(dataFormat.getMediaType()),
+          dataFormat);
+      assertTrue(dataFormat.isAvailable());
+      byte[] encoded =
+          JsonUtils.getObjectWriter(dataFormat).writeValueAsBytes(user);
+      assertTrue(encoded.length < json.length);
+
+      assertEquals(JsonUtils.getObjectReader(dataFormat).forType(
+          UserResource.class).readValue(encoded), user);
+
+      // Trees read from binary data formats are still case-insensitive.
+      JsonNode node = JsonUtils.getObjectReader(dataFormat).readTree(encoded);
+      assertEquals(node.path("USERNAME").textValue(), "bjensen");
+      assertEquals(node, JsonUtils.getObjectReader().readTree(json));
+    }
+
+    assertEquals(ScimDataFormat.forMediaType("application/json; charset=UTF-8"),
+        ScimDataFormat.JSON);
+    assertEquals(ScimDataFormat.forMediaType("application/cbor"),
+        ScimDataFormat.CBOR);
+    assertEquals(ScimDataFormat.forMediaType("application/x-jackson-smile"),
+        ScimDataFormat.SMILE);
+    assertNull(ScimDataFormat.forMediaType("text/plain"));
+  }
+
+  /**
+   * Test that attribute names and, when enabled, short textual values are
+   * shared between JSON nodes.
+   *
+   * @throws Exception if an error occurs.
+   */
+  @Test
+  public void testSharedNodes() throws Exception
+  {
+    ObjectNode first = JsonUtils.getJsonNodeFactory().objectNode();
+    ObjectNode second = JsonUtils.getJsonNodeFactory().objectNode();
+    first.put(new String("emails"), "first");
+    second.put(new String("emails"), "second");
+    second.put(new String("EMAILS"), "third");
+    assertSame(first.fieldNames().next(), second.fieldNames().next());
+    assertEquals(second.path("emails").textValue(), "third");
+
+    ObjectMapper deduplicating;
+    try
+    {
+      new MapperFactory().setTextValueDeduplication(16);
+      deduplicating = MapperFactory.createObjectMapper();
+    }
+    finally
+    {
+      new MapperFactory().setTextValueDeduplication(0);
+    }
+
+    String userJson = "{" +
+        "\"userName\":\"%s\"," +
+        "\"emails\":[{\"value\":\"%s@example.com\"," +
+        "\"type\":\"work\",\"primary\":true}]" +
+        "}";
+    JsonNode user1 =
+        deduplicating.readTree(String.format(userJson, "bjensen", "bjensen"));
+    JsonNode user2 =
+        deduplicating.readTree(String.format(userJson, "jsmith", "jsmith"));
+    JsonNode email1 = user1.path("emails").path(0);
+    JsonNode email2 = user2.path("emails").path(0);
+    assertTrue(email1.path("type") == email2.path("type"));
+    assertTrue(email1.path("primary") == email2.path("primary"));
+    assertTrue(email1.path("value") != email2.path("value"));
+    assertEquals(user1.path("userName").textValue(), "bjensen");
+
+    Iterator<String> names1 = email1.fieldNames();
+    Iterator<String> names2 = email2.fieldNames();
+    while (names1.hasNext())
+    {
+      assertSame(names1.next(), names2.next());
+    }
+
+    // Longer values and the default mapper do not share text nodes.
+    JsonNode user3 =
+        deduplicating.readTree(String.format(userJson, "bjensen", "bjensen"));
+    assertTrue(user3.path("emails").path(0).path("value") !=
+        email1.path("value"));
+    assertTrue(user3.path("userName") == user1.path("userName"));
+    assertTrue(JsonUtils.getObjectReader().readTree(
+        String.format(userJson, "bjensen", "bjensen")).path("userName") !=
+        user1.path("userName"));
+  }
 }
@@ -0,0 +1,264 @@
+/*
+ * Copyright 2021 Ping Identity Corporation
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPLv2 only)
+ * or the terms of the GNU Lesser General Public License (LGPLv2.1 only)
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ */
+
+package com.unboundid.scim2.common;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.unboundid.scim2.common.utils.JsonUtils;
+import com.unboundid.scim2.common.utils.ScimDataFormat;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+/**
+ * Test coverage for the {@code RawScimResource} class.
+ */
+public class RawScimResourceTestCase
+{
+  // Unusual whitespace shows whether the bytes were copied as is.
+  private static final String RESOURCE =
+      "{ \"schemas\" : [ \"urn:ietf:params:scim:schemas:core:2.0:User\" ], " +
+      "\"id\" : \"1\", \"userName\" : \"béa\", " +
+      "\"meta\" : { \"resourceType\" : \"User\", \"version\" : \"W/\\\"1\\\"\" } }";
+
+  /**
+   * Retrieves the different ways to create the same raw resource.
+   *
+   * @return The raw resources.
+   */
+  @DataProvider
+  public Object[][] rawResources()
+  {
+    byte[] bytes = RESOURCE.getBytes(StandardCharsets.UTF_8);
+    byte[] padded = new byte[bytes.length + 6];
+    System.arraycopy(bytes, 0, padded, 3, bytes.length);
+
+    ByteBuffer heapBuffer = ByteBuffer.wrap(padded, 3, bytes.length);
+    ByteBuffer directBuffer = ByteBuffer.allocateDirect(bytes.length + 2);
+    directBuffer.put((byte) ' ').put(bytes).flip();
+    directBuffer.position(1);
+
+    return new Object[][]
+        {
+            new Object[] { new RawScimResource(bytes) },
+            new Object[] { new RawScimResource(padded, 3, bytes.length) },
+            new Object[] { new RawScimResource(heapBuffer.slice()) },
+            new Object[] { new RawScimResource(heapBuffer) },
+            new Object[] { new RawScimResource(directBuffer) },
+        };
+  }
+
+  /**
+   * Tests that unmodified raw resources are written as is.
+   *
+   * @param resource The raw resource.
+   * @throws Exception If an error occurs.
+   */
+  @Test(dataProvider = "rawResources")
+  public void testWrite(final RawScimResource resource) throws Exception
+  {
+    resource.validate();
+    assertEquals(JsonUtils.getObjectWriter().writeValueAsString(resource),
+        RESOURCE);
+    assertEquals(resource.toString(), RESOURCE);
+
+    // Writing to a tree or a binary format converts the JSON.
+    JsonNode expected = JsonUtils.getObjectReader().readTree(RESOURCE);
+    assertEquals(JsonUtils.valueToNode(resource), expected);
+    byte[] cbor = JsonUtils.getObjectWriter(ScimDataFormat.CBOR).
+        writeValueAsBytes(resource);
+    assertEquals(JsonUtils.getObjectReader(ScimDataFormat.CBOR).readTree(cbor),
+        expected);
+
+    // Reading attributes does not modify the resource.
+    assertEquals(resource.getId(), "1");
+    assertEquals(resource.getMeta().getVersion(), "W/\"1\"");
+    assertEquals(resource.getSchemaUrns(), Collections.singletonList(
+        "urn:ietf:params:scim:schemas:core:2.0:User"));
+    assertFalse(resource.isModified());
+    assertEquals(JsonUtils.getObjectWriter().writeValueAsString(resource),
+        RESOURCE);
+  }
+
+  /**
+   * Tests that modified raw resources are written from the parsed resource.
+   *
+   * @param resource The raw resource.
+   * @throws Exception If an error occurs.
+   */
+  @Test(dataProvider = "rawResources")
+  public void testModify(final RawScimResource resource) throws Exception
+  {
+    resource.setExternalId("external");
+    assertTrue(resource.isModified());
+    assertEquals(resource.getExternalId(), "external");
+
+    ObjectNode expected =
+        (ObjectNode) JsonUtils.getObjectReader().readTree(RESOURCE);
+    expected.put("externalId", "external");
+    assertEquals(JsonUtils.getObjectReader().readTree(
+        JsonUtils.getObjectWriter().writeValueAsString(resource)), expected);
+
+    resource.asGenericScimResource().getObjectNode().put("nickName", "nick");
+    expected.put("nickName", "nick");
+    assertEquals(JsonUtils.valueToNode(resource), expected);
+  }
+
+  /**
+   * Tests validation of raw resources.
+   */
+  @Test
+  public void testValidate()
+  {
+    String[] invalid =
+        {
+            "",
+            "[ { \"id\" : \"1\" } ]",
+            "\"id\"",
+            "{ \"id\" : \"1\"",
+            "{ \"id\" : \"1\" } { \"id\" : \"2\" }",
+            "{ \"id\" : \"1\" } x",
+        };
+    for(String value : invalid)
+    {
+      RawScimResource resource =
+          new RawScimResource(value.getBytes(StandardCharsets.UTF_8));
+      try
+      {
+        resource.validate();
+        fail("Expected an IOException for '" + value + "'");
+      }
+      catch(IOException e)
+      {
+        // Expected.
+      }
+    }
+
+    try
+    {
+      new RawScimResource(new byte[4], 2, 3);
+      fail("Expected IndexOutOfBoundsException");
+    }
+    catch(IndexOutOfBoundsException e)
+    {
+      // Expected.
+    }
+  }
+
+  /**
+   * Tests reading values without parsing the whole resource.
+   *
+   * @throws Exception If an error occurs.
+   */
+  @Test
+  public void testGetValue() throws Exception
+  {
+    String json = "{ \"ID\" : \"2\", " +
+        "\"Name\" : { \"givenName\" : \"Bea\", \"familyName\" : \"B\" }, " +
+        "\"emails\" : [ { \"type\" : \"work\", \"value\" : \"w@x.com\" }, " +
+        "{ \"type\" : \"home\", \"value\" : \"h@x.com\" } ], " +
+        "\"urn:ext:1\" : { \"level\" : 3 }, \"active\" : true }";
+    byte[] bytes = ("  " + json + "  ").getBytes(StandardCharsets.UTF_8);
+    RawScimResource resource = new RawScimResource(bytes, 2, bytes.length - 4);
+    GenericScimResource expected = JsonUtils.getObjectReader().
+        forType(GenericScimResource.class).readValue(json);
+
+    String[] paths =
+        {
+            "id", "name.familyName", "NAME", "emails",
+            "emails[type eq \"home\"].value", "urn:ext:1:level", "urn:ext:1",
+            "active", "missing", "name.missing",
+        };
+    for(String path : paths)
+    {
+      assertEquals(resource.getValue(path), expected.getValue(path), path);
+    }
+    assertEquals(resource.getId(), "2");
+    assertEquals(resource.getExternalId(), null);
+    assertEquals(resource.getMeta(), null);
+    assertTrue(resource.getSchemaUrns().isEmpty());
+    assertFalse(resource.isModified());
+    assertEquals(resource.toString(), json);
+
+    // Values are read from the parsed resource once it is modified.
+    resource.asGenericScimResource().replaceValue("name.familyName",
+        JsonUtils.valueToNode("C"));
+    assertEquals(resource.getValue("name.familyName").textValue(), "C");
+  }
+
+  /**
+   * Tests deserializing lazy generic resources.
+   *
+   * @throws Exception If an error occurs.
+   */
+  @Test
+  public void testLazyGenericScimResource() throws Exception
+  {
+    String json = "[" + RESOURCE + "," +
+        "{\"id\":\"2\",\"meta\":{\"version\":\"2\"}}]";
+    JsonNode expected = JsonUtils.getObjectReader().readTree(json);
+    TypeReference<List<LazyGenericScimResource>> type =
+        new TypeReference<List<LazyGenericScimResource>>()
+        {
+        };
+
+    for(ScimDataFormat dataFormat : ScimDataFormat.values())
+    {
+      byte[] encoded = JsonUtils.getObjectWriter(dataFormat).
+          writeValueAsBytes(expected);
+      List<LazyGenericScimResource> resources =
+          JsonUtils.getObjectReader(dataFormat).forType(type).
+              readValue(encoded);
+
+      assertEquals(resources.size(), 2);
+      LazyGenericScimResource first = resources.get(0);
+      assertEquals(first.getId(), "1");
+      assertEquals(first.getValue("userName").textValue(), "béa");
+      LazyGenericScimResource second = resources.get(1);
+      assertEquals(second.getMeta().getVersion(), "2");
+      assertFalse(second.isModified());
+
+      // Resources are written again from their bytes.
+      assertEquals(JsonUtils.getObjectWriter().writeValueAsString(second),
+          "{\"id\":\"2\",\"meta\":{\"version\":\"2\"}}");
+      assertEquals(JsonUtils.valueToNode(resources), expected);
+    }
+
+    try
+    {
+      JsonUtils.getObjectReader().forType(LazyGenericScimResource.class).
+          readValue("[]");
+      fail("Expected an IOException");
+    }
+    catch(IOException e)
+    {
+      // Expected.
+    }
+  }
+}
@@ -0,0 +1,265 @@
+/*
+ * Copyright 2021 Ping Identity Corporation
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPLv2 only)
+ * or the terms of the GNU Lesser General Public License (LGPLv2.1 only)
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ */
+
+package com.unboundid.scim2.common;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.unboundid.scim2.common.messages.PatchOperation;
+import com.unboundid.scim2.common.utils.JsonUtils;
+import com.unboundid.scim2.common.utils.StreamingJsonDiff;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Test the streaming SCIM resource diff utility.
+ */
+public class StreamingJsonDiffTestCase
+{
+  /**
+   * Test that applying the operations generated for a large group makes the
+   * source match the target when the keyed values are spilled to disk.
+   *
+   * @throws Exception if an error occurs.
+   */
+  @Test
+  public void testLargeGroupDiff() throws Exception
+  {
+    ObjectNode source = JsonUtils.getJsonNodeFactory().objectNode();
+    ObjectNode target = JsonUtils.getJsonNodeFactory().objectNode();
+    source.put("displayName", "Big Group");
+    target.put("displayName", "Bigger Group");
+    source.put("description", "removed");
+    ArrayNode sourceMembers = source.putArray("members");
+    ArrayNode targetMembers = target.putArray("members");
+    for (int i = 0; i < 600; i++)
+    {
+      // Keep the first 400, drop the next 200 and add 100 new ones.
+      ObjectNode member = sourceMembers.addObject();
+      member.put("value", "user" + i);
+      member.put("display", "User " + i);
+      if (i < 400)
+      {
+        ObjectNode copy = member.deepCopy();
+        if (i == 7)
+        {
+          copy.put("display", "Renamed");
+        }
+        targetMembers.add(copy);
+      }
+    }
+    for (int i = 600; i < 700; i++)
+    {
+      targetMembers.addObject().put("value", "user" + i);
+    }
+    // Primitive keyed values.
+    ArrayNode sourceTags = source.putArray("tags");
+    for (int i = 0; i < 300; i++)
+    {
+      sourceTags.add("tag" + i);
+    }
+    target.putArray("tags").add("tag1").add("new");
+
+    final List<PatchOperation> operations = diff(source, target, true);
+
+    ObjectNode patched = source.deepCopy();
+    for (PatchOperation operation : operations)
+    {
+      operation.apply(patched);
+    }
+    assertEquals(patched.path("displayName").textValue(), "Bigger Group");
+    assertTrue(patched.path("description").isMissingNode());
+    assertEquals(members(patched.path("members")),
+        members(target.path("members")));
+    assertEquals(members(patched.path("tags")), members(target.path("tags")));
+  }
+
+  /**
+   * Test that small resources produce the same operations as the in-memory
+   * diff.
+   *
+   * @throws Exception if an error occurs.
+   */
+  @Test
+  public void testSmallResourceDiff() throws Exception
+  {
+    ObjectNode source = JsonUtils.getJsonNodeFactory().objectNode();
+    ObjectNode target = JsonUtils.getJsonNodeFactory().objectNode();
+    source.put("userName", "bjensen");
+    target.put("userName", "bjensen2");
+    source.putArray("emails").addObject().put("value", "a@example.com");
+    target.putArray("emails").addObject().put("value", "b@example.com");
+    source.putObject("name").put("givenName", "Barbara");
+    target.putObject("name").put("givenName", "Babs");
+
+    assertEquals(diff(source, target, false),
+        JsonUtils.diff(source, target, false));
+  }
+
+  /**
+   * Test that values with the same key, or keys that only differ by case,
+   * are neither dropped nor patched by a value filter that matches several
+   * of them, both in memory and when the values are spilled to disk.
+   *
+   * @throws Exception if an error occurs.
+   */
+  @Test
+  public void testDuplicateKeys() throws Exception
+  {
+    for (int count : new int[] { 150, 2000 })
+    {
+      ObjectNode source = JsonUtils.getJsonNodeFactory().objectNode();
+      ObjectNode target = JsonUtils.getJsonNodeFactory().objectNode();
+      ArrayNode sourceEmails = source.putArray("emails");
+      ArrayNode targetEmails = target.putArray("emails");
+      for (int i = 0; i < count; i++)
+      {
+        ObjectNode email = sourceEmails.addObject();
+        email.put("value", "user" + i + "@example.com");
+        email.put("type", "work");
+        targetEmails.add(email.deepCopy());
+      }
+      // The same value with another type, which is removed.
+      sourceEmails.addObject().put("value", "user3@example.com").
+          put("type", "home");
+      // A value that only differs by case, which is added, and another one
+      // that is kept.
+      targetEmails.addObject().put("value", "USER5@example.com").
+          put("type", "other");
+      sourceEmails.addObject().put("value", "User9@example.com").
+          put("type", "other");
+      targetEmails.addObject().put("value", "User9@example.com").
+          put("type", "other");
+
+      ObjectNode patched = source.deepCopy();
+      for (PatchOperation operation : diff(source, target, true))
+      {
+        operation.apply(patched);
+      }
+      assertEquals(patched.path("emails").size(), count + 2);
+      assertEquals(members(patched.path("emails")),
+          members(target.path("emails")));
+    }
+  }
+
+  /**
+   * Test that many values with duplicate keys under a small memory limit
+   * are spilled with the other values rather than kept in memory, and do not
+   * produce a temporary file for every value.
+   *
+   * @throws Exception if an error occurs.
+   */
+  @Test
+  public void testManyDuplicateKeys() throws Exception
+  {
+    ObjectNode source = JsonUtils.getJsonNodeFactory().objectNode();
+    ObjectNode target = JsonUtils.getJsonNodeFactory().objectNode();
+    ArrayNode sourceEmails = source.putArray("emails");
+    ArrayNode targetEmails = target.putArray("emails");
+    for (int i = 0; i < 5000; i++)
+    {
+      ObjectNode email = sourceEmails.addObject();
+      email.put("value", "user" + (i % 20) + "@example.com");
+      email.put("type", "type" + i);
+      if (i % 10 != 0)
+      {
+        targetEmails.add(email.deepCopy());
+      }
+    }
+
+    final File tmpDir = new File(System.getProperty("java.io.tmpdir"));
+    final int[] maxRuns = new int[1];
+    ObjectNode patched = source.deepCopy();
+    for (PatchOperation operation : diff(source, target, true,
+        new Runnable()
+        {
+          public void run()
+          {
+            String[] runs = tmpDir.list(new FilenameFilter()
+            {
+              public boolean accept(final File dir, final String name)
+              {
+                return name.startsWith("scim-diff-");
+              }
+            });
+            maxRuns[0] = Math.max(maxRuns[0], runs == null ? 0 : runs.length);
+          }
+        }))
+    {
+      operation.apply(patched);
+    }
+    assertEquals(patched.path("emails").size(), 4500);
+    assertEquals(members(patched.path("emails")),
+        members(target.path("emails")));
+    assertTrue(maxRuns[0] <= 256, "Too many spilled runs: " + maxRuns[0]);
+  }
+
+  private static List<PatchOperation> diff(final ObjectNode source,
+                                           final ObjectNode target,
+                                           final boolean removeMissing)
+      throws Exception
+  {
+    return diff(source, target, removeMissing, null);
+  }
+
+  private static List<PatchOperation> diff(final ObjectNode source,
+                                           final ObjectNode target,
+                                           final boolean removeMissing,
+                                           final Runnable onOperation)
+      throws Exception
+  {
+    final List<PatchOperation> operations = new ArrayList<PatchOperation>();
+    JsonParser sourceParser = JsonUtils.getObjectReader().getFactory()
+        .createParser(JsonUtils.getObjectWriter().writeValueAsBytes(source));
+    JsonParser targetParser = JsonUtils.getObjectReader().getFactory()
+        .createParser(JsonUtils.getObjectWriter().writeValueAsBytes(target));
+    new StreamingJsonDiff(4096, 100).diff(sourceParser, targetParser,
+        removeMissing, new StreamingJsonDiff.PatchOperationHandler()
+        {
+          public void handle(final PatchOperation operation)
+          {
+            if (onOperation != null)
+            {
+              onOperation.run();
+            }
+            operations.add(operation);
+          }
+        });
+    return operations;
+  }
+
+  private static Set<JsonNode> members(final JsonNode array)
+  {
+    Set<JsonNode> members = new HashSet<JsonNode>();
+    for (JsonNode member : array)
+    {
+      members.add(member);
+    }
+    return members;
+  }
+}
@@ -17,6 +17,7 @@
 
 package com.unboundid.scim2.common;
 
+import com.unboundid.scim2.common.types.Email;
 import com.unboundid.scim2.common.types.EnterpriseUserExtension;
 import com.unboundid.scim2.common.types.UserResource;
 import com.unboundid.scim2.common.utils.JsonUtils;
@@ -25,11 +26,15 @@ import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
 
 import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertFalse;
 import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertSame;
 import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
 
 /**
  * Some basic tests for serializing and de-serializing of the core user
@@ -324,4 +329,104 @@ public class UserResourceTestCase
     Assert.assertEquals(userResource1, userResource2);
   }
 
+  /**
+   * Test freezing a resource and caching its generic view.
+   *
+   * @throws Exception If an error occurs.
+   */
+  @Test
+  public void testFrozenResource() throws Exception
+  {
+    UserResource user = new UserResource().setUserName("bjensen");
+    user.setId("1");
+    user.setEmails(new ArrayList<Email>(Collections.singletonList(
+        new Email().setValue("bjensen@example.com"))));
+    user.replaceExtensionValue(Path.fromString("urn:ext:1:level"),
+        JsonUtils.valueToNode(3));
+    assertFalse(user.isFrozen());
+    assertTrue(user.asGenericScimResource() != user.asGenericScimResource());
+
+    user.freeze();
+    assertTrue(user.isFrozen());
+    GenericScimResource generic = user.asGenericScimResource();
+    assertSame(user.asGenericScimResource(), generic);
+    assertEquals(generic.getId(), "1");
+    assertEquals(generic.getValue("userName").textValue(), "bjensen");
+
+    // The setters of BaseScimResource and its subclasses reject changes.
+    try
+    {
+      user.setId("2");
+      fail("Expected an IllegalStateException");
+    }
+    catch(IllegalStateException e)
+    {
+      // Expected.
+    }
+    try
+    {
+      user.setUserName("babs");
+      fail("Expected an IllegalStateException");
+    }
+    catch(IllegalStateException e)
+    {
+      // Expected.
+    }
+    try
+    {
+      user.replaceExtensionValue(Path.fromString("urn:ext:1:level"),
+          JsonUtils.valueToNode(4));
+      fail("Expected an IllegalStateException");
+    }
+    catch(IllegalStateException e)
+    {
+      // Expected.
+    }
+
+    // So do the collections returned by its getters.
+    try
+    {
+      user.getEmails().clear();
+      fail("Expected an UnsupportedOperationException");
+    }
+    catch(UnsupportedOperationException e)
+    {
+      // Expected.
+    }
+    try
+    {
+      user.getSchemaUrns().add("urn:ext:2");
+      fail("Expected an UnsupportedOperationException");
+    }
+    catch(UnsupportedOperationException e)
+    {
+      // Expected.
+    }
+    user.getExtensionObjectNode().removeAll();
+
+    assertSame(user.asGenericScimResource(), generic);
+    assertEquals(user.getId(), "1");
+    assertEquals(user.getUserName(), "bjensen");
+    assertEquals(user.getEmails().size(), 1);
+    assertEquals(user.getExtensionValues("urn:ext:1:level").get(0).intValue(),
+        3);
+    assertEquals(JsonUtils.valueToNode(user), generic.getObjectNode());
+
+    // The state is not serialized and does not affect equality.
+    assertFalse(generic.getObjectNode().has("frozen"));
+    UserResource copy = JsonUtils.getObjectReader().forType(
+        UserResource.class).readValue(user.toString());
+    assertFalse(copy.isFrozen());
+    assertEquals(copy, user);
+    copy.setUserName("babs");
+    assertEquals(copy.asGenericScimResource().getValue(
+        "userName").textValue(), "babs");
+
+    // The resource was converted when it was frozen, so changes to nested
+    // values, which must not be made, are never partially reflected.
+    user.getEmails().get(0).setValue("babs@example.com");
+    assertSame(user.asGenericScimResource(), generic);
+    assertEquals(generic.getObjectNode().path("emails").path(0).path(
+        "value").textValue(), "bjensen@example.com");
+  }
 }
@@ -18,6 +18,7 @@
 package com.unboundid.scim2.server;
 
 import com.unboundid.scim2.common.ScimResource;
+import com.unboundid.scim2.common.utils.ScimDataFormat;
 
 import javax.ws.rs.core.StreamingOutput;
 import java.io.IOException;
@@ -44,11 +45,38 @@ public abstract class ListResponseStreamingOutput<T extends ScimResource>
    * {@inheritDoc}
    */
   public final void write(final OutputStream os) throws IOException
+  {
+    write(os, ScimDataFormat.JSON);
+  }
+
+  /**
+   * Write the list response to an output stream using a data format. This
+   * is used by {@link com.unboundid.scim2.server.providers.ListResponseDataFormatWriter}
+   * when a binary data format is negotiated.
+   *
+   * @param os The output stream to write to.
+   * @param dataFormat The data format to write.
+   * @throws IOException if an error occurs while writing.
+   */
+  public final void write(final OutputStream os,
+                          final ScimDataFormat dataFormat) throws IOException
   {
     ListResponseWriter<T> handler =
-        new ListResponseWriter<T>(os);
-    handler.startResponse();
-    write(handler);
-    handler.endResponse();
+        new ListResponseWriter<T>(os, dataFormat);
+    boolean completed = false;
+    try
+    {
+      handler.startResponse();
+      write(handler);
+      handler.endResponse();
+      completed = true;
+    }
+    finally
+    {
+      if(!completed)
+      {
+        handler.abortResponse();
+      }
+    }
   }
 }
@@ -18,31 +18,68 @@
 package com.unboundid.scim2.server;
 
 import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.util.JsonGeneratorDelegate;
 import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.unboundid.scim2.common.RawScimResource;
 import com.unboundid.scim2.common.ScimResource;
 import com.unboundid.scim2.common.utils.JsonUtils;
+import com.unboundid.scim2.common.utils.ScimDataFormat;
+import com.unboundid.scim2.server.utils.ResourcePreparer;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.Map;
-import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 /**
  * An interface for writing list/query results using the SCIM ListResponse
  * container to an OutputStream.
+ * <p>
+ * A ListResponseWriter is used by a single thread for a single response. The
+ * serializer for the resource class is resolved once and reused for every
+ * resource of that class, and the generator's buffers are obtained from and
+ * returned to Jackson's buffer recycler. By default, the output is flushed
+ * after each resource is written. Use {@link #setFlushPolicy(int, long)} to
+ * flush less often when writing large results.
+ * <p>
+ * Resources that are already serialized as JSON may be written with the
+ * rawResource methods or as {@link RawScimResource} instances, in which case
+ * their bytes are copied to the output without parsing them.
+ * <p>
+ * The schemas array and the fields written before the first resource are
+ * buffered until the first resource is written or the response ends, so that
+ * the URNs of the extensions written with {@link #extension} are included in
+ * the schemas array.
  */
 public class ListResponseWriter<T extends ScimResource>
 {
-  private final JsonGenerator jsonGenerator;
+  private final ListResponseGenerator jsonGenerator;
+  private final ObjectWriter objectWriter;
 
-  private final AtomicBoolean startedResourcesArray = new AtomicBoolean();
-  private final AtomicBoolean sentTotalResults = new AtomicBoolean();
-  private final AtomicInteger resultsSent = new AtomicInteger();
+  private boolean startedResourcesArray;
+  private int resultsSent;
 
-  private ObjectNode deferredFields;
+  private Class<?> resourceClass;
+  private ObjectWriter resourceWriter;
+
+  private int flushResourceCount = 1;
+  private long flushIntervalNanos;
+  private int unflushedResources;
+  private long lastFlushNanos;
+
+  private boolean validateRawResources;
+
+  private final Set<String> schemaUrns;
+  private final ObjectNode headerFields;
+  private final ObjectNode deferredFields;
 
   /**
    * Create a new ListResponseOutputStream that will write to the provided
@@ -55,11 +92,97 @@ public class ListResponseWriter<T extends ScimResource>
   public ListResponseWriter(final OutputStream outputStream)
       throws IOException
   {
-    jsonGenerator =
-        JsonUtils.getObjectReader().getFactory().createGenerator(outputStream);
+    this(outputStream, ScimDataFormat.JSON);
+  }
+
+  /**
+   * Create a new ListResponseOutputStream that will write to the provided
+   * output stream using the provided data format.
+   *
+   * @param outputStream The output stream to write to.
+   * @param dataFormat The data format to write.
+   * @throws IOException If an exception occurs while writing to the output
+   * stream.
+   */
+  public ListResponseWriter(final OutputStream outputStream,
+                            final ScimDataFormat dataFormat)
+      throws IOException
+  {
+    ObjectWriter writer = JsonUtils.getObjectWriter(dataFormat);
+    objectWriter =
+        writer.without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+    jsonGenerator = new ListResponseGenerator(
+        writer.getFactory().createGenerator(outputStream));
+    schemaUrns = new LinkedHashSet<String>();
+    schemaUrns.add("urn:ietf:params:scim:api:messages:2.0:ListResponse");
+    headerFields = JsonUtils.getJsonNodeFactory().objectNode();
     deferredFields = JsonUtils.getJsonNodeFactory().objectNode();
   }
 
+  /**
+   * Set when the output should be flushed while resources are written. The
+   * output is flushed once the given number of resources have been written
+   * since the last flush, or when a resource is written after the given
+   * interval has elapsed since the last flush, whichever comes first. The
+   * output is always flushed when the response ends. The default is to flush
+   * after every resource.
+   * <p>
+   * A small resource count or interval lowers the time until clients receive
+   * the first results, while larger values reduce the number of flushes for
+   * large results.
+   *
+   * @param resourceCount The number of resources to write before flushing,
+   *                      or {@code 0} to not flush based on the number of
+   *                      resources.
+   * @param intervalMillis The maximum number of milliseconds between
+   *                       flushes while resources are written, or {@code 0}
+   *                       to not flush based on time.
+   */
+  public void setFlushPolicy(final int resourceCount,
+                             final long intervalMillis)
+  {
+    if(resourceCount < 0)
+    {
+      throw new IllegalArgumentException(
+          "resourceCount must not be negative");
+    }
+    if(intervalMillis < 0)
+    {
+      throw new IllegalArgumentException(
+          "intervalMillis must not be negative");
+    }
+    this.flushResourceCount = resourceCount;
+    this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+  }
+
+  /**
+   * Set whether raw resources are checked to be well-formed JSON objects
+   * before they are written. This is disabled by default.
+   *
+   * @param validateRawResources {@code true} to check raw resources or
+   *                             {@code false} to write them as is.
+   */
+  public void setValidateRawResources(final boolean validateRawResources)
+  {
+    this.validateRawResources = validateRawResources;
+  }
+
+  /**
+   * Flush everything written so far to the output stream immediately.
+   *
+   * @throws IOException If an exception occurs while writing to the output
+   * stream.
+   */
+  public void flush() throws IOException
+  {
+    jsonGenerator.flushOutput();
+    unflushedResources = 0;
+    if(flushIntervalNanos > 0)
+    {
+      lastFlushNanos = System.nanoTime();
+    }
+  }
+
   /**
    * Start the response.
    *
@@ -68,11 +191,8 @@ public class ListResponseWriter<T extends ScimResource>
    */
   void startResponse() throws IOException
   {
+    lastFlushNanos = System.nanoTime();
     jsonGenerator.writeStartObject();
-    jsonGenerator.writeArrayFieldStart("schemas");
-    jsonGenerator.writeString(
-        "urn:ietf:params:scim:api:messages:2.0:ListResponse");
-    jsonGenerator.writeEndArray();
   }
 
   /**
@@ -83,51 +203,111 @@ public class ListResponseWriter<T extends ScimResource>
    */
   void endResponse() throws IOException
   {
-    if(!sentTotalResults.get() && !deferredFields.has("totalResults"))
+    if(!headerFields.has("totalResults") &&
+        !deferredFields.has("totalResults"))
     {
       // The total results was never set. Set it to the calculated one.
-      totalResults(resultsSent.get());
+      totalResults(resultsSent);
     }
-    if(startedResourcesArray.get())
+    if(startedResourcesArray)
     {
       // Close the resources array if currently writing it.
       jsonGenerator.writeEndArray();
     }
-
-    Iterator<Map.Entry<String, JsonNode>> i = deferredFields.fields();
-    while(i.hasNext())
+    else
     {
-      Map.Entry<String, JsonNode> field = i.next();
-      jsonGenerator.writeObjectField(field.getKey(), field.getValue());
+      writeHeader();
     }
+
+    writeFields(deferredFields);
     jsonGenerator.writeEndObject();
-    jsonGenerator.flush();
+    jsonGenerator.flushOutput();
     jsonGenerator.close();
   }
 
   /**
-   * Write the startIndex to the output stream immediately if no resources have
-   * been streamed, otherwise it will be written after the resources array.
+   * Write the schemas array and the buffered fields that precede the
+   * resources array.
    *
-   * @param startIndex The startIndex to write.
    * @throws IOException If an exception occurs while writing to the output
    * stream.
    */
-  public void startIndex(final int startIndex) throws IOException
+  private void writeHeader() throws IOException
   {
-    if(startedResourcesArray.get())
+    jsonGenerator.writeArrayFieldStart("schemas");
+    for(String schemaUrn : schemaUrns)
     {
-      deferredFields.put("startIndex", startIndex);
+      jsonGenerator.writeString(schemaUrn);
     }
-    else
+    jsonGenerator.writeEndArray();
+    writeFields(headerFields);
+  }
+
+  /**
+   * Write the fields of an object node to the output stream.
+   *
+   * @param fields The fields to write.
+   * @throws IOException If an exception occurs while writing to the output
+   * stream.
+   */
+  private void writeFields(final ObjectNode fields) throws IOException
+  {
+    Iterator<Map.Entry<String, JsonNode>> i = fields.fields();
+    while(i.hasNext())
+    {
+      Map.Entry<String, JsonNode> field = i.next();
+      jsonGenerator.writeObjectField(field.getKey(), field.getValue());
+    }
+  }
+
+  /**
+   * Retrieve the fields that are written when the resources array starts if
+   * no resources have been written, or after the resources array otherwise.
+   *
+   * @return The fields to add to.
+   */
+  private ObjectNode pendingFields()
+  {
+    return startedResourcesArray ? deferredFields : headerFields;
+  }
+
+  /**
+   * Abandon an incomplete response after an error. Whatever was already
+   * written is flushed without completing the response, and the generator's
+   * buffers are released.
+   */
+  void abortResponse()
+  {
+    jsonGenerator.disable(JsonGenerator.Feature.AUTO_CLOSE_JSON_CONTENT);
+    jsonGenerator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+    try
+    {
+      jsonGenerator.close();
+    }
+    catch(IOException e)
     {
-      jsonGenerator.writeNumberField("startIndex", startIndex);
+      // Ignore since the response already failed.
     }
   }
 
   /**
-   * Write the itemsPerPage to the output stream immediately if no resources
-   * have been streamed, otherwise it will be written after the resources array.
+   * Write the startIndex to the output stream before the resources array if no
+   * resources have been streamed, otherwise it will be written after the
+   * resources array.
+   *
+   * @param startIndex The startIndex to write.
+   * @throws IOException If an exception occurs while writing to the output
+   * stream.
+   */
+  public void startIndex(final int startIndex) throws IOException
+  {
+    pendingFields().put("startIndex", startIndex);
+  }
+
+  /**
+   * Write the itemsPerPage to the output stream before the resources array if
+   * no resources have been streamed, otherwise it will be written after the
+   * resources array.
    *
    * @param itemsPerPage The itemsPerPage to write.
    * @throws IOException If an exception occurs while writing to the output
@@ -135,51 +315,277 @@ public class ListResponseWriter<T extends ScimResource>
    */
   public void itemsPerPage(final int itemsPerPage) throws IOException
   {
-    if(startedResourcesArray.get())
+    pendingFields().put("itemsPerPage", itemsPerPage);
+  }
+
+  /**
+   * Write the totalResults to the output stream before the resources array if
+   * no resources have been streamed, otherwise it will be written after the
+   * resources array.
+   *
+   * @param totalResults The totalResults to write.
+   * @throws IOException If an exception occurs while writing to the output
+   * stream.
+   */
+  public void totalResults(final int totalResults) throws IOException
+  {
+    pendingFields().put("totalResults", totalResults);
+  }
+
+  /**
+   * Write the nextCursor to the output stream before the resources array if no
+   * resources have been streamed, otherwise it will be written after the
+   * resources array.
+   *
+   * @param nextCursor The opaque cursor that requests the next page of results.
+   * @throws IOException If an exception occurs while writing to the output
+   * stream.
+   */
+  public void nextCursor(final String nextCursor) throws IOException
+  {
+    pendingFields().put("nextCursor", nextCursor);
+  }
+
+  /**
+   * Write a schema extension to the output stream before the resources array,
+   * and add its URN to the schemas array. Extensions must be written before
+   * the first resource, since the schemas array is written then.
+   *
+   * @param schemaUrn The URN of the extension schema.
+   * @param extension The attributes of the extension.
+   * @throws IOException If an exception occurs while writing to the output
+   * stream.
+   * @throws IllegalStateException If a resource was already written.
+   */
+  public void extension(final String schemaUrn, final ObjectNode extension)
+      throws IOException
+  {
+    if(startedResourcesArray)
+    {
+      throw new IllegalStateException(
+          "Extensions must be written before the first resource");
+    }
+    schemaUrns.add(schemaUrn);
+    headerFields.set(schemaUrn, extension);
+  }
+
+  /**
+   * Write the result resource to the output stream immediately.
+   *
+   * @param scimResource The resource to write.
+   * @throws IOException If an exception occurs while writing to the output
+   * stream.
+   */
+  public void resource(final T scimResource) throws IOException
+  {
+    if(scimResource instanceof RawScimResource)
+    {
+      rawResource((RawScimResource) scimResource);
+      return;
+    }
+    startResource();
+    if(scimResource == null)
     {
-      deferredFields.put("itemsPerPage", itemsPerPage);
+      jsonGenerator.writeNull();
     }
     else
     {
-      jsonGenerator.writeNumberField("itemsPerPage", itemsPerPage);
+      if(scimResource.getClass() != resourceClass)
+      {
+        resourceClass = scimResource.getClass();
+        resourceWriter = objectWriter.forType(resourceClass);
+      }
+      resourceWriter.writeValue(jsonGenerator, scimResource);
     }
+    endResource();
   }
 
   /**
-   * Write the totalResults to the output stream immediately if no resources
-   * have been streamed, otherwise it will be written after the resources array.
+   * Write the result resource to the output stream immediately, trimming its
+   * attributes with the provided preparer as it is written instead of
+   * building an intermediate trimmed resource. A {@link RawScimResource} is
+   * written without parsing it if the preparer returns all attributes of
+   * retrieved resources.
    *
-   * @param totalResults The totalResults to write.
+   * @param scimResource The resource to write.
+   * @param resourcePreparer The preparer used to trim the resource.
    * @throws IOException If an exception occurs while writing to the output
    * stream.
    */
-  public void totalResults(final int totalResults) throws IOException
+  public void resource(final T scimResource,
+                       final ResourcePreparer<? super T> resourcePreparer)
+      throws IOException
   {
-    if(startedResourcesArray.get())
+    if(scimResource instanceof RawScimResource &&
+        !((RawScimResource) scimResource).isModified() &&
+        resourcePreparer.returnsAllRetrievedAttributes())
     {
-      deferredFields.put("totalResults", totalResults);
+      rawResource((RawScimResource) scimResource);
+      return;
     }
-    else
+    startResource();
+    resourcePreparer.writeRetrievedResource(scimResource, jsonGenerator);
+    endResource();
+  }
+
+  /**
+   * Write a result resource that is already serialized as a UTF-8 encoded
+   * JSON object to the output stream immediately. The bytes are copied to the
+   * output as is, so they must already contain the attributes the client
+   * should receive, including meta.resourceType and meta.location.
+   *
+   * @param resource The UTF-8 encoded JSON object to write.
+   * @throws IOException If an exception occurs while writing to the output
+   * stream, or if raw resources are validated and the bytes are not a
+   * well-formed JSON object.
+   */
+  public void rawResource(final byte[] resource) throws IOException
+  {
+    rawResource(new RawScimResource(resource));
+  }
+
+  /**
+   * Write a result resource that is already serialized as a UTF-8 encoded
+   * JSON object in a portion of a byte array to the output stream
+   * immediately. The bytes are copied to the output as is, so they must
+   * already contain the attributes the client should receive, including
+   * meta.resourceType and meta.location.
+   *
+   * @param resource The byte array containing the UTF-8 encoded JSON object.
+   * @param offset The offset of the JSON object in the array.
+   * @param length The length of the JSON object.
+   * @throws IOException If an exception occurs while writing to the output
+   * stream, or if raw resources are validated and the bytes are not a
+   * well-formed JSON object.
+   */
+  public void rawResource(final byte[] resource, final int offset,
+                          final int length) throws IOException
+  {
+    rawResource(new RawScimResource(resource, offset, length));
+  }
+
+  /**
+   * Write a result resource that is already serialized as a UTF-8 encoded
+   * JSON object in the remaining bytes of a buffer to the output stream
+   * immediately. The bytes are copied to the output as is, so they must
+   * already contain the attributes the client should receive, including
+   * meta.resourceType and meta.location. The buffer's position is not
+   * changed.
+   *
+   * @param resource The buffer containing the UTF-8 encoded JSON object.
+   * @throws IOException If an exception occurs while writing to the output
+   * stream, or if raw resources are validated and the bytes are not a
+   * well-formed JSON object.
+   */
+  public void rawResource(final ByteBuffer resource) throws IOException
+  {
+    rawResource(new RawScimResource(resource));
+  }
+
+  /**
+   * Write a raw result resource to the output stream immediately.
+   *
+   * @param resource The raw resource to write.
+   * @throws IOException If an exception occurs while writing to the output
+   * stream, or if raw resources are validated and the bytes are not a
+   * well-formed JSON object.
+   */
+  private void rawResource(final RawScimResource resource) throws IOException
+  {
+    if(validateRawResources && !resource.isModified())
     {
-      jsonGenerator.writeNumberField("totalResults", totalResults);
-      sentTotalResults.set(true);
+      resource.validate();
     }
+    startResource();
+    resource.writeTo(jsonGenerator);
+    endResource();
   }
 
   /**
-   * Write the result resource to the output stream immediately.
+   * Start the resources array if this is the first resource.
    *
-   * @param scimResource The resource to write.
    * @throws IOException If an exception occurs while writing to the output
    * stream.
    */
-  public void resource(final T scimResource) throws IOException
+  private void startResource() throws IOException
   {
-    if(startedResourcesArray.compareAndSet(false, true))
+    if(!startedResourcesArray)
     {
+      writeHeader();
       jsonGenerator.writeArrayFieldStart("Resources");
+      startedResourcesArray = true;
+    }
+  }
+
+  /**
+   * Count a written resource and flush the output if required by the flush
+   * policy.
+   *
+   * @throws IOException If an exception occurs while writing to the output
+   * stream.
+   */
+  private void endResource() throws IOException
+  {
+    resultsSent++;
+    unflushedResources++;
+    if((flushResourceCount > 0 && unflushedResources >= flushResourceCount) ||
+        (flushIntervalNanos > 0 &&
+            System.nanoTime() - lastFlushNanos >= flushIntervalNanos))
+    {
+      flush();
+    }
+  }
+
+  /**
+   * A generator that ignores flush requests made while serializing values,
+   * such as those made by the object mapper after writing each value, so
+   * that the writer's flush policy decides when the output is flushed.
+   */
+  private static final class ListResponseGenerator
+      extends JsonGeneratorDelegate
+  {
+    /**
+     * Create a new generator.
+     *
+     * @param generator The generator to write to.
+     */
+    ListResponseGenerator(final JsonGenerator generator)
+    {
+      // Do not delegate writeObject and writeTree so that the codec writes
+      // values through this generator.
+      super(generator, false);
+    }
+
+    /**
+     * Ignore the flush request.
+     */
+    @Override
+    public void flush()
+    {
+      // Flushing is controlled by the ListResponseWriter.
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void writeRawValue(final SerializableString text)
+        throws IOException
+    {
+      // Pass the value through so that UTF-8 generators may copy its bytes
+      // without decoding them.
+      delegate.writeRawValue(text);
+    }
+
+    /**
+     * Flush the underlying generator.
+     *
+     * @throws IOException If an exception occurs while writing to the output
+     * stream.
+     */
+    void flushOutput() throws IOException
+    {
+      delegate.flush();
     }
-    jsonGenerator.writeObject(scimResource);
-    resultsSent.incrementAndGet();
   }
 }
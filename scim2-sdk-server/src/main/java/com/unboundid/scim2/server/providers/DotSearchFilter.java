@@ -21,6 +21,7 @@ import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.databind.ObjectReader;
 import com.unboundid.scim2.common.messages.SearchRequest;
 import com.unboundid.scim2.common.utils.JsonUtils;
+import com.unboundid.scim2.common.utils.ScimDataFormat;
 import com.unboundid.scim2.common.utils.StaticUtils;
 import com.unboundid.scim2.server.utils.ServerUtils;
 
@@ -63,17 +64,27 @@ public class DotSearchFilter implements ContainerRequestFilter
             SEARCH_WITH_POST_PATH_EXTENSION))
 
     {
+      ScimDataFormat dataFormat = ScimDataFormat.JSON;
       if(requestContext.getMediaType() == null ||
           !(requestContext.getMediaType().isCompatible(
               ServerUtils.MEDIA_TYPE_SCIM_TYPE) ||
               requestContext.getMediaType().isCompatible(
                   MediaType.APPLICATION_JSON_TYPE)))
       {
-        throw new NotSupportedException();
+        // Search requests may also be sent in a binary data format.
+        dataFormat = requestContext.getMediaType() == null ? null :
+            ScimDataFormat.forMediaType(
+                requestContext.getMediaType().getType() + "/" +
+                requestContext.getMediaType().getSubtype());
+        if(dataFormat == null || dataFormat == ScimDataFormat.JSON ||
+            !dataFormat.isAvailable())
+        {
+          throw new NotSupportedException();
+        }
       }
 
       ObjectReader reader =
-          JsonUtils.getObjectReader().forType(SearchRequest.class);
+          JsonUtils.getObjectReader(dataFormat).forType(SearchRequest.class);
       JsonParser p = reader.getFactory().createParser(
           requestContext.getEntityStream());
       if(p.nextToken() == null)
@@ -129,6 +140,11 @@ public class DotSearchFilter implements ContainerRequestFilter
         builder.queryParam(QUERY_PARAMETER_PAGE_SIZE,
             searchRequest.getCount());
       }
+      if(searchRequest.getCursor() != null)
+      {
+        builder.queryParam(QUERY_PARAMETER_PAGE_CURSOR,
+            ServerUtils.encodeTemplateNames(searchRequest.getCursor()));
+      }
       requestContext.setRequestUri(builder.build());
       requestContext.setMethod(HttpMethod.GET);
     }
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2021 Ping Identity Corporation
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPLv2 only)
+ * or the terms of the GNU Lesser General Public License (LGPLv2.1 only)
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ */
+
+package com.unboundid.scim2.server.providers;
+
+import com.unboundid.scim2.common.utils.ScimDataFormat;
+import com.unboundid.scim2.server.ListResponseStreamingOutput;
+
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.ext.MessageBodyWriter;
+import javax.ws.rs.ext.Provider;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+
+import static com.unboundid.scim2.common.utils.ApiConstants.MEDIA_TYPE_SCIM_CBOR;
+import static com.unboundid.scim2.common.utils.ApiConstants.MEDIA_TYPE_SCIM_SMILE;
+
+/**
+ * A JAX-RS provider that streams list responses from a
+ * {@link ListResponseStreamingOutput} using the CBOR or Smile binary data
+ * formats. This should be registered along with
+ * {@link com.unboundid.scim2.client.ScimDataFormatProvider}, which reads and
+ * writes other SCIM objects, and endpoints must list the binary media types in
+ * their {@code Produces} annotations for them to be negotiated.
+ */
+@Provider
+@Produces({MEDIA_TYPE_SCIM_CBOR, MEDIA_TYPE_SCIM_SMILE, "application/cbor",
+    "application/x-jackson-smile"})
+public class ListResponseDataFormatWriter
+    implements MessageBodyWriter<ListResponseStreamingOutput<?>>
+{
+  /**
+   * Determine the binary data format of a media type.
+   *
+   * @param mediaType The media type.
+   * @return The binary data format or {@code null} if the media type is not
+   * for a binary data format that is available.
+   */
+  private static ScimDataFormat getBinaryDataFormat(final MediaType mediaType)
+  {
+    if (mediaType == null)
+    {
+      return null;
+    }
+    ScimDataFormat dataFormat = ScimDataFormat.forMediaType(
+        mediaType.getType() + "/" + mediaType.getSubtype());
+    return dataFormat == ScimDataFormat.JSON || dataFormat == null ||
+        !dataFormat.isAvailable() ? null : dataFormat;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public boolean isWriteable(final Class<?> type, final Type genericType,
+                             final Annotation[] annotations,
+                             final MediaType mediaType)
+  {
+    return ListResponseStreamingOutput.class.isAssignableFrom(type) &&
+        getBinaryDataFormat(mediaType) != null;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public long getSize(final ListResponseStreamingOutput<?> value,
+                      final Class<?> type, final Type genericType,
+                      final Annotation[] annotations,
+                      final MediaType mediaType)
+  {
+    return -1;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public void writeTo(final ListResponseStreamingOutput<?> value,
+                      final Class<?> type, final Type genericType,
+                      final Annotation[] annotations,
+                      final MediaType mediaType,
+                      final MultivaluedMap<String, Object> httpHeaders,
+                      final OutputStream entityStream)
+      throws IOException
+  {
+    value.write(entityStream, getBinaryDataFormat(mediaType));
+  }
+}
@@ -0,0 +1,752 @@
+/*
+ * Copyright 2021 Ping Identity Corporation
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPLv2 only)
+ * or the terms of the GNU Lesser General Public License (LGPLv2.1 only)
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ */
+
+package com.unboundid.scim2.server.utils;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.unboundid.scim2.common.Path;
+import com.unboundid.scim2.common.types.AttributeDefinition;
+import com.unboundid.scim2.common.utils.JsonUtils;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * An immutable, precompiled form of the SCIM rules for returning attributes
+ * of resources of a resource type. The returned constraints from the schema,
+ * the request attributes, and the 'attributes' or 'excludedAttributes' query
+ * parameter are evaluated once for every attribute that is defined in the
+ * schema or named in the request, and the results are stored in a trie keyed
+ * by case-insensitive attribute name. Attributes that are not in the trie
+ * inherit the decision precomputed for unknown children of their closest
+ * ancestor in the trie.
+ * <p>
+ * Trimming a resource with a projection walks the trie alongside the JSON
+ * nodes so no paths are created or looked up for each attribute. Instances
+ * are thread-safe and may be shared by all resources returned for a request.
+ * <p>
+ * The request attributes only affect attributes whose returned constraint is
+ * {@code request}, so the projections for requests with different request
+ * attributes are derived with {@link #forRequestAttributes}, which compiles
+ * a projection once for every combination of those attributes that are
+ * returned.
+ */
+public final class AttributeProjection
+{
+  /**
+   * An attribute name that can never appear in a resource, used to evaluate
+   * the decision for attributes that are not in the trie.
+   */
+  private static final String UNKNOWN_ATTRIBUTE = "\u0000";
+
+  /**
+   * The maximum number of projections derived for request attributes to
+   * cache.
+   */
+  private static final int MAX_REQUEST_PROJECTIONS = 64;
+
+  /**
+   * A node in the projection trie.
+   */
+  private static final class Node
+  {
+    private final boolean returned;
+    private final boolean identity;
+    private final Map<String, Node> children;
+    private final Node unknownChild;
+
+    /**
+     * Create a new node.
+     *
+     * @param returned Whether the attribute is returned.
+     * @param children The children of this node keyed by attribute name.
+     * @param unknownChild The node used for attributes that are not one of
+     *                     the children or {@code null} to use this node.
+     */
+    private Node(final boolean returned, final Map<String, Node> children,
+                 final Node unknownChild)
+    {
+      this.returned = returned;
+      this.children = children;
+      this.unknownChild = unknownChild == null ? this : unknownChild;
+
+      boolean allReturned = returned &&
+          (unknownChild == null || unknownChild.identity);
+      for (Node child : children.values())
+      {
+        allReturned &= child.identity;
+      }
+      this.identity = allReturned;
+    }
+
+    /**
+     * Retrieve the node for a child attribute.
+     *
+     * @param name The name of the attribute.
+     * @return The node for the child attribute.
+     */
+    private Node child(final String name)
+    {
+      Node child = children.get(name);
+      return child == null ? unknownChild : child;
+    }
+  }
+
+  private final ResourceTypeDefinition resourceType;
+  private final Set<Path> requestAttributes;
+  private final Set<Path> queryAttributes;
+  private final boolean excluded;
+  private final List<Path> requestReturnedPaths = new ArrayList<Path>();
+  private final Node root;
+  private final Node unknownSchema;
+  private final String requestKey;
+  private final Map<String, AttributeProjection> requestProjections =
+      new ConcurrentHashMap<String, AttributeProjection>();
+
+  /**
+   * Compile a new attribute projection.
+   *
+   * @param resourceType       The resource type definition for resources to
+   *                           trim.
+   * @param requestAttributes  The attributes in the request object or
+   *                           {@code null} or an empty set for other
+   *                           requests.
+   * @param queryAttributes    The attributes from the 'attributes' or
+   *                           'excludedAttributes' query parameter or
+   *                           {@code null} if neither was specified.
+   * @param excluded           {@code true} if the queryAttributes came from
+   *                           the excludedAttributes query parameter.
+   */
+  public AttributeProjection(final ResourceTypeDefinition resourceType,
+                             final Set<Path> requestAttributes,
+                             final Set<Path> queryAttributes,
+                             final boolean excluded)
+  {
+    this.resourceType = resourceType;
+    this.requestAttributes = requestAttributes == null ?
+        Collections.<Path>emptySet() : requestAttributes;
+    this.queryAttributes = queryAttributes == null ?
+        Collections.<Path>emptySet() : queryAttributes;
+    this.excluded = excluded;
+
+    Set<Path> paths = new LinkedHashSet<Path>(resourceType.getAttributePaths());
+    if (resourceType.getCoreSchema() != null)
+    {
+      // Core attributes may also be qualified with the core schema URN.
+      Path coreRoot = Path.root(resourceType.getCoreSchema().getId());
+      for (Path path : resourceType.getAttributePaths())
+      {
+        if (path.getSchemaUrn() == null)
+        {
+          paths.add(coreRoot.attribute(path));
+        }
+      }
+    }
+    paths.addAll(this.requestAttributes);
+    paths.addAll(this.queryAttributes);
+
+    Map<String, Object> tree = newChildMap();
+    for (Path path : paths)
+    {
+      insert(tree, path);
+    }
+    this.root = compile(Path.root(), tree);
+    this.unknownSchema = new Node(true, Collections.<String, Node>emptyMap(),
+        root.unknownChild);
+    this.requestKey = requestKey(this.requestAttributes);
+  }
+
+  /**
+   * Retrieve the projection for a create, replace or modify request with the
+   * provided request attributes and the same query attributes as this
+   * projection. Projections are only compiled once for every combination of
+   * attributes with the {@code request} returned constraint that the request
+   * attributes include.
+   *
+   * @param attributes The attributes in the request object or
+   *                   {@code null} or an empty set for other requests.
+   * @return This projection if it returns the same attributes, or a cached or
+   * new projection.
+   */
+  public AttributeProjection forRequestAttributes(final Set<Path> attributes)
+  {
+    Set<Path> paths =
+        attributes == null ? Collections.<Path>emptySet() : attributes;
+    String key = requestKey(paths);
+    if (key.equals(requestKey))
+    {
+      return this;
+    }
+    AttributeProjection projection = requestProjections.get(key);
+    if (projection == null)
+    {
+      projection = new AttributeProjection(resourceType, paths,
+          queryAttributes, excluded);
+      if (requestProjections.size() < MAX_REQUEST_PROJECTIONS)
+      {
+        requestProjections.put(key, projection);
+      }
+    }
+    return projection;
+  }
+
+  /**
+   * Build a key that identifies the decisions that depend on the request
+   * attributes: whether there are any, and which attributes with the
+   * {@code request} returned constraint they include.
+   *
+   * @param attributes The request attributes.
+   * @return The key.
+   */
+  private String requestKey(final Set<Path> attributes)
+  {
+    StringBuilder key = new StringBuilder(requestReturnedPaths.size() + 1);
+    key.append(attributes.isEmpty() ? '0' : '1');
+    for (Path path : requestReturnedPaths)
+    {
+      key.append(pathContains(attributes, path) ? '1' : '0');
+    }
+    return key.toString();
+  }
+
+  /**
+   * Determine if the attribute specified by the path should be returned.
+   *
+   * @param path The path for the attribute.
+   * @return {@code true} to return the attribute or {@code false} to remove the
+   * attribute from the returned resource.
+   */
+  public boolean shouldReturn(final Path path)
+  {
+    Node node = path.getSchemaUrn() != null ?
+        schemaChild(path.getSchemaUrn()) : root;
+    for (Path.Element element : path)
+    {
+      node = node.child(element.getAttribute());
+    }
+    return node.returned;
+  }
+
+  /**
+   * Whether this projection returns every attribute of every resource, in
+   * which case trimming only removes empty objects and arrays.
+   *
+   * @return {@code true} if this projection returns every attribute.
+   */
+  public boolean isIdentity()
+  {
+    return root.identity;
+  }
+
+  /**
+   * Trim attributes of the object node to return. The returned object node
+   * never shares objects or arrays with the provided object node.
+   *
+   * @param objectNode The object node to return.
+   * @return The trimmed object node ready to return to the client.
+   */
+  public ObjectNode trimObjectNode(final ObjectNode objectNode)
+  {
+    if (root.identity && !hasEmptyContainers(objectNode))
+    {
+      return objectNode.deepCopy();
+    }
+    return trimObjectNode(objectNode, root, true);
+  }
+
+  /**
+   * Write the attributes of the object node to return directly to a JSON
+   * generator.
+   *
+   * @param objectNode The object node to return.
+   * @param generator The JSON generator to write the trimmed object to.
+   * @throws IOException If an error occurs while writing.
+   */
+  public void trimObjectNode(final ObjectNode objectNode,
+                             final JsonGenerator generator)
+      throws IOException
+  {
+    if (root.identity && !hasEmptyContainers(objectNode))
+    {
+      generator.writeTree(objectNode);
+      return;
+    }
+    generator.writeStartObject();
+    writeTrimmedFields(objectNode, root, true, generator);
+    generator.writeEndObject();
+  }
+
+  /**
+   * Retrieve the node for a field of an object node.
+   *
+   * @param parent The node of the object.
+   * @param atRoot Whether the object is the resource itself, in which case
+   *               fields named with a URN are schema extensions.
+   * @param field The name of the field.
+   * @return The node of the field.
+   */
+  private Node fieldNode(final Node parent, final boolean atRoot,
+                         final String field)
+  {
+    return atRoot && isUrn(field) ? schemaChild(field) : parent.child(field);
+  }
+
+  /**
+   * Retrieve the node for a schema at the root of the resource.
+   *
+   * @param schemaUrn The schema URN.
+   * @return The node for the schema.
+   */
+  private Node schemaChild(final String schemaUrn)
+  {
+    Node child = root.children.get(schemaUrn);
+    return child == null ? unknownSchema : child;
+  }
+
+  /**
+   * Trim attributes of an inner object node to return.
+   *
+   * @param objectNode The object node to return.
+   * @param node The node of the object.
+   * @param atRoot Whether the object is the resource itself.
+   * @return The trimmed object node.
+   */
+  private ObjectNode trimObjectNode(final ObjectNode objectNode,
+                                    final Node node, final boolean atRoot)
+  {
+    ObjectNode objectToReturn = JsonUtils.getJsonNodeFactory().objectNode();
+    Iterator<Map.Entry<String, JsonNode>> i = objectNode.fields();
+    while (i.hasNext())
+    {
+      Map.Entry<String, JsonNode> field = i.next();
+      Node fieldNode = fieldNode(node, atRoot, field.getKey());
+      if (!fieldNode.returned)
+      {
+        continue;
+      }
+
+      JsonNode value = field.getValue();
+      if (value.isArray())
+      {
+        ArrayNode trimmedNode = trimArrayNode((ArrayNode) value, fieldNode);
+        if (trimmedNode.size() > 0)
+        {
+          objectToReturn.set(field.getKey(), trimmedNode);
+        }
+      }
+      else if (value.isObject())
+      {
+        ObjectNode trimmedNode =
+            trimObjectNode((ObjectNode) value, fieldNode, false);
+        if (trimmedNode.size() > 0)
+        {
+          objectToReturn.set(field.getKey(), trimmedNode);
+        }
+      }
+      else
+      {
+        objectToReturn.set(field.getKey(), value);
+      }
+    }
+    return objectToReturn;
+  }
+
+  /**
+   * Trim attributes of the values in the array node to return.
+   *
+   * @param arrayNode The array node to return.
+   * @param node The node of the multi-valued attribute.
+   * @return The trimmed array node.
+   */
+  private ArrayNode trimArrayNode(final ArrayNode arrayNode, final Node node)
+  {
+    ArrayNode arrayToReturn = JsonUtils.getJsonNodeFactory().arrayNode();
+    for (JsonNode value : arrayNode)
+    {
+      if (value.isArray())
+      {
+        ArrayNode trimmedNode = trimArrayNode((ArrayNode) value, node);
+        if (trimmedNode.size() > 0)
+        {
+          arrayToReturn.add(trimmedNode);
+        }
+      }
+      else if (value.isObject())
+      {
+        ObjectNode trimmedNode = trimObjectNode((ObjectNode) value, node, false);
+        if (trimmedNode.size() > 0)
+        {
+          arrayToReturn.add(trimmedNode);
+        }
+      }
+      else
+      {
+        arrayToReturn.add(value);
+      }
+    }
+    return arrayToReturn;
+  }
+
+  /**
+   * Write the returned fields of an inner object node to a JSON generator.
+   *
+   * @param objectNode The object node to return.
+   * @param node The node of the object.
+   * @param atRoot Whether the object is the resource itself.
+   * @param generator The JSON generator to write to.
+   * @throws IOException If an error occurs while writing.
+   */
+  private void writeTrimmedFields(final ObjectNode objectNode,
+                                  final Node node, final boolean atRoot,
+                                  final JsonGenerator generator)
+      throws IOException
+  {
+    Iterator<Map.Entry<String, JsonNode>> i = objectNode.fields();
+    while (i.hasNext())
+    {
+      Map.Entry<String, JsonNode> field = i.next();
+      Node fieldNode = fieldNode(node, atRoot, field.getKey());
+      if (!fieldNode.returned)
+      {
+        continue;
+      }
+
+      JsonNode value = field.getValue();
+      if (value.isArray())
+      {
+        if (hasReturnedValues((ArrayNode) value, fieldNode))
+        {
+          generator.writeFieldName(field.getKey());
+          writeTrimmedArray((ArrayNode) value, fieldNode, generator);
+        }
+      }
+      else if (value.isObject())
+      {
+        if (hasReturnedFields((ObjectNode) value, fieldNode, false))
+        {
+          generator.writeFieldName(field.getKey());
+          generator.writeStartObject();
+          writeTrimmedFields((ObjectNode) value, fieldNode, false, generator);
+          generator.writeEndObject();
+        }
+      }
+      else
+      {
+        generator.writeFieldName(field.getKey());
+        generator.writeTree(value);
+      }
+    }
+  }
+
+  /**
+   * Write the returned values of an array node to a JSON generator.
+   *
+   * @param arrayNode The array node to return.
+   * @param node The node of the multi-valued attribute.
+   * @param generator The JSON generator to write to.
+   * @throws IOException If an error occurs while writing.
+   */
+  private void writeTrimmedArray(final ArrayNode arrayNode, final Node node,
+                                 final JsonGenerator generator)
+      throws IOException
+  {
+    generator.writeStartArray();
+    for (JsonNode value : arrayNode)
+    {
+      if (value.isArray())
+      {
+        if (hasReturnedValues((ArrayNode) value, node))
+        {
+          writeTrimmedArray((ArrayNode) value, node, generator);
+        }
+      }
+      else if (value.isObject())
+      {
+        if (hasReturnedFields((ObjectNode) value, node, false))
+        {
+          generator.writeStartObject();
+          writeTrimmedFields((ObjectNode) value, node, false, generator);
+          generator.writeEndObject();
+        }
+      }
+      else
+      {
+        generator.writeTree(value);
+      }
+    }
+    generator.writeEndArray();
+  }
+
+  /**
+   * Determine whether trimming an object node would leave at least one
+   * field.
+   *
+   * @param objectNode The object node.
+   * @param node The node of the object.
+   * @param atRoot Whether the object is the resource itself.
+   * @return {@code true} if at least one field would be returned.
+   */
+  private boolean hasReturnedFields(final ObjectNode objectNode,
+                                    final Node node, final boolean atRoot)
+  {
+    Iterator<Map.Entry<String, JsonNode>> i = objectNode.fields();
+    while (i.hasNext())
+    {
+      Map.Entry<String, JsonNode> field = i.next();
+      Node fieldNode = fieldNode(node, atRoot, field.getKey());
+      if (fieldNode.returned)
+      {
+        JsonNode value = field.getValue();
+        if (value.isArray() ?
+            hasReturnedValues((ArrayNode) value, fieldNode) :
+            !value.isObject() ||
+                hasReturnedFields((ObjectNode) value, fieldNode, false))
+        {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Determine whether trimming an array node would leave at least one value.
+   *
+   * @param arrayNode The array node.
+   * @param node The node of the multi-valued attribute.
+   * @return {@code true} if at least one value would be returned.
+   */
+  private boolean hasReturnedValues(final ArrayNode arrayNode, final Node node)
+  {
+    for (JsonNode value : arrayNode)
+    {
+      if (value.isArray() ?
+          hasReturnedValues((ArrayNode) value, node) :
+          !value.isObject() ||
+              hasReturnedFields((ObjectNode) value, node, false))
+      {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Determine whether a JSON node contains any empty objects or arrays, which
+   * trimming always removes.
+   *
+   * @param node The JSON node.
+   * @return {@code true} if the node contains an empty object or array.
+   */
+  private static boolean hasEmptyContainers(final JsonNode node)
+  {
+    for (JsonNode value : node)
+    {
+      if (value.isContainerNode() &&
+          (value.size() == 0 || hasEmptyContainers(value)))
+      {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Determine whether a field name is a schema URN without allocating.
+   *
+   * @param field The field name.
+   * @return {@code true} if the field name is a schema URN.
+   */
+  private static boolean isUrn(final String field)
+  {
+    return field.length() > 4 && field.regionMatches(true, 0, "urn:", 0, 4);
+  }
+
+  /**
+   * Create a new map of child attribute names.
+   *
+   * @param <V> The type of the values.
+   * @return A new empty case-insensitive map.
+   */
+  private static <V> Map<String, V> newChildMap()
+  {
+    return new TreeMap<String, V>(String.CASE_INSENSITIVE_ORDER);
+  }
+
+  /**
+   * Insert a path into the uncompiled trie.
+   *
+   * @param tree The root of the uncompiled trie.
+   * @param path The path to insert.
+   */
+  @SuppressWarnings("unchecked")
+  private static void insert(final Map<String, Object> tree, final Path path)
+  {
+    Map<String, Object> current = tree;
+    if (path.getSchemaUrn() != null)
+    {
+      current = (Map<String, Object>) getOrAdd(current, path.getSchemaUrn());
+    }
+    else if (path.size() > 0 && isUrn(path.getElement(0).getAttribute()))
+    {
+      // Resources never contain a path like this since URN fields at the
+      // root are always schema extensions.
+      return;
+    }
+    for (Path.Element element : path)
+    {
+      current = (Map<String, Object>) getOrAdd(current, element.getAttribute());
+    }
+  }
+
+  /**
+   * Retrieve or create the child of an uncompiled trie node.
+   *
+   * @param node The uncompiled trie node.
+   * @param name The name of the child.
+   * @return The uncompiled child node.
+   */
+  private static Object getOrAdd(final Map<String, Object> node,
+                                 final String name)
+  {
+    Object child = node.get(name);
+    if (child == null)
+    {
+      child = newChildMap();
+      node.put(name, child);
+    }
+    return child;
+  }
+
+  /**
+   * Compile an uncompiled trie node by evaluating the SCIM rules for returning
+   * attributes for the node, its children, and its unknown children.
+   *
+   * @param path The path of the node.
+   * @param tree The uncompiled trie node.
+   * @return The compiled node.
+   */
+  @SuppressWarnings("unchecked")
+  private Node compile(final Path path, final Map<String, Object> tree)
+  {
+    Map<String, Node> children = tree.isEmpty() ?
+        Collections.<String, Node>emptyMap() : AttributeProjection.<Node>newChildMap();
+    for (Map.Entry<String, Object> entry : tree.entrySet())
+    {
+      Path childPath = path.isRoot() && path.getSchemaUrn() == null &&
+          isUrn(entry.getKey()) ?
+          Path.root(entry.getKey()) : path.attribute(entry.getKey());
+      children.put(entry.getKey(),
+          compile(childPath, (Map<String, Object>) entry.getValue()));
+    }
+
+    Node unknownChild = new Node(
+        evaluate(path.attribute(UNKNOWN_ATTRIBUTE)),
+        Collections.<String, Node>emptyMap(), null);
+    return new Node(path.isRoot() || evaluate(path), children, unknownChild);
+  }
+
+  /**
+   * Evaluate the SCIM rules for returning an attribute.
+   *
+   * @param path The path for the attribute.
+   * @return {@code true} to return the attribute or {@code false} to remove the
+   * attribute from the returned resource.
+   */
+  private boolean evaluate(final Path path)
+  {
+    AttributeDefinition attributeDefinition =
+        resourceType.getAttributeDefinition(path);
+    AttributeDefinition.Returned returned = attributeDefinition == null ?
+        AttributeDefinition.Returned.DEFAULT :
+        attributeDefinition.getReturned();
+
+    switch(returned)
+    {
+      case ALWAYS:
+        return true;
+      case NEVER:
+        return false;
+      case REQUEST:
+        requestReturnedPaths.add(path);
+        // Return only if it was one of the request attributes or if there are
+        // no request attributes, then only if it was one of the override query
+        // attributes.
+        return pathContains(requestAttributes, path) ||
+               (requestAttributes.isEmpty() && !excluded &&
+                pathContains(queryAttributes, path));
+      default:
+        // Return if it is not one of the excluded query attributes and no
+        // override query attributes are provided. If override query attributes
+        // are provided, only return if it is one of them.
+        if(excluded)
+        {
+          return !pathContains(queryAttributes, path);
+        }
+        else
+        {
+          return queryAttributes.isEmpty() ||
+                 pathContains(queryAttributes, path);
+        }
+    }
+  }
+
+  private boolean pathContains(final Set<Path> paths, final Path path)
+  {
+    // Exact path match
+    if (paths.contains(path))
+    {
+      return true;
+    }
+
+    if (!excluded)
+    {
+      // See if a sub-attribute of the given path is included in the list
+      // ie. include name if name.givenName is in the list.
+      for (Path p : paths)
+      {
+        if (p.size() > path.size() && path.equals(p.subPath(path.size())))
+        {
+          return true;
+        }
+      }
+    }
+
+    // See if the parent attribute of the given path is included in the list
+    // ie. include name.{anything} if name is in the list.
+    for (Path p = path; p.size() > 0; p = p.subPath(p.size() - 1))
+    {
+      if (paths.contains(p))
+      {
+        return true;
+      }
+    }
+
+    return false;
+  }
+}
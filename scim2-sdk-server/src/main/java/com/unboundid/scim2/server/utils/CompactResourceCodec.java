@@ -0,0 +1,1002 @@
+/*
+ * Copyright 2021 Ping Identity Corporation
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPLv2 only)
+ * or the terms of the GNU Lesser General Public License (LGPLv2.1 only)
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ */
+
+package com.unboundid.scim2.server.utils;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+import com.unboundid.scim2.common.ScimResource;
+import com.unboundid.scim2.common.types.AttributeDefinition;
+import com.unboundid.scim2.common.utils.DateTimeUtils;
+import com.unboundid.scim2.common.utils.JsonUtils;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * <p>Encodes SCIM resources of a resource type into a compact binary form
+ * that may be kept in caches or stored on disk, and decodes them back to
+ * JSON. Attribute names and schema URNs are replaced with their IDs in a
+ * {@link ResourceDictionary}. DATETIME values are stored as epoch
+ * milliseconds, boolean values take a single byte, and numbers are stored as
+ * variable-length integers or doubles. Objects and arrays are prefixed with
+ * their lengths so that readers such as {@link CompactResourceFilter} can
+ * skip attributes they do not need.</p>
+ *
+ * <p>Resources are always encoded with the latest dictionary of the codec.
+ * Encoded resources start with the version of their dictionary, so a codec
+ * that is also given the earlier versions of a dictionary can decode
+ * resources encoded with any of them. Decoding restores the JSON exactly,
+ * except that attribute names and schema URNs used as field names take the
+ * case of the dictionary.</p>
+ *
+ * <p>This class is thread-safe.</p>
+ */
+public final class CompactResourceCodec
+{
+  /**
+   * The version of the encoding, which is the first byte of every encoded
+   * resource.
+   */
+  static final byte FORMAT_VERSION = 1;
+
+  /**
+   * The tag of a null value.
+   */
+  static final byte NULL = 0;
+
+  /**
+   * The tag of a false boolean value.
+   */
+  static final byte FALSE = 1;
+
+  /**
+   * The tag of a true boolean value.
+   */
+  static final byte TRUE = 2;
+
+  /**
+   * The tag of a string value, followed by its length and UTF-8 bytes.
+   */
+  static final byte STRING = 3;
+
+  /**
+   * The tag of a schema URN, followed by its id in the dictionary.
+   */
+  static final byte SCHEMA = 4;
+
+  /**
+   * The tag of a date time, followed by the milliseconds since the epoch.
+   */
+  static final byte DATETIME = 5;
+
+  /**
+   * The tag of an integer value that fits in a long.
+   */
+  static final byte INTEGER = 6;
+
+  /**
+   * The tag of a double value, followed by its eight bytes.
+   */
+  static final byte DOUBLE = 7;
+
+  /**
+   * The tag of an integer value that does not fit in a long.
+   */
+  static final byte BIG_INTEGER = 8;
+
+  /**
+   * The tag of a big decimal value.
+   */
+  static final byte BIG_DECIMAL = 9;
+
+  /**
+   * The tag of a binary value, followed by its length and bytes.
+   */
+  static final byte BINARY = 10;
+
+  /**
+   * The tag of an array, followed by the length of its values.
+   */
+  static final byte ARRAY = 11;
+
+  /**
+   * The tag of an object, followed by the length of its fields.
+   */
+  static final byte OBJECT = 12;
+
+  private final ResourceTypeDefinition resourceType;
+  private final ResourceDictionary dictionary;
+  private final Map<Integer, ResourceDictionary> dictionaries;
+
+  /**
+   * Create a new codec.
+   *
+   * @param resourceType The resource type definition of the resources.
+   * @param dictionaries The dictionaries that may be used to decode resources.
+   *                     Resources are encoded with the dictionary that has
+   *                     the highest version.
+   * @throws IllegalArgumentException if no dictionaries are provided or if
+   * two dictionaries have the same version.
+   */
+  public CompactResourceCodec(final ResourceTypeDefinition resourceType,
+                              final ResourceDictionary... dictionaries)
+  {
+    if(dictionaries.length == 0)
+    {
+      throw new IllegalArgumentException(
+          "At least one dictionary must be provided");
+    }
+    TreeMap<Integer, ResourceDictionary> versions =
+        new TreeMap<Integer, ResourceDictionary>();
+    for(ResourceDictionary d : dictionaries)
+    {
+      if(versions.put(d.getVersion(), d) != null)
+      {
+        throw new IllegalArgumentException("Multiple dictionaries have " +
+            "version " + d.getVersion());
+      }
+    }
+    this.resourceType = resourceType;
+    this.dictionaries = versions;
+    this.dictionary = versions.lastEntry().getValue();
+  }
+
+  /**
+   * Retrieve the resource type definition of the resources.
+   *
+   * @return The resource type definition of the resources.
+   */
+  public ResourceTypeDefinition getResourceType()
+  {
+    return resourceType;
+  }
+
+  /**
+   * Retrieve the dictionary that resources are encoded with.
+   *
+   * @return The dictionary that resources are encoded with.
+   */
+  public ResourceDictionary getDictionary()
+  {
+    return dictionary;
+  }
+
+  /**
+   * Encode a resource.
+   *
+   * @param resource The resource to encode.
+   * @return The encoded resource.
+   * @throws IOException if the resource could not be encoded.
+   */
+  public byte[] encode(final ScimResource resource) throws IOException
+  {
+    if(resource instanceof SchemaIndexedResource)
+    {
+      return encode(((SchemaIndexedResource) resource).toObjectNode());
+    }
+    return encode(resource.asGenericScimResource().getObjectNode());
+  }
+
+  /**
+   * Encode the JSON object that represents a resource.
+   *
+   * @param objectNode The JSON object that represents the resource.
+   * @return The encoded resource.
+   * @throws IOException if the resource could not be encoded.
+   */
+  public byte[] encode(final ObjectNode objectNode) throws IOException
+  {
+    JsonParser parser = objectNode.traverse();
+    try
+    {
+      return encode(parser);
+    }
+    finally
+    {
+      parser.close();
+    }
+  }
+
+  /**
+   * Encode the JSON object that represents a resource as it is read from a
+   * parser, without reading it into a tree.
+   *
+   * @param parser The parser, which must be positioned before or at the start
+   *               of the object. It is positioned at the end of the object
+   *               afterwards.
+   * @return The encoded resource.
+   * @throws IOException if the resource could not be read or encoded.
+   */
+  public byte[] encode(final JsonParser parser) throws IOException
+  {
+    JsonToken token = parser.currentToken();
+    if(token == null)
+    {
+      token = parser.nextToken();
+    }
+    if(token != JsonToken.START_OBJECT)
+    {
+      throw new IOException("A SCIM resource must be a JSON object");
+    }
+
+    Output output = new Output();
+    output.writeByte(FORMAT_VERSION);
+    output.writeVarInt(dictionary.getVersion());
+    encodeObject(parser, output, dictionary.getRoot());
+    return output.toByteArray();
+  }
+
+  /**
+   * Decode a resource.
+   *
+   * @param encoded The encoded resource.
+   * @return The JSON object that represents the resource.
+   * @throws IOException if the resource could not be decoded.
+   */
+  public ObjectNode decode(final byte[] encoded) throws IOException
+  {
+    return decode(encoded, 0, encoded.length);
+  }
+
+  /**
+   * Decode a resource.
+   *
+   * @param encoded The array that contains the encoded resource.
+   * @param offset The offset of the encoded resource in the array.
+   * @param length The length of the encoded resource.
+   * @return The JSON object that represents the resource.
+   * @throws IOException if the resource could not be decoded.
+   */
+  public ObjectNode decode(final byte[] encoded, final int offset,
+                           final int length) throws IOException
+  {
+    TokenBuffer buffer = new TokenBuffer(null, false);
+    decode(encoded, offset, length, buffer);
+    JsonParser parser = buffer.asParser();
+    try
+    {
+      return JsonUtils.getObjectReader().readTree(parser);
+    }
+    finally
+    {
+      parser.close();
+    }
+  }
+
+  /**
+   * Decode a resource and write it to a generator, without creating a tree.
+   * This may be used to write the resource as JSON.
+   *
+   * @param encoded The array that contains the encoded resource.
+   * @param offset The offset of the encoded resource in the array.
+   * @param length The length of the encoded resource.
+   * @param generator The generator to write the resource to.
+   * @throws IOException if the resource could not be decoded or written.
+   */
+  public void decode(final byte[] encoded, final int offset, final int length,
+                     final JsonGenerator generator) throws IOException
+  {
+    Input input = new Input(encoded, offset, length);
+    ResourceDictionary d = readHeader(input);
+    if(input.readByte() != OBJECT)
+    {
+      throw new IOException("The encoded resource is not an object");
+    }
+    decodeObject(input, d, generator);
+    if(input.remaining() != 0)
+    {
+      throw new IOException("Unexpected data after the encoded resource");
+    }
+  }
+
+  /**
+   * Read the header of an encoded resource.
+   *
+   * @param input The input positioned at the start of the resource.
+   * @return The dictionary the resource was encoded with.
+   * @throws IOException if the header is invalid.
+   */
+  ResourceDictionary readHeader(final Input input) throws IOException
+  {
+    if(input.readByte() != FORMAT_VERSION)
+    {
+      throw new IOException("Unsupported encoding version");
+    }
+    int version = input.readVarInt();
+    ResourceDictionary d = dictionaries.get(version);
+    if(d == null)
+    {
+      throw new IOException("No dictionary with version " + version);
+    }
+    return d;
+  }
+
+  /**
+   * Encode an object. The parser must be positioned at the start of the
+   * object.
+   *
+   * @param parser The parser.
+   * @param output The output.
+   * @param key The key of the object, whose children are the keys of the
+   *            fields, or {@code null} if the object is not in the
+   *            dictionary.
+   * @throws IOException if the object could not be read or encoded.
+   */
+  private void encodeObject(final JsonParser parser, final Output output,
+                            final ResourceDictionary.Key key)
+      throws IOException
+  {
+    output.writeByte(OBJECT);
+    int start = output.size();
+    while(parser.nextToken() == JsonToken.FIELD_NAME)
+    {
+      String name = parser.getCurrentName();
+      ResourceDictionary.Key child =
+          key == null ? null : key.getChildren().get(name);
+      JsonToken token = parser.nextToken();
+      if(child != null && (child.getType() != null ||
+          token == JsonToken.START_OBJECT))
+      {
+        output.writeVarInt(child.getCode());
+      }
+      else
+      {
+        child = null;
+        output.writeVarInt(ResourceDictionary.NAME_KEY);
+        output.writeString(name);
+      }
+      encodeValue(parser, output, child);
+    }
+    output.insertLength(start);
+  }
+
+  /**
+   * Encode a value. The parser must be positioned at the first token of the
+   * value.
+   *
+   * @param parser The parser.
+   * @param output The output.
+   * @param key The key of the attribute or schema extension, or {@code null}
+   *            if the value is not in the dictionary.
+   * @throws IOException if the value could not be read or encoded.
+   */
+  private void encodeValue(final JsonParser parser, final Output output,
+                           final ResourceDictionary.Key key)
+      throws IOException
+  {
+    switch(parser.currentToken())
+    {
+      case START_OBJECT:
+        encodeObject(parser, output, key);
+        break;
+      case START_ARRAY:
+        output.writeByte(ARRAY);
+        int start = output.size();
+        while(parser.nextToken() != JsonToken.END_ARRAY)
+        {
+          encodeValue(parser, output, key);
+        }
+        output.insertLength(start);
+        break;
+      case VALUE_STRING:
+        encodeString(parser.getText(), output, key);
+        break;
+      case VALUE_NUMBER_INT:
+        if(parser.getNumberType() == JsonParser.NumberType.BIG_INTEGER)
+        {
+          output.writeByte(BIG_INTEGER);
+          output.writeString(parser.getBigIntegerValue().toString());
+        }
+        else
+        {
+          output.writeByte(INTEGER);
+          output.writeVarLong(parser.getLongValue());
+        }
+        break;
+      case VALUE_NUMBER_FLOAT:
+        if(parser.getNumberType() == JsonParser.NumberType.BIG_DECIMAL)
+        {
+          output.writeByte(BIG_DECIMAL);
+          output.writeString(parser.getDecimalValue().toString());
+        }
+        else
+        {
+          output.writeByte(DOUBLE);
+          output.writeLong(Double.doubleToRawLongBits(
+              parser.getDoubleValue()));
+        }
+        break;
+      case VALUE_TRUE:
+        output.writeByte(TRUE);
+        break;
+      case VALUE_FALSE:
+        output.writeByte(FALSE);
+        break;
+      case VALUE_NULL:
+        output.writeByte(NULL);
+        break;
+      case VALUE_EMBEDDED_OBJECT:
+        if(!(parser.getEmbeddedObject() instanceof byte[]))
+        {
+          throw new IOException("Unsupported value " +
+              parser.getEmbeddedObject());
+        }
+        byte[] bytes = (byte[]) parser.getEmbeddedObject();
+        output.writeByte(BINARY);
+        output.writeVarInt(bytes.length);
+        output.writeBytes(bytes, 0, bytes.length);
+        break;
+      default:
+        throw new IOException("Unexpected token " + parser.currentToken());
+    }
+  }
+
+  /**
+   * Encode a string value, as a schema URN ID or epoch milliseconds when
+   * possible.
+   *
+   * @param value The string value.
+   * @param output The output.
+   * @param key The key of the attribute or {@code null} if the value is not
+   *            in the dictionary.
+   */
+  private void encodeString(final String value, final Output output,
+                            final ResourceDictionary.Key key)
+  {
+    if(key != null && key.getType() == AttributeDefinition.Type.DATETIME)
+    {
+      try
+      {
+        long epochMillis = DateTimeUtils.parseEpochMillis(value);
+        // Only use the compact form if the value is formatted the same way.
+        if(DateTimeUtils.format(epochMillis).equals(value))
+        {
+          output.writeByte(DATETIME);
+          output.writeVarLong(epochMillis);
+          return;
+        }
+      }
+      catch(IllegalArgumentException e)
+      {
+        // Not a valid DateTime, so keep the string.
+      }
+    }
+    else if(key != null &&
+        key.getCode() >>> 2 == dictionary.getSchemasAttribute() &&
+        (key.getCode() & 3) == ResourceDictionary.ATTRIBUTE_KEY)
+    {
+      ResourceDictionary.Key schema = dictionary.getSchemaKey(value);
+      if(schema != null && schema.getName().equals(value))
+      {
+        output.writeByte(SCHEMA);
+        output.writeVarInt(schema.getCode() >>> 2);
+        return;
+      }
+    }
+    output.writeByte(STRING);
+    output.writeString(value);
+  }
+
+  /**
+   * Decode the fields of an object whose tag has been read.
+   *
+   * @param input The input.
+   * @param d The dictionary the resource was encoded with.
+   * @param generator The generator to write the object to.
+   * @throws IOException if the object could not be decoded or written.
+   */
+  private static void decodeObject(final Input input,
+                                   final ResourceDictionary d,
+                                   final JsonGenerator generator)
+      throws IOException
+  {
+    int end = input.readEnd();
+    generator.writeStartObject();
+    while(input.position() < end)
+    {
+      generator.writeFieldName(readFieldName(input, d));
+      decodeValue(input, d, generator);
+    }
+    input.checkEnd(end);
+    generator.writeEndObject();
+  }
+
+  /**
+   * Read the name of a field.
+   *
+   * @param input The input positioned at the code of the field.
+   * @param d The dictionary the resource was encoded with.
+   * @return The name of the field.
+   * @throws IOException if the name could not be decoded.
+   */
+  static String readFieldName(final Input input, final ResourceDictionary d)
+      throws IOException
+  {
+    int code = input.readVarInt();
+    if(code == ResourceDictionary.NAME_KEY)
+    {
+      return input.readString();
+    }
+    ResourceDictionary.Key key = d.getKey(code);
+    if(key == null)
+    {
+      throw new IOException("Unknown field code " + code);
+    }
+    return key.getName();
+  }
+
+  /**
+   * Decode a value.
+   *
+   * @param input The input positioned at the tag of the value.
+   * @param d The dictionary the resource was encoded with.
+   * @param generator The generator to write the value to.
+   * @throws IOException if the value could not be decoded or written.
+   */
+  static void decodeValue(final Input input, final ResourceDictionary d,
+                          final JsonGenerator generator)
+      throws IOException
+  {
+    byte tag = input.readByte();
+    switch(tag)
+    {
+      case NULL:
+        generator.writeNull();
+        break;
+      case FALSE:
+        generator.writeBoolean(false);
+        break;
+      case TRUE:
+        generator.writeBoolean(true);
+        break;
+      case STRING:
+        generator.writeString(input.readString());
+        break;
+      case SCHEMA:
+        ResourceDictionary.Key schema = d.getKey(
+            (input.readVarInt() << 2) | ResourceDictionary.SCHEMA_KEY);
+        if(schema == null)
+        {
+          throw new IOException("Unknown schema ID");
+        }
+        generator.writeString(schema.getName());
+        break;
+      case DATETIME:
+        generator.writeString(DateTimeUtils.format(input.readVarLong()));
+        break;
+      case INTEGER:
+        long value = input.readVarLong();
+        if(value == (int) value)
+        {
+          generator.writeNumber((int) value);
+        }
+        else
+        {
+          generator.writeNumber(value);
+        }
+        break;
+      case DOUBLE:
+        generator.writeNumber(Double.longBitsToDouble(input.readLong()));
+        break;
+      case BIG_INTEGER:
+        generator.writeNumber(new BigInteger(input.readString()));
+        break;
+      case BIG_DECIMAL:
+        generator.writeNumber(new BigDecimal(input.readString()));
+        break;
+      case BINARY:
+        int length = input.readVarInt();
+        generator.writeBinary(input.readBytes(length));
+        break;
+      case ARRAY:
+        int end = input.readEnd();
+        generator.writeStartArray();
+        while(input.position() < end)
+        {
+          decodeValue(input, d, generator);
+        }
+        input.checkEnd(end);
+        generator.writeEndArray();
+        break;
+      case OBJECT:
+        decodeObject(input, d, generator);
+        break;
+      default:
+        throw new IOException("Unknown value tag " + tag);
+    }
+  }
+
+  /**
+   * Skip a value.
+   *
+   * @param input The input positioned at the tag of the value.
+   * @throws IOException if the value is invalid.
+   */
+  static void skipValue(final Input input) throws IOException
+  {
+    byte tag = input.readByte();
+    switch(tag)
+    {
+      case NULL:
+      case FALSE:
+      case TRUE:
+        break;
+      case SCHEMA:
+      case DATETIME:
+      case INTEGER:
+        input.readVarLong();
+        break;
+      case DOUBLE:
+        input.skip(8);
+        break;
+      case STRING:
+      case BIG_INTEGER:
+      case BIG_DECIMAL:
+      case BINARY:
+      case ARRAY:
+      case OBJECT:
+        input.skip(input.readVarInt());
+        break;
+      default:
+        throw new IOException("Unknown value tag " + tag);
+    }
+  }
+
+  /**
+   * A growable byte array that encoded values are written to.
+   */
+  private static final class Output
+  {
+    private byte[] bytes = new byte[256];
+    private int size;
+
+    /**
+     * Retrieve the number of bytes written.
+     *
+     * @return The number of bytes written.
+     */
+    int size()
+    {
+      return size;
+    }
+
+    /**
+     * Write a byte.
+     *
+     * @param b The byte.
+     */
+    void writeByte(final int b)
+    {
+      ensureCapacity(1);
+      bytes[size++] = (byte) b;
+    }
+
+    /**
+     * Write bytes.
+     *
+     * @param b The array that contains the bytes.
+     * @param offset The offset of the bytes.
+     * @param length The number of bytes.
+     */
+    void writeBytes(final byte[] b, final int offset, final int length)
+    {
+      ensureCapacity(length);
+      System.arraycopy(b, offset, bytes, size, length);
+      size += length;
+    }
+
+    /**
+     * Write an unsigned variable-length integer.
+     *
+     * @param value The integer.
+     */
+    void writeVarInt(final int value)
+    {
+      int v = value;
+      while((v & ~0x7F) != 0)
+      {
+        writeByte((v & 0x7F) | 0x80);
+        v >>>= 7;
+      }
+      writeByte(v);
+    }
+
+    /**
+     * Write a signed variable-length long using zigzag encoding.
+     *
+     * @param value The long.
+     */
+    void writeVarLong(final long value)
+    {
+      long v = (value << 1) ^ (value >> 63);
+      while((v & ~0x7FL) != 0)
+      {
+        writeByte((int) ((v & 0x7F) | 0x80));
+        v >>>= 7;
+      }
+      writeByte((int) v);
+    }
+
+    /**
+     * Write a fixed-length long.
+     *
+     * @param value The long.
+     */
+    void writeLong(final long value)
+    {
+      for(int shift = 56; shift >= 0; shift -= 8)
+      {
+        writeByte((int) (value >>> shift));
+      }
+    }
+
+    /**
+     * Write a UTF-8 string prefixed with its length.
+     *
+     * @param value The string.
+     */
+    void writeString(final String value)
+    {
+      byte[] b = value.getBytes(StandardCharsets.UTF_8);
+      writeVarInt(b.length);
+      writeBytes(b, 0, b.length);
+    }
+
+    /**
+     * Insert the length of the bytes written since a position before them.
+     *
+     * @param start The position.
+     */
+    void insertLength(final int start)
+    {
+      int length = size - start;
+      int end = size;
+      writeVarInt(length);
+      int lengthSize = size - end;
+      byte[] lengthBytes = Arrays.copyOfRange(bytes, end, size);
+      System.arraycopy(bytes, start, bytes, start + lengthSize, length);
+      System.arraycopy(lengthBytes, 0, bytes, start, lengthSize);
+    }
+
+    /**
+     * Retrieve the bytes written.
+     *
+     * @return The bytes written.
+     */
+    byte[] toByteArray()
+    {
+      return Arrays.copyOf(bytes, size);
+    }
+
+    /**
+     * Make sure there is space for more bytes.
+     *
+     * @param length The number of bytes to make space for.
+     */
+    private void ensureCapacity(final int length)
+    {
+      if(size + length > bytes.length)
+      {
+        bytes = Arrays.copyOf(bytes,
+            Math.max(size + length, bytes.length * 2));
+      }
+    }
+  }
+
+  /**
+   * A reader of encoded values.
+   */
+  static final class Input
+  {
+    private final byte[] bytes;
+    private final int end;
+    private int position;
+
+    /**
+     * Create a new input.
+     *
+     * @param bytes The array that contains the encoded values.
+     * @param offset The offset of the encoded values.
+     * @param length The length of the encoded values.
+     */
+    Input(final byte[] bytes, final int offset, final int length)
+    {
+      if(offset < 0 || length < 0 || offset > bytes.length - length)
+      {
+        throw new IndexOutOfBoundsException();
+      }
+      this.bytes = bytes;
+      this.position = offset;
+      this.end = offset + length;
+    }
+
+    /**
+     * Retrieve the current position.
+     *
+     * @return The current position.
+     */
+    int position()
+    {
+      return position;
+    }
+
+    /**
+     * Retrieve the number of bytes that have not been read.
+     *
+     * @return The number of bytes that have not been read.
+     */
+    int remaining()
+    {
+      return end - position;
+    }
+
+    /**
+     * Read a byte.
+     *
+     * @return The byte.
+     * @throws IOException if there are no more bytes.
+     */
+    byte readByte() throws IOException
+    {
+      if(position >= end)
+      {
+        throw new IOException("The encoded resource is truncated");
+      }
+      return bytes[position++];
+    }
+
+    /**
+     * Read bytes.
+     *
+     * @param length The number of bytes.
+     * @return The bytes.
+     * @throws IOException if there are not enough bytes.
+     */
+    byte[] readBytes(final int length) throws IOException
+    {
+      int start = position;
+      skip(length);
+      return Arrays.copyOfRange(bytes, start, position);
+    }
+
+    /**
+     * Skip bytes.
+     *
+     * @param length The number of bytes.
+     * @throws IOException if there are not enough bytes.
+     */
+    void skip(final int length) throws IOException
+    {
+      if(length < 0 || length > remaining())
+      {
+        throw new IOException("The encoded resource is truncated");
+      }
+      position += length;
+    }
+
+    /**
+     * Read an unsigned variable-length integer.
+     *
+     * @return The integer.
+     * @throws IOException if the integer is invalid.
+     */
+    int readVarInt() throws IOException
+    {
+      int value = 0;
+      for(int shift = 0; shift < 35; shift += 7)
+      {
+        byte b = readByte();
+        value |= (b & 0x7F) << shift;
+        if(b >= 0)
+        {
+          return value;
+        }
+      }
+      throw new IOException("Invalid variable-length integer");
+    }
+
+    /**
+     * Read a signed variable-length long using zigzag encoding.
+     *
+     * @return The long.
+     * @throws IOException if the long is invalid.
+     */
+    long readVarLong() throws IOException
+    {
+      long value = 0;
+      for(int shift = 0; shift < 70; shift += 7)
+      {
+        byte b = readByte();
+        value |= (long) (b & 0x7F) << shift;
+        if(b >= 0)
+        {
+          return (value >>> 1) ^ -(value & 1);
+        }
+      }
+      throw new IOException("Invalid variable-length integer");
+    }
+
+    /**
+     * Read a fixed-length long.
+     *
+     * @return The long.
+     * @throws IOException if there are not enough bytes.
+     */
+    long readLong() throws IOException
+    {
+      long value = 0;
+      for(int i = 0; i < 8; i++)
+      {
+        value = (value << 8) | (readByte() & 0xFF);
+      }
+      return value;
+    }
+
+    /**
+     * Read a UTF-8 string prefixed with its length.
+     *
+     * @return The string.
+     * @throws IOException if the string is invalid.
+     */
+    String readString() throws IOException
+    {
+      int length = readVarInt();
+      int start = position;
+      skip(length);
+      return new String(bytes, start, length, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Read the length of an object or array and compute where it ends.
+     *
+     * @return The position after the object or array.
+     * @throws IOException if the length is invalid.
+     */
+    int readEnd() throws IOException
+    {
+      int length = readVarInt();
+      if(length < 0 || length > remaining())
+      {
+        throw new IOException("The encoded resource is truncated");
+      }
+      return position + length;
+    }
+
+    /**
+     * Make sure an object or array ended at the expected position.
+     *
+     * @param expected The expected position.
+     * @throws IOException if the object or array did not end there.
+     */
+    void checkEnd(final int expected) throws IOException
+    {
+      if(position != expected)
+      {
+        throw new IOException("Invalid object or array length");
+      }
+    }
+  }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright 2021 Ping Identity Corporation
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPLv2 only)
+ * or the terms of the GNU Lesser General Public License (LGPLv2.1 only)
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ */
+
+package com.unboundid.scim2.server.utils;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+import com.unboundid.scim2.common.Path;
+import com.unboundid.scim2.common.exceptions.ScimException;
+import com.unboundid.scim2.common.filters.Filter;
+import com.unboundid.scim2.common.utils.JsonUtils;
+
+import java.io.IOException;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * A filter that is evaluated on resources encoded by a
+ * {@link CompactResourceCodec} without decoding them entirely. Only the
+ * top-level attributes and schema extensions that the filter refers to are
+ * decoded, and all other values are skipped. The filter is then evaluated on
+ * the decoded values with a {@link SchemaAwareFilterEvaluator}, so the results
+ * are the same as for the decoded resources.
+ */
+public final class CompactResourceFilter
+{
+  private final CompactResourceCodec codec;
+  private final Filter filter;
+  private final SchemaAwareFilterEvaluator filterEvaluator;
+  private final Set<String> fieldNames;
+
+  /**
+   * Create a new filter.
+   *
+   * @param codec The codec the resources are encoded with.
+   * @param filter The filter to evaluate.
+   */
+  public CompactResourceFilter(final CompactResourceCodec codec,
+                               final Filter filter)
+  {
+    this.codec = codec;
+    this.filter = filter;
+    this.filterEvaluator =
+        new SchemaAwareFilterEvaluator(codec.getResourceType());
+    this.fieldNames = new TreeSet<String>(String.CASE_INSENSITIVE_ORDER);
+    addFieldNames(filter);
+  }
+
+  /**
+   * Whether an encoded resource matches the filter.
+   *
+   * @param encoded The encoded resource.
+   * @return {@code true} if the resource matches the filter or {@code false}
+   * otherwise.
+   * @throws IOException if the resource could not be decoded.
+   * @throws ScimException if the filter could not be evaluated.
+   */
+  public boolean matches(final byte[] encoded)
+      throws IOException, ScimException
+  {
+    return matches(encoded, 0, encoded.length);
+  }
+
+  /**
+   * Whether an encoded resource matches the filter.
+   *
+   * @param encoded The array that contains the encoded resource.
+   * @param offset The offset of the encoded resource in the array.
+   * @param length The length of the encoded resource.
+   * @return {@code true} if the resource matches the filter or {@code false}
+   * otherwise.
+   * @throws IOException if the resource could not be decoded.
+   * @throws ScimException if the filter could not be evaluated.
+   */
+  public boolean matches(final byte[] encoded, final int offset,
+                         final int length)
+      throws IOException, ScimException
+  {
+    CompactResourceCodec.Input input =
+        new CompactResourceCodec.Input(encoded, offset, length);
+    ResourceDictionary dictionary = codec.readHeader(input);
+    if(input.readByte() != CompactResourceCodec.OBJECT)
+    {
+      throw new IOException("The encoded resource is not an object");
+    }
+    int end = input.readEnd();
+
+    TokenBuffer buffer = new TokenBuffer(null, false);
+    buffer.writeStartObject();
+    while(input.position() < end)
+    {
+      String name = CompactResourceCodec.readFieldName(input, dictionary);
+      if(fieldNames.contains(name))
+      {
+        buffer.writeFieldName(name);
+        CompactResourceCodec.decodeValue(input, dictionary, buffer);
+      }
+      else
+      {
+        CompactResourceCodec.skipValue(input);
+      }
+    }
+    input.checkEnd(end);
+    buffer.writeEndObject();
+
+    ObjectNode values;
+    JsonParser parser = buffer.asParser();
+    try
+    {
+      values = JsonUtils.getObjectReader().readTree(parser);
+    }
+    finally
+    {
+      parser.close();
+    }
+    return filter.visit(filterEvaluator, values);
+  }
+
+  /**
+   * Add the names of the top-level fields that contain the attributes a
+   * filter refers to.
+   *
+   * @param f The filter.
+   */
+  private void addFieldNames(final Filter f)
+  {
+    if(f.isCombiningFilter())
+    {
+      for(Filter combinedFilter : f.getCombinedFilters())
+      {
+        addFieldNames(combinedFilter);
+      }
+    }
+    else if(f.isNotFilter())
+    {
+      addFieldNames(f.getInvertedFilter());
+    }
+    else
+    {
+      // Value filters of complex value filters are relative to its attribute.
+      Path path =
+          codec.getResourceType().normalizePath(f.getAttributePath());
+      if(path.getSchemaUrn() != null)
+      {
+        fieldNames.add(path.getSchemaUrn());
+      }
+      else if(path.size() > 0)
+      {
+        fieldNames.add(path.getElement(0).getAttribute());
+      }
+    }
+  }
+}
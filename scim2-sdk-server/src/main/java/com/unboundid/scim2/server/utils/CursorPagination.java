@@ -0,0 +1,143 @@
+/*
+ * Copyright 2021 Ping Identity Corporation
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPLv2 only)
+ * or the terms of the GNU Lesser General Public License (LGPLv2.1 only)
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ */
+
+package com.unboundid.scim2.server.utils;
+
+import com.unboundid.scim2.common.ScimResource;
+import com.unboundid.scim2.common.exceptions.BadRequestException;
+import com.unboundid.scim2.common.exceptions.ServerErrorException;
+import com.unboundid.scim2.common.messages.SortOrder;
+
+import java.io.IOException;
+import java.util.Comparator;
+
+/**
+ * The state of a search that uses cursor-based pagination. The results are
+ * ordered by the sortBy attribute and by id, so that every page is ordered
+ * the same way, and the resources up to the {@link SearchCursor} of the
+ * request were returned with previous pages.
+ */
+final class CursorPagination
+{
+  private final String search;
+  private final RankedResource position;
+
+  /**
+   * Create the state of a search with cursor pagination.
+   *
+   * @param plan The plan of the search.
+   * @param cursor The cursor parameter, which is empty for the first page.
+   * @param resourceComparator The comparator that orders the results.
+   * @throws BadRequestException If the cursor is invalid or was issued for
+   * another search.
+   */
+  CursorPagination(final SearchPlan plan, final String cursor,
+                   final ResourceComparator<ScimResource> resourceComparator)
+      throws BadRequestException
+  {
+    SortOrder sortOrder = plan.getSortOrder();
+    this.search = plan.getResourceType().getEndpoint() + "\n" +
+        plan.getFilterString() + "\n" + plan.getSortByString() + "\n" +
+        sortOrder;
+    if(cursor.isEmpty())
+    {
+      this.position = null;
+    }
+    else
+    {
+      SearchCursor decoded = SearchCursor.decode(search, cursor);
+      this.position = new RankedResource(
+          resourceComparator.createSortKey(null, decoded.getValue()), -1,
+          decoded.getId());
+    }
+  }
+
+  /**
+   * Create the comparator of ranked resources, which breaks ties by id.
+   *
+   * @param resourceComparator The comparator of the sort keys.
+   * @return The comparator of ranked resources.
+   */
+  static Comparator<RankedResource> comparator(
+      final ResourceComparator<ScimResource> resourceComparator)
+  {
+    return new Comparator<RankedResource>()
+    {
+      public int compare(final RankedResource o1, final RankedResource o2)
+      {
+        int result =
+            resourceComparator.compareSortKeys(o1.sortKey, o2.sortKey);
+        if(result == 0)
+        {
+          result = o1.id.compareTo(o2.id);
+        }
+        return result;
+      }
+    };
+  }
+
+  /**
+   * Rank a matching resource, keeping its id.
+   *
+   * @param resourceComparator The comparator that creates the sort key.
+   * @param resource The resource.
+   * @param index The zero-based index of the resource in the results.
+   * @return The ranked resource.
+   * @throws ServerErrorException If the resource has no id.
+   */
+  static RankedResource rank(
+      final ResourceComparator<ScimResource> resourceComparator,
+      final ScimResource resource, final int index)
+      throws ServerErrorException
+  {
+    // Cursors resume after the id of the last resource of a page.
+    String id = resource.getId();
+    if(id == null)
+    {
+      throw new ServerErrorException("Resources without an id cannot be " +
+          "returned with cursor pagination");
+    }
+    return new RankedResource(resourceComparator.getSortKey(resource), index,
+        id);
+  }
+
+  /**
+   * Determine whether a resource follows the cursor of the request, and was
+   * not returned with a previous page.
+   *
+   * @param ranked The ranked resource.
+   * @param rankedComparator The comparator of ranked resources.
+   * @return {@code true} if the resource follows the cursor.
+   */
+  boolean follows(final RankedResource ranked,
+                  final Comparator<RankedResource> rankedComparator)
+  {
+    return position == null || rankedComparator.compare(ranked, position) > 0;
+  }
+
+  /**
+   * Create the cursor that requests the page after a returned resource.
+   *
+   * @param last The last returned resource.
+   * @return The cursor.
+   * @throws IOException If the cursor could not be encoded.
+   */
+  String next(final RankedResource last) throws IOException
+  {
+    return SearchCursor.encode(search, last.sortKey.getValue(), last.id);
+  }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2021 Ping Identity Corporation
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPLv2 only)
+ * or the terms of the GNU Lesser General Public License (LGPLv2.1 only)
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ */
+
+package com.unboundid.scim2.server.utils;
+
+import com.unboundid.scim2.common.ScimResource;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Selects the results of an unsorted search, which are returned in the order
+ * they were added, by only keeping the resources on the requested page.
+ */
+final class PageSelection extends ResultSelection
+{
+  private final List<ScimResource> resources = new ArrayList<ScimResource>();
+
+  /**
+   * Create a new selection of unsorted results.
+   *
+   * @param firstIndex The zero-based index of the first returned result.
+   * @param lastIndex The zero-based index after the last returned result.
+   */
+  PageSelection(final int firstIndex, final long lastIndex)
+  {
+    super(firstIndex, lastIndex);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  void keep(final ScimResource resource, final int index)
+  {
+    if(index >= firstIndex && index < lastIndex)
+    {
+      resources.add(resource);
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  void write(final Sink sink) throws IOException
+  {
+    sink.start(resources.size());
+    for(ScimResource resource : resources)
+    {
+      sink.resource(resource);
+    }
+  }
+}
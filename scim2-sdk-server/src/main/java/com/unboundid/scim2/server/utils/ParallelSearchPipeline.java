@@ -0,0 +1,437 @@
+/*
+ * Copyright 2021 Ping Identity Corporation
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPLv2 only)
+ * or the terms of the GNU Lesser General Public License (LGPLv2.1 only)
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ */
+
+package com.unboundid.scim2.server.utils;
+
+import com.unboundid.scim2.common.RawScimResource;
+import com.unboundid.scim2.common.ScimResource;
+import com.unboundid.scim2.server.ListResponseWriter;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Processes search results on the threads of an executor and delivers the
+ * processed results in their original order on the calling thread. This is
+ * used by {@link SimpleSearchResults} and {@link StreamingSearchResults} when
+ * a parallelism greater than one is set, to filter, trim and serialize
+ * resources on several cores while a single thread writes the response.
+ * <p>
+ * Each search processes at most its parallelism number of results at a time,
+ * and at most twice that many are processed or waiting to be delivered.
+ * Searches use the executor set with
+ * {@link SimpleSearchResults#setExecutor} or
+ * {@link StreamingSearchResults#setExecutor}, or else a pool shared by every
+ * search whose number of threads is capped by {@link #setMaxThreads} and
+ * whose queue holds at most {@link #MAX_QUEUED_TASKS} results. When an
+ * executor rejects a result because it is saturated, the result is processed
+ * on the calling thread instead, which slows the search down until the
+ * executor catches up.
+ *
+ * @param <I> The type of the results to process.
+ * @param <O> The type of the processed results.
+ */
+public final class ParallelSearchPipeline<I, O>
+{
+  /**
+   * Processes a result on a thread of the pool.
+   *
+   * @param <I> The type of the results to process.
+   * @param <O> The type of the processed results.
+   */
+  interface Stage<I, O>
+  {
+    /**
+     * Process a result.
+     *
+     * @param input The result to process.
+     * @return The processed result.
+     * @throws Exception If the result could not be processed.
+     */
+    O process(I input) throws Exception;
+  }
+
+  /**
+   * Receives the processed results in their original order on the thread
+   * that submitted them.
+   *
+   * @param <O> The type of the processed results.
+   */
+  interface Sink<O>
+  {
+    /**
+     * Receive a processed result.
+     *
+     * @param output The processed result.
+     * @throws IOException If the result could not be handled.
+     */
+    void accept(O output) throws IOException;
+  }
+
+  /**
+   * The maximum number of results waiting to be processed by the threads of
+   * the shared pool.
+   */
+  public static final int MAX_QUEUED_TASKS = 1024;
+
+  private static final Object POOL_LOCK = new Object();
+  private static volatile int maxThreads =
+      Runtime.getRuntime().availableProcessors();
+  private static volatile ThreadPoolExecutor pool;
+
+  private final int parallelism;
+  private final Executor executor;
+  private final Stage<I, O> stage;
+  private final Sink<O> sink;
+  private final BlockingQueue<Completed<O>> completed =
+      new LinkedBlockingQueue<Completed<O>>();
+  private final Map<Long, Completed<O>> outOfOrder =
+      new HashMap<Long, Completed<O>>();
+  private long submitted;
+  private long delivered;
+  private int running;
+
+  /**
+   * Create a new pipeline.
+   *
+   * @param parallelism The maximum number of results processed at a time.
+   * @param executor The executor that processes the results, or
+   *                 {@code null} to use the shared pool.
+   * @param stage The stage that processes results on the executor.
+   * @param sink The sink that receives the processed results.
+   */
+  ParallelSearchPipeline(final int parallelism, final Executor executor,
+                         final Stage<I, O> stage, final Sink<O> sink)
+  {
+    this.parallelism = parallelism;
+    this.executor = executor == null ? getPool() : executor;
+    this.stage = stage;
+    this.sink = sink;
+  }
+
+  /**
+   * Set the maximum number of threads shared by every parallel search. The
+   * default is the number of available processors.
+   *
+   * @param maxThreads The maximum number of threads.
+   */
+  public static void setMaxThreads(final int maxThreads)
+  {
+    if(maxThreads < 1)
+    {
+      throw new IllegalArgumentException("maxThreads must be at least 1");
+    }
+    synchronized(POOL_LOCK)
+    {
+      ParallelSearchPipeline.maxThreads = maxThreads;
+      if(pool != null)
+      {
+        if(maxThreads > pool.getMaximumPoolSize())
+        {
+          pool.setMaximumPoolSize(maxThreads);
+          pool.setCorePoolSize(maxThreads);
+        }
+        else
+        {
+          pool.setCorePoolSize(maxThreads);
+          pool.setMaximumPoolSize(maxThreads);
+        }
+      }
+    }
+  }
+
+  /**
+   * Retrieve the maximum number of threads shared by every parallel search.
+   *
+   * @return The maximum number of threads.
+   */
+  public static int getMaxThreads()
+  {
+    return maxThreads;
+  }
+
+  /**
+   * Check that a parallelism value is valid.
+   *
+   * @param parallelism The parallelism value.
+   */
+  static void checkParallelism(final int parallelism)
+  {
+    if(parallelism < 1)
+    {
+      throw new IllegalArgumentException("parallelism must be at least 1");
+    }
+  }
+
+  /**
+   * Create a pipeline that trims and serializes resources on an executor and
+   * writes them to a list response in order.
+   *
+   * @param os The list response writer.
+   * @param preparer The preparer that trims the resources.
+   * @param parallelism The maximum number of resources processed at a time.
+   * @param executor The executor that processes the resources, or
+   *                 {@code null} to use the shared pool.
+   * @param <T> The type of resources in the list response.
+   * @return The pipeline.
+   */
+  static <T extends ScimResource> ParallelSearchPipeline<ScimResource, Object>
+      writing(final ListResponseWriter<T> os,
+              final ResourcePreparer<ScimResource> preparer,
+              final int parallelism, final Executor executor)
+  {
+    return new ParallelSearchPipeline<ScimResource, Object>(parallelism,
+        executor,
+        new Stage<ScimResource, Object>()
+        {
+          public Object process(final ScimResource input) throws IOException
+          {
+            return serialize(input, preparer);
+          }
+        },
+        new Sink<Object>()
+        {
+          public void accept(final Object output) throws IOException
+          {
+            write(os, output, preparer);
+          }
+        });
+  }
+
+  /**
+   * Trim and serialize a resource, unless it is a raw resource that is
+   * written as is.
+   *
+   * @param resource The resource.
+   * @param preparer The preparer that trims the resource.
+   * @return The UTF-8 encoded JSON object or the raw resource.
+   * @throws IOException If the resource could not be serialized.
+   */
+  static Object serialize(final ScimResource resource,
+                          final ResourcePreparer<ScimResource> preparer)
+      throws IOException
+  {
+    if(resource instanceof RawScimResource &&
+        !((RawScimResource) resource).isModified() &&
+        preparer.returnsAllRetrievedAttributes())
+    {
+      return resource;
+    }
+    return preparer.serializeRetrievedResource(resource);
+  }
+
+  /**
+   * Write a resource or a serialized resource to a list response.
+   *
+   * @param os The list response writer.
+   * @param output The UTF-8 encoded JSON object or the resource.
+   * @param preparer The preparer that trims the resource.
+   * @param <T> The type of resources in the list response.
+   * @throws IOException If the resource could not be written.
+   */
+  @SuppressWarnings("unchecked")
+  static <T extends ScimResource> void write(
+      final ListResponseWriter<T> os, final Object output,
+      final ResourcePreparer<ScimResource> preparer)
+      throws IOException
+  {
+    if(output instanceof byte[])
+    {
+      os.rawResource((byte[]) output);
+    }
+    else
+    {
+      os.resource((T) output, preparer);
+    }
+  }
+
+  /**
+   * Submit a result to process. This blocks while the maximum number of
+   * results are being processed, and delivers the processed results that are
+   * next in order to the sink. The result is processed on the calling thread
+   * if the executor rejects it.
+   *
+   * @param input The result to process.
+   * @throws IOException If a result could not be processed or delivered.
+   */
+  void submit(final I input) throws IOException
+  {
+    while(running >= parallelism || submitted - delivered >= 2 * parallelism)
+    {
+      take();
+    }
+    final long index = submitted++;
+    running++;
+    Runnable task = new Runnable()
+    {
+      public void run()
+      {
+        try
+        {
+          completed.add(new Completed<O>(index, stage.process(input), null));
+        }
+        catch(Throwable t)
+        {
+          completed.add(new Completed<O>(index, null, t));
+        }
+      }
+    };
+    try
+    {
+      executor.execute(task);
+    }
+    catch(RejectedExecutionException e)
+    {
+      // The executor is saturated, so apply backpressure by processing the
+      // result on this thread.
+      task.run();
+    }
+  }
+
+  /**
+   * Wait for every submitted result to be processed and delivered.
+   *
+   * @throws IOException If a result could not be processed or delivered.
+   */
+  void finish() throws IOException
+  {
+    while(delivered < submitted)
+    {
+      take();
+    }
+  }
+
+  /**
+   * Wait for a result to be processed and deliver the results that are next
+   * in order.
+   *
+   * @throws IOException If a result could not be processed or delivered.
+   */
+  private void take() throws IOException
+  {
+    Completed<O> result;
+    try
+    {
+      result = completed.take();
+    }
+    catch(InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException(
+          "Interrupted while processing search results");
+    }
+    running--;
+    if(result.failure != null)
+    {
+      if(result.failure instanceof IOException)
+      {
+        throw (IOException) result.failure;
+      }
+      if(result.failure instanceof RuntimeException)
+      {
+        throw (RuntimeException) result.failure;
+      }
+      if(result.failure instanceof Error)
+      {
+        throw (Error) result.failure;
+      }
+      throw new IOException(result.failure.getMessage(), result.failure);
+    }
+    outOfOrder.put(result.index, result);
+    while((result = outOfOrder.remove(delivered)) != null)
+    {
+      delivered++;
+      sink.accept(result.output);
+    }
+  }
+
+  /**
+   * Retrieve the shared pool, creating it if needed. The lock is only taken
+   * until the pool is created, since {@link #setMaxThreads} resizes the pool
+   * in place.
+   *
+   * @return The shared pool.
+   */
+  private static ThreadPoolExecutor getPool()
+  {
+    ThreadPoolExecutor p = pool;
+    if(p != null)
+    {
+      return p;
+    }
+    synchronized(POOL_LOCK)
+    {
+      if(pool == null)
+      {
+        final AtomicInteger threadNumber = new AtomicInteger();
+        p = new ThreadPoolExecutor(maxThreads, maxThreads, 60,
+            TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(MAX_QUEUED_TASKS),
+            new ThreadFactory()
+            {
+              public Thread newThread(final Runnable r)
+              {
+                Thread thread = new Thread(r,
+                    "SCIM search worker " + threadNumber.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+              }
+            });
+        p.allowCoreThreadTimeOut(true);
+        pool = p;
+      }
+      return pool;
+    }
+  }
+
+  /**
+   * A processed result or the failure to process it.
+   *
+   * @param <O> The type of the processed results.
+   */
+  private static final class Completed<O>
+  {
+    private final long index;
+    private final O output;
+    private final Throwable failure;
+
+    /**
+     * Create a new completed result.
+     *
+     * @param index The index of the result in submission order.
+     * @param output The processed result.
+     * @param failure The failure or {@code null} if the result was processed.
+     */
+    private Completed(final long index, final O output,
+                      final Throwable failure)
+    {
+      this.index = index;
+      this.output = output;
+      this.failure = failure;
+    }
+  }
+}
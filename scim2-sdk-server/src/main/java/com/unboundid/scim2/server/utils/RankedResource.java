@@ -0,0 +1,57 @@
+/*
+ * Copyright 2021 Ping Identity Corporation
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPLv2 only)
+ * or the terms of the GNU Lesser General Public License (LGPLv2.1 only)
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ */
+
+package com.unboundid.scim2.server.utils;
+
+/**
+ * The sort key of a matching resource and the order it was added in, which
+ * are used by {@link SimpleSearchResults} to select the sorted resources that
+ * are returned.
+ */
+final class RankedResource
+{
+  /**
+   * The sort key of the resource, which also holds the resource.
+   */
+  final ResourceComparator.SortKey sortKey;
+
+  /**
+   * The zero-based index of the resource in the results.
+   */
+  final int index;
+
+  /**
+   * The id of the resource, which is only kept with cursor pagination.
+   */
+  final String id;
+
+  /**
+   * Create a new ranked resource.
+   *
+   * @param sortKey The sort key of the resource.
+   * @param index The zero-based index of the resource in the results.
+   * @param id The id of the resource or {@code null} if cursor pagination
+   *           is not used.
+   */
+  RankedResource(final ResourceComparator.SortKey sortKey,
+                 final int index, final String id)
+  {
+    this.sortKey = sortKey;
+    this.index = index;
+    this.id = id;
+  }
+}
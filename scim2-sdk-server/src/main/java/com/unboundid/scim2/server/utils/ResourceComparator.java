@@ -24,9 +24,13 @@ import com.unboundid.scim2.common.ScimResource;
 import com.unboundid.scim2.common.exceptions.ScimException;
 import com.unboundid.scim2.common.messages.SortOrder;
 import com.unboundid.scim2.common.types.AttributeDefinition;
+import com.unboundid.scim2.common.utils.DateTimeUtils;
 import com.unboundid.scim2.common.utils.Debug;
 import com.unboundid.scim2.common.utils.JsonUtils;
+import com.unboundid.scim2.common.utils.StaticUtils;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
@@ -34,6 +38,13 @@ import java.util.List;
 /**
  * A comparator implementation that could be used to compare POJOs representing
  * SCIM resources using the SCIM sorting parameters.
+ * <p>
+ * Comparing two resources finds and normalizes their sort values every time.
+ * When many resources are sorted, {@link #getSortKey} may instead be used to
+ * extract the sort value of each resource once, with string values already
+ * case-folded and date time values already parsed, and {@link #compareSortKeys}
+ * to compare them. {@link #sort} sorts a list of resources that way. Both
+ * approaches order resources the same way.
  */
 public class ResourceComparator<T extends ScimResource>
     implements Comparator<T>
@@ -41,6 +52,7 @@ public class ResourceComparator<T extends ScimResource>
   private final Path sortBy;
   private final SortOrder sortOrder;
   private final ResourceTypeDefinition resourceType;
+  private final boolean caseExact;
 
   /**
    * Create a new ScimComparator that will sort in ascending order.
@@ -71,6 +83,12 @@ public class ResourceComparator<T extends ScimResource>
     this.sortBy = sortBy;
     this.sortOrder = sortOrder == null ? SortOrder.ASCENDING : sortOrder;
     this.resourceType = resourceType;
+    AttributeDefinition attributeDefinition =
+        resourceType == null ? null :
+            resourceType.getAttributeDefinition(sortBy);
+    this.caseExact = attributeDefinition != null &&
+        attributeDefinition.getType() == AttributeDefinition.Type.STRING &&
+        attributeDefinition.isCaseExact();
   }
 
   /**
@@ -78,63 +96,106 @@ public class ResourceComparator<T extends ScimResource>
    */
   public int compare(final T o1, final T o2)
   {
-    ObjectNode n1 = o1.asGenericScimResource().getObjectNode();
-    ObjectNode n2 = o2.asGenericScimResource().getObjectNode();
-
-    JsonNode v1 = null;
-    JsonNode v2 = null;
+    return compareSortKeys(getSortKey(o1), getSortKey(o2));
+  }
 
-    try
+  /**
+   * Sort a list of resources. The sort key of each resource is only
+   * retrieved once. This sort is stable.
+   *
+   * @param resources The resources to sort.
+   */
+  public void sort(final List<T> resources)
+  {
+    List<SortKey> keys = new ArrayList<SortKey>(resources.size());
+    for(T resource : resources)
     {
-      List<JsonNode> v1s = JsonUtils.findMatchingPaths(sortBy, n1);
-      if(!v1s.isEmpty())
+      keys.add(getSortKey(resource));
+    }
+    Collections.sort(keys, new Comparator<SortKey>()
+    {
+      public int compare(final SortKey o1, final SortKey o2)
       {
-        // Always just use the primary or first value of the first found node.
-        v1 = getPrimaryOrFirst(v1s.get(0));
+        return compareSortKeys(o1, o2);
       }
-    }
-    catch (ScimException e)
+    });
+    resources.clear();
+    for(SortKey key : keys)
     {
-      Debug.debugException(e);
+      resources.add(key.<T>getResource());
     }
+  }
 
+  /**
+   * Retrieve the sort key of a resource, which is the normalized value of the
+   * sortBy attribute.
+   *
+   * @param resource The resource.
+   * @return The sort key of the resource.
+   */
+  public SortKey getSortKey(final T resource)
+  {
+    ObjectNode node = resource.asGenericScimResource().getObjectNode();
+    JsonNode value = null;
     try
     {
-      List<JsonNode> v2s = JsonUtils.findMatchingPaths(sortBy, n2);
-      if(!v2s.isEmpty())
+      List<JsonNode> values = JsonUtils.findMatchingPaths(sortBy, node);
+      if(!values.isEmpty())
       {
         // Always just use the primary or first value of the first found node.
-        v2 = getPrimaryOrFirst(v2s.get(0));
+        value = getPrimaryOrFirst(values.get(0));
       }
     }
     catch (ScimException e)
     {
       Debug.debugException(e);
     }
+    return createSortKey(resource, value);
+  }
+
+  /**
+   * Create the sort key of a resource from its sort value.
+   *
+   * @param resource The resource.
+   * @param value The primary or first value of the sortBy attribute or
+   *              {@code null} if there is none.
+   * @return The sort key of the resource.
+   */
+  SortKey createSortKey(final ScimResource resource, final JsonNode value)
+  {
+    return new SortKey(resource, value, caseExact);
+  }
 
-    if(v1 == null && v2 == null)
+  /**
+   * Compare the sort keys of two resources. This orders the resources the
+   * same way as {@link #compare}.
+   *
+   * @param k1 The sort key of the first resource.
+   * @param k2 The sort key of the second resource.
+   * @return A negative integer, zero, or a positive integer as the first
+   * resource is sorted before, the same as, or after the second resource.
+   */
+  public int compareSortKeys(final SortKey k1, final SortKey k2)
+  {
+    if(k1.value == null && k2.value == null)
     {
       return 0;
     }
     // or all attribute types, if there is no data for the specified "sortBy"
     // value they are sorted via the "sortOrder" parameter; i.e., they are
     // ordered last if ascending and first if descending.
-    else if(v1 == null)
+    else if(k1.value == null)
     {
       return sortOrder == SortOrder.ASCENDING ? 1 : -1;
     }
-    else if(v2 == null)
+    else if(k2.value == null)
     {
       return sortOrder == SortOrder.ASCENDING ? -1 : 1;
     }
     else
     {
-      AttributeDefinition attributeDefinition =
-          resourceType == null ? null :
-              resourceType.getAttributeDefinition(sortBy);
       return sortOrder == SortOrder.ASCENDING ?
-          JsonUtils.compareTo(v1, v2, attributeDefinition) :
-          JsonUtils.compareTo(v2, v1, attributeDefinition);
+          k1.compareTo(k2) : k2.compareTo(k1);
     }
   }
 
@@ -176,4 +237,117 @@ public class ResourceComparator<T extends ScimResource>
     return node.get(0);
   }
 
+  /**
+   * The sort value of a resource, normalized so that it can be compared
+   * without parsing or case-folding it again.
+   */
+  public static final class SortKey
+  {
+    private final ScimResource resource;
+    private final JsonNode value;
+    private final String text;
+    private final String normalizedText;
+    private final boolean hasDate;
+    private final long epochMillis;
+
+    /**
+     * Create a new sort key.
+     *
+     * @param resource The resource.
+     * @param value The sort value or {@code null} if there is none.
+     * @param caseExact Whether string values are compared case-sensitively.
+     */
+    private SortKey(final ScimResource resource, final JsonNode value,
+                    final boolean caseExact)
+    {
+      this.resource = resource;
+      this.value = value;
+      if(value == null)
+      {
+        this.text = null;
+        this.normalizedText = null;
+        this.hasDate = false;
+        this.epochMillis = 0;
+      }
+      else if(value.isTextual())
+      {
+        // Textual values are compared as dates if both may be parsed as a
+        // date time, and as strings otherwise.
+        this.text = value.textValue();
+        this.normalizedText =
+            caseExact ? text : StaticUtils.toLowerCase(text);
+        long millis = 0;
+        boolean parsed;
+        try
+        {
+          millis = DateTimeUtils.parseEpochMillis(text.trim());
+          parsed = true;
+        }
+        catch (IllegalArgumentException e)
+        {
+          parsed = false;
+        }
+        this.hasDate = parsed;
+        this.epochMillis = millis;
+      }
+      else
+      {
+        this.text = value.asText();
+        this.normalizedText = null;
+        this.hasDate = false;
+        this.epochMillis = 0;
+      }
+    }
+
+    /**
+     * Retrieve the sort value.
+     *
+     * @return The sort value or {@code null} if there is none.
+     */
+    JsonNode getValue()
+    {
+      return value;
+    }
+
+    /**
+     * Retrieve the resource.
+     *
+     * @param <T> The type of resource.
+     * @return The resource.
+     */
+    @SuppressWarnings("unchecked")
+    <T extends ScimResource> T getResource()
+    {
+      return (T) resource;
+    }
+
+    /**
+     * Compare the non-null values of two sort keys the same way as
+     * {@link JsonUtils#compareTo}.
+     *
+     * @param other The other sort key.
+     * @return A negative integer, zero, or a positive integer as this value
+     * is less than, equal to, or greater than the other value.
+     */
+    private int compareTo(final SortKey other)
+    {
+      if(value.isTextual() && other.value.isTextual())
+      {
+        if(hasDate && other.hasDate)
+        {
+          return epochMillis < other.epochMillis ? -1 :
+              epochMillis == other.epochMillis ? 0 : 1;
+        }
+        return normalizedText.compareTo(other.normalizedText);
+      }
+
+      if(value.isNumber() && other.value.isNumber())
+      {
+        return JsonUtils.compareTo(value, other.value, null);
+      }
+
+      // Compare everything else lexicographically
+      return text.compareTo(other.text);
+    }
+  }
 }
@@ -0,0 +1,439 @@
+/*
+ * Copyright 2021 Ping Identity Corporation
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPLv2 only)
+ * or the terms of the GNU Lesser General Public License (LGPLv2.1 only)
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ */
+
+package com.unboundid.scim2.server.utils;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.unboundid.scim2.common.Path;
+import com.unboundid.scim2.common.exceptions.BadRequestException;
+import com.unboundid.scim2.common.types.AttributeDefinition;
+import com.unboundid.scim2.common.types.SchemaResource;
+import com.unboundid.scim2.common.utils.JsonUtils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * <p>A versioned dictionary of the attribute names and schema URNs of a
+ * resource type, which is used by {@link CompactResourceCodec} to replace them
+ * with small numeric IDs. The IDs of the attributes are the slots of the
+ * {@link ResourceTypeDefinition} the dictionary was created from.</p>
+ *
+ * <p>Encoded resources record the version of the dictionary they were encoded
+ * with, so dictionaries must be kept for as long as resources encoded with
+ * them are. A dictionary may be saved with {@link #toObjectNode()} and
+ * restored with {@link #fromObjectNode(ObjectNode)}. When the schemas of the
+ * resource type evolve, for example when an extension is added or gains an
+ * attribute, {@link #extend(ResourceTypeDefinition)} creates the next version
+ * of the dictionary. It keeps all existing IDs and adds IDs for the new
+ * attributes and schemas, so resources encoded with either version may be
+ * decoded with the new one.</p>
+ */
+public final class ResourceDictionary
+{
+  /**
+   * An attribute name or schema URN of the dictionary that may be used as the
+   * name of a field in an encoded object.
+   */
+  static final class Key
+  {
+    private final int code;
+    private final String name;
+    private final AttributeDefinition.Type type;
+    private final Map<String, Key> children;
+
+    /**
+     * Create a new key.
+     *
+     * @param code The code that represents the key in encoded objects.
+     * @param name The field name.
+     * @param type The type of the attribute or {@code null} for a schema URN.
+     */
+    Key(final int code, final String name, final AttributeDefinition.Type type)
+    {
+      this.code = code;
+      this.name = name;
+      this.type = type;
+      this.children = new TreeMap<String, Key>(String.CASE_INSENSITIVE_ORDER);
+    }
+
+    /**
+     * Retrieve the code that represents the key in encoded objects.
+     *
+     * @return The code that represents the key in encoded objects.
+     */
+    int getCode()
+    {
+      return code;
+    }
+
+    /**
+     * Retrieve the field name.
+     *
+     * @return The field name.
+     */
+    String getName()
+    {
+      return name;
+    }
+
+    /**
+     * Retrieve the type of the attribute.
+     *
+     * @return The type of the attribute or {@code null} for a schema URN.
+     */
+    AttributeDefinition.Type getType()
+    {
+      return type;
+    }
+
+    /**
+     * Retrieve the keys of the fields in the values of this key, by
+     * case-insensitive name.
+     *
+     * @return The keys of the fields in the values of this key.
+     */
+    Map<String, Key> getChildren()
+    {
+      return children;
+    }
+  }
+
+  /**
+   * The kind of code for attribute keys.
+   */
+  static final int ATTRIBUTE_KEY = 0;
+
+  /**
+   * The kind of code for schema URN keys.
+   */
+  static final int SCHEMA_KEY = 1;
+
+  /**
+   * The kind of code for fields that are not in the dictionary, whose names
+   * follow the code.
+   */
+  static final int NAME_KEY = 2;
+
+  private final int version;
+  private final List<Path> paths;
+  private final List<AttributeDefinition.Type> types;
+  private final List<String> schemas;
+  private final Key root;
+  private final Key[] attributeKeys;
+  private final Key[] schemaKeys;
+  private final Map<String, Integer> schemaIds;
+  private final int schemasAttribute;
+
+  /**
+   * Create the first version of a dictionary for a resource type.
+   *
+   * @param resourceType The resource type definition.
+   */
+  public ResourceDictionary(final ResourceTypeDefinition resourceType)
+  {
+    this(1, new ArrayList<Path>(), new ArrayList<AttributeDefinition.Type>(),
+        new ArrayList<String>(), resourceType);
+  }
+
+  /**
+   * Create a dictionary.
+   *
+   * @param version The version of the dictionary.
+   * @param paths The attribute paths by ID.
+   * @param types The attribute types by ID.
+   * @param schemas The schema URNs by ID.
+   * @param resourceType The resource type definition whose attributes and
+   *                     schemas to add, or {@code null} to not add any.
+   */
+  private ResourceDictionary(final int version, final List<Path> paths,
+                             final List<AttributeDefinition.Type> types,
+                             final List<String> schemas,
+                             final ResourceTypeDefinition resourceType)
+  {
+    if(version < 1)
+    {
+      throw new IllegalArgumentException("version must be positive");
+    }
+    this.version = version;
+    this.paths = paths;
+    this.types = types;
+    this.schemas = schemas;
+
+    if(resourceType != null)
+    {
+      Map<Path, Integer> ids = new HashMap<Path, Integer>(paths.size());
+      for(int id = 0; id < paths.size(); id++)
+      {
+        ids.put(paths.get(id), id);
+      }
+      for(int slot = 0; slot < resourceType.getSlotCount(); slot++)
+      {
+        Path path = resourceType.getSlotPath(slot);
+        if(!ids.containsKey(path))
+        {
+          ids.put(path, paths.size());
+          paths.add(path);
+          types.add(resourceType.getSlotDefinition(slot).getType());
+        }
+      }
+
+      TreeSet<String> newSchemas =
+          new TreeSet<String>(String.CASE_INSENSITIVE_ORDER);
+      if(resourceType.getCoreSchema() != null)
+      {
+        newSchemas.add(resourceType.getCoreSchema().getId());
+      }
+      for(SchemaResource schemaExtension :
+          resourceType.getSchemaExtensions().keySet())
+      {
+        newSchemas.add(schemaExtension.getId());
+      }
+      for(Path path : paths)
+      {
+        if(path.getSchemaUrn() != null)
+        {
+          newSchemas.add(path.getSchemaUrn());
+        }
+      }
+      for(String schema : schemas)
+      {
+        newSchemas.remove(schema);
+      }
+      schemas.addAll(newSchemas);
+    }
+
+    this.schemaIds =
+        new TreeMap<String, Integer>(String.CASE_INSENSITIVE_ORDER);
+    this.schemaKeys = new Key[schemas.size()];
+    for(int id = 0; id < schemas.size(); id++)
+    {
+      schemaIds.put(schemas.get(id), id);
+      schemaKeys[id] = new Key((id << 2) | SCHEMA_KEY, schemas.get(id), null);
+    }
+
+    // Link each attribute to the object that contains it.
+    this.root = new Key(-1, null, AttributeDefinition.Type.COMPLEX);
+    this.attributeKeys = new Key[paths.size()];
+    Map<Path, Key> keys = new HashMap<Path, Key>(paths.size());
+    int schemasId = -1;
+    for(int id = 0; id < paths.size(); id++)
+    {
+      Path path = paths.get(id);
+      Key key = new Key((id << 2) | ATTRIBUTE_KEY,
+          path.getElement(path.size() - 1).getAttribute(), types.get(id));
+      attributeKeys[id] = key;
+      keys.put(path, key);
+
+      Key parent;
+      if(path.size() > 1)
+      {
+        parent = keys.get(path.subPath(path.size() - 1));
+      }
+      else if(path.getSchemaUrn() != null)
+      {
+        parent = getSchemaKey(path.getSchemaUrn());
+        if(parent != null)
+        {
+          root.getChildren().put(parent.getName(), parent);
+        }
+      }
+      else
+      {
+        parent = root;
+        if(key.getName().equalsIgnoreCase("schemas"))
+        {
+          schemasId = id;
+        }
+      }
+      if(parent != null)
+      {
+        parent.getChildren().put(key.getName(), key);
+      }
+    }
+    this.schemasAttribute = schemasId;
+  }
+
+  /**
+   * Create the next version of this dictionary, which keeps the IDs of this
+   * version and adds IDs for the attributes and schemas of the resource type
+   * that are not in this version.
+   *
+   * @param resourceType The evolved resource type definition.
+   * @return The next version of this dictionary.
+   */
+  public ResourceDictionary extend(final ResourceTypeDefinition resourceType)
+  {
+    return new ResourceDictionary(version + 1, new ArrayList<Path>(paths),
+        new ArrayList<AttributeDefinition.Type>(types),
+        new ArrayList<String>(schemas), resourceType);
+  }
+
+  /**
+   * Retrieve the version of this dictionary.
+   *
+   * @return The version of this dictionary.
+   */
+  public int getVersion()
+  {
+    return version;
+  }
+
+  /**
+   * Retrieve the attribute paths in this dictionary, in order of their IDs.
+   * Core attributes have no schema URN.
+   *
+   * @return The attribute paths in this dictionary.
+   */
+  public List<Path> getAttributePaths()
+  {
+    return Collections.unmodifiableList(paths);
+  }
+
+  /**
+   * Retrieve the schema URNs in this dictionary, in order of their IDs.
+   *
+   * @return The schema URNs in this dictionary.
+   */
+  public List<String> getSchemaUrns()
+  {
+    return Collections.unmodifiableList(schemas);
+  }
+
+  /**
+   * Retrieve the JSON object that represents this dictionary, which may be
+   * saved to decode resources later.
+   *
+   * @return The JSON object that represents this dictionary.
+   */
+  public ObjectNode toObjectNode()
+  {
+    ObjectNode objectNode = JsonUtils.getJsonNodeFactory().objectNode();
+    objectNode.put("version", version);
+    ArrayNode schemasNode = objectNode.putArray("schemas");
+    for(String schema : schemas)
+    {
+      schemasNode.add(schema);
+    }
+    ArrayNode attributesNode = objectNode.putArray("attributes");
+    for(int id = 0; id < paths.size(); id++)
+    {
+      ObjectNode attributeNode = attributesNode.addObject();
+      attributeNode.put("path", paths.get(id).toString());
+      attributeNode.put("type", types.get(id).getName());
+    }
+    return objectNode;
+  }
+
+  /**
+   * Restore a dictionary from the JSON object returned by
+   * {@link #toObjectNode()}.
+   *
+   * @param objectNode The JSON object that represents the dictionary.
+   * @return The dictionary.
+   * @throws IllegalArgumentException if the JSON object does not represent a
+   * dictionary.
+   */
+  public static ResourceDictionary fromObjectNode(final ObjectNode objectNode)
+  {
+    List<String> schemas = new ArrayList<String>();
+    for(JsonNode schema : objectNode.path("schemas"))
+    {
+      schemas.add(schema.textValue());
+    }
+    List<Path> paths = new ArrayList<Path>();
+    List<AttributeDefinition.Type> types =
+        new ArrayList<AttributeDefinition.Type>();
+    try
+    {
+      for(JsonNode attribute : objectNode.path("attributes"))
+      {
+        paths.add(Path.fromString(attribute.path("path").textValue()));
+        types.add(AttributeDefinition.Type.fromName(
+            attribute.path("type").textValue()));
+      }
+    }
+    catch(BadRequestException e)
+    {
+      throw new IllegalArgumentException(e);
+    }
+    return new ResourceDictionary(objectNode.path("version").intValue(),
+        paths, types, schemas, null);
+  }
+
+  /**
+   * Retrieve the key of the resource, whose children are the top-level
+   * attributes and the schema extensions.
+   *
+   * @return The key of the resource.
+   */
+  Key getRoot()
+  {
+    return root;
+  }
+
+  /**
+   * Retrieve the key of a field from its code.
+   *
+   * @param code The code.
+   * @return The key or {@code null} if the code is not in this dictionary.
+   */
+  Key getKey(final int code)
+  {
+    int id = code >>> 2;
+    switch(code & 3)
+    {
+      case ATTRIBUTE_KEY:
+        return id < attributeKeys.length ? attributeKeys[id] : null;
+      case SCHEMA_KEY:
+        return id < schemaKeys.length ? schemaKeys[id] : null;
+      default:
+        return null;
+    }
+  }
+
+  /**
+   * Retrieve the key of a schema URN.
+   *
+   * @param schema The schema URN.
+   * @return The key or {@code null} if the schema URN is not in this
+   * dictionary.
+   */
+  Key getSchemaKey(final String schema)
+  {
+    Integer id = schemaIds.get(schema);
+    return id == null ? null : schemaKeys[id];
+  }
+
+  /**
+   * Retrieve the ID of the schemas attribute.
+   *
+   * @return The ID of the schemas attribute or {@code -1} if it is not in
+   * this dictionary.
+   */
+  int getSchemasAttribute()
+  {
+    return schemasAttribute;
+  }
+}
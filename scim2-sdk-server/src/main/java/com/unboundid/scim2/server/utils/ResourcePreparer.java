@@ -17,20 +17,25 @@
 
 package com.unboundid.scim2.server.utils;
 
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.unboundid.scim2.common.BaseScimResource;
 import com.unboundid.scim2.common.GenericScimResource;
 import com.unboundid.scim2.common.Path;
 import com.unboundid.scim2.common.ScimResource;
 import com.unboundid.scim2.common.exceptions.BadRequestException;
 import com.unboundid.scim2.common.messages.PatchOperation;
 import com.unboundid.scim2.common.types.Meta;
+import com.unboundid.scim2.common.utils.JsonUtils;
 import com.unboundid.scim2.common.utils.StaticUtils;
 
 import javax.ws.rs.core.MultivaluedMap;
 import javax.ws.rs.core.UriBuilder;
 import javax.ws.rs.core.UriInfo;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.net.URI;
 import java.util.Collections;
 import java.util.Iterator;
@@ -63,8 +68,10 @@ public class ResourcePreparer<T extends ScimResource>
 {
   private final ResourceTypeDefinition resourceType;
   private final URI baseUri;
+  private final String locationPrefix;
   private final Set<Path> queryAttributes;
   private final boolean excluded;
+  private final ScimResourceTrimmer retrievedTrimmer;
 
   /**
    * Create a new ResourcePreparer for preparing returned resources for a
@@ -84,10 +91,64 @@ public class ResourcePreparer<T extends ScimResource>
             QUERY_PARAMETER_ATTRIBUTES),
         requestUriInfo.getQueryParameters().getFirst(
             QUERY_PARAMETER_EXCLUDED_ATTRIBUTES),
-        requestUriInfo.getBaseUriBuilder().
-            path(resourceType.getEndpoint()).
-            buildFromMap(singleValuedMapFromMultivaluedMap(
-                requestUriInfo.getPathParameters())));
+        getBaseUri(resourceType, requestUriInfo));
+  }
+
+  /**
+   * Create a new ResourcePreparer that returns the same attributes as another
+   * one, for resources located under another base URI.
+   *
+   * @param preparer The ResourcePreparer whose parsed attributes are reused.
+   * @param baseUri The resource type base URI.
+   */
+  ResourcePreparer(final ResourcePreparer<?> preparer, final URI baseUri)
+  {
+    this.resourceType = preparer.resourceType;
+    this.queryAttributes = preparer.queryAttributes;
+    this.excluded = preparer.excluded;
+    this.retrievedTrimmer = preparer.retrievedTrimmer;
+    this.baseUri = baseUri;
+    this.locationPrefix = getLocationPrefix(baseUri);
+  }
+
+  /**
+   * Retrieve the normalized paths of the attributes or excludedAttributes
+   * query parameter.
+   *
+   * @return The normalized paths, which are empty if neither parameter was
+   * specified.
+   */
+  Set<Path> getQueryAttributes()
+  {
+    return queryAttributes;
+  }
+
+  /**
+   * Indicates whether the query attributes came from the excludedAttributes
+   * query parameter.
+   *
+   * @return {@code true} if the query attributes are excluded or
+   * {@code false} if they are the only attributes requested.
+   */
+  boolean isExcluded()
+  {
+    return excluded;
+  }
+
+  /**
+   * Build the base URI of the resources of a resource type for a request.
+   *
+   * @param resourceType The resource type definition.
+   * @param requestUriInfo The UriInfo for the request.
+   * @return The resource type base URI.
+   */
+  static URI getBaseUri(final ResourceTypeDefinition resourceType,
+                        final UriInfo requestUriInfo)
+  {
+    return requestUriInfo.getBaseUriBuilder().
+        path(resourceType.getEndpoint()).
+        buildFromMap(singleValuedMapFromMultivaluedMap(
+            requestUriInfo.getPathParameters()));
   }
 
   private static Map<String, String> singleValuedMapFromMultivaluedMap(
@@ -171,6 +232,30 @@ public class ResourcePreparer<T extends ScimResource>
     }
     this.resourceType = resourceType;
     this.baseUri = baseUri;
+    this.locationPrefix = getLocationPrefix(baseUri);
+    this.retrievedTrimmer = new ScimResourceTrimmer(new AttributeProjection(
+        resourceType, Collections.<Path>emptySet(), queryAttributes, excluded));
+  }
+
+  /**
+   * Compute the prefix that the encoded ids of resources are appended to for
+   * their locations.
+   *
+   * @param baseUri The resource type base URI or {@code null} if resource
+   *                locations are not set.
+   * @return The prefix or {@code null} if locations must be built with a
+   * UriBuilder because the base URI has a query or fragment that the id must
+   * be inserted before.
+   */
+  private static String getLocationPrefix(final URI baseUri)
+  {
+    if(baseUri == null || baseUri.getRawQuery() != null ||
+        baseUri.getRawFragment() != null)
+    {
+      return null;
+    }
+    String base = baseUri.toString();
+    return base.endsWith("/") ? base : base + "/";
   }
 
   /**
@@ -185,6 +270,66 @@ public class ResourcePreparer<T extends ScimResource>
     return trimReturned(returnedResource, null, null);
   }
 
+  /**
+   * Write the attributes of a resource returned from a search or retrieve
+   * operation to a JSON generator, trimming them based on schema and the
+   * request parameters as they are written. This produces the same JSON as
+   * serializing the result of {@link #trimRetrievedResource(ScimResource)}
+   * without building an intermediate trimmed resource.
+   *
+   * @param returnedResource The resource to return.
+   * @param generator The JSON generator to write the trimmed resource to.
+   * @throws IOException If an error occurs while writing.
+   */
+  public void writeRetrievedResource(final T returnedResource,
+                                     final JsonGenerator generator)
+      throws IOException
+  {
+    retrievedTrimmer.trimObjectNode(
+        returnedObjectNode(returnedResource), generator);
+  }
+
+  /**
+   * Serialize the trimmed attributes of a resource returned from a search or
+   * retrieve operation as a UTF-8 encoded JSON object, like
+   * {@link #writeRetrievedResource(ScimResource, JsonGenerator)}.
+   *
+   * @param returnedResource The resource to return.
+   * @return The UTF-8 encoded JSON object.
+   * @throws IOException If an error occurs while writing.
+   */
+  byte[] serializeRetrievedResource(final T returnedResource)
+      throws IOException
+  {
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    JsonGenerator generator = JsonUtils.getObjectWriter().getFactory().
+        createGenerator(outputStream);
+    try
+    {
+      writeRetrievedResource(returnedResource, generator);
+    }
+    finally
+    {
+      generator.close();
+    }
+    return outputStream.toByteArray();
+  }
+
+  /**
+   * Whether resources returned from a search or retrieve operation are
+   * returned with all of their attributes, which is the case when the
+   * request does not include the attributes or excludedAttributes parameters
+   * and the schema does not define any attributes that are not returned by
+   * default.
+   *
+   * @return {@code true} if trimming retrieved resources only removes empty
+   * objects and arrays or {@code false} otherwise.
+   */
+  public boolean returnsAllRetrievedAttributes()
+  {
+    return retrievedTrimmer.getProjection().isIdentity();
+  }
+
   /**
    * Trim attributes of the resources returned from a create operation based on
    * schema as well as the request resource and request parameters.
@@ -232,11 +377,38 @@ public class ResourcePreparer<T extends ScimResource>
 
   /**
    * Sets the meta.resourceType and meta.location metadata attribute values.
+   * The attributes of a GenericScimResource are set directly in its meta
+   * object node, keeping any other meta attributes as they are.
    *
    * @param returnedResource The resource to set the attributes.
+   * @throws IllegalStateException If the resource is a frozen
+   *                               BaseScimResource without both attributes.
    */
   public void setResourceTypeAndLocation(final T returnedResource)
   {
+    if(returnedResource instanceof GenericScimResource)
+    {
+      // Set the attributes in the object node without a Meta round trip.
+      ObjectNode objectNode =
+          ((GenericScimResource) returnedResource).getObjectNode();
+      if(!hasResourceTypeAndLocation(objectNode))
+      {
+        JsonNode meta = objectNode.get("meta");
+        ObjectNode metaNode;
+        if(meta != null && meta.isObject())
+        {
+          metaNode = (ObjectNode) meta;
+        }
+        else
+        {
+          metaNode = JsonUtils.getJsonNodeFactory().objectNode();
+          objectNode.set("meta", metaNode);
+        }
+        putResourceTypeAndLocation(metaNode, objectNode);
+      }
+      return;
+    }
+
     Meta meta = returnedResource.getMeta();
 
     boolean metaUpdated = false;
@@ -253,17 +425,7 @@ public class ResourcePreparer<T extends ScimResource>
 
     if(meta.getLocation() == null)
     {
-      String id = returnedResource.getId();
-      if (id != null)
-      {
-        UriBuilder locationBuilder = UriBuilder.fromUri(baseUri);
-        locationBuilder.segment(ServerUtils.encodeTemplateNames(id));
-        meta.setLocation(locationBuilder.build());
-      }
-      else
-      {
-        meta.setLocation(baseUri);
-      }
+      meta.setLocation(URI.create(getLocation(returnedResource.getId())));
       metaUpdated = true;
     }
 
@@ -273,6 +435,151 @@ public class ResourcePreparer<T extends ScimResource>
     }
   }
 
+  /**
+   * Retrieve the object node of a resource with the meta.resourceType and
+   * meta.location attribute values set. These are set on the resource itself
+   * unless it is frozen, in which case its cached object node is left as it is
+   * and must not be modified.
+   *
+   * @param returnedResource The resource to return.
+   * @return The object node of the resource with the attributes set.
+   */
+  private ObjectNode returnedObjectNode(final T returnedResource)
+  {
+    if(isFrozen(returnedResource))
+    {
+      return withResourceTypeAndLocation(
+          returnedResource.asGenericScimResource().getObjectNode());
+    }
+    setResourceTypeAndLocation(returnedResource);
+    return returnedResource.asGenericScimResource().getObjectNode();
+  }
+
+  /**
+   * Retrieve an object node with the meta.resourceType and meta.location
+   * attribute values that {@link #setResourceTypeAndLocation} would set,
+   * without modifying the provided object node. Only the top-level object and
+   * the meta object are copied, so the returned node shares every other value
+   * with the provided node and must not be modified.
+   *
+   * @param objectNode The object node of the resource.
+   * @return The provided object node if both attributes are already set, or
+   * a shallow copy with the attributes set.
+   */
+  ObjectNode withResourceTypeAndLocation(final ObjectNode objectNode)
+  {
+    if(hasResourceTypeAndLocation(objectNode))
+    {
+      return objectNode;
+    }
+
+    JsonNode meta = objectNode.get("meta");
+    ObjectNode metaNode = JsonUtils.getJsonNodeFactory().objectNode();
+    if(meta != null && meta.isObject())
+    {
+      metaNode.setAll((ObjectNode) meta);
+    }
+    putResourceTypeAndLocation(metaNode, objectNode);
+
+    ObjectNode overlay = JsonUtils.getJsonNodeFactory().objectNode();
+    overlay.setAll(objectNode);
+    overlay.set("meta", metaNode);
+    return overlay;
+  }
+
+  /**
+   * Retrieve a resource whose meta.resourceType and meta.location attributes
+   * may be set without modifying a GenericScimResource that is shared with the
+   * caller. The resource is only copied if one of the attributes is missing.
+   *
+   * @param resource The resource to return.
+   * @return The provided resource or a copy of its GenericScimResource.
+   */
+  static ScimResource unshared(final ScimResource resource)
+  {
+    if(isShared(resource))
+    {
+      ObjectNode objectNode = resource.asGenericScimResource().getObjectNode();
+      if(!hasResourceTypeAndLocation(objectNode))
+      {
+        return new GenericScimResource(objectNode.deepCopy());
+      }
+    }
+    return resource;
+  }
+
+  /**
+   * Determines whether setting the meta attributes of a resource would modify
+   * a GenericScimResource that is shared with the caller, either because the
+   * resource is one or because the resource is frozen.
+   *
+   * @param resource The resource.
+   * @return {@code true} if the resource's GenericScimResource is shared.
+   */
+  static boolean isShared(final ScimResource resource)
+  {
+    return resource instanceof GenericScimResource ||
+        isFrozen(resource);
+  }
+
+  /**
+   * Determines whether the meta.resourceType and meta.location attributes of
+   * an object node are both set.
+   *
+   * @param objectNode The object node of the resource.
+   * @return {@code true} if both attributes are set.
+   */
+  private static boolean hasResourceTypeAndLocation(final ObjectNode objectNode)
+  {
+    JsonNode meta = objectNode.get("meta");
+    return meta != null && meta.hasNonNull("resourceType") &&
+        meta.hasNonNull("location");
+  }
+
+  /**
+   * Set the meta.resourceType and meta.location attributes in a meta object
+   * node if they are not already set.
+   *
+   * @param metaNode The meta object node.
+   * @param objectNode The object node of the resource.
+   */
+  private void putResourceTypeAndLocation(final ObjectNode metaNode,
+                                          final ObjectNode objectNode)
+  {
+    if(!metaNode.hasNonNull("resourceType"))
+    {
+      metaNode.put("resourceType", resourceType.getName());
+    }
+    if(!metaNode.hasNonNull("location"))
+    {
+      JsonNode id = objectNode.get("id");
+      metaNode.put("location", getLocation(
+          id == null || id.isNull() ? null : id.asText()));
+    }
+  }
+
+  /**
+   * Build the meta.location value of a resource.
+   *
+   * @param id The id of the resource or {@code null} if it has none.
+   * @return The location of the resource.
+   */
+  private String getLocation(final String id)
+  {
+    if (id == null || id.isEmpty())
+    {
+      // An empty segment does not add a '/' to the location either.
+      return baseUri.toString();
+    }
+    if (locationPrefix != null)
+    {
+      return locationPrefix + ServerUtils.encodePathSegment(id);
+    }
+    UriBuilder locationBuilder = UriBuilder.fromUri(baseUri);
+    locationBuilder.segment(ServerUtils.encodeTemplateNames(id));
+    return locationBuilder.build().toString();
+  }
+
   /**
    * Trim attributes of the resources to return based on schema and the client
    * request.
@@ -304,18 +611,31 @@ public class ResourcePreparer<T extends ScimResource>
       collectAttributes(requestAttributes, patchOperations);
     }
 
-    setResourceTypeAndLocation(returnedResource);
-    GenericScimResource genericReturnedResource =
-        returnedResource.asGenericScimResource();
+    ObjectNode returnedObject = returnedObjectNode(returnedResource);
+    // Projections are compiled once per preparer and reused.
+    AttributeProjection projection = retrievedTrimmer.getProjection().
+        forRequestAttributes(requestAttributes);
     ScimResourceTrimmer trimmer =
-        new ScimResourceTrimmer(resourceType, requestAttributes,
-                                queryAttributes, excluded);
-    GenericScimResource preparedResource =
-        new GenericScimResource(
-            trimmer.trimObjectNode(genericReturnedResource.getObjectNode()));
+        projection == retrievedTrimmer.getProjection() ?
+            retrievedTrimmer : new ScimResourceTrimmer(projection);
+    GenericScimResource preparedResource = new GenericScimResource(
+        trimmer.trimObjectNode(returnedObject));
     return preparedResource;
   }
 
+  /**
+   * Determines whether a resource is frozen and returns a cached
+   * GenericScimResource that must not be modified.
+   *
+   * @param resource The resource.
+   * @return {@code true} if the resource is frozen.
+   */
+  static boolean isFrozen(final ScimResource resource)
+  {
+    return resource instanceof BaseScimResource &&
+        ((BaseScimResource) resource).isFrozen();
+  }
+
   /**
    * Collect a list of attributes in the object node.
    *
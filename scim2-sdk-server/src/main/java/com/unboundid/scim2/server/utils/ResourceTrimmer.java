@@ -17,6 +17,7 @@
 
 package com.unboundid.scim2.server.utils;
 
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
@@ -24,6 +25,7 @@ import com.unboundid.scim2.common.Path;
 import com.unboundid.scim2.common.utils.JsonUtils;
 import com.unboundid.scim2.common.utils.SchemaUtils;
 
+import java.io.IOException;
 import java.util.Iterator;
 import java.util.Map;
 
@@ -46,6 +48,27 @@ public abstract class ResourceTrimmer
     return trimObjectNode(objectNode, Path.root());
   }
 
+  /**
+   * Write the attributes of the object node to return directly to a JSON
+   * generator. This produces the same JSON as serializing the result of
+   * {@link #trimObjectNode(ObjectNode)} without building the trimmed node.
+   * Only {@link #shouldReturn(Path)} is consulted, so subclasses that
+   * override {@link #trimArrayNode(ArrayNode, Path)} should not use this
+   * method.
+   *
+   * @param objectNode The object node to return.
+   * @param generator The JSON generator to write the trimmed object to.
+   * @throws IOException If an error occurs while writing.
+   */
+  public void trimObjectNode(final ObjectNode objectNode,
+                             final JsonGenerator generator)
+      throws IOException
+  {
+    generator.writeStartObject();
+    writeTrimmedFields(objectNode, Path.root(), generator);
+    generator.writeEndObject();
+  }
+
   /**
    * Trim attributes of an inner object node to return.
    *
@@ -61,16 +84,7 @@ public abstract class ResourceTrimmer
     while(i.hasNext())
     {
       Map.Entry<String, JsonNode> field = i.next();
-      final Path path;
-      if (parentPath.isRoot() && parentPath.getSchemaUrn() == null &&
-          SchemaUtils.isUrn(field.getKey()))
-      {
-        path = Path.root(field.getKey());
-      }
-      else
-      {
-        path = parentPath.attribute(field.getKey());
-      }
+      final Path path = fieldPath(parentPath, field.getKey());
 
       if(path.isRoot() || shouldReturn(path))
       {
@@ -139,6 +153,166 @@ public abstract class ResourceTrimmer
     return arrayToReturn;
   }
 
+  /**
+   * Write the returned fields of an inner object node to a JSON generator.
+   *
+   * @param objectNode The object node to return.
+   * @param parentPath The parent path of attributes in the object.
+   * @param generator The JSON generator to write to.
+   * @throws IOException If an error occurs while writing.
+   */
+  private void writeTrimmedFields(final ObjectNode objectNode,
+                                  final Path parentPath,
+                                  final JsonGenerator generator)
+      throws IOException
+  {
+    Iterator<Map.Entry<String, JsonNode>> i = objectNode.fields();
+    while(i.hasNext())
+    {
+      Map.Entry<String, JsonNode> field = i.next();
+      final Path path = fieldPath(parentPath, field.getKey());
+      if(!path.isRoot() && !shouldReturn(path))
+      {
+        continue;
+      }
+
+      JsonNode value = field.getValue();
+      if(value.isArray())
+      {
+        if(hasReturnedValues((ArrayNode) value, path))
+        {
+          generator.writeFieldName(field.getKey());
+          writeTrimmedArray((ArrayNode) value, path, generator);
+        }
+      }
+      else if(value.isObject())
+      {
+        if(hasReturnedFields((ObjectNode) value, path))
+        {
+          generator.writeFieldName(field.getKey());
+          generator.writeStartObject();
+          writeTrimmedFields((ObjectNode) value, path, generator);
+          generator.writeEndObject();
+        }
+      }
+      else
+      {
+        generator.writeFieldName(field.getKey());
+        generator.writeTree(value);
+      }
+    }
+  }
+
+  /**
+   * Write the returned values of an array node to a JSON generator.
+   *
+   * @param arrayNode The array node to return.
+   * @param parentPath The parent path of attributes in the array.
+   * @param generator The JSON generator to write to.
+   * @throws IOException If an error occurs while writing.
+   */
+  private void writeTrimmedArray(final ArrayNode arrayNode,
+                                 final Path parentPath,
+                                 final JsonGenerator generator)
+      throws IOException
+  {
+    generator.writeStartArray();
+    for(JsonNode value : arrayNode)
+    {
+      if(value.isArray())
+      {
+        if(hasReturnedValues((ArrayNode) value, parentPath))
+        {
+          writeTrimmedArray((ArrayNode) value, parentPath, generator);
+        }
+      }
+      else if(value.isObject())
+      {
+        if(hasReturnedFields((ObjectNode) value, parentPath))
+        {
+          generator.writeStartObject();
+          writeTrimmedFields((ObjectNode) value, parentPath, generator);
+          generator.writeEndObject();
+        }
+      }
+      else
+      {
+        generator.writeTree(value);
+      }
+    }
+    generator.writeEndArray();
+  }
+
+  /**
+   * Determine whether trimming an inner object node would leave at least one
+   * field, in which case it is returned.
+   *
+   * @param objectNode The object node.
+   * @param parentPath The parent path of attributes in the object.
+   * @return {@code true} if at least one field would be returned.
+   */
+  private boolean hasReturnedFields(final ObjectNode objectNode,
+                                    final Path parentPath)
+  {
+    Iterator<Map.Entry<String, JsonNode>> i = objectNode.fields();
+    while(i.hasNext())
+    {
+      Map.Entry<String, JsonNode> field = i.next();
+      final Path path = fieldPath(parentPath, field.getKey());
+      if(path.isRoot() || shouldReturn(path))
+      {
+        JsonNode value = field.getValue();
+        if(value.isArray() ?
+            hasReturnedValues((ArrayNode) value, path) :
+            !value.isObject() || hasReturnedFields((ObjectNode) value, path))
+        {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Determine whether trimming an array node would leave at least one value,
+   * in which case it is returned.
+   *
+   * @param arrayNode The array node.
+   * @param parentPath The parent path of attributes in the array.
+   * @return {@code true} if at least one value would be returned.
+   */
+  private boolean hasReturnedValues(final ArrayNode arrayNode,
+                                    final Path parentPath)
+  {
+    for(JsonNode value : arrayNode)
+    {
+      if(value.isArray() ?
+          hasReturnedValues((ArrayNode) value, parentPath) :
+          !value.isObject() || hasReturnedFields((ObjectNode) value, parentPath))
+      {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Build the path of a field in an object node.
+   *
+   * @param parentPath The parent path of attributes in the object.
+   * @param field The name of the field.
+   * @return The path of the field.
+   */
+  private static Path fieldPath(final Path parentPath, final String field)
+  {
+    if (parentPath.isRoot() && parentPath.getSchemaUrn() == null &&
+        SchemaUtils.isUrn(field))
+    {
+      return Path.root(field);
+    }
+    return parentPath.attribute(field);
+  }
+
   /**
    * Determine if the attribute specified by the path should be returned.
    *
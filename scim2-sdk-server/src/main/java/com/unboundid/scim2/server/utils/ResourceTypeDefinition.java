@@ -47,7 +47,11 @@ public final class ResourceTypeDefinition
   private final SchemaResource coreSchema;
   private final Map<SchemaResource, Boolean> schemaExtensions;
   private final Map<Path, AttributeDefinition> attributeNotationMap;
+  private final Map<Path, Integer> slots;
+  private final List<Path> slotPaths;
+  private final List<Integer> slotParents;
   private final boolean discoverable;
+  private final SearchPlan.Cache searchPlans;
 
   /**
    * Builder for creating a ResourceTypeDefinition.
@@ -64,6 +68,7 @@ public final class ResourceTypeDefinition
     private Set<SchemaResource> optionalSchemaExtensions =
         new HashSet<SchemaResource>();
     private boolean discoverable = true;
+    private int maxCachedSearchPlans = 1000;
 
     /**
      * Create a new builder.
@@ -165,6 +170,26 @@ public final class ResourceTypeDefinition
       return this;
     }
 
+    /**
+     * Sets the maximum number of {@link SearchPlan}s that are cached for this
+     * resource type. The least recently used plan is evicted when the cache
+     * is full. The default is 1000.
+     *
+     * @param maxCachedSearchPlans The maximum number of cached plans or zero
+     *                             to not cache plans.
+     * @return this builder.
+     */
+    public Builder setMaxCachedSearchPlans(final int maxCachedSearchPlans)
+    {
+      if(maxCachedSearchPlans < 0)
+      {
+        throw new IllegalArgumentException(
+            "maxCachedSearchPlans must not be negative");
+      }
+      this.maxCachedSearchPlans = maxCachedSearchPlans;
+      return this;
+    }
+
     /**
      * Build the ResourceTypeDefinition.
      *
@@ -184,7 +209,7 @@ public final class ResourceTypeDefinition
         schemaExtensions.put(schema, false);
       }
       return new ResourceTypeDefinition(id, name, description, endpoint,
-          coreSchema, schemaExtensions, discoverable);
+          coreSchema, schemaExtensions, discoverable, maxCachedSearchPlans);
     }
   }
 
@@ -194,13 +219,14 @@ public final class ResourceTypeDefinition
    * @param coreSchema The core schema for the resource type.
    * @param schemaExtensions A map of schema extensions to whether it is
    *                         required for the resource type.
+   * @param maxCachedSearchPlans The maximum number of cached search plans.
    */
   private ResourceTypeDefinition(
       final String id, final String name, final String description,
       final String endpoint,
       final SchemaResource coreSchema,
       final Map<SchemaResource, Boolean> schemaExtensions,
-      final boolean discoverable)
+      final boolean discoverable, final int maxCachedSearchPlans)
   {
     this.id = id;
     this.name = name;
@@ -210,36 +236,48 @@ public final class ResourceTypeDefinition
     this.schemaExtensions = Collections.unmodifiableMap(schemaExtensions);
     this.discoverable = discoverable;
     this.attributeNotationMap = new HashMap<Path, AttributeDefinition>();
+    this.slots = new HashMap<Path, Integer>();
+    this.slotPaths = new ArrayList<Path>();
+    this.slotParents = new ArrayList<Integer>();
+    this.searchPlans = new SearchPlan.Cache(maxCachedSearchPlans);
 
     // Add the common attributes
-    buildAttributeNotationMap(Path.root(),
+    buildAttributeNotationMap(Path.root(), -1,
         SchemaUtils.COMMON_ATTRIBUTE_DEFINITIONS);
 
     // Add the core attributes
     if(coreSchema != null)
     {
-      buildAttributeNotationMap(Path.root(), coreSchema.getAttributes());
+      buildAttributeNotationMap(Path.root(), -1, coreSchema.getAttributes());
     }
 
     // Add the extension attributes
     for(SchemaResource schemaExtension : schemaExtensions.keySet())
     {
-      buildAttributeNotationMap(Path.root(schemaExtension.getId()),
+      buildAttributeNotationMap(Path.root(schemaExtension.getId()), -1,
           schemaExtension.getAttributes());
     }
   }
 
   private void buildAttributeNotationMap(
-      final Path parentPath,
+      final Path parentPath, final int parentSlot,
       final Collection<AttributeDefinition> attributes)
   {
     for(AttributeDefinition attribute : attributes)
     {
       Path path = parentPath.attribute(attribute.getName());
       attributeNotationMap.put(path, attribute);
+      Integer slot = slots.get(path);
+      if(slot == null)
+      {
+        slot = slotPaths.size();
+        slots.put(path, slot);
+        slotPaths.add(path);
+        slotParents.add(parentSlot);
+      }
       if(attribute.getSubAttributes() != null)
       {
-        buildAttributeNotationMap(path, attribute.getSubAttributes());
+        buildAttributeNotationMap(path, slot, attribute.getSubAttributes());
       }
     }
   }
@@ -306,6 +344,27 @@ public final class ResourceTypeDefinition
     return discoverable;
   }
 
+  /**
+   * Retrieve the maximum number of {@link SearchPlan}s that are cached for
+   * this resource type.
+   *
+   * @return The maximum number of cached search plans.
+   */
+  public int getMaxCachedSearchPlans()
+  {
+    return searchPlans.getMaxSize();
+  }
+
+  /**
+   * Retrieve the cache of the search plans of this resource type.
+   *
+   * @return The cache of the search plans of this resource type.
+   */
+  SearchPlan.Cache getSearchPlans()
+  {
+    return searchPlans;
+  }
+
   /**
    * Retrieve the attribute definition for the attribute in the path.
    *
@@ -318,6 +377,83 @@ public final class ResourceTypeDefinition
     return attributeNotationMap.get(normalizePath(path).withoutFilters());
   }
 
+  /**
+   * Retrieve the paths of all attributes defined for this resource type.
+   * Core attributes have no schema URN.
+   *
+   * @return The paths of all attributes defined for this resource type.
+   */
+  Set<Path> getAttributePaths()
+  {
+    return Collections.unmodifiableSet(attributeNotationMap.keySet());
+  }
+
+  /**
+   * Retrieve the number of attribute slots. Each attribute defined for this
+   * resource type, including sub-attributes, is assigned a dense slot index
+   * from zero to one less than this number when the resource type is built.
+   * Slots may be used to store the values of resources in arrays, such as in
+   * {@link SchemaIndexedResource}.
+   *
+   * @return The number of attribute slots.
+   */
+  public int getSlotCount()
+  {
+    return slotPaths.size();
+  }
+
+  /**
+   * Retrieve the slot index of the attribute in the path. Value filters in
+   * the path are ignored. The slot should be retrieved once and reused for
+   * resources of this type.
+   *
+   * @param path The attribute path.
+   * @return The slot index or {@code -1} if there is no attribute defined for
+   * the path.
+   */
+  public int getSlot(final Path path)
+  {
+    Integer slot = slots.get(normalizePath(path).withoutFilters());
+    return slot == null ? -1 : slot;
+  }
+
+  /**
+   * Retrieve the path of the attribute assigned to a slot. Core attributes
+   * have no schema URN.
+   *
+   * @param slot The slot index.
+   * @return The path of the attribute assigned to the slot.
+   * @throws IndexOutOfBoundsException if the slot index is out of range.
+   */
+  public Path getSlotPath(final int slot)
+  {
+    return slotPaths.get(slot);
+  }
+
+  /**
+   * Retrieve the definition of the attribute assigned to a slot.
+   *
+   * @param slot The slot index.
+   * @return The definition of the attribute assigned to the slot.
+   * @throws IndexOutOfBoundsException if the slot index is out of range.
+   */
+  public AttributeDefinition getSlotDefinition(final int slot)
+  {
+    return attributeNotationMap.get(slotPaths.get(slot));
+  }
+
+  /**
+   * Retrieve the slot index of the parent of a sub-attribute.
+   *
+   * @param slot The slot index.
+   * @return The slot index of the parent attribute or {@code -1} if the slot
+   * is assigned to a top-level core or extension attribute.
+   */
+  int getParentSlot(final int slot)
+  {
+    return slotParents.get(slot);
+  }
+
   /**
    * Normalize a path by removing the schema URN for core attributes.
    *
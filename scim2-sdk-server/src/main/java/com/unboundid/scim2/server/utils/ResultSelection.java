@@ -0,0 +1,109 @@
+/*
+ * Copyright 2021 Ping Identity Corporation
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPLv2 only)
+ * or the terms of the GNU Lesser General Public License (LGPLv2.1 only)
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ */
+
+package com.unboundid.scim2.server.utils;
+
+import com.unboundid.scim2.common.ScimResource;
+import com.unboundid.scim2.common.exceptions.ScimException;
+
+import java.io.IOException;
+
+/**
+ * Selects the matching resources of a {@link SimpleSearchResults} that are
+ * returned, and writes them in order. Each strategy only keeps the resources
+ * that may be returned on the requested page.
+ */
+abstract class ResultSelection
+{
+  /**
+   * Receives the selected resources when they are written.
+   */
+  interface Sink
+  {
+    /**
+     * Start writing the selected resources, which is called once before any
+     * resource is written.
+     *
+     * @param itemsPerPage The number of resources that are returned.
+     * @throws IOException If the response could not be written.
+     */
+    void start(int itemsPerPage) throws IOException;
+
+    /**
+     * Write the cursor that requests the next page of results.
+     *
+     * @param nextCursor The cursor.
+     * @throws IOException If the response could not be written.
+     */
+    void nextCursor(String nextCursor) throws IOException;
+
+    /**
+     * Write a returned resource.
+     *
+     * @param resource The resource, which may be shared with the caller.
+     * @throws IOException If the response could not be written.
+     */
+    void resource(ScimResource resource) throws IOException;
+  }
+
+  /**
+   * The zero-based index of the first result that is returned.
+   */
+  final int firstIndex;
+
+  /**
+   * The zero-based index after the last result that may be returned.
+   */
+  final long lastIndex;
+
+  /**
+   * Create a new selection.
+   *
+   * @param firstIndex The zero-based index of the first returned result.
+   * @param lastIndex The zero-based index after the last returned result.
+   */
+  ResultSelection(final int firstIndex, final long lastIndex)
+  {
+    this.firstIndex = firstIndex;
+    this.lastIndex = lastIndex;
+  }
+
+  /**
+   * Keep a matching resource if it may be returned.
+   *
+   * @param resource The matching resource.
+   * @param index The zero-based index of the resource in the results.
+   * @throws ScimException If the resource could not be kept.
+   */
+  abstract void keep(ScimResource resource, int index) throws ScimException;
+
+  /**
+   * Write the selected resources in order.
+   *
+   * @param sink The sink that writes the resources.
+   * @throws IOException If the resources could not be read or written.
+   */
+  abstract void write(Sink sink) throws IOException;
+
+  /**
+   * Release the resources held by this selection.
+   */
+  void close()
+  {
+    // Nothing to release.
+  }
+}
@@ -37,6 +37,7 @@ import com.unboundid.scim2.common.utils.StaticUtils;
 import java.net.URI;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.EnumSet;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashSet;
@@ -214,6 +215,28 @@ public class SchemaChecker
     enabledOptions.remove(option);
   }
 
+  /**
+   * Retrieve the resource type whose schema(s) are enforced.
+   *
+   * @return The resource type whose schema(s) are enforced.
+   */
+  ResourceTypeDefinition getResourceType()
+  {
+    return resourceType;
+  }
+
+  /**
+   * Retrieve a copy of the enabled options.
+   *
+   * @return A copy of the enabled options.
+   */
+  Set<Option> getEnabledOptions()
+  {
+    Set<Option> options = EnumSet.noneOf(Option.class);
+    options.addAll(enabledOptions);
+    return options;
+  }
+
   /**
    * Check a new SCIM resource against the schema.
    *
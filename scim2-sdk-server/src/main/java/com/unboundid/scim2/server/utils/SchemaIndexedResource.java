@@ -0,0 +1,616 @@
+/*
+ * Copyright 2021 Ping Identity Corporation
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPLv2 only)
+ * or the terms of the GNU Lesser General Public License (LGPLv2.1 only)
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ */
+
+package com.unboundid.scim2.server.utils;
+
+import com.fasterxml.jackson.annotation.JsonValue;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.NullNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.unboundid.scim2.common.GenericScimResource;
+import com.unboundid.scim2.common.Path;
+import com.unboundid.scim2.common.ScimResource;
+import com.unboundid.scim2.common.exceptions.ScimException;
+import com.unboundid.scim2.common.types.AttributeDefinition;
+import com.unboundid.scim2.common.types.Meta;
+import com.unboundid.scim2.common.types.SchemaResource;
+import com.unboundid.scim2.common.utils.JsonUtils;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * <p>A SCIM resource of a known resource type that stores its attribute values
+ * in an array indexed by the attribute slots of the
+ * {@link ResourceTypeDefinition}. Reading or replacing a defined attribute by
+ * its slot index does not require any hash lookups, and the resource does not
+ * need a map for each complex value. Attributes that are not defined by the
+ * resource type are kept in a small overflow map.</p>
+ *
+ * <p>Each top-level attribute and each sub-attribute of a single-valued
+ * complex attribute is stored in its own slot. The values of multi-valued
+ * attributes are stored as arrays in the slot of the attribute, so the slots
+ * of their sub-attributes are never used. Values of other paths, such as
+ * paths with value filters, are retrieved from the equivalent
+ * {@code ObjectNode}.</p>
+ *
+ * <p>The resource is serialized as its equivalent {@code ObjectNode}, with the
+ * attributes in slot order. {@link #asGenericScimResource()} returns a copy
+ * that may be filtered, trimmed or modified without affecting this resource.
+ * </p>
+ */
+public final class SchemaIndexedResource implements ScimResource
+{
+  private static final Path SCHEMAS = Path.root().attribute("schemas");
+  private static final Path ID = Path.root().attribute("id");
+  private static final Path EXTERNAL_ID = Path.root().attribute("externalId");
+  private static final Path META = Path.root().attribute("meta");
+
+  private final ResourceTypeDefinition resourceType;
+  private final JsonNode[] values;
+  private Map<Path, JsonNode> overflow;
+
+  /**
+   * Create a new empty resource.
+   *
+   * @param resourceType The resource type definition of the resource.
+   */
+  public SchemaIndexedResource(final ResourceTypeDefinition resourceType)
+  {
+    this.resourceType = resourceType;
+    this.values = new JsonNode[resourceType.getSlotCount()];
+  }
+
+  /**
+   * Create a new resource from the JSON object that represents it. The values
+   * in the object are not copied, so they must not be modified afterwards.
+   *
+   * @param resourceType The resource type definition of the resource.
+   * @param objectNode The JSON object that represents the resource.
+   */
+  public SchemaIndexedResource(final ResourceTypeDefinition resourceType,
+                               final ObjectNode objectNode)
+  {
+    this(resourceType);
+    Iterator<Map.Entry<String, JsonNode>> fields = objectNode.fields();
+    while(fields.hasNext())
+    {
+      Map.Entry<String, JsonNode> field = fields.next();
+      String extension = getExtensionId(field.getKey());
+      if(extension != null && field.getValue().isObject() &&
+          field.getValue().size() > 0)
+      {
+        putFields(Path.root(extension), field.getValue());
+      }
+      else
+      {
+        put(Path.root().attribute(field.getKey()), field.getValue());
+      }
+    }
+  }
+
+  /**
+   * Retrieve the resource type definition of this resource.
+   *
+   * @return The resource type definition of this resource.
+   */
+  public ResourceTypeDefinition getResourceType()
+  {
+    return resourceType;
+  }
+
+  /**
+   * Gets the value of the attribute assigned to a slot. The returned value
+   * must not be modified. The value of a single-valued complex attribute is
+   * a new object that is assembled from the values of its sub-attributes.
+   *
+   * @param slot The slot index from
+   *             {@link ResourceTypeDefinition#getSlot(Path)}.
+   * @return The value of the attribute, or a NullNode if the attribute has no
+   * value.
+   * @throws IllegalArgumentException if the slot is assigned to a
+   * sub-attribute of a multi-valued attribute, which has no slot value.
+   */
+  public JsonNode getValue(final int slot)
+  {
+    checkStored(slot);
+    if(values[slot] != null)
+    {
+      return values[slot];
+    }
+    if(isDecomposed(resourceType.getSlotDefinition(slot)))
+    {
+      Path path = resourceType.getSlotPath(slot);
+      ObjectNode objectNode = JsonUtils.getJsonNodeFactory().objectNode();
+      compose(objectNode, slot, path.size(), false);
+      if(objectNode.size() > 0)
+      {
+        return objectNode;
+      }
+    }
+    return NullNode.getInstance();
+  }
+
+  /**
+   * Gets a single JsonNode from the resource. This value may be an ArrayNode.
+   * The returned value must not be modified.
+   *
+   * @param path the path of the object.
+   * @return the JsonNode at the path, or a NullNode if nothing is found
+   * @throws ScimException thrown if an error occurs.
+   * @see GenericScimResource#getValue(Path)
+   */
+  public JsonNode getValue(final Path path) throws ScimException
+  {
+    int slot = path.isRoot() ? -1 : resourceType.getSlot(path);
+    if(slot >= 0 && isStored(slot) && !hasValueFilters(path))
+    {
+      return getValue(slot);
+    }
+    return JsonUtils.getValue(path, toObjectNode());
+  }
+
+  /**
+   * Replaces the value of the attribute assigned to a slot. The value of a
+   * single-valued complex attribute is split into the slots of its
+   * sub-attributes. The value is not copied, so it must not be modified
+   * afterwards.
+   *
+   * @param slot The slot index from
+   *             {@link ResourceTypeDefinition#getSlot(Path)}.
+   * @param value The new value, or {@code null} to remove the attribute.
+   * @throws IllegalArgumentException if the slot is assigned to a
+   * sub-attribute of a multi-valued attribute, which has no slot value.
+   */
+  public void setValue(final int slot, final JsonNode value)
+  {
+    checkStored(slot);
+    Path path = resourceType.getSlotPath(slot);
+    values[slot] = null;
+    if(isDecomposed(resourceType.getSlotDefinition(slot)))
+    {
+      for(int i = slot + 1; i < values.length; i++)
+      {
+        if(isDescendant(i, slot))
+        {
+          values[i] = null;
+        }
+      }
+      if(overflow != null)
+      {
+        Iterator<Path> iterator = overflow.keySet().iterator();
+        while(iterator.hasNext())
+        {
+          if(isUnder(iterator.next(), path))
+          {
+            iterator.remove();
+          }
+        }
+      }
+    }
+    if(value != null && !value.isNull())
+    {
+      put(path, value);
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public Meta getMeta()
+  {
+    try
+    {
+      JsonNode value = getValue(META);
+      if(value.isNull())
+      {
+        return null;
+      }
+      return JsonUtils.nodeToValue(value, Meta.class);
+    }
+    catch (Exception e)
+    {
+      // This should never happen.
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public void setMeta(final Meta meta)
+  {
+    setValue(resourceType.getSlot(META),
+        meta == null ? null : JsonUtils.valueToNode(meta));
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public String getId()
+  {
+    return getValue(resourceType.getSlot(ID)).textValue();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public void setId(final String id)
+  {
+    setValue(resourceType.getSlot(ID),
+        id == null ? null : JsonUtils.getJsonNodeFactory().textNode(id));
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public String getExternalId()
+  {
+    return getValue(resourceType.getSlot(EXTERNAL_ID)).textValue();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public void setExternalId(final String externalId)
+  {
+    setValue(resourceType.getSlot(EXTERNAL_ID), externalId == null ? null :
+        JsonUtils.getJsonNodeFactory().textNode(externalId));
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public Collection<String> getSchemaUrns()
+  {
+    try
+    {
+      JsonNode value = getValue(resourceType.getSlot(SCHEMAS));
+      if(!value.isArray())
+      {
+        return Collections.emptyList();
+      }
+      return JsonUtils.nodeToValues((ArrayNode) value, String.class);
+    }
+    catch (Exception e)
+    {
+      // This should never happen.
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public void setSchemaUrns(final Collection<String> schemaUrns)
+  {
+    setValue(resourceType.getSlot(SCHEMAS),
+        schemaUrns == null ? null : JsonUtils.valueToNode(schemaUrns));
+  }
+
+  /**
+   * Retrieve the JSON object that represents this resource. The object is
+   * assembled when this method is called and shares its values with this
+   * resource, so it must not be modified.
+   *
+   * @return The JSON object that represents this resource.
+   */
+  @JsonValue
+  public ObjectNode toObjectNode()
+  {
+    ObjectNode objectNode = JsonUtils.getJsonNodeFactory().objectNode();
+    compose(objectNode, -1, 0, false);
+    return objectNode;
+  }
+
+  /**
+   * {@inheritDoc}
+   * <p>
+   * The returned resource is a copy, so changes to it are not reflected in
+   * this resource.
+   */
+  public GenericScimResource asGenericScimResource()
+  {
+    ObjectNode objectNode = JsonUtils.getJsonNodeFactory().objectNode();
+    compose(objectNode, -1, 0, true);
+    return new GenericScimResource(objectNode);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public boolean equals(final Object o)
+  {
+    if (this == o)
+    {
+      return true;
+    }
+    if (o == null || getClass() != o.getClass())
+    {
+      return false;
+    }
+
+    SchemaIndexedResource that = (SchemaIndexedResource) o;
+
+    if (!resourceType.equals(that.resourceType) ||
+        !Arrays.equals(values, that.values))
+    {
+      return false;
+    }
+    Map<Path, JsonNode> thisOverflow = overflow == null ?
+        Collections.<Path, JsonNode>emptyMap() : overflow;
+    Map<Path, JsonNode> thatOverflow = that.overflow == null ?
+        Collections.<Path, JsonNode>emptyMap() : that.overflow;
+    return thisOverflow.equals(thatOverflow);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public int hashCode()
+  {
+    return Arrays.hashCode(values);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public String toString()
+  {
+    return toObjectNode().toString();
+  }
+
+  /**
+   * Store the value of an attribute in its slot, splitting the values of
+   * single-valued complex attributes into the slots of their sub-attributes,
+   * or in the overflow map if the attribute is not defined.
+   *
+   * @param path The path of the attribute.
+   * @param value The value to store.
+   */
+  private void put(final Path path, final JsonNode value)
+  {
+    int slot = resourceType.getSlot(path);
+    if(slot < 0)
+    {
+      if(overflow == null)
+      {
+        overflow = new LinkedHashMap<Path, JsonNode>();
+      }
+      overflow.put(path, value);
+    }
+    else if(value.isObject() && value.size() > 0 &&
+        isDecomposed(resourceType.getSlotDefinition(slot)))
+    {
+      putFields(path, value);
+    }
+    else
+    {
+      values[slot] = value;
+    }
+  }
+
+  /**
+   * Store the fields of an object as the sub-attributes of a path.
+   *
+   * @param path The path of the object.
+   * @param value The object.
+   */
+  private void putFields(final Path path, final JsonNode value)
+  {
+    Iterator<Map.Entry<String, JsonNode>> fields = value.fields();
+    while(fields.hasNext())
+    {
+      Map.Entry<String, JsonNode> field = fields.next();
+      put(path.attribute(field.getKey()), field.getValue());
+    }
+  }
+
+  /**
+   * Add the stored values of a slot's descendants, or of all slots, to an
+   * object.
+   *
+   * @param objectNode The object to add the values to.
+   * @param slot The slot whose descendants to add or {@code -1} to add all
+   *             slots.
+   * @param start The index of the first path element to add below the object.
+   * @param copy Whether to add copies of the values.
+   */
+  private void compose(final ObjectNode objectNode, final int slot,
+                       final int start, final boolean copy)
+  {
+    for(int i = slot + 1; i < values.length; i++)
+    {
+      if(values[i] != null && (slot < 0 || isDescendant(i, slot)))
+      {
+        insert(objectNode, resourceType.getSlotPath(i), start,
+            copy ? values[i].deepCopy() : values[i]);
+      }
+    }
+    if(overflow != null)
+    {
+      Path path = slot < 0 ? null : resourceType.getSlotPath(slot);
+      for(Map.Entry<Path, JsonNode> entry : overflow.entrySet())
+      {
+        if(path == null || isUnder(entry.getKey(), path))
+        {
+          insert(objectNode, entry.getKey(), start,
+              copy ? entry.getValue().deepCopy() : entry.getValue());
+        }
+      }
+    }
+  }
+
+  /**
+   * Set a value in an object, creating the objects for the parent path
+   * elements as needed.
+   *
+   * @param objectNode The object to set the value in.
+   * @param path The path of the value.
+   * @param start The index of the first path element below the object. The
+   *              schema URN of the path is only used if this is zero.
+   * @param value The value to set.
+   */
+  private static void insert(final ObjectNode objectNode, final Path path,
+                             final int start, final JsonNode value)
+  {
+    ObjectNode parent = objectNode;
+    if(start == 0 && path.getSchemaUrn() != null)
+    {
+      parent = parent.with(path.getSchemaUrn());
+    }
+    for(int i = start; i < path.size() - 1; i++)
+    {
+      parent = parent.with(path.getElement(i).getAttribute());
+    }
+    parent.set(path.getElement(path.size() - 1).getAttribute(), value);
+  }
+
+  /**
+   * Retrieve the ID of the schema extension of this resource type with the
+   * provided name.
+   *
+   * @param name The field name.
+   * @return The schema extension ID or {@code null} if the name is not the ID
+   * of a schema extension.
+   */
+  private String getExtensionId(final String name)
+  {
+    if(!name.startsWith("urn:"))
+    {
+      return null;
+    }
+    for(SchemaResource schemaExtension :
+        resourceType.getSchemaExtensions().keySet())
+    {
+      if(schemaExtension.getId().equalsIgnoreCase(name))
+      {
+        return schemaExtension.getId();
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Whether a slot is a descendant of another slot.
+   *
+   * @param slot The slot.
+   * @param ancestor The possible ancestor slot.
+   * @return {@code true} if the slot is a descendant of the ancestor slot.
+   */
+  private boolean isDescendant(final int slot, final int ancestor)
+  {
+    for(int parent = resourceType.getParentSlot(slot); parent >= 0;
+        parent = resourceType.getParentSlot(parent))
+    {
+      if(parent == ancestor)
+      {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Whether a slot stores values, which is the case unless it belongs to a
+   * sub-attribute of a multi-valued attribute.
+   *
+   * @param slot The slot.
+   * @return {@code true} if the slot stores values.
+   */
+  private boolean isStored(final int slot)
+  {
+    for(int parent = resourceType.getParentSlot(slot); parent >= 0;
+        parent = resourceType.getParentSlot(parent))
+    {
+      if(!isDecomposed(resourceType.getSlotDefinition(parent)))
+      {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Make sure that a slot stores values.
+   *
+   * @param slot The slot.
+   */
+  private void checkStored(final int slot)
+  {
+    if(!isStored(slot))
+    {
+      throw new IllegalArgumentException("The value of " +
+          resourceType.getSlotPath(slot) +
+          " is stored with its multi-valued parent attribute");
+    }
+  }
+
+  /**
+   * Whether the values of an attribute are split into the slots of its
+   * sub-attributes.
+   *
+   * @param attribute The attribute definition.
+   * @return {@code true} if the attribute is a single-valued complex
+   * attribute with sub-attributes.
+   */
+  private static boolean isDecomposed(final AttributeDefinition attribute)
+  {
+    return attribute.getType() == AttributeDefinition.Type.COMPLEX &&
+        !attribute.isMultiValued() && attribute.getSubAttributes() != null &&
+        !attribute.getSubAttributes().isEmpty();
+  }
+
+  /**
+   * Whether a path is below another path.
+   *
+   * @param path The path.
+   * @param parent The possible parent path.
+   * @return {@code true} if the path is below the parent path.
+   */
+  private static boolean isUnder(final Path path, final Path parent)
+  {
+    return path.size() > parent.size() &&
+        path.subPath(parent.size()).equals(parent);
+  }
+
+  /**
+   * Whether a path has any value filters.
+   *
+   * @param path The path.
+   * @return {@code true} if the path has any value filters.
+   */
+  private static boolean hasValueFilters(final Path path)
+  {
+    for(Path.Element element : path)
+    {
+      if(element.getValueFilter() != null)
+      {
+        return true;
+      }
+    }
+    return false;
+  }
+}
@@ -17,22 +17,24 @@
 
 package com.unboundid.scim2.server.utils;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.unboundid.scim2.common.Path;
-import com.unboundid.scim2.common.types.AttributeDefinition;
 
+import java.io.IOException;
 import java.util.Set;
 
 
 
 /**
  * A resource trimmer implementing the SCIM standard for returning attributes.
+ * The rules are compiled into an {@link AttributeProjection} when the trimmer
+ * is created so a trimmer should be created once and reused for all the
+ * resources returned for a request.
  */
 public class ScimResourceTrimmer extends ResourceTrimmer
 {
-  private final ResourceTypeDefinition resourceType;
-  private final Set<Path> requestAttributes;
-  private final Set<Path> queryAttributes;
-  private final boolean excluded;
+  private final AttributeProjection projection;
 
 
 
@@ -41,8 +43,7 @@ public class ScimResourceTrimmer extends ResourceTrimmer
    * @param resourceType       The resource type definition for resources to
    *                           trim.
    * @param requestAttributes  The attributes in the request object or
-   *                           {@code null} for
-   *                           other requests.
+   *                           {@code null} for other requests.
    * @param queryAttributes    The attributes from the 'attributes' or
    *                           'excludedAttributes' query parameter.
    * @param excluded           {@code true} if the queryAttributes came from
@@ -53,10 +54,32 @@ public class ScimResourceTrimmer extends ResourceTrimmer
                              final Set<Path> queryAttributes,
                              final boolean excluded)
   {
-    this.resourceType      = resourceType;
-    this.requestAttributes = requestAttributes;
-    this.queryAttributes   = queryAttributes;
-    this.excluded          = excluded;
+    this(new AttributeProjection(resourceType, requestAttributes,
+                                 queryAttributes, excluded));
+  }
+
+
+
+  /**
+   * Create a new SCIMResourceTrimmer from a compiled attribute projection.
+   *
+   * @param projection The compiled attribute projection.
+   */
+  public ScimResourceTrimmer(final AttributeProjection projection)
+  {
+    this.projection = projection;
+  }
+
+
+
+  /**
+   * Retrieve the compiled attribute projection used by this trimmer.
+   *
+   * @return The compiled attribute projection used by this trimmer.
+   */
+  public AttributeProjection getProjection()
+  {
+    return projection;
   }
 
 
@@ -65,74 +88,54 @@ public class ScimResourceTrimmer extends ResourceTrimmer
    * {@inheritDoc}
    */
   @Override
-  public boolean shouldReturn(final Path path)
+  public ObjectNode trimObjectNode(final ObjectNode objectNode)
   {
-    AttributeDefinition attributeDefinition =
-        resourceType.getAttributeDefinition(path);
-    AttributeDefinition.Returned returned = attributeDefinition == null ?
-        AttributeDefinition.Returned.DEFAULT :
-        attributeDefinition.getReturned();
-
-    switch(returned)
+    if (isSubclass())
     {
-      case ALWAYS:
-        return true;
-      case NEVER:
-        return false;
-      case REQUEST:
-        // Return only if it was one of the request attributes or if there are
-        // no request attributes, then only if it was one of the override query
-        // attributes.
-        return pathContains(requestAttributes, path) ||
-               (requestAttributes.isEmpty() && !excluded &&
-                pathContains(queryAttributes, path));
-      default:
-        // Return if it is not one of the excluded query attributes and no
-        // override query attributes are provided. If override query attributes
-        // are provided, only return if it is one of them.
-        if(excluded)
-        {
-          return !pathContains(queryAttributes, path);
-        }
-        else
-        {
-          return queryAttributes.isEmpty() ||
-                 pathContains(queryAttributes, path);
-        }
+      return super.trimObjectNode(objectNode);
     }
+    return projection.trimObjectNode(objectNode);
   }
 
-  private boolean pathContains(final Set<Path> paths, final Path path)
+
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void trimObjectNode(final ObjectNode objectNode,
+                             final JsonGenerator generator)
+      throws IOException
   {
-    // Exact path match
-    if (paths.contains(path))
+    if (isSubclass())
     {
-      return true;
+      super.trimObjectNode(objectNode, generator);
+      return;
     }
+    projection.trimObjectNode(objectNode, generator);
+  }
 
-    if (!excluded)
-    {
-      // See if a sub-attribute of the given path is included in the list
-      // ie. include name if name.givenName is in the list.
-      for (Path p : paths)
-      {
-        if (p.size() > path.size() && path.equals(p.subPath(path.size())))
-        {
-          return true;
-        }
-      }
-    }
 
-    // See if the parent attribute of the given path is included in the list
-    // ie. include name.{anything} if name is in the list.
-    for (Path p = path; p.size() > 0; p = p.subPath(p.size() - 1))
-    {
-      if (paths.contains(p))
-      {
-        return true;
-      }
-    }
 
-    return false;
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public boolean shouldReturn(final Path path)
+  {
+    return projection.shouldReturn(path);
+  }
+
+
+
+  /**
+   * Whether this is a subclass that may override how attributes are trimmed,
+   * in which case the generic trimming logic must be used.
+   *
+   * @return {@code true} if this is a subclass of ScimResourceTrimmer.
+   */
+  private boolean isSubclass()
+  {
+    return getClass() != ScimResourceTrimmer.class;
   }
 }
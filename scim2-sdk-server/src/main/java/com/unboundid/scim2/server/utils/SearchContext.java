@@ -0,0 +1,281 @@
+/*
+ * Copyright 2021 Ping Identity Corporation
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPLv2 only)
+ * or the terms of the GNU Lesser General Public License (LGPLv2.1 only)
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ */
+
+package com.unboundid.scim2.server.utils;
+
+import com.unboundid.scim2.common.Path;
+import com.unboundid.scim2.common.filters.Filter;
+import com.unboundid.scim2.common.messages.SortOrder;
+
+import java.util.Set;
+
+/**
+ * The parsed parameters of a search, which {@link SimpleSearchResults}
+ * exposes to the backend that produces its resources with
+ * {@link SimpleSearchResults#getSearchContext}. Backends may use them to
+ * search their own indexes and to load only the requested attributes, and
+ * then declare which parts of the search they already handled so that
+ * SimpleSearchResults only does the residual work:
+ *
+ * <ul>
+ *   <li>
+ *     {@link #setFilterHandled}: every added resource matches the filter, so
+ *     the filter is not evaluated.
+ *   </li>
+ *   <li>
+ *     {@link #setSortHandled}: the resources are added in the requested sort
+ *     order, so they are not sorted. This is not supported with cursor
+ *     pagination.
+ *   </li>
+ *   <li>
+ *     {@link #setOffsetHandled}: the backend skipped the resources before the
+ *     startIndex, so the added resources start on the requested page. This
+ *     requires the filter, and the sort order if any, to be handled as well.
+ *     Since the skipped resources are not counted, the backend should set the
+ *     total number of results with {@link SimpleSearchResults#setTotalResults}.
+ *   </li>
+ * </ul>
+ *
+ * The returned attributes are always trimmed when the resources are written,
+ * which leaves resources that only have the requested attributes unchanged.
+ * Backends that load fewer attributes must still load the attributes
+ * referenced by the filter or sortBy parameters if they do not handle them.
+ * The parts handled must be declared before any resources are added.
+ */
+public final class SearchContext
+{
+  private final SearchPlan plan;
+  private final Integer startIndex;
+  private final Integer count;
+  private final boolean cursor;
+  private boolean filterHandled;
+  private boolean sortHandled;
+  private boolean offsetHandled;
+  private boolean started;
+
+  /**
+   * Create a new search context.
+   *
+   * @param plan The plan of the search.
+   * @param startIndex The startIndex parameter or {@code null} if not
+   *                   specified.
+   * @param count The count parameter or {@code null} if not specified.
+   * @param cursor Whether the search uses cursor pagination.
+   */
+  SearchContext(final SearchPlan plan, final Integer startIndex,
+                final Integer count, final boolean cursor)
+  {
+    this.plan = plan;
+    this.startIndex = startIndex;
+    this.count = count;
+    this.cursor = cursor;
+  }
+
+  /**
+   * Retrieve the resource type definition of the search.
+   *
+   * @return The resource type definition of the search.
+   */
+  public ResourceTypeDefinition getResourceType()
+  {
+    return plan.getResourceType();
+  }
+
+  /**
+   * Retrieve the parsed filter.
+   *
+   * @return The parsed filter or {@code null} if the search has no filter.
+   */
+  public Filter getFilter()
+  {
+    return plan.getFilter();
+  }
+
+  /**
+   * Retrieve the normalized paths of the attributes parameter.
+   *
+   * @return The paths of the requested attributes, which are empty if the
+   * attributes parameter was not specified.
+   */
+  public Set<Path> getAttributes()
+  {
+    return plan.getAttributes();
+  }
+
+  /**
+   * Retrieve the normalized paths of the excludedAttributes parameter.
+   *
+   * @return The paths of the excluded attributes, which are empty if the
+   * excludedAttributes parameter was not specified.
+   */
+  public Set<Path> getExcludedAttributes()
+  {
+    return plan.getExcludedAttributes();
+  }
+
+  /**
+   * Retrieve the path of the attribute to sort by.
+   *
+   * @return The path of the attribute to sort by or {@code null} if the search
+   * is not sorted.
+   */
+  public Path getSortBy()
+  {
+    return plan.getSortBy();
+  }
+
+  /**
+   * Retrieve the sort order.
+   *
+   * @return The sort order, which is ascending if not specified.
+   */
+  public SortOrder getSortOrder()
+  {
+    return plan.getSortOrder();
+  }
+
+  /**
+   * Retrieve the startIndex parameter, which is at least 1.
+   *
+   * @return The startIndex parameter or {@code null} if not specified.
+   */
+  public Integer getStartIndex()
+  {
+    return startIndex;
+  }
+
+  /**
+   * Retrieve the count parameter, which is not negative.
+   *
+   * @return The count parameter or {@code null} if not specified.
+   */
+  public Integer getCount()
+  {
+    return count;
+  }
+
+  /**
+   * Declare whether every added resource already matches the filter.
+   *
+   * @param filterHandled {@code true} if the filter was applied by the
+   *                      backend.
+   * @return this object.
+   */
+  public SearchContext setFilterHandled(final boolean filterHandled)
+  {
+    checkNotStarted();
+    this.filterHandled = filterHandled;
+    return this;
+  }
+
+  /**
+   * Indicates whether every added resource already matches the filter.
+   *
+   * @return {@code true} if the filter was applied by the backend.
+   */
+  public boolean isFilterHandled()
+  {
+    return filterHandled;
+  }
+
+  /**
+   * Declare whether the resources are added in the requested sort order.
+   *
+   * @param sortHandled {@code true} if the resources are sorted by the
+   *                    backend.
+   * @return this object.
+   */
+  public SearchContext setSortHandled(final boolean sortHandled)
+  {
+    checkNotStarted();
+    if(sortHandled && cursor)
+    {
+      throw new IllegalStateException(
+          "The sort order may not be handled with cursor pagination");
+    }
+    this.sortHandled = sortHandled;
+    return this;
+  }
+
+  /**
+   * Indicates whether the resources are added in the requested sort order.
+   *
+   * @return {@code true} if the resources are sorted by the backend.
+   */
+  public boolean isSortHandled()
+  {
+    return sortHandled;
+  }
+
+  /**
+   * Declare whether the resources before the startIndex were skipped by the
+   * backend.
+   *
+   * @param offsetHandled {@code true} if the first added resource is the
+   *                      first resource of the requested page.
+   * @return this object.
+   */
+  public SearchContext setOffsetHandled(final boolean offsetHandled)
+  {
+    checkNotStarted();
+    this.offsetHandled = offsetHandled;
+    return this;
+  }
+
+  /**
+   * Indicates whether the resources before the startIndex were skipped by the
+   * backend.
+   *
+   * @return {@code true} if the first added resource is the first resource of
+   * the requested page.
+   */
+  public boolean isOffsetHandled()
+  {
+    return offsetHandled;
+  }
+
+  /**
+   * Prevent the parts handled from being changed once resources are added,
+   * and check that they are consistent.
+   */
+  void start()
+  {
+    if(started)
+    {
+      return;
+    }
+    if(offsetHandled && ((getFilter() != null && !filterHandled) ||
+        (getSortBy() != null && !sortHandled)))
+    {
+      throw new IllegalStateException("The offset may only be handled " +
+          "together with the filter and sort order");
+    }
+    started = true;
+  }
+
+  /**
+   * Check that no resources were added yet.
+   */
+  private void checkNotStarted()
+  {
+    if(started)
+    {
+      throw new IllegalStateException(
+          "The parts handled must be declared before resources are added");
+    }
+  }
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright 2021 Ping Identity Corporation
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPLv2 only)
+ * or the terms of the GNU Lesser General Public License (LGPLv2.1 only)
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ */
+
+package com.unboundid.scim2.server.utils;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.unboundid.scim2.common.exceptions.BadRequestException;
+import com.unboundid.scim2.common.utils.Debug;
+import com.unboundid.scim2.common.utils.JsonUtils;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+
+/**
+ * The opaque cursors used by {@link SimpleSearchResults} for cursor-based
+ * pagination. A cursor holds the sort value and the id of the last resource
+ * of a page, so that the next page is resumed after that resource without
+ * keeping or skipping the resources of the previous pages.
+ * <p>
+ * Cursors are signed with HMAC-SHA256 together with the search they were
+ * issued for, so that clients cannot forge them or use them with another
+ * filter or sort order. The signing key is generated randomly when this class
+ * is loaded. Servers that share searches, such as the members of a cluster or
+ * a server that is restarted between pages, must set the same key with
+ * {@link #setSigningKey}.
+ */
+public final class SearchCursor
+{
+  private static final String MAC_ALGORITHM = "HmacSHA256";
+
+  private static volatile SecretKeySpec signingKey;
+
+  static
+  {
+    byte[] key = new byte[32];
+    new SecureRandom().nextBytes(key);
+    signingKey = new SecretKeySpec(key, MAC_ALGORITHM);
+  }
+
+  private final JsonNode value;
+  private final String id;
+
+  /**
+   * Create a new cursor.
+   *
+   * @param value The sort value of the last resource of the page or
+   *              {@code null} if it has none.
+   * @param id The id of the last resource of the page.
+   */
+  private SearchCursor(final JsonNode value, final String id)
+  {
+    this.value = value;
+    this.id = id;
+  }
+
+  /**
+   * Set the key used to sign and verify cursors. Cursors signed with the
+   * previous key are no longer accepted.
+   *
+   * @param key The key, which must be at least 32 random bytes.
+   * @throws IllegalArgumentException If the key is shorter than 32 bytes.
+   */
+  public static void setSigningKey(final byte[] key)
+  {
+    if(key == null || key.length < 32)
+    {
+      throw new IllegalArgumentException(
+          "The cursor signing key must be at least 32 bytes");
+    }
+    signingKey = new SecretKeySpec(key.clone(), MAC_ALGORITHM);
+  }
+
+  /**
+   * Retrieve the sort value of the last resource of the previous page.
+   *
+   * @return The sort value or {@code null} if the resource has none.
+   */
+  JsonNode getValue()
+  {
+    return value;
+  }
+
+  /**
+   * Retrieve the id of the last resource of the previous page.
+   *
+   * @return The id of the resource.
+   */
+  String getId()
+  {
+    return id;
+  }
+
+  /**
+   * Create the signed cursor that resumes a search after a resource.
+   *
+   * @param search A string that identifies the search.
+   * @param value The sort value of the resource or {@code null} if it has
+   *              none.
+   * @param id The id of the resource.
+   * @return The opaque cursor.
+   * @throws IOException If the cursor could not be created.
+   */
+  static String encode(final String search, final JsonNode value,
+                       final String id)
+      throws IOException
+  {
+    ArrayNode array = JsonUtils.getJsonNodeFactory().arrayNode();
+    array.add(id);
+    if(value != null)
+    {
+      array.add(value);
+    }
+    byte[] payload = JsonUtils.getObjectWriter().writeValueAsBytes(array);
+    Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
+    return encoder.encodeToString(payload) + "." +
+        encoder.encodeToString(sign(search, payload));
+  }
+
+  /**
+   * Verify and parse a cursor.
+   *
+   * @param search A string that identifies the search.
+   * @param cursor The opaque cursor.
+   * @return The parsed cursor.
+   * @throws BadRequestException If the cursor is malformed or was not issued
+   * for the same search.
+   */
+  static SearchCursor decode(final String search, final String cursor)
+      throws BadRequestException
+  {
+    int dot = cursor.indexOf('.');
+    try
+    {
+      if(dot < 0)
+      {
+        throw new IllegalArgumentException("Missing signature");
+      }
+      Base64.Decoder decoder = Base64.getUrlDecoder();
+      byte[] payload = decoder.decode(cursor.substring(0, dot));
+      byte[] signature = decoder.decode(cursor.substring(dot + 1));
+      if(!MessageDigest.isEqual(signature, sign(search, payload)))
+      {
+        throw BadRequestException.invalidCursor(
+            "The cursor was not issued for this search");
+      }
+
+      JsonNode array = JsonUtils.getObjectReader().readTree(payload);
+      if(!array.isArray() || array.size() < 1 || array.size() > 2 ||
+          !array.get(0).isTextual())
+      {
+        throw new IllegalArgumentException("Malformed payload");
+      }
+      return new SearchCursor(array.get(1), array.get(0).textValue());
+    }
+    catch(IllegalArgumentException e)
+    {
+      Debug.debugException(e);
+      throw BadRequestException.invalidCursor("'" + cursor +
+          "' is not a valid value for the cursor parameter");
+    }
+    catch(IOException e)
+    {
+      Debug.debugException(e);
+      throw BadRequestException.invalidCursor("'" + cursor +
+          "' is not a valid value for the cursor parameter");
+    }
+  }
+
+  /**
+   * Compute the signature of a cursor payload for a search.
+   *
+   * @param search A string that identifies the search.
+   * @param payload The cursor payload.
+   * @return The signature.
+   * @throws IOException If the signature could not be computed.
+   */
+  private static byte[] sign(final String search, final byte[] payload)
+      throws IOException
+  {
+    try
+    {
+      Mac mac = Mac.getInstance(MAC_ALGORITHM);
+      mac.init(signingKey);
+      mac.update(search.getBytes(StandardCharsets.UTF_8));
+      mac.update((byte) 0);
+      return mac.doFinal(payload);
+    }
+    catch(GeneralSecurityException e)
+    {
+      throw new IOException("Unable to sign the cursor: " + e.getMessage(), e);
+    }
+  }
+}
@@ -0,0 +1,538 @@
+/*
+ * Copyright 2021 Ping Identity Corporation
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPLv2 only)
+ * or the terms of the GNU Lesser General Public License (LGPLv2.1 only)
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ */
+
+package com.unboundid.scim2.server.utils;
+
+import com.unboundid.scim2.common.Path;
+import com.unboundid.scim2.common.ScimResource;
+import com.unboundid.scim2.common.exceptions.BadRequestException;
+import com.unboundid.scim2.common.exceptions.ScimException;
+import com.unboundid.scim2.common.filters.Filter;
+import com.unboundid.scim2.common.messages.SortOrder;
+import com.unboundid.scim2.common.utils.Parser;
+
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.core.UriInfo;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.unboundid.scim2.common.utils.ApiConstants.*;
+
+/**
+ * The parsed and compiled form of the parameters of a search that do not
+ * depend on the page requested: the filter, the sortBy and sortOrder
+ * parameters and the attributes or excludedAttributes parameters. A plan holds
+ * the parsed filter and its evaluator, the comparator of the sort order, the
+ * compiled projection of the returned attributes and the results of checking
+ * the filter with a {@link SchemaChecker}, so that none of these are computed
+ * again for searches with the same parameters.
+ * <p>
+ * Plans are immutable and are cached by the {@link ResourceTypeDefinition} of
+ * the search, so that {@link #get} returns the same plan for searches
+ * repeated with the same parameters and the same parser options in the
+ * calling thread. Each resource type definition caches at most
+ * {@link ResourceTypeDefinition.Builder#setMaxCachedSearchPlans} plans and
+ * evicts the least recently used plan when its cache is full. Parameters that
+ * are invalid are not cached.
+ * {@link SimpleSearchResults} and {@link StreamingSearchResults} retrieve the
+ * plan of their search from the cache.
+ */
+public final class SearchPlan
+{
+  private final ResourceTypeDefinition resourceType;
+  private final String filterString;
+  private final String sortByString;
+  private final Filter filter;
+  private final Path sortBy;
+  private final SortOrder sortOrder;
+  private final SchemaAwareFilterEvaluator filterEvaluator;
+  private final ResourceComparator<ScimResource> resourceComparator;
+  private final ResourceComparator<ScimResource> idComparator;
+  private final ResourcePreparer<ScimResource> responsePreparer;
+  private final boolean filterReferencesMeta;
+  private final boolean sortReferencesMeta;
+  private final ConcurrentHashMap<Set<SchemaChecker.Option>,
+      SchemaChecker.Results> checkResults =
+      new ConcurrentHashMap<Set<SchemaChecker.Option>,
+          SchemaChecker.Results>();
+
+  /**
+   * Create a new search plan.
+   *
+   * @param resourceType The resource type definition of result resources.
+   * @param key The parameters of the search.
+   * @throws BadRequestException If a parameter is invalid.
+   */
+  private SearchPlan(final ResourceTypeDefinition resourceType, final Key key)
+      throws BadRequestException
+  {
+    this.resourceType = resourceType;
+    this.filterString = key.filter;
+    this.sortByString = key.sortBy;
+    this.responsePreparer = new ResourcePreparer<ScimResource>(resourceType,
+        key.attributes, key.excludedAttributes, null);
+    this.filterEvaluator = new SchemaAwareFilterEvaluator(resourceType);
+    this.filter = key.filter == null ? null : Filter.fromString(key.filter);
+
+    try
+    {
+      this.sortBy = key.sortBy == null ? null : Path.fromString(key.sortBy);
+    }
+    catch (BadRequestException e)
+    {
+      throw BadRequestException.invalidValue("'" + key.sortBy +
+          "' is not a valid value for the sortBy parameter: " +
+          e.getMessage());
+    }
+    this.sortOrder = key.sortOrder == null ?
+        SortOrder.ASCENDING : SortOrder.fromName(key.sortOrder);
+    this.resourceComparator = sortBy == null ? null :
+        new ResourceComparator<ScimResource>(sortBy, sortOrder, resourceType);
+    this.idComparator = new ResourceComparator<ScimResource>(
+        Path.root().attribute("id"), SortOrder.ASCENDING, resourceType);
+
+    this.filterReferencesMeta =
+        filter != null && SimpleSearchResults.referencesMeta(filter);
+    this.sortReferencesMeta =
+        sortBy != null && SimpleSearchResults.referencesMeta(sortBy);
+  }
+
+  /**
+   * Retrieve the plan of a search from the query parameters of its request.
+   *
+   * @param resourceType The resource type definition of result resources.
+   * @param uriInfo The UriInfo from the search operation.
+   * @return The cached or new search plan.
+   * @throws BadRequestException If a parameter is invalid.
+   */
+  public static SearchPlan get(final ResourceTypeDefinition resourceType,
+                               final UriInfo uriInfo)
+      throws BadRequestException
+  {
+    MultivaluedMap<String, String> queryParams = uriInfo.getQueryParameters();
+    return get(resourceType,
+        queryParams.getFirst(QUERY_PARAMETER_FILTER),
+        queryParams.getFirst(QUERY_PARAMETER_SORT_BY),
+        queryParams.getFirst(QUERY_PARAMETER_SORT_ORDER),
+        queryParams.getFirst(QUERY_PARAMETER_ATTRIBUTES),
+        queryParams.getFirst(QUERY_PARAMETER_EXCLUDED_ATTRIBUTES));
+  }
+
+  /**
+   * Retrieve the plan of a search.
+   *
+   * @param resourceType The resource type definition of result resources.
+   * @param filter The filter parameter or {@code null} if not specified.
+   * @param sortBy The sortBy parameter or {@code null} if not specified.
+   * @param sortOrder The sortOrder parameter or {@code null} if not
+   *                  specified.
+   * @param attributes The attributes parameter or {@code null} if not
+   *                   specified.
+   * @param excludedAttributes The excludedAttributes parameter or
+   *                           {@code null} if not specified.
+   * @return The cached or new search plan.
+   * @throws BadRequestException If a parameter is invalid.
+   */
+  public static SearchPlan get(final ResourceTypeDefinition resourceType,
+                               final String filter, final String sortBy,
+                               final String sortOrder,
+                               final String attributes,
+                               final String excludedAttributes)
+      throws BadRequestException
+  {
+    Key key = new Key(filter, sortBy, sortOrder, attributes,
+        excludedAttributes);
+    Cache cache = resourceType.getSearchPlans();
+    SearchPlan plan = cache.get(key);
+    if(plan == null)
+    {
+      plan = cache.put(key, new SearchPlan(resourceType, key));
+    }
+    return plan;
+  }
+
+  /**
+   * Retrieve the resource type definition of the search.
+   *
+   * @return The resource type definition of the search.
+   */
+  public ResourceTypeDefinition getResourceType()
+  {
+    return resourceType;
+  }
+
+  /**
+   * Retrieve the parsed filter.
+   *
+   * @return The parsed filter or {@code null} if the search has no filter.
+   */
+  public Filter getFilter()
+  {
+    return filter;
+  }
+
+  /**
+   * Retrieve the normalized paths of the attributes parameter.
+   *
+   * @return The paths of the requested attributes, which are empty if the
+   * attributes parameter was not specified.
+   */
+  public Set<Path> getAttributes()
+  {
+    return responsePreparer.isExcluded() ? Collections.<Path>emptySet() :
+        Collections.unmodifiableSet(responsePreparer.getQueryAttributes());
+  }
+
+  /**
+   * Retrieve the normalized paths of the excludedAttributes parameter.
+   *
+   * @return The paths of the excluded attributes, which are empty if the
+   * excludedAttributes parameter was not specified.
+   */
+  public Set<Path> getExcludedAttributes()
+  {
+    return responsePreparer.isExcluded() ?
+        Collections.unmodifiableSet(responsePreparer.getQueryAttributes()) :
+        Collections.<Path>emptySet();
+  }
+
+  /**
+   * Retrieve the path of the attribute to sort by.
+   *
+   * @return The path of the attribute to sort by or {@code null} if the search
+   * is not sorted.
+   */
+  public Path getSortBy()
+  {
+    return sortBy;
+  }
+
+  /**
+   * Retrieve the sort order.
+   *
+   * @return The sort order, which is ascending if not specified.
+   */
+  public SortOrder getSortOrder()
+  {
+    return sortOrder;
+  }
+
+  /**
+   * Retrieve the comparator of the sort order.
+   *
+   * @return The comparator or {@code null} if the search is not sorted.
+   */
+  public ResourceComparator<ScimResource> getResourceComparator()
+  {
+    return resourceComparator;
+  }
+
+  /**
+   * Check the filter against the schema. The results are cached by a copy of
+   * the options enabled in the schema checker when it is called, so that
+   * enabling or disabling an option afterwards checks the filter again. The
+   * results are not cached if the schema checker is for another resource
+   * type.
+   *
+   * @param checker The schema checker.
+   * @return Schema checking results, which have no issues if the search has
+   * no filter.
+   * @throws ScimException If an error occurred while checking the schema.
+   */
+  public SchemaChecker.Results checkSearch(final SchemaChecker checker)
+      throws ScimException
+  {
+    if(filter == null)
+    {
+      return new SchemaChecker.Results();
+    }
+    if(checker.getResourceType() != resourceType)
+    {
+      return checker.checkSearch(filter);
+    }
+
+    Set<SchemaChecker.Option> options = checker.getEnabledOptions();
+    SchemaChecker.Results results = checkResults.get(options);
+    if(results == null)
+    {
+      results = checker.checkSearch(filter);
+      checkResults.putIfAbsent(options, results);
+    }
+    return results;
+  }
+
+  /**
+   * Retrieve the filter parameter.
+   *
+   * @return The filter parameter or {@code null} if not specified.
+   */
+  String getFilterString()
+  {
+    return filterString;
+  }
+
+  /**
+   * Retrieve the sortBy parameter.
+   *
+   * @return The sortBy parameter or {@code null} if not specified.
+   */
+  String getSortByString()
+  {
+    return sortByString;
+  }
+
+  /**
+   * Retrieve the evaluator of the filter.
+   *
+   * @return The evaluator of the filter.
+   */
+  SchemaAwareFilterEvaluator getFilterEvaluator()
+  {
+    return filterEvaluator;
+  }
+
+  /**
+   * Retrieve the comparator that orders resources by id.
+   *
+   * @return The comparator that orders resources by id.
+   */
+  ResourceComparator<ScimResource> getIdComparator()
+  {
+    return idComparator;
+  }
+
+  /**
+   * Create a ResourcePreparer that reuses the compiled projection of the
+   * returned attributes for the resources of a request.
+   *
+   * @param uriInfo The UriInfo from the search operation.
+   * @return The ResourcePreparer.
+   */
+  ResourcePreparer<ScimResource> createResourcePreparer(final UriInfo uriInfo)
+  {
+    return new ResourcePreparer<ScimResource>(responsePreparer,
+        ResourcePreparer.getBaseUri(resourceType, uriInfo));
+  }
+
+  /**
+   * Indicates whether the filter references the meta attribute.
+   *
+   * @return {@code true} if the filter references the meta attribute.
+   */
+  boolean filterReferencesMeta()
+  {
+    return filterReferencesMeta;
+  }
+
+  /**
+   * Indicates whether the sortBy parameter references the meta attribute.
+   *
+   * @return {@code true} if the sortBy parameter references the meta
+   * attribute.
+   */
+  boolean sortReferencesMeta()
+  {
+    return sortReferencesMeta;
+  }
+
+  /**
+   * A least recently used cache of the search plans of a resource type.
+   */
+  static final class Cache
+  {
+    private final int maxSize;
+    private final LinkedHashMap<Key, SearchPlan> plans;
+
+    /**
+     * Create a new cache.
+     *
+     * @param maxSize The maximum number of cached plans or zero to not cache
+     *                plans.
+     */
+    Cache(final int maxSize)
+    {
+      this.maxSize = maxSize;
+      this.plans = new LinkedHashMap<Key, SearchPlan>(16, 0.75f, true)
+      {
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        protected boolean removeEldestEntry(
+            final Map.Entry<Key, SearchPlan> eldest)
+        {
+          return size() > Cache.this.maxSize;
+        }
+      };
+    }
+
+    /**
+     * Retrieve a cached plan and mark it as the most recently used.
+     *
+     * @param key The parameters of the search.
+     * @return The cached plan or {@code null} if it is not cached.
+     */
+    synchronized SearchPlan get(final Key key)
+    {
+      return plans.get(key);
+    }
+
+    /**
+     * Cache a plan unless a plan with the same parameters was cached by
+     * another thread since it was looked up.
+     *
+     * @param key The parameters of the search.
+     * @param plan The new plan.
+     * @return The plan that is cached, or the new plan if plans are not
+     * cached.
+     */
+    synchronized SearchPlan put(final Key key, final SearchPlan plan)
+    {
+      if(maxSize == 0)
+      {
+        return plan;
+      }
+      SearchPlan cached = plans.get(key);
+      if(cached != null)
+      {
+        return cached;
+      }
+      plans.put(key, plan);
+      return plan;
+    }
+
+    /**
+     * Retrieve the number of cached plans.
+     *
+     * @return The number of cached plans.
+     */
+    synchronized int size()
+    {
+      return plans.size();
+    }
+
+    /**
+     * Retrieve the maximum number of cached plans.
+     *
+     * @return The maximum number of cached plans.
+     */
+    int getMaxSize()
+    {
+      return maxSize;
+    }
+  }
+
+  /**
+   * The key of a cached search plan.
+   */
+  private static final class Key
+  {
+    private final String filter;
+    private final String sortBy;
+    private final String sortOrder;
+    private final String attributes;
+    private final String excludedAttributes;
+    private final Set<Character> extendedAttributeNameCharacters;
+    private final int hashCode;
+
+    /**
+     * Create a new key with the parser options of the calling thread, which
+     * are used to parse the parameters.
+     *
+     * @param filter The filter parameter.
+     * @param sortBy The sortBy parameter.
+     * @param sortOrder The sortOrder parameter.
+     * @param attributes The attributes parameter.
+     * @param excludedAttributes The excludedAttributes parameter.
+     */
+    private Key(final String filter, final String sortBy,
+                final String sortOrder, final String attributes,
+                final String excludedAttributes)
+    {
+      this.filter = filter;
+      this.sortBy = sortBy;
+      this.sortOrder = sortOrder;
+      this.attributes = attributes;
+      this.excludedAttributes = excludedAttributes;
+      Set<Character> characters =
+          Parser.getOptions().getExtendedAttributeNameCharacters();
+      this.extendedAttributeNameCharacters = characters.isEmpty() ?
+          Collections.<Character>emptySet() :
+          new HashSet<Character>(characters);
+      int result = filter != null ? filter.hashCode() : 0;
+      result = 31 * result + (sortBy != null ? sortBy.hashCode() : 0);
+      result = 31 * result + (sortOrder != null ? sortOrder.hashCode() : 0);
+      result = 31 * result + (attributes != null ? attributes.hashCode() : 0);
+      result = 31 * result + (excludedAttributes != null ?
+          excludedAttributes.hashCode() : 0);
+      result = 31 * result + extendedAttributeNameCharacters.hashCode();
+      this.hashCode = result;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean equals(final Object o)
+    {
+      if (this == o)
+      {
+        return true;
+      }
+      if (!(o instanceof Key))
+      {
+        return false;
+      }
+      Key that = (Key) o;
+      return hashCode == that.hashCode &&
+          equal(filter, that.filter) &&
+          equal(sortBy, that.sortBy) &&
+          equal(sortOrder, that.sortOrder) &&
+          equal(attributes, that.attributes) &&
+          equal(excludedAttributes, that.excludedAttributes) &&
+          extendedAttributeNameCharacters.equals(
+              that.extendedAttributeNameCharacters);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int hashCode()
+    {
+      return hashCode;
+    }
+
+    /**
+     * Compare two parameters that may be {@code null}.
+     *
+     * @param s1 The first parameter.
+     * @param s2 The second parameter.
+     * @return {@code true} if the parameters are equal.
+     */
+    private static boolean equal(final String s1, final String s2)
+    {
+      return s1 == null ? s2 == null : s1.equals(s2);
+    }
+  }
+}
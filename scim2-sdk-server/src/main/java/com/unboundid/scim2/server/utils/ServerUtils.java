@@ -20,6 +20,7 @@ package com.unboundid.scim2.server.utils;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 
+import java.nio.charset.StandardCharsets;
 import java.util.List;
 
 import static com.unboundid.scim2.common.utils.ApiConstants.MEDIA_TYPE_SCIM;
@@ -29,6 +30,8 @@ import static com.unboundid.scim2.common.utils.ApiConstants.MEDIA_TYPE_SCIM;
  */
 public class ServerUtils
 {
+  private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+
   /**
    * The SCIM media type.
    */
@@ -90,4 +93,93 @@ public class ServerUtils
 
     return s1;
   }
+
+  /**
+   * Percent-encodes a string as a single URI path segment, the same way as
+   * {@code UriBuilder.segment(ServerUtils.encodeTemplateNames(s))}. The
+   * unreserved characters, the sub-delimiters other than ';', ':', '@' and
+   * existing percent-encoded octets are kept, and every other character is
+   * percent-encoded as UTF-8. The string itself is returned if nothing needs
+   * to be encoded.
+   *
+   * @param s the string to encode.
+   * @return the encoded path segment.
+   */
+  public static String encodePathSegment(final String s)
+  {
+    int length = s.length();
+    int i = 0;
+    while(i < length && isPathSegmentChar(s, i))
+    {
+      i++;
+    }
+    if(i == length)
+    {
+      return s;
+    }
+
+    StringBuilder builder = new StringBuilder(length + 16);
+    builder.append(s, 0, i);
+    while(i < length)
+    {
+      if(isPathSegmentChar(s, i))
+      {
+        builder.append(s.charAt(i++));
+        continue;
+      }
+      int codePoint = s.codePointAt(i);
+      int charCount = Character.charCount(codePoint);
+      for(byte b : s.substring(i, i + charCount).getBytes(
+          StandardCharsets.UTF_8))
+      {
+        builder.append('%');
+        builder.append(HEX_DIGITS[(b >> 4) & 0x0F]);
+        builder.append(HEX_DIGITS[b & 0x0F]);
+      }
+      i += charCount;
+    }
+    return builder.toString();
+  }
+
+  /**
+   * Determines whether a character may be kept as is in a URI path segment.
+   *
+   * @param s the string.
+   * @param i the index of the character.
+   * @return {@code true} if the character may be kept or {@code false} if it
+   * must be percent-encoded.
+   */
+  private static boolean isPathSegmentChar(final String s, final int i)
+  {
+    char c = s.charAt(i);
+    if((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') ||
+        (c >= '0' && c <= '9'))
+    {
+      return true;
+    }
+    switch(c)
+    {
+      case '-': case '.': case '_': case '~':
+      case '!': case '$': case '&': case '\'': case '(': case ')':
+      case '*': case '+': case ',': case '=': case ':': case '@':
+        return true;
+      case '%':
+        return i + 2 < s.length() && isHexDigit(s.charAt(i + 1)) &&
+            isHexDigit(s.charAt(i + 2));
+      default:
+        return false;
+    }
+  }
+
+  /**
+   * Determines whether a character is a hexadecimal digit.
+   *
+   * @param c the character.
+   * @return {@code true} if the character is a hexadecimal digit.
+   */
+  private static boolean isHexDigit(final char c)
+  {
+    return (c >= '0' && c <= '9') || (c >= 'a' && c <= 'f') ||
+        (c >= 'A' && c <= 'F');
+  }
 }
@@ -17,23 +17,25 @@
 
 package com.unboundid.scim2.server.utils;
 
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.unboundid.scim2.common.GenericScimResource;
 import com.unboundid.scim2.common.Path;
+import com.unboundid.scim2.common.RawScimResource;
 import com.unboundid.scim2.common.ScimResource;
 import com.unboundid.scim2.common.exceptions.BadRequestException;
 import com.unboundid.scim2.common.exceptions.ScimException;
+import com.unboundid.scim2.common.exceptions.ServerErrorException;
 import com.unboundid.scim2.common.filters.Filter;
-import com.unboundid.scim2.common.messages.SortOrder;
+import com.unboundid.scim2.common.utils.JsonUtils;
 import com.unboundid.scim2.server.ListResponseStreamingOutput;
 import com.unboundid.scim2.server.ListResponseWriter;
 
 import javax.ws.rs.core.MultivaluedMap;
 import javax.ws.rs.core.UriInfo;
+import java.io.File;
 import java.io.IOException;
 import java.util.Collection;
-import java.util.Collections;
-import java.util.LinkedList;
-import java.util.List;
+import java.util.concurrent.Executor;
 
 import static com.unboundid.scim2.common.utils.ApiConstants.*;
 
@@ -41,17 +43,102 @@ import static com.unboundid.scim2.common.utils.ApiConstants.*;
  * A utility ListResponseStreamingOutput that will filter, sort, and paginate
  * the search results for simple search implementations that always returns the
  * entire result set.
+ * <p>
+ * The parsed filter, sort order and returned attributes are retrieved from
+ * the cached {@link SearchPlan} of the search, so they are only parsed and
+ * compiled once for searches repeated with the same parameters.
+ * <p>
+ * {@link RawScimResource} results are kept and written without parsing them
+ * when the search has no filter or sortBy parameters and the returned
+ * attributes are not trimmed. Their bytes must then already include the
+ * meta.resourceType and meta.location attributes. Otherwise, they are parsed
+ * and handled like any other resource.
+ * <p>
+ * When the search is paginated, only the resources that may be returned are
+ * kept while the total number of results is still counted exactly. Without
+ * sorting, only the resources on the requested page are kept. With sorting,
+ * the best {@code startIndex + count - 1} resources are kept in a bounded heap
+ * and sorted when the results are written.
+ * <p>
+ * Sorted searches that may return more resources than the limit set with
+ * {@link #setMaxResourcesInMemory} write sorted runs of resources to temporary
+ * files whenever that many resources are kept. The runs are then merged while
+ * the results are written. The temporary files are deleted once the results
+ * are written, including when writing them fails because the client
+ * disconnected, and when adding resources fails. Callers that add resources
+ * but then abort the search without writing the results must call
+ * {@link #close} to delete them.
+ * <p>
+ * The cursor parameter requests cursor-based pagination, with an empty value
+ * for the first page. The results are then ordered by the sortBy attribute
+ * and by id, or only by id without sortBy, and a signed {@link SearchCursor}
+ * of the last returned resource is written as the nextCursor when more
+ * results follow. Resources up to the cursor are only counted, so each page
+ * only keeps {@code count} resources however deep it is.
+ * <p>
+ * When no resources are returned, such as with a count of zero, matching
+ * resources are only counted: unless the filter references the meta
+ * attribute, it is evaluated on the added resources themselves without
+ * copying them or setting their meta attributes. Backends that can count the
+ * matching resources themselves may check {@link #isCountOnly} and call
+ * {@link #setTotalResults} or {@link #setApproximateTotalResults} instead of
+ * adding them, and {@link #setCountSampleInterval} estimates the count of
+ * very large result sets by filtering a sample of the added resources.
+ * Estimated counts are flagged with the {@code approximate} attribute of the
+ * {@link com.unboundid.scim2.common.utils.ApiConstants#COUNT_EXTENSION_SCHEMA}
+ * extension of the list response.
+ * <p>
+ * Added GenericScimResources are copied, so that changes made to them after
+ * they are added are not returned. Frozen BaseScimResources, and
+ * GenericScimResources that the caller declares immutable with
+ * {@link #setResourcesImmutable}, are kept without copying them: a filter
+ * that references the meta attribute is evaluated on a shallow overlay with
+ * the meta.resourceType and meta.location attributes resolved, and only the
+ * resources on the returned page are copied when they are written.
+ * <p>
+ * Backends may retrieve the parsed parameters of the search with
+ * {@link #getSearchContext}, and declare there that they already applied the
+ * filter, the sort order or the startIndex offset, which are then skipped.
+ * <p>
+ * With a parallelism greater than one set with {@link #setParallelism}, the
+ * resources passed to {@link #addAll} are filtered, and the returned resources
+ * are trimmed and serialized, on the threads of a
+ * {@link ParallelSearchPipeline}. The results are still kept and written in
+ * the same order.
  */
 public class SimpleSearchResults<T extends ScimResource>
     extends ListResponseStreamingOutput<T>
 {
-  private final List<ScimResource> resources;
-  private final Filter filter;
+  private ResultSelection selection;
+  private Filter filter;
   private final Integer startIndex;
   private final Integer count;
+  private final SearchContext searchContext;
+  private boolean started;
+  private boolean closed;
   private final SchemaAwareFilterEvaluator filterEvaluator;
-  private final ResourceComparator<ScimResource> resourceComparator;
+  private ResourceComparator<ScimResource> resourceComparator;
   private final ResourcePreparer<ScimResource> responsePreparer;
+  private final CursorPagination cursor;
+  private final boolean countOnly;
+  private boolean countWithoutMeta;
+  private boolean filterReferencesMeta;
+  private boolean sortReferencesMeta;
+  private boolean resourcesImmutable;
+  private Integer reportedTotalResults;
+  private boolean approximateTotalResults;
+  private int countSampleInterval = 1;
+  private long addedResources;
+  private long sampledResources;
+  private int firstIndex;
+  private long lastIndex;
+  private int skippedResults;
+  private int totalResults;
+  private boolean validateRawResources;
+  private int maxResourcesInMemory;
+  private int parallelism = 1;
+  private Executor executor;
+  private File temporaryDirectory;
 
   /**
    * Create a new SimpleSearchResults for results from a search operation.
@@ -64,28 +151,39 @@ public class SimpleSearchResults<T extends ScimResource>
   public SimpleSearchResults(final ResourceTypeDefinition resourceType,
                              final UriInfo uriInfo) throws BadRequestException
   {
-    this.filterEvaluator = new SchemaAwareFilterEvaluator(resourceType);
-    this.responsePreparer =
-        new ResourcePreparer<ScimResource>(resourceType, uriInfo);
-    this.resources = new LinkedList<ScimResource>();
+    this(SearchPlan.get(resourceType, uriInfo), uriInfo);
+  }
+
+  /**
+   * Create a new SimpleSearchResults for results from a search operation
+   * whose filter, sort order and returned attributes were already planned.
+   * Only the pagination parameters of the UriInfo are used.
+   *
+   * @param plan The plan of the search.
+   * @param uriInfo The UriInfo from the search operation.
+   * @throws BadRequestException if the pagination parameters in the search
+   * operation are invalid.
+   */
+  public SimpleSearchResults(final SearchPlan plan, final UriInfo uriInfo)
+      throws BadRequestException
+  {
+    this.filterEvaluator = plan.getFilterEvaluator();
+    this.responsePreparer = plan.createResourcePreparer(uriInfo);
 
     MultivaluedMap<String, String> queryParams = uriInfo.getQueryParameters();
-    String filterString = queryParams.getFirst(QUERY_PARAMETER_FILTER);
     String startIndexString = queryParams.getFirst(
         QUERY_PARAMETER_PAGE_START_INDEX);
     String countString = queryParams.getFirst(QUERY_PARAMETER_PAGE_SIZE);
-    String sortByString = queryParams.getFirst(QUERY_PARAMETER_SORT_BY);
-    String  sortOrderString = queryParams.getFirst(QUERY_PARAMETER_SORT_ORDER);
+    String cursorString = queryParams.getFirst(QUERY_PARAMETER_PAGE_CURSOR);
 
-    if(filterString != null)
-    {
-      this.filter = Filter.fromString(filterString);
-    }
-    else
+    if(cursorString != null && startIndexString != null)
     {
-      this.filter = null;
+      throw BadRequestException.invalidValue("The cursor and startIndex " +
+          "parameters may not be used together");
     }
 
+    this.filter = plan.getFilter();
+
     if(startIndexString != null)
     {
       int i = Integer.valueOf(startIndexString);
@@ -108,28 +206,32 @@ public class SimpleSearchResults<T extends ScimResource>
       count = null;
     }
 
-    Path sortBy;
-    try
+    if(plan.getResourceComparator() != null)
     {
-      sortBy = sortByString == null ? null : Path.fromString(sortByString);
+      this.resourceComparator = plan.getResourceComparator();
     }
-    catch (BadRequestException e)
+    else if(cursorString != null)
     {
-      throw BadRequestException.invalidValue("'" + sortByString +
-          "' is not a valid value for the sortBy parameter: " +
-          e.getMessage());
-    }
-    SortOrder sortOrder = sortOrderString == null ?
-        SortOrder.ASCENDING : SortOrder.fromName(sortOrderString);
-    if(sortBy != null)
-    {
-      this.resourceComparator = new ResourceComparator<ScimResource>(
-          sortBy, sortOrder, resourceType);
+      // Cursors need a total order, so unsorted results are ordered by id.
+      this.resourceComparator = plan.getIdComparator();
     }
     else
     {
       this.resourceComparator = null;
     }
+
+    // The zero-based range of indexes of the results that may be returned.
+    this.firstIndex = startIndex == null ? 0 : startIndex - 1;
+    this.lastIndex =
+        count == null ? Long.MAX_VALUE : (long) firstIndex + count;
+    this.countOnly = lastIndex <= firstIndex;
+    this.filterReferencesMeta = plan.filterReferencesMeta();
+    this.countWithoutMeta = countOnly && !filterReferencesMeta;
+    this.sortReferencesMeta = plan.sortReferencesMeta();
+    this.searchContext =
+        new SearchContext(plan, startIndex, count, cursorString != null);
+    this.cursor = cursorString == null ? null :
+        new CursorPagination(plan, cursorString, resourceComparator);
   }
 
   /**
@@ -142,13 +244,90 @@ public class SimpleSearchResults<T extends ScimResource>
    */
   public SimpleSearchResults add(final T resource) throws ScimException
   {
+    start();
+    if(countOnly && countSampleInterval > 1)
+    {
+      if(addedResources++ % countSampleInterval != 0)
+      {
+        // Only a sample of the resources is filtered.
+        return this;
+      }
+      sampledResources++;
+    }
+    try
+    {
+      ScimResource matched = match(resource);
+      if(matched != null)
+      {
+        keep(matched);
+      }
+    }
+    catch(ScimException e)
+    {
+      close();
+      throw e;
+    }
+    catch(RuntimeException e)
+    {
+      close();
+      throw e;
+    }
+    return this;
+  }
+
+  /**
+   * Set the meta attributes of a resource and evaluate the filter.
+   *
+   * @param resource The resource.
+   * @return The resource to keep if it matches the filter or {@code null}
+   * otherwise.
+   * @throws ScimException If an error occurs during filtering.
+   */
+  private ScimResource match(final T resource) throws ScimException
+  {
+    if(countWithoutMeta)
+    {
+      // The resource is only counted, so it is neither copied nor modified.
+      if(filter == null || filter.visit(filterEvaluator,
+          resource.asGenericScimResource().getObjectNode()))
+      {
+        return resource;
+      }
+      return null;
+    }
+
+    if(resource instanceof RawScimResource && filter == null &&
+        resourceComparator == null &&
+        responsePreparer.returnsAllRetrievedAttributes())
+    {
+      // Keep the raw resource so that it can be written without parsing it.
+      return resource;
+    }
+
     // Convert to GenericScimResource
     GenericScimResource genericResource;
-    if(resource instanceof GenericScimResource)
+    if(ResourcePreparer.isShared(resource))
     {
-      // Make a copy
+      if(!sortReferencesMeta &&
+          (resourcesImmutable || ResourcePreparer.isFrozen(resource)))
+      {
+        // Evaluate the filter with the meta attributes resolved on a shallow
+        // overlay, and only copy the resource if it is returned.
+        genericResource = resource.asGenericScimResource();
+        ObjectNode objectNode = genericResource.getObjectNode();
+        if(filter == null || filter.visit(filterEvaluator,
+            filterReferencesMeta ?
+                responsePreparer.withResourceTypeAndLocation(objectNode) :
+                objectNode))
+        {
+          return genericResource;
+        }
+        return null;
+      }
+      // Make a copy so that later changes made by the caller are not returned
+      // and the meta attributes may be set
       genericResource = new GenericScimResource(
-          ((GenericScimResource) resource).getObjectNode().deepCopy());
+          resource.asGenericScimResource().getObjectNode().deepCopy());
     }
     else
     {
@@ -161,9 +340,159 @@ public class SimpleSearchResults<T extends ScimResource>
     if(filter == null || filter.visit(filterEvaluator,
         genericResource.getObjectNode()))
     {
-      resources.add(genericResource);
+      return genericResource;
+    }
+    return null;
+  }
+
+  /**
+   * Count a matching resource and keep it if it may be returned.
+   *
+   * @param resource The matching resource.
+   * @throws ScimException If the resource could not be kept, such as when
+   * sorted resources could not be written to a temporary file.
+   */
+  private void keep(final ScimResource resource) throws ScimException
+  {
+    int index = totalResults++;
+    if(countOnly)
+    {
+      // No resources are returned.
+      return;
+    }
+    selection().keep(resource, index);
+  }
+
+  /**
+   * Retrieve the strategy that selects the returned resources, which is
+   * chosen once the search is started.
+   *
+   * @return The selection of the returned resources.
+   */
+  private ResultSelection selection()
+  {
+    if(selection == null)
+    {
+      if(resourceComparator == null || countOnly)
+      {
+        selection = new PageSelection(firstIndex, lastIndex);
+      }
+      else if(lastIndex <= Integer.MAX_VALUE && (maxResourcesInMemory == 0 ||
+          lastIndex <= maxResourcesInMemory))
+      {
+        selection = new TopResourcesSelection(firstIndex, lastIndex,
+            resourceComparator, cursor);
+      }
+      else
+      {
+        selection = new SortedRunsSelection(firstIndex, lastIndex,
+            resourceComparator, cursor, responsePreparer,
+            maxResourcesInMemory, temporaryDirectory);
+      }
     }
+    return selection;
+  }
 
+  /**
+   * Retrieve the parsed parameters of the search, with which the backend that
+   * adds the resources may declare which parts of the search it already
+   * handled.
+   *
+   * @return The search context.
+   */
+  public SearchContext getSearchContext()
+  {
+    return searchContext;
+  }
+
+  /**
+   * Skip the parts of the search that the backend declared it handled in the
+   * search context. This is done once, before the first resource is added or
+   * the results are written.
+   */
+  private void start()
+  {
+    if(closed)
+    {
+      throw new IllegalStateException("The search results are closed");
+    }
+    if(started)
+    {
+      return;
+    }
+    searchContext.start();
+    started = true;
+    if(searchContext.isFilterHandled())
+    {
+      filter = null;
+      filterReferencesMeta = false;
+      countWithoutMeta = countOnly;
+    }
+    if(searchContext.isSortHandled())
+    {
+      resourceComparator = null;
+      sortReferencesMeta = false;
+    }
+    if(searchContext.isOffsetHandled())
+    {
+      // The added resources start on the requested page, and the skipped
+      // resources are still included in the total number of results.
+      skippedResults = firstIndex;
+      lastIndex -= firstIndex;
+      firstIndex = 0;
+    }
+  }
+
+  /**
+   * Set whether raw resources are checked to be well-formed JSON objects
+   * before they are written without parsing them. This is disabled by
+   * default.
+   *
+   * @param validateRawResources {@code true} to check raw resources or
+   *                             {@code false} to write them as is.
+   * @return this object.
+   */
+  public SimpleSearchResults setValidateRawResources(
+      final boolean validateRawResources)
+  {
+    this.validateRawResources = validateRawResources;
+    return this;
+  }
+
+  /**
+   * Set the maximum number of resources that are kept in memory to sort the
+   * results. When more resources may be returned, sorted runs of resources
+   * are written to temporary files and merged when the results are written.
+   * This must be set before any resources are added. The default value of
+   * zero keeps every resource in memory.
+   *
+   * @param maxResourcesInMemory The maximum number of resources kept in memory
+   *                             or zero for no limit.
+   * @return this object.
+   */
+  public SimpleSearchResults setMaxResourcesInMemory(
+      final int maxResourcesInMemory)
+  {
+    if(maxResourcesInMemory < 0)
+    {
+      throw new IllegalArgumentException(
+          "maxResourcesInMemory must not be negative");
+    }
+    this.maxResourcesInMemory = maxResourcesInMemory;
+    return this;
+  }
+
+  /**
+   * Set the directory to create the temporary files of sorted runs in.
+   *
+   * @param temporaryDirectory The directory or {@code null} to use the default
+   *                           temporary directory.
+   * @return this object.
+   */
+  public SimpleSearchResults setTemporaryDirectory(
+      final File temporaryDirectory)
+  {
+    this.temporaryDirectory = temporaryDirectory;
     return this;
   }
 
@@ -178,10 +507,187 @@ public class SimpleSearchResults<T extends ScimResource>
   public SimpleSearchResults addAll(final Collection<T> resources)
       throws ScimException
   {
-    for(T resource : resources)
+    start();
+    if(parallelism == 1 || resources.size() < 2 ||
+        (countOnly && countSampleInterval > 1))
+    {
+      for(T resource : resources)
+      {
+        add(resource);
+      }
+      return this;
+    }
+
+    ParallelSearchPipeline<T, ScimResource> pipeline =
+        new ParallelSearchPipeline<T, ScimResource>(parallelism, executor,
+            new ParallelSearchPipeline.Stage<T, ScimResource>()
+            {
+              public ScimResource process(final T input) throws ScimException
+              {
+                return match(input);
+              }
+            },
+            new ParallelSearchPipeline.Sink<ScimResource>()
+            {
+              public void accept(final ScimResource output) throws IOException
+              {
+                if(output != null)
+                {
+                  try
+                  {
+                    keep(output);
+                  }
+                  catch(ScimException e)
+                  {
+                    throw new IOException(e.getMessage(), e);
+                  }
+                }
+              }
+            });
+    try
+    {
+      for(T resource : resources)
+      {
+        pipeline.submit(resource);
+      }
+      pipeline.finish();
+    }
+    catch(IOException e)
+    {
+      close();
+      if(e.getCause() instanceof ScimException)
+      {
+        throw (ScimException) e.getCause();
+      }
+      throw new ServerErrorException(e.getMessage(), null, e);
+    }
+    catch(RuntimeException e)
+    {
+      close();
+      throw e;
+    }
+    return this;
+  }
+
+  /**
+   * Indicates whether no resources are returned, such as when the count
+   * parameter is zero, so that only the total number of results is needed.
+   * Backends that can count the matching resources more efficiently than by
+   * adding them may then call {@link #setTotalResults} instead.
+   *
+   * @return {@code true} if only the total number of results is returned or
+   * {@code false} otherwise.
+   */
+  public boolean isCountOnly()
+  {
+    return countOnly;
+  }
+
+  /**
+   * Set the total number of results, for backends that count the matching
+   * resources themselves. This replaces the number of added resources that
+   * matched the filter.
+   *
+   * @param totalResults The total number of results.
+   * @return this object.
+   */
+  public SimpleSearchResults setTotalResults(final int totalResults)
+  {
+    this.reportedTotalResults = totalResults;
+    this.approximateTotalResults = false;
+    return this;
+  }
+
+  /**
+   * Set an estimate of the total number of results, for backends that can
+   * estimate the number of matching resources, such as from index
+   * statistics, much faster than they can count them. This replaces the
+   * number of added resources that matched the filter, and the list response
+   * flags the total number of results as approximate.
+   *
+   * @param totalResults The estimated total number of results.
+   * @return this object.
+   */
+  public SimpleSearchResults setApproximateTotalResults(final int totalResults)
+  {
+    this.reportedTotalResults = totalResults;
+    this.approximateTotalResults = true;
+    return this;
+  }
+
+  /**
+   * Set the interval of the added resources that are filtered when only the
+   * total number of results is returned. With an interval greater than one,
+   * only every {@code interval}th added resource is filtered and the number
+   * of matching resources is extrapolated from that sample, which the list
+   * response flags as approximate. This must be set before any resources are
+   * added. The default value of one filters every resource.
+   *
+   * @param interval The interval of the filtered resources.
+   * @return this object.
+   */
+  public SimpleSearchResults setCountSampleInterval(final int interval)
+  {
+    if(interval < 1)
     {
-      add(resource);
+      throw new IllegalArgumentException("interval must be at least 1");
     }
+    this.countSampleInterval = interval;
+    return this;
+  }
+
+  /**
+   * Set whether the added GenericScimResources are immutable. By default,
+   * they are copied when they are added so that changes made to them
+   * afterwards are not returned. Callers that never modify their resources
+   * once they are added may declare them immutable, so that they are kept
+   * without copying them: the filter is evaluated with their meta attributes
+   * resolved virtually, and only the returned resources are copied when they
+   * are written. Frozen BaseScimResources are always treated as immutable.
+   * This must be set before any resources are added.
+   *
+   * @param resourcesImmutable {@code true} if the added resources are not
+   *                           modified after they are added or {@code false}
+   *                           to copy them.
+   * @return this object.
+   */
+  public SimpleSearchResults setResourcesImmutable(
+      final boolean resourcesImmutable)
+  {
+    this.resourcesImmutable = resourcesImmutable;
+    return this;
+  }
+
+  /**
+   * Set the maximum number of resources that are filtered, trimmed or
+   * serialized at a time on the threads of a {@link ParallelSearchPipeline}.
+   * The default value of one processes every resource on the calling thread.
+   *
+   * @param parallelism The maximum number of resources processed at a time.
+   * @return this object.
+   */
+  public SimpleSearchResults setParallelism(final int parallelism)
+  {
+    ParallelSearchPipeline.checkParallelism(parallelism);
+    this.parallelism = parallelism;
+    return this;
+  }
+
+  /**
+   * Set the executor that filters, trims and serializes resources when a
+   * parallelism greater than one is set. By default, they are processed on
+   * a pool of threads shared by every search, which is bounded by
+   * {@link ParallelSearchPipeline#setMaxThreads}. Resources that the
+   * executor rejects are processed on the calling thread. The executor must
+   * not run its tasks on the thread that adds the resources or writes the
+   * response while that thread waits for them.
+   *
+   * @param executor The executor, or {@code null} to use the shared pool.
+   * @return this object.
+   */
+  public SimpleSearchResults setExecutor(final Executor executor)
+  {
+    this.executor = executor;
     return this;
   }
 
@@ -193,36 +699,186 @@ public class SimpleSearchResults<T extends ScimResource>
   public void write(final ListResponseWriter<T> os)
       throws IOException
   {
-    if(resourceComparator != null)
+    start();
+    ResponseSink sink = new ResponseSink(os);
+    selection().write(sink);
+    sink.finish();
+  }
+
+  /**
+   * Release the resources held by these search results, such as the
+   * temporary files of sorted runs. This is done automatically when the
+   * results are written and when adding resources fails, so it is only
+   * needed by callers that abort the search after adding resources without
+   * writing the results. Resources may neither be added nor written once the
+   * results are closed.
+   */
+  public void close()
+  {
+    closed = true;
+    if(selection != null)
+    {
+      selection.close();
+      selection = null;
+    }
+  }
+
+  /**
+   * Write the totalResults, startIndex and itemsPerPage fields.
+   *
+   * @param os The list response writer.
+   * @param itemsPerPage The number of resources that are returned.
+   * @throws IOException If the fields could not be written.
+   */
+  private void writeHeader(final ListResponseWriter<T> os,
+                           final int itemsPerPage)
+      throws IOException
+  {
+    os.setValidateRawResources(validateRawResources);
+    if(reportedTotalResults != null)
     {
-      Collections.sort(resources, resourceComparator);
+      os.totalResults(reportedTotalResults);
     }
-    List<ScimResource> resultsToReturn = resources;
-    if(startIndex != null)
+    else if(sampledResources < addedResources)
     {
-      if(startIndex > resources.size())
+      os.totalResults(sampledResources == 0 ? 0 : (int) Math.min(
+          Integer.MAX_VALUE, Math.round(
+              (double) totalResults * addedResources / sampledResources)));
+    }
+    else
+    {
+      os.totalResults(totalResults + skippedResults);
+    }
+    if(approximateTotalResults || sampledResources < addedResources)
+    {
+      ObjectNode extension = JsonUtils.getJsonNodeFactory().objectNode();
+      extension.put("approximate", true);
+      os.extension(COUNT_EXTENSION_SCHEMA, extension);
+    }
+    if(cursor != null)
+    {
+      // The startIndex is not returned with cursor pagination.
+      os.itemsPerPage(itemsPerPage);
+    }
+    else if(startIndex != null || count != null)
+    {
+      os.startIndex(startIndex == null ? 1 : startIndex);
+      os.itemsPerPage(itemsPerPage);
+    }
+  }
+
+  /**
+   * Writes the selected resources to the list response, trimming and
+   * serializing them on the threads of a {@link ParallelSearchPipeline} when
+   * a parallelism greater than one is set.
+   */
+  private final class ResponseSink implements ResultSelection.Sink
+  {
+    private final ListResponseWriter<T> os;
+    private ParallelSearchPipeline<ScimResource, Object> pipeline;
+
+    /**
+     * Create a new sink.
+     *
+     * @param os The list response writer.
+     */
+    ResponseSink(final ListResponseWriter<T> os)
+    {
+      this.os = os;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void start(final int itemsPerPage) throws IOException
+    {
+      writeHeader(os, itemsPerPage);
+      if(parallelism > 1 && itemsPerPage >= 2)
       {
-        resultsToReturn = Collections.emptyList();
+        pipeline = ParallelSearchPipeline.writing(os, responsePreparer,
+            parallelism, executor);
+      }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void nextCursor(final String nextCursor) throws IOException
+    {
+      os.nextCursor(nextCursor);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @SuppressWarnings("unchecked")
+    public void resource(final ScimResource resource) throws IOException
+    {
+      // Copy the resource if it is shared with the caller, so that its meta
+      // attributes may be set when it is written.
+      ScimResource returned = ResourcePreparer.unshared(resource);
+      if(pipeline == null)
+      {
+        os.resource((T) returned, responsePreparer);
       }
       else
       {
-        resultsToReturn = resources.subList(startIndex - 1, resources.size());
+        pipeline.submit(returned);
       }
     }
-    if(count != null && !resultsToReturn.isEmpty())
+
+    /**
+     * Wait for the resources submitted to the pipeline to be written.
+     *
+     * @throws IOException If a resource could not be written.
+     */
+    void finish() throws IOException
     {
-      resultsToReturn = resultsToReturn.subList(
-          0, Math.min(count, resultsToReturn.size()));
+      if(pipeline != null)
+      {
+        pipeline.finish();
+      }
     }
-    os.totalResults(resources.size());
-    if(startIndex != null || count != null)
+  }
+
+  /**
+   * Determine whether a path references the meta attribute.
+   *
+   * @param path The path.
+   * @return {@code true} if the path references the meta attribute or
+   * {@code false} otherwise.
+   */
+  static boolean referencesMeta(final Path path)
+  {
+    return path.size() > 0 &&
+        path.getElement(0).getAttribute().equalsIgnoreCase("meta");
+  }
+
+  /**
+   * Determine whether a filter references the meta attribute, which is not
+   * set on the added resources themselves.
+   *
+   * @param filter The filter.
+   * @return {@code true} if the filter references the meta attribute or
+   * {@code false} otherwise.
+   */
+  static boolean referencesMeta(final Filter filter)
+  {
+    if(filter.isCombiningFilter())
     {
-      os.startIndex(startIndex == null ? 1 : startIndex);
-      os.itemsPerPage(resultsToReturn.size());
+      for(Filter combined : filter.getCombinedFilters())
+      {
+        if(referencesMeta(combined))
+        {
+          return true;
+        }
+      }
+      return false;
     }
-    for(ScimResource resource : resultsToReturn)
+    if(filter.isNotFilter())
     {
-      os.resource((T) responsePreparer.trimRetrievedResource(resource));
+      return referencesMeta(filter.getInvertedFilter());
     }
+    return referencesMeta(filter.getAttributePath());
   }
 }
@@ -0,0 +1,538 @@
+/*
+ * Copyright 2021 Ping Identity Corporation
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPLv2 only)
+ * or the terms of the GNU Lesser General Public License (LGPLv2.1 only)
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ */
+
+package com.unboundid.scim2.server.utils;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.unboundid.scim2.common.RawScimResource;
+import com.unboundid.scim2.common.ScimResource;
+import com.unboundid.scim2.common.utils.Debug;
+import com.unboundid.scim2.common.utils.JsonUtils;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Sorted runs of search results that are written to temporary files and then
+ * merged, so that more resources may be sorted than are kept in memory. Each
+ * resource is written as JSON together with its sort value and its index in
+ * the results, so the merged order is the same as a stable sort of every
+ * resource. Merged resources are read back as {@link RawScimResource}s,
+ * with the meta.resourceType and meta.location attributes that were only
+ * resolved virtually on resources shared with the caller.
+ * <p>
+ * At most {@link #MAX_MERGE_RUNS} runs are read at the same time. When more
+ * runs were written, the oldest runs are first merged into larger runs, so
+ * that the number of open files and read buffers stays bounded.
+ * <p>
+ * The temporary files are deleted when this object is closed.
+ */
+final class SortedResourceRuns implements Closeable
+{
+  private static final int BUFFER_SIZE = 65536;
+
+  /**
+   * The maximum number of runs that are merged at the same time.
+   */
+  static final int MAX_MERGE_RUNS = 64;
+
+  private final ResourceComparator<ScimResource> resourceComparator;
+  private final Comparator<RankedResource>
+      rankedComparator;
+  private final ResourcePreparer<ScimResource> responsePreparer;
+  private final boolean keepIds;
+  private final File directory;
+  private final List<File> files = new ArrayList<File>();
+  private final List<RunReader> readers = new ArrayList<RunReader>();
+  private PriorityQueue<RunReader> mergeQueue;
+  private Iterator<RankedResource> memoryRun;
+  private RankedResource memoryHead;
+
+  /**
+   * Create a new set of sorted runs.
+   *
+   * @param resourceComparator The comparator that creates the sort keys.
+   * @param rankedComparator The comparator of the ranked resources.
+   * @param responsePreparer The preparer that resolves the meta attributes of
+   *                         the written resources.
+   * @param keepIds Whether the ids of the resources are read back for the
+   *                ranked comparator.
+   * @param directory The directory to create the temporary files in or
+   *                  {@code null} to use the default temporary directory.
+   */
+  SortedResourceRuns(
+      final ResourceComparator<ScimResource> resourceComparator,
+      final Comparator<RankedResource> rankedComparator,
+      final ResourcePreparer<ScimResource> responsePreparer,
+      final boolean keepIds,
+      final File directory)
+  {
+    this.resourceComparator = resourceComparator;
+    this.rankedComparator = rankedComparator;
+    this.responsePreparer = responsePreparer;
+    this.keepIds = keepIds;
+    this.directory = directory;
+  }
+
+  /**
+   * Write a sorted run to a new temporary file.
+   *
+   * @param run The sorted resources.
+   * @throws IOException If the run could not be written.
+   */
+  void write(final List<RankedResource> run)
+      throws IOException
+  {
+    FileChannel channel = create();
+    try
+    {
+      ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+      for(RankedResource ranked : run)
+      {
+        JsonNode value = ranked.sortKey.getValue();
+        byte[] valueBytes = value == null ? null :
+            JsonUtils.getObjectWriter().writeValueAsBytes(value);
+        byte[] resourceBytes = JsonUtils.getObjectWriter().writeValueAsBytes(
+            responsePreparer.withResourceTypeAndLocation(
+                ranked.sortKey.getResource().asGenericScimResource().
+                    getObjectNode()));
+        writeRecord(channel, buffer, ranked.index, valueBytes, resourceBytes);
+      }
+      flush(channel, buffer);
+    }
+    finally
+    {
+      channel.close();
+    }
+  }
+
+  /**
+   * Create a new temporary file for a run.
+   *
+   * @return The channel to write the run to.
+   * @throws IOException If the file could not be created.
+   */
+  private FileChannel create() throws IOException
+  {
+    File file = File.createTempFile("scim-sort-", ".run", directory);
+    files.add(file);
+    return FileChannel.open(file.toPath(), StandardOpenOption.WRITE);
+  }
+
+  /**
+   * Add a resource to the write buffer of a run.
+   *
+   * @param channel The channel to write to.
+   * @param buffer The write buffer.
+   * @param index The index of the resource in the results.
+   * @param valueBytes The JSON sort value or {@code null} if there is none.
+   * @param resourceBytes The JSON resource.
+   * @throws IOException If the buffer could not be written.
+   */
+  private static void writeRecord(final FileChannel channel,
+                                  final ByteBuffer buffer,
+                                  final int index,
+                                  final byte[] valueBytes,
+                                  final byte[] resourceBytes)
+      throws IOException
+  {
+    if(buffer.remaining() < 8)
+    {
+      flush(channel, buffer);
+    }
+    buffer.putInt(index);
+    buffer.putInt(valueBytes == null ? -1 : valueBytes.length);
+    if(valueBytes != null)
+    {
+      put(channel, buffer, valueBytes);
+    }
+    if(buffer.remaining() < 4)
+    {
+      flush(channel, buffer);
+    }
+    buffer.putInt(resourceBytes.length);
+    put(channel, buffer, resourceBytes);
+  }
+
+  /**
+   * Start merging the runs written to files with a last sorted run that is
+   * kept in memory.
+   *
+   * @param lastRun The sorted resources that were not written to a file.
+   * @throws IOException If the runs could not be read.
+   */
+  void merge(final List<RankedResource> lastRun)
+      throws IOException
+  {
+    while(files.size() > MAX_MERGE_RUNS)
+    {
+      mergeOldestRuns();
+    }
+    mergeQueue = open(files);
+    memoryRun = lastRun.iterator();
+    memoryHead = memoryRun.hasNext() ? memoryRun.next() : null;
+  }
+
+  /**
+   * Merge the {@link #MAX_MERGE_RUNS} oldest runs into a new run, copying
+   * the resources as they were written, and delete them.
+   *
+   * @throws IOException If the runs could not be read or written.
+   */
+  private void mergeOldestRuns() throws IOException
+  {
+    List<File> merged = new ArrayList<File>(files.subList(0, MAX_MERGE_RUNS));
+    PriorityQueue<RunReader> queue = open(merged);
+    try
+    {
+      FileChannel channel = create();
+      try
+      {
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        RunReader reader;
+        while((reader = queue.poll()) != null)
+        {
+          writeRecord(channel, buffer, reader.head.index, reader.valueBytes,
+              reader.resourceBytes);
+          if(reader.advance())
+          {
+            queue.add(reader);
+          }
+        }
+        flush(channel, buffer);
+      }
+      finally
+      {
+        channel.close();
+      }
+    }
+    finally
+    {
+      closeReaders();
+    }
+    files.removeAll(merged);
+    delete(merged);
+  }
+
+  /**
+   * Open readers for runs and position them at their first resource.
+   *
+   * @param runs The files of the runs.
+   * @return The queue of the readers that have a resource, ordered by their
+   * current resource.
+   * @throws IOException If the runs could not be read.
+   */
+  private PriorityQueue<RunReader> open(final List<File> runs)
+      throws IOException
+  {
+    PriorityQueue<RunReader> queue = new PriorityQueue<RunReader>(
+        runs.size() + 1,
+        new Comparator<RunReader>()
+        {
+          public int compare(final RunReader o1, final RunReader o2)
+          {
+            return rankedComparator.compare(o1.head, o2.head);
+          }
+        });
+    for(File file : runs)
+    {
+      RunReader reader = new RunReader(
+          FileChannel.open(file.toPath(), StandardOpenOption.READ));
+      readers.add(reader);
+      if(reader.advance())
+      {
+        queue.add(reader);
+      }
+    }
+    return queue;
+  }
+
+  /**
+   * Retrieve the next resource in sorted order.
+   *
+   * @return The next ranked resource or {@code null} if all resources were
+   * returned.
+   * @throws IOException If the runs could not be read.
+   */
+  RankedResource next() throws IOException
+  {
+    RunReader reader = mergeQueue.peek();
+    if(memoryHead != null && (reader == null ||
+        rankedComparator.compare(memoryHead, reader.head) < 0))
+    {
+      RankedResource ranked = memoryHead;
+      memoryHead = memoryRun.hasNext() ? memoryRun.next() : null;
+      return ranked;
+    }
+    if(reader == null)
+    {
+      return null;
+    }
+
+    mergeQueue.poll();
+    RankedResource ranked = reader.head;
+    if(reader.advance())
+    {
+      mergeQueue.add(reader);
+    }
+    return ranked;
+  }
+
+  /**
+   * Close the temporary files and delete them.
+   */
+  public void close()
+  {
+    closeReaders();
+    delete(files);
+    files.clear();
+  }
+
+  /**
+   * Close the open readers.
+   */
+  private void closeReaders()
+  {
+    for(RunReader reader : readers)
+    {
+      try
+      {
+        reader.channel.close();
+      }
+      catch(IOException e)
+      {
+        Debug.debugException(e);
+      }
+    }
+    readers.clear();
+  }
+
+  /**
+   * Delete temporary files.
+   *
+   * @param runs The files to delete.
+   */
+  private static void delete(final List<File> runs)
+  {
+    for(File file : runs)
+    {
+      if(!file.delete() && file.exists())
+      {
+        file.deleteOnExit();
+      }
+    }
+  }
+
+  /**
+   * Add bytes to the write buffer, writing it to the channel when it is full.
+   *
+   * @param channel The channel to write to.
+   * @param buffer The write buffer.
+   * @param bytes The bytes to add.
+   * @throws IOException If the buffer could not be written.
+   */
+  private static void put(final FileChannel channel, final ByteBuffer buffer,
+                          final byte[] bytes)
+      throws IOException
+  {
+    if(bytes.length > buffer.remaining())
+    {
+      flush(channel, buffer);
+      if(bytes.length > buffer.capacity())
+      {
+        ByteBuffer large = ByteBuffer.wrap(bytes);
+        while(large.hasRemaining())
+        {
+          channel.write(large);
+        }
+        return;
+      }
+    }
+    buffer.put(bytes);
+  }
+
+  /**
+   * Write the contents of the write buffer to the channel.
+   *
+   * @param channel The channel to write to.
+   * @param buffer The write buffer.
+   * @throws IOException If the buffer could not be written.
+   */
+  private static void flush(final FileChannel channel, final ByteBuffer buffer)
+      throws IOException
+  {
+    buffer.flip();
+    while(buffer.hasRemaining())
+    {
+      channel.write(buffer);
+    }
+    buffer.clear();
+  }
+
+  /**
+   * Reads the resources of a run from its temporary file.
+   */
+  private final class RunReader
+  {
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+    private RankedResource head;
+    private byte[] valueBytes;
+    private byte[] resourceBytes;
+
+    /**
+     * Create a new reader.
+     *
+     * @param channel The channel of the temporary file.
+     */
+    private RunReader(final FileChannel channel)
+    {
+      this.channel = channel;
+      this.buffer = ByteBuffer.allocate(BUFFER_SIZE);
+      this.buffer.flip();
+    }
+
+    /**
+     * Read the next resource of the run into the head.
+     *
+     * @return {@code true} if a resource was read or {@code false} if the end
+     * of the run was reached.
+     * @throws IOException If the file could not be read.
+     */
+    private boolean advance() throws IOException
+    {
+      if(!fill(4))
+      {
+        head = null;
+        valueBytes = null;
+        resourceBytes = null;
+        return false;
+      }
+      int index = buffer.getInt();
+      int valueLength = readInt();
+      valueBytes = valueLength < 0 ? null : readBytes(valueLength);
+      JsonNode value = valueBytes == null ? null :
+          JsonUtils.getObjectReader().readTree(valueBytes);
+      resourceBytes = readBytes(readInt());
+      ScimResource resource = new RawScimResource(resourceBytes);
+      head = new RankedResource(
+          resourceComparator.createSortKey(resource, value), index,
+          keepIds ? resource.getId() : null);
+      return true;
+    }
+
+    /**
+     * Read an int from the file.
+     *
+     * @return The int.
+     * @throws IOException If the file could not be read.
+     */
+    private int readInt() throws IOException
+    {
+      if(!fill(4))
+      {
+        throw new EOFException("Truncated sorted run");
+      }
+      return buffer.getInt();
+    }
+
+    /**
+     * Read bytes from the file.
+     *
+     * @param length The number of bytes to read.
+     * @return The bytes.
+     * @throws IOException If the file could not be read.
+     */
+    private byte[] readBytes(final int length) throws IOException
+    {
+      byte[] bytes = new byte[length];
+      int read = Math.min(length, buffer.remaining());
+      buffer.get(bytes, 0, read);
+      if(read < length)
+      {
+        if(length - read > buffer.capacity())
+        {
+          ByteBuffer large = ByteBuffer.wrap(bytes, read, length - read);
+          while(large.hasRemaining())
+          {
+            if(channel.read(large) < 0)
+            {
+              throw new EOFException("Truncated sorted run");
+            }
+          }
+        }
+        else
+        {
+          if(!fill(length - read))
+          {
+            throw new EOFException("Truncated sorted run");
+          }
+          buffer.get(bytes, read, length - read);
+        }
+      }
+      return bytes;
+    }
+
+    /**
+     * Read from the file until the buffer has at least the provided number of
+     * bytes.
+     *
+     * @param length The number of bytes needed.
+     * @return {@code true} if the buffer has the bytes or {@code false} if the
+     * end of the file was reached before any more bytes were read.
+     * @throws IOException If the file could not be read or ended within a
+     * value.
+     */
+    private boolean fill(final int length) throws IOException
+    {
+      if(buffer.remaining() >= length)
+      {
+        return true;
+      }
+      buffer.compact();
+      try
+      {
+        while(buffer.position() < length)
+        {
+          if(channel.read(buffer) < 0)
+          {
+            if(buffer.position() == 0)
+            {
+              return false;
+            }
+            throw new EOFException("Truncated sorted run");
+          }
+        }
+      }
+      finally
+      {
+        buffer.flip();
+      }
+      return true;
+    }
+  }
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright 2021 Ping Identity Corporation
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPLv2 only)
+ * or the terms of the GNU Lesser General Public License (LGPLv2.1 only)
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ */
+
+package com.unboundid.scim2.server.utils;
+
+import com.unboundid.scim2.common.ScimResource;
+import com.unboundid.scim2.common.exceptions.ServerErrorException;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Selects the results of a sorted search that may return more resources than
+ * are kept in memory. Every kept resource is sorted, and whenever the maximum
+ * number of resources in memory is reached, they are written as a sorted run
+ * to a temporary file with {@link SortedResourceRuns}. The runs are merged
+ * when the results are written, and deleted once they are written or when
+ * this selection is closed.
+ */
+final class SortedRunsSelection extends SortedSelection
+{
+  private final List<RankedResource> sortedResources =
+      new ArrayList<RankedResource>();
+  private final ResourcePreparer<ScimResource> responsePreparer;
+  private final int maxResourcesInMemory;
+  private final File temporaryDirectory;
+  private SortedResourceRuns sortedRuns;
+
+  /**
+   * Create a new selection of sorted results.
+   *
+   * @param firstIndex The zero-based index of the first returned result.
+   * @param lastIndex The zero-based index after the last returned result.
+   * @param resourceComparator The comparator that creates the sort keys.
+   * @param cursor The cursor pagination state or {@code null} if it is not
+   *               used.
+   * @param responsePreparer The preparer that resolves the meta attributes of
+   *                         the resources written to the runs.
+   * @param maxResourcesInMemory The maximum number of resources kept in memory
+   *                             or zero for no limit.
+   * @param temporaryDirectory The directory to create the temporary files in
+   *                           or {@code null} to use the default temporary
+   *                           directory.
+   */
+  SortedRunsSelection(
+      final int firstIndex, final long lastIndex,
+      final ResourceComparator<ScimResource> resourceComparator,
+      final CursorPagination cursor,
+      final ResourcePreparer<ScimResource> responsePreparer,
+      final int maxResourcesInMemory, final File temporaryDirectory)
+  {
+    super(firstIndex, lastIndex, resourceComparator, cursor);
+    this.responsePreparer = responsePreparer;
+    this.maxResourcesInMemory = maxResourcesInMemory;
+    this.temporaryDirectory = temporaryDirectory;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  void keep(final RankedResource ranked) throws ServerErrorException
+  {
+    sortedResources.add(ranked);
+    if(maxResourcesInMemory > 0 &&
+        sortedResources.size() >= maxResourcesInMemory)
+    {
+      spill();
+    }
+  }
+
+  /**
+   * Write the kept sorted resources to a temporary file as a sorted run.
+   *
+   * @throws ServerErrorException If the resources could not be written.
+   */
+  private void spill() throws ServerErrorException
+  {
+    Collections.sort(sortedResources, rankedComparator);
+    if(sortedRuns == null)
+    {
+      sortedRuns = new SortedResourceRuns(resourceComparator, rankedComparator,
+          responsePreparer, cursor != null, temporaryDirectory);
+    }
+    try
+    {
+      sortedRuns.write(sortedResources);
+    }
+    catch(IOException e)
+    {
+      throw new ServerErrorException("Unable to write sorted search " +
+          "results to a temporary file: " + e.getMessage(), null, e);
+    }
+    sortedResources.clear();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  void write(final Sink sink) throws IOException
+  {
+    if(sortedRuns == null)
+    {
+      writePage(sink, sortedResources);
+      return;
+    }
+
+    try
+    {
+      Collections.sort(sortedResources, rankedComparator);
+      sortedRuns.merge(sortedResources);
+      long end = Math.min(lastIndex, kept);
+      sink.start((int) Math.max(0, end - firstIndex));
+      RankedResource last = null;
+      for(long i = 0; i < end; i++)
+      {
+        RankedResource ranked = sortedRuns.next();
+        if(i < firstIndex)
+        {
+          continue;
+        }
+        last = ranked;
+        sink.resource(ranked.sortKey.getResource());
+      }
+      writeNextCursor(sink, last);
+    }
+    finally
+    {
+      close();
+    }
+  }
+
+  /**
+   * Delete the temporary files of the sorted runs.
+   */
+  @Override
+  void close()
+  {
+    if(sortedRuns != null)
+    {
+      sortedRuns.close();
+      sortedRuns = null;
+    }
+  }
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright 2021 Ping Identity Corporation
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPLv2 only)
+ * or the terms of the GNU Lesser General Public License (LGPLv2.1 only)
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ */
+
+package com.unboundid.scim2.server.utils;
+
+import com.unboundid.scim2.common.ScimResource;
+import com.unboundid.scim2.common.exceptions.ScimException;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Selects the results of a sorted search. The matching resources are ranked
+ * by their sort key and then by the order they were added, so that the
+ * results are the same as with a stable sort of every resource, or by id
+ * with cursor pagination.
+ */
+abstract class SortedSelection extends ResultSelection
+{
+  /**
+   * The comparator that creates the sort keys.
+   */
+  final ResourceComparator<ScimResource> resourceComparator;
+
+  /**
+   * The comparator of the ranked resources.
+   */
+  final Comparator<RankedResource> rankedComparator;
+
+  /**
+   * The cursor pagination state or {@code null} if it is not used.
+   */
+  final CursorPagination cursor;
+
+  /**
+   * The number of kept resources, which excludes those returned with the
+   * previous pages of a cursor.
+   */
+  int kept;
+
+  /**
+   * Create a new selection of sorted results.
+   *
+   * @param firstIndex The zero-based index of the first returned result.
+   * @param lastIndex The zero-based index after the last returned result.
+   * @param resourceComparator The comparator that creates the sort keys.
+   * @param cursor The cursor pagination state or {@code null} if it is not
+   *               used.
+   */
+  SortedSelection(final int firstIndex, final long lastIndex,
+                  final ResourceComparator<ScimResource> resourceComparator,
+                  final CursorPagination cursor)
+  {
+    super(firstIndex, lastIndex);
+    this.resourceComparator = resourceComparator;
+    this.cursor = cursor;
+    if(cursor != null)
+    {
+      // Ties are broken by id so that every page is ordered the same way.
+      this.rankedComparator = CursorPagination.comparator(resourceComparator);
+    }
+    else
+    {
+      // Ties are broken by the order the resources were added.
+      this.rankedComparator = new Comparator<RankedResource>()
+      {
+        public int compare(final RankedResource o1, final RankedResource o2)
+        {
+          int result =
+              resourceComparator.compareSortKeys(o1.sortKey, o2.sortKey);
+          if(result == 0)
+          {
+            result = o1.index < o2.index ? -1 : o1.index == o2.index ? 0 : 1;
+          }
+          return result;
+        }
+      };
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  final void keep(final ScimResource resource, final int index)
+      throws ScimException
+  {
+    RankedResource ranked;
+    if(cursor == null)
+    {
+      ranked = new RankedResource(resourceComparator.getSortKey(resource),
+          index, null);
+    }
+    else
+    {
+      ranked = CursorPagination.rank(resourceComparator, resource, index);
+      if(!cursor.follows(ranked, rankedComparator))
+      {
+        // The resource was returned with a previous page.
+        return;
+      }
+    }
+    kept++;
+    keep(ranked);
+  }
+
+  /**
+   * Keep a ranked resource if it may be returned.
+   *
+   * @param ranked The ranked resource.
+   * @throws ScimException If the resource could not be kept.
+   */
+  abstract void keep(RankedResource ranked) throws ScimException;
+
+  /**
+   * Sort resources kept in memory and write those on the requested page.
+   *
+   * @param sink The sink that writes the resources.
+   * @param ranked The kept resources, which are sorted in place.
+   * @throws IOException If the resources could not be written.
+   */
+  void writePage(final Sink sink, final List<RankedResource> ranked)
+      throws IOException
+  {
+    Collections.sort(ranked, rankedComparator);
+    int end = (int) Math.min(lastIndex, ranked.size());
+    sink.start(Math.max(0, end - firstIndex));
+    if(end > firstIndex)
+    {
+      writeNextCursor(sink, ranked.get(end - 1));
+    }
+    for(int i = firstIndex; i < end; i++)
+    {
+      sink.resource(ranked.get(i).sortKey.getResource());
+    }
+  }
+
+  /**
+   * Write the cursor of the next page if cursor pagination is used and more
+   * results follow the last returned resource.
+   *
+   * @param sink The sink that writes the cursor.
+   * @param last The last returned resource or {@code null} if none are
+   *             returned.
+   * @throws IOException If the cursor could not be written.
+   */
+  void writeNextCursor(final Sink sink, final RankedResource last)
+      throws IOException
+  {
+    if(cursor != null && last != null && kept > lastIndex)
+    {
+      sink.nextCursor(cursor.next(last));
+    }
+  }
+}
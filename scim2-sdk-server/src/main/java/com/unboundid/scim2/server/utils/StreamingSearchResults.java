@@ -0,0 +1,445 @@
+/*
+ * Copyright 2021 Ping Identity Corporation
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPLv2 only)
+ * or the terms of the GNU Lesser General Public License (LGPLv2.1 only)
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ */
+
+package com.unboundid.scim2.server.utils;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.unboundid.scim2.common.GenericScimResource;
+import com.unboundid.scim2.common.RawScimResource;
+import com.unboundid.scim2.common.ScimResource;
+import com.unboundid.scim2.common.exceptions.BadRequestException;
+import com.unboundid.scim2.common.exceptions.NotImplementedException;
+import com.unboundid.scim2.common.exceptions.ScimException;
+import com.unboundid.scim2.common.filters.Filter;
+import com.unboundid.scim2.server.ListResponseStreamingOutput;
+import com.unboundid.scim2.server.ListResponseWriter;
+
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.core.UriInfo;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.concurrent.Executor;
+
+import static com.unboundid.scim2.common.utils.ApiConstants.*;
+
+/**
+ * A utility ListResponseStreamingOutput that filters and paginates search
+ * results while they are produced, for unsorted searches whose results should
+ * not all be kept in memory. Resources are pulled from an {@link Iterator} or
+ * pushed by a {@link ResourceSource} only when the response is written, and
+ * each matching resource on the requested page is written as soon as it is
+ * produced. The totalResults and itemsPerPage fields are written after the
+ * Resources array.
+ * <p>
+ * Sorting and cursor pagination are not supported since every resource would
+ * have to be kept until the last one is produced. Use
+ * {@link SimpleSearchResults} for searches with the sortBy or cursor
+ * parameters.
+ * <p>
+ * As with {@link SimpleSearchResults}, {@link RawScimResource} results are
+ * written without parsing them when the search has no filter and the returned
+ * attributes are not trimmed, and added GenericScimResources are only copied
+ * if they are written.
+ * <p>
+ * With a parallelism greater than one set with {@link #setParallelism}, the
+ * resources are filtered on the threads of a {@link ParallelSearchPipeline}
+ * and written in the order they were produced. When the search is not
+ * paginated, the resources are also trimmed and serialized on those threads.
+ */
+public class StreamingSearchResults<T extends ScimResource>
+    extends ListResponseStreamingOutput<T>
+{
+  /**
+   * A source of resources that pushes them to a handler.
+   *
+   * @param <T> The type of resources.
+   */
+  public interface ResourceSource<T extends ScimResource>
+  {
+    /**
+     * Produce the resources of the search.
+     *
+     * @param handler The handler to pass each resource to.
+     * @throws IOException If an error occurs while producing or writing the
+     * resources.
+     */
+    void produce(ResourceHandler<T> handler) throws IOException;
+  }
+
+  /**
+   * Handles the resources produced by a {@link ResourceSource}.
+   *
+   * @param <T> The type of resources.
+   */
+  public interface ResourceHandler<T extends ScimResource>
+  {
+    /**
+     * Filter a resource and write it if it is on the requested page.
+     *
+     * @param resource The resource.
+     * @throws IOException If an error occurs while filtering or writing the
+     * resource.
+     */
+    void resource(T resource) throws IOException;
+  }
+
+  private final ResourceSource<T> source;
+  private final Filter filter;
+  private final Integer startIndex;
+  private final Integer count;
+  private final SchemaAwareFilterEvaluator filterEvaluator;
+  private final boolean filterReferencesMeta;
+  private final ResourcePreparer<ScimResource> responsePreparer;
+  private boolean validateRawResources;
+  private int parallelism = 1;
+  private Executor executor;
+
+  /**
+   * Create a new StreamingSearchResults that pulls the resources of a search
+   * operation from an iterator.
+   *
+   * @param resourceType The resource type definition of result resources.
+   * @param uriInfo The UriInfo from the search operation.
+   * @param resources The iterator of the resources to filter.
+   * @throws ScimException if the filter or paths in the search operation
+   * is invalid or the search is sorted.
+   */
+  public StreamingSearchResults(final ResourceTypeDefinition resourceType,
+                                final UriInfo uriInfo,
+                                final Iterator<? extends T> resources)
+      throws ScimException
+  {
+    this(resourceType, uriInfo, new ResourceSource<T>()
+    {
+      public void produce(final ResourceHandler<T> handler)
+          throws IOException
+      {
+        while(resources.hasNext())
+        {
+          handler.resource(resources.next());
+        }
+      }
+    });
+  }
+
+  /**
+   * Create a new StreamingSearchResults that receives the resources of a
+   * search operation from a source.
+   *
+   * @param resourceType The resource type definition of result resources.
+   * @param uriInfo The UriInfo from the search operation.
+   * @param source The source of the resources to filter.
+   * @throws ScimException if the filter or paths in the search operation
+   * is invalid or the search is sorted.
+   */
+  public StreamingSearchResults(final ResourceTypeDefinition resourceType,
+                                final UriInfo uriInfo,
+                                final ResourceSource<T> source)
+      throws ScimException
+  {
+    this.source = source;
+
+    MultivaluedMap<String, String> queryParams = uriInfo.getQueryParameters();
+    String startIndexString = queryParams.getFirst(
+        QUERY_PARAMETER_PAGE_START_INDEX);
+    String countString = queryParams.getFirst(QUERY_PARAMETER_PAGE_SIZE);
+
+    if(queryParams.getFirst(QUERY_PARAMETER_SORT_BY) != null)
+    {
+      throw new NotImplementedException(
+          "Sorting is not supported for this search");
+    }
+    if(queryParams.getFirst(QUERY_PARAMETER_PAGE_CURSOR) != null)
+    {
+      throw new NotImplementedException(
+          "Cursor pagination is not supported for this search");
+    }
+
+    SearchPlan plan = SearchPlan.get(resourceType, uriInfo);
+    this.filterEvaluator = plan.getFilterEvaluator();
+    this.responsePreparer = plan.createResourcePreparer(uriInfo);
+    this.filter = plan.getFilter();
+    this.filterReferencesMeta = plan.filterReferencesMeta();
+
+    if(startIndexString != null)
+    {
+      int i = parseInt(startIndexString, QUERY_PARAMETER_PAGE_START_INDEX);
+      // 3.4.2.4: A value less than 1 SHALL be interpreted as 1.
+      startIndex = i < 1 ? 1 : i;
+    }
+    else
+    {
+      startIndex = null;
+    }
+
+    if(countString != null)
+    {
+      int i = parseInt(countString, QUERY_PARAMETER_PAGE_SIZE);
+      // 3.4.2.4: A negative value SHALL be interpreted as 0.
+      count = i < 0 ? 0 : i;
+    }
+    else
+    {
+      count = null;
+    }
+  }
+
+  /**
+   * Set whether raw resources are checked to be well-formed JSON objects
+   * before they are written without parsing them. This is disabled by
+   * default.
+   *
+   * @param validateRawResources {@code true} to check raw resources or
+   *                             {@code false} to write them as is.
+   * @return this object.
+   */
+  public StreamingSearchResults<T> setValidateRawResources(
+      final boolean validateRawResources)
+  {
+    this.validateRawResources = validateRawResources;
+    return this;
+  }
+
+  /**
+   * Set the maximum number of resources that are filtered, trimmed or
+   * serialized at a time on the threads of a {@link ParallelSearchPipeline}.
+   * The default value of one processes every resource on the thread that
+   * writes the response.
+   *
+   * @param parallelism The maximum number of resources processed at a time.
+   * @return this object.
+   */
+  public StreamingSearchResults<T> setParallelism(final int parallelism)
+  {
+    ParallelSearchPipeline.checkParallelism(parallelism);
+    this.parallelism = parallelism;
+    return this;
+  }
+
+  /**
+   * Set the executor that filters, trims and serializes resources when a
+   * parallelism greater than one is set. By default, they are processed on
+   * a pool of threads shared by every search, which is bounded by
+   * {@link ParallelSearchPipeline#setMaxThreads}. Resources that the
+   * executor rejects are processed on the calling thread. The executor must
+   * not run its tasks on the thread that adds the resources or writes the
+   * response while that thread waits for them.
+   *
+   * @param executor The executor, or {@code null} to use the shared pool.
+   * @return this object.
+   */
+  public StreamingSearchResults<T> setExecutor(final Executor executor)
+  {
+    this.executor = executor;
+    return this;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void write(final ListResponseWriter<T> os) throws IOException
+  {
+    if(parallelism > 1)
+    {
+      writeParallel(os);
+      return;
+    }
+
+    final long firstIndex = startIndex == null ? 0 : startIndex - 1;
+    final long lastIndex =
+        count == null ? Long.MAX_VALUE : firstIndex + count;
+    final int[] totalResults = new int[1];
+
+    os.setValidateRawResources(validateRawResources);
+    if(startIndex != null || count != null)
+    {
+      os.startIndex(startIndex == null ? 1 : startIndex);
+    }
+    source.produce(new ResourceHandler<T>()
+    {
+      @SuppressWarnings("unchecked")
+      public void resource(final T resource) throws IOException
+      {
+        ScimResource matched = match(resource);
+        if(matched != null)
+        {
+          int index = totalResults[0]++;
+          if(index >= firstIndex && index < lastIndex)
+          {
+            os.resource((T) ResourcePreparer.unshared(matched),
+                responsePreparer);
+          }
+        }
+      }
+    });
+
+    os.totalResults(totalResults[0]);
+    if(startIndex != null || count != null)
+    {
+      os.itemsPerPage((int) Math.max(0,
+          Math.min(totalResults[0], lastIndex) - firstIndex));
+    }
+  }
+
+  /**
+   * Write the results, filtering the resources on the threads of a
+   * {@link ParallelSearchPipeline}.
+   *
+   * @param os The list response writer.
+   * @throws IOException If an error occurs while writing the results.
+   */
+  private void writeParallel(final ListResponseWriter<T> os)
+      throws IOException
+  {
+    final long firstIndex = startIndex == null ? 0 : startIndex - 1;
+    final long lastIndex =
+        count == null ? Long.MAX_VALUE : firstIndex + count;
+    final int[] totalResults = new int[1];
+    // Only an unpaginated search knows that every match is written, so
+    // paginated matches are trimmed and serialized by the writing thread.
+    final boolean serialize = startIndex == null && count == null;
+
+    os.setValidateRawResources(validateRawResources);
+    if(!serialize)
+    {
+      os.startIndex(startIndex == null ? 1 : startIndex);
+    }
+    final ParallelSearchPipeline<T, Object> pipeline =
+        new ParallelSearchPipeline<T, Object>(parallelism, executor,
+            new ParallelSearchPipeline.Stage<T, Object>()
+            {
+              public Object process(final T input) throws IOException
+              {
+                ScimResource matched = match(input);
+                if(matched == null || !serialize)
+                {
+                  return matched;
+                }
+                return ParallelSearchPipeline.serialize(
+                    ResourcePreparer.unshared(matched), responsePreparer);
+              }
+            },
+            new ParallelSearchPipeline.Sink<Object>()
+            {
+              public void accept(final Object output) throws IOException
+              {
+                if(output != null)
+                {
+                  int index = totalResults[0]++;
+                  if(index >= firstIndex && index < lastIndex)
+                  {
+                    ParallelSearchPipeline.write(os,
+                        output instanceof ScimResource ?
+                            ResourcePreparer.unshared((ScimResource) output) :
+                            output,
+                        responsePreparer);
+                  }
+                }
+              }
+            });
+    source.produce(new ResourceHandler<T>()
+    {
+      public void resource(final T resource) throws IOException
+      {
+        pipeline.submit(resource);
+      }
+    });
+    pipeline.finish();
+
+    os.totalResults(totalResults[0]);
+    if(!serialize)
+    {
+      os.itemsPerPage((int) Math.max(0,
+          Math.min(totalResults[0], lastIndex) - firstIndex));
+    }
+  }
+
+  /**
+   * Set the meta attributes of a resource and evaluate the filter.
+   *
+   * @param resource The resource.
+   * @return The resource to write if it matches the filter or {@code null}
+   * otherwise.
+   * @throws IOException If the meta attributes could not be set or the filter
+   * could not be evaluated.
+   */
+  private ScimResource match(final T resource) throws IOException
+  {
+    if(resource instanceof RawScimResource && filter == null &&
+        responsePreparer.returnsAllRetrievedAttributes())
+    {
+      // Write the raw resource without parsing it.
+      return resource;
+    }
+
+    GenericScimResource genericResource = resource.asGenericScimResource();
+    try
+    {
+      if(ResourcePreparer.isShared(resource))
+      {
+        // Evaluate the filter with the meta attributes resolved on a shallow
+        // overlay, and only copy the resource if it is written.
+        ObjectNode objectNode = genericResource.getObjectNode();
+        if(filter == null || filter.visit(filterEvaluator,
+            filterReferencesMeta ?
+                responsePreparer.withResourceTypeAndLocation(objectNode) :
+                objectNode))
+        {
+          return genericResource;
+        }
+        return null;
+      }
+
+      // Set meta attributes so they can be used in the following filter eval
+      responsePreparer.setResourceTypeAndLocation(genericResource);
+
+      if(filter == null || filter.visit(filterEvaluator,
+          genericResource.getObjectNode()))
+      {
+        return genericResource;
+      }
+      return null;
+    }
+    catch(ScimException e)
+    {
+      throw new IOException(e.getMessage(), e);
+    }
+  }
+
+  /**
+   * Parse an integer query parameter.
+   *
+   * @param value The parameter value.
+   * @param name The parameter name.
+   * @return The integer value.
+   * @throws BadRequestException If the value is not an integer.
+   */
+  private static int parseInt(final String value, final String name)
+      throws BadRequestException
+  {
+    try
+    {
+      return Integer.parseInt(value);
+    }
+    catch(NumberFormatException e)
+    {
+      throw BadRequestException.invalidValue("'" + value +
+          "' is not a valid value for the " + name + " parameter");
+    }
+  }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2021 Ping Identity Corporation
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPLv2 only)
+ * or the terms of the GNU Lesser General Public License (LGPLv2.1 only)
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ */
+
+package com.unboundid.scim2.server.utils;
+
+import com.unboundid.scim2.common.ScimResource;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.PriorityQueue;
+
+/**
+ * Selects the results of a sorted and paginated search by keeping the best
+ * {@code startIndex + count - 1} resources in a bounded heap, which are
+ * sorted when the results are written.
+ */
+final class TopResourcesSelection extends SortedSelection
+{
+  private final PriorityQueue<RankedResource> topResources;
+
+  /**
+   * Create a new selection of the top sorted results.
+   *
+   * @param firstIndex The zero-based index of the first returned result.
+   * @param lastIndex The zero-based index after the last returned result,
+   *                  which is the number of kept resources.
+   * @param resourceComparator The comparator that creates the sort keys.
+   * @param cursor The cursor pagination state or {@code null} if it is not
+   *               used.
+   */
+  TopResourcesSelection(
+      final int firstIndex, final long lastIndex,
+      final ResourceComparator<ScimResource> resourceComparator,
+      final CursorPagination cursor)
+  {
+    super(firstIndex, lastIndex, resourceComparator, cursor);
+    // The head of the heap is the worst of the kept resources.
+    this.topResources = new PriorityQueue<RankedResource>(
+        (int) Math.max(1, Math.min(lastIndex, 1024)),
+        Collections.reverseOrder(rankedComparator));
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  void keep(final RankedResource ranked)
+  {
+    if(topResources.size() < lastIndex)
+    {
+      topResources.add(ranked);
+    }
+    else if(rankedComparator.compare(ranked, topResources.peek()) < 0)
+    {
+      // Resources added later rank after the kept ones they are equal to.
+      topResources.poll();
+      topResources.add(ranked);
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  void write(final Sink sink) throws IOException
+  {
+    writePage(sink, new ArrayList<RankedResource>(topResources));
+  }
+}
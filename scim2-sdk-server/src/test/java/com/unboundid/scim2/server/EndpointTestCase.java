@@ -18,14 +18,17 @@
 package com.unboundid.scim2.server;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.TextNode;
 import com.fasterxml.jackson.jaxrs.cfg.JaxRSFeature;
 import com.fasterxml.jackson.jaxrs.json.JacksonJsonProvider;
 import com.google.common.collect.Lists;
+import com.unboundid.scim2.client.ScimDataFormatProvider;
 import com.unboundid.scim2.client.ScimInterface;
 import com.unboundid.scim2.client.ScimService;
 import com.unboundid.scim2.client.ScimServiceException;
 import com.unboundid.scim2.common.GenericScimResource;
+import com.unboundid.scim2.common.LazyGenericScimResource;
 import com.unboundid.scim2.common.Path;
 import com.unboundid.scim2.common.ScimResource;
 import com.unboundid.scim2.common.exceptions.BadRequestException;
@@ -50,9 +53,11 @@ import com.unboundid.scim2.common.types.UserResource;
 import com.unboundid.scim2.common.utils.ApiConstants;
 import com.unboundid.scim2.common.utils.JsonUtils;
 import com.unboundid.scim2.common.utils.SchemaUtils;
+import com.unboundid.scim2.common.utils.ScimDataFormat;
 import com.unboundid.scim2.server.providers.DefaultContentTypeFilter;
 import com.unboundid.scim2.server.providers.DotSearchFilter;
 import com.unboundid.scim2.server.providers.JsonProcessingExceptionMapper;
+import com.unboundid.scim2.server.providers.ListResponseDataFormatWriter;
 import com.unboundid.scim2.server.providers.RuntimeExceptionMapper;
 import com.unboundid.scim2.server.providers.ScimExceptionMapper;
 import com.unboundid.scim2.server.resources.ResourceTypesEndpoint;
@@ -87,6 +92,7 @@ import java.util.Set;
 
 import static com.unboundid.scim2.common.utils.ApiConstants.MEDIA_TYPE_SCIM;
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
 import static org.testng.Assert.assertNotNull;
 import static org.testng.Assert.assertNull;
 import static org.testng.Assert.assertTrue;
@@ -120,6 +126,8 @@ public class EndpointTestCase extends JerseyTestNg.ContainerPerClassTest
         new JacksonJsonProvider(JsonUtils.createObjectMapper());
     provider.configure(JaxRSFeature.ALLOW_EMPTY_INPUT, false);
     config.register(provider);
+    config.register(ScimDataFormatProvider.class);
+    config.register(ListResponseDataFormatWriter.class);
 
     // Filters
     config.register(DotSearchFilter.class);
@@ -396,6 +404,76 @@ public class EndpointTestCase extends JerseyTestNg.ContainerPerClassTest
     service.retrieve(r);
   }
 
+  /**
+   * Test searching with cursor pagination using GET and POST.
+   *
+   * @throws ScimException if an error occurs.
+   */
+  @Test
+  public void testGetUsersWithCursor() throws ScimException
+  {
+    final ScimService service = new ScimService(target());
+    final ListResponse<UserResource> returnedUsers =
+        service.searchRequest("Users").
+            filter("meta.resourceType eq \"User\"").
+            cursor("", 1).
+            invoke(UserResource.class);
+
+    assertEquals(returnedUsers.getTotalResults(), 1);
+    assertNull(returnedUsers.getStartIndex());
+    assertEquals(returnedUsers.getItemsPerPage(), new Integer(1));
+    assertNull(returnedUsers.getNextCursor());
+
+    final ListResponse<UserResource> postedUsers =
+        service.searchRequest("Users").
+            filter("meta.resourceType eq \"User\"").
+            cursor("", 1).
+            invokePost(UserResource.class);
+    assertEquals(postedUsers, returnedUsers);
+
+    try
+    {
+      service.searchRequest("Users").cursor("invalid", 1).
+          invoke(UserResource.class);
+      fail("Expected BadRequestException");
+    }
+    catch(BadRequestException e)
+    {
+      assertEquals(e.getScimError().getScimType(),
+          BadRequestException.INVALID_CURSOR);
+    }
+  }
+
+  /**
+   * Test reading search results as lazily parsed resources.
+   *
+   * @throws Exception if an error occurs.
+   */
+  @Test
+  public void testGetUsersLazily() throws Exception
+  {
+    final ScimService service = new ScimService(target());
+    final ListResponse<LazyGenericScimResource> returnedUsers =
+        service.searchRequest("Users").
+            filter("meta.resourceType eq \"User\"").
+            invoke(LazyGenericScimResource.class);
+
+    assertEquals(returnedUsers.getTotalResults(), 1);
+    final LazyGenericScimResource r = returnedUsers.getResources().get(0);
+    assertEquals(r.getId(), "123");
+    assertEquals(r.getValue("userName").textValue(), "test");
+    assertEquals(r.getMeta().getResourceType(), "User");
+    assertFalse(r.isModified());
+
+    final ListResponse<UserResource> expectedUsers =
+        service.searchRequest("Users").
+            filter("meta.resourceType eq \"User\"").
+            invoke(UserResource.class);
+    final JsonNode expected =
+        JsonUtils.valueToNode(expectedUsers.getResources().get(0));
+    assertEquals(JsonUtils.<JsonNode>valueToNode(r), expected);
+  }
+
   /**
    * Test an resource endpoint implementation registered as a class.
    *
@@ -468,6 +546,54 @@ public class EndpointTestCase extends JerseyTestNg.ContainerPerClassTest
     response.close();
   }
 
+  /**
+   * Test searching for and retrieving resources using binary data formats.
+   *
+   * @throws Exception if an error occurs.
+   */
+  @Test
+  public void testBinaryDataFormats() throws Exception
+  {
+    final ScimService service = new ScimService(target());
+    for (ScimDataFormat dataFormat :
+        new ScimDataFormat[] { ScimDataFormat.CBOR, ScimDataFormat.SMILE })
+    {
+      ListResponse<UserResource> returnedUsers =
+          service.searchRequest("Users").
+              filter("meta.resourceType eq \"User\"").
+              accept(dataFormat.getMediaType()).
+              invoke(UserResource.class);
+      assertEquals(returnedUsers.getTotalResults(), 1);
+      assertEquals(returnedUsers.getResources().get(0).getUserName(), "test");
+
+      returnedUsers = service.searchRequest("Users").
+          filter("meta.resourceType eq \"User\"").
+          accept(dataFormat.getMediaType()).
+          contentType(dataFormat.getMediaType()).
+          invokePost(UserResource.class);
+      assertEquals(returnedUsers.getTotalResults(), 1);
+      assertEquals(returnedUsers.getResources().get(0).getUserName(), "test");
+
+      UserResource user = service.retrieveRequest("Users", "123").
+          accept(dataFormat.getMediaType()).invoke(UserResource.class);
+      assertEquals(user.getDisplayName(), "UserDisplayName");
+
+      // The binary encoding of the same resource is smaller.
+      Response response = target().path("Users").path("123").
+          request(dataFormat.getMediaType()).get();
+      assertEquals(response.getStatus(), 200);
+      assertEquals(response.getMediaType().toString(),
+          dataFormat.getMediaType());
+      byte[] binary = response.readEntity(byte[].class);
+      response = target().path("Users").path("123").
+          request(MEDIA_TYPE_SCIM).get();
+      byte[] json = response.readEntity(byte[].class);
+      assertTrue(binary.length < json.length);
+      assertEquals(JsonUtils.getObjectReader(dataFormat).readTree(binary),
+          JsonUtils.getObjectReader().readTree(json));
+    }
+  }
+
   /**
    * Test the authentication subject alias filter.
    *
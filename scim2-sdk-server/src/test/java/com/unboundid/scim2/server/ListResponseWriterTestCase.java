@@ -0,0 +1,361 @@
+/*
+ * Copyright 2021 Ping Identity Corporation
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPLv2 only)
+ * or the terms of the GNU Lesser General Public License (LGPLv2.1 only)
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ */
+
+package com.unboundid.scim2.server;
+
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.unboundid.scim2.common.GenericScimResource;
+import com.unboundid.scim2.common.RawScimResource;
+import com.unboundid.scim2.common.ScimResource;
+import com.unboundid.scim2.common.types.Name;
+import com.unboundid.scim2.common.types.UserResource;
+import com.unboundid.scim2.common.utils.JsonUtils;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+/**
+ * Test coverage for the {@code ListResponseWriter} class.
+ */
+public class ListResponseWriterTestCase
+{
+  /**
+   * An output stream that counts the number of times it is flushed.
+   */
+  private static final class CountingOutputStream
+      extends ByteArrayOutputStream
+  {
+    private int flushes;
+    private boolean closed;
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void flush()
+    {
+      flushes++;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close()
+    {
+      closed = true;
+    }
+  }
+
+  /**
+   * A list response that writes a number of users, alternating between
+   * UserResource and GenericScimResource instances.
+   */
+  private static final class UsersStreamingOutput
+      extends ListResponseStreamingOutput<ScimResource>
+  {
+    private final int resourceCount;
+    private final int flushResourceCount;
+    private final long flushIntervalMillis;
+
+    /**
+     * Create a new list response.
+     *
+     * @param resourceCount The number of users to write.
+     * @param flushResourceCount The flush policy resource count.
+     * @param flushIntervalMillis The flush policy interval.
+     */
+    UsersStreamingOutput(final int resourceCount,
+                         final int flushResourceCount,
+                         final long flushIntervalMillis)
+    {
+      this.resourceCount = resourceCount;
+      this.flushResourceCount = flushResourceCount;
+      this.flushIntervalMillis = flushIntervalMillis;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void write(final ListResponseWriter<ScimResource> os)
+        throws IOException
+    {
+      if(flushResourceCount >= 0)
+      {
+        os.setFlushPolicy(flushResourceCount, flushIntervalMillis);
+      }
+      for(int i = 0; i < resourceCount; i++)
+      {
+        UserResource user = new UserResource().setUserName("user" + i);
+        user.setName(new Name().setFamilyName("Family" + i));
+        user.setId(String.valueOf(i));
+        if(i % 2 == 0)
+        {
+          os.resource(user);
+        }
+        else
+        {
+          os.resource(user.asGenericScimResource());
+        }
+      }
+    }
+  }
+
+  /**
+   * Tests the content of a written list response.
+   *
+   * @throws Exception If an error occurs.
+   */
+  @Test
+  public void testContent() throws Exception
+  {
+    CountingOutputStream outputStream = new CountingOutputStream();
+    new UsersStreamingOutput(5, -1, 0).write(outputStream);
+    assertTrue(outputStream.closed);
+
+    ObjectNode response = JsonUtils.getObjectReader().forType(
+        ObjectNode.class).readValue(outputStream.toByteArray());
+    assertEquals(response.path("totalResults").intValue(), 5);
+    ArrayNode resources = (ArrayNode) response.path("Resources");
+    assertEquals(resources.size(), 5);
+    for(int i = 0; i < 5; i++)
+    {
+      GenericScimResource resource =
+          new GenericScimResource((ObjectNode) resources.get(i));
+      assertEquals(resource.getId(), String.valueOf(i));
+      assertEquals(resource.getObjectNode().path("userName").textValue(),
+          "user" + i);
+      assertEquals(resource.getObjectNode().path("name").
+          path("familyName").textValue(), "Family" + i);
+    }
+  }
+
+  /**
+   * Tests the flush policies.
+   *
+   * @throws Exception If an error occurs.
+   */
+  @Test
+  public void testFlushPolicy() throws Exception
+  {
+    // By default, the output is flushed after every resource and once at the
+    // end of the response.
+    CountingOutputStream outputStream = new CountingOutputStream();
+    new UsersStreamingOutput(10, -1, 0).write(outputStream);
+    assertEquals(outputStream.flushes, 11);
+
+    outputStream = new CountingOutputStream();
+    new UsersStreamingOutput(10, 4, 0).write(outputStream);
+    assertEquals(outputStream.flushes, 3);
+
+    outputStream = new CountingOutputStream();
+    new UsersStreamingOutput(10, 0, 0).write(outputStream);
+    assertEquals(outputStream.flushes, 1);
+
+    // A long interval is never reached while writing the resources.
+    outputStream = new CountingOutputStream();
+    new UsersStreamingOutput(10, 0, 60000).write(outputStream);
+    assertEquals(outputStream.flushes, 1);
+
+    // The output is flushed after the first resource once the interval has
+    // elapsed.
+    outputStream = new CountingOutputStream();
+    final CountingOutputStream slowOutputStream = outputStream;
+    new ListResponseStreamingOutput<ScimResource>()
+    {
+      @Override
+      public void write(final ListResponseWriter<ScimResource> os)
+          throws IOException
+      {
+        os.setFlushPolicy(0, 1);
+        try
+        {
+          Thread.sleep(5);
+        }
+        catch(InterruptedException e)
+        {
+          throw new IOException(e);
+        }
+        os.resource(new UserResource().setUserName("user"));
+        assertEquals(slowOutputStream.flushes, 1);
+        os.resource(new UserResource().setUserName("user"));
+      }
+    }.write(outputStream);
+    assertTrue(outputStream.flushes >= 2);
+
+    try
+    {
+      new ListResponseWriter<ScimResource>(new CountingOutputStream()).
+          setFlushPolicy(-1, 0);
+      fail("Expected IllegalArgumentException");
+    }
+    catch(IllegalArgumentException e)
+    {
+      // Expected.
+    }
+  }
+
+  /**
+   * Tests that a failed response is not completed.
+   *
+   * @throws Exception If an error occurs.
+   */
+  @Test
+  public void testAbortedResponse() throws Exception
+  {
+    CountingOutputStream outputStream = new CountingOutputStream();
+    try
+    {
+      new ListResponseStreamingOutput<ScimResource>()
+      {
+        @Override
+        public void write(final ListResponseWriter<ScimResource> os)
+            throws IOException
+        {
+          os.setFlushPolicy(0, 0);
+          os.resource(new UserResource().setUserName("user"));
+          throw new IOException("failed");
+        }
+      }.write(outputStream);
+      fail("Expected IOException");
+    }
+    catch(IOException e)
+    {
+      assertEquals(e.getMessage(), "failed");
+    }
+
+    // The partial response was written but not completed or closed.
+    String written = outputStream.toString("UTF-8");
+    assertTrue(written.endsWith("\"userName\":\"user\"}"), written);
+    assertFalse(outputStream.closed);
+  }
+
+  /**
+   * Tests that the URNs of extensions are added to the schemas array.
+   *
+   * @throws Exception If an error occurs.
+   */
+  @Test
+  public void testExtensions() throws Exception
+  {
+    final ObjectNode extension = JsonUtils.getJsonNodeFactory().objectNode();
+    extension.put("approximate", true);
+    CountingOutputStream outputStream = new CountingOutputStream();
+    new ListResponseStreamingOutput<ScimResource>()
+    {
+      @Override
+      public void write(final ListResponseWriter<ScimResource> os)
+          throws IOException
+      {
+        os.totalResults(1000);
+        os.extension("urn:ext:count", extension);
+        os.resource(new UserResource().setUserName("user"));
+        try
+        {
+          os.extension("urn:ext:late", extension);
+          fail("Expected IllegalStateException");
+        }
+        catch(IllegalStateException e)
+        {
+          // Expected.
+        }
+      }
+    }.write(outputStream);
+
+    ObjectNode response = JsonUtils.getObjectReader().forType(
+        ObjectNode.class).readValue(outputStream.toByteArray());
+    assertEquals(response.fieldNames().next(), "schemas");
+    assertEquals(response.path("schemas").size(), 2);
+    assertEquals(response.path("schemas").path(0).textValue(),
+        "urn:ietf:params:scim:api:messages:2.0:ListResponse");
+    assertEquals(response.path("schemas").path(1).textValue(),
+        "urn:ext:count");
+    assertEquals(response.path("urn:ext:count"), extension);
+    assertEquals(response.path("totalResults").intValue(), 1000);
+    assertEquals(response.path("Resources").size(), 1);
+    assertFalse(response.has("urn:ext:late"));
+  }
+
+  /**
+   * Tests writing raw resources.
+   *
+   * @throws Exception If an error occurs.
+   */
+  @Test
+  public void testRawResources() throws Exception
+  {
+    final String raw = "{ \"id\" : \"raw\" }";
+    final byte[] bytes = raw.getBytes(StandardCharsets.UTF_8);
+    CountingOutputStream outputStream = new CountingOutputStream();
+    new ListResponseStreamingOutput<ScimResource>()
+    {
+      @Override
+      public void write(final ListResponseWriter<ScimResource> os)
+          throws IOException
+      {
+        os.setValidateRawResources(true);
+        os.rawResource(bytes);
+        os.resource(new UserResource().setUserName("user"));
+        byte[] padded = new byte[bytes.length + 2];
+        System.arraycopy(bytes, 0, padded, 1, bytes.length);
+        os.rawResource(padded, 1, bytes.length);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+        buffer.put(bytes).flip();
+        os.rawResource(buffer);
+        os.resource(new RawScimResource(bytes));
+      }
+    }.write(outputStream);
+
+    String written = outputStream.toString("UTF-8");
+    assertEquals(written,
+        "{\"schemas\":[\"urn:ietf:params:scim:api:messages:2.0:ListResponse\"]," +
+        "\"Resources\":[" + raw + "," +
+        "{\"schemas\":[\"urn:ietf:params:scim:schemas:core:2.0:User\"]," +
+        "\"userName\":\"user\"}," + raw + "," + raw + "," + raw + "]," +
+        "\"totalResults\":5}");
+
+    // Invalid raw resources are rejected when validating them.
+    try
+    {
+      new ListResponseStreamingOutput<ScimResource>()
+      {
+        @Override
+        public void write(final ListResponseWriter<ScimResource> os)
+            throws IOException
+        {
+          os.setValidateRawResources(true);
+          os.rawResource("{ \"id\" : ".getBytes(StandardCharsets.UTF_8));
+        }
+      }.write(new CountingOutputStream());
+      fail("Expected IOException");
+    }
+    catch(IOException e)
+    {
+      // Expected.
+    }
+  }
+}
@@ -37,6 +37,8 @@ import javax.ws.rs.core.Response;
 import javax.ws.rs.core.UriInfo;
 
 import static com.unboundid.scim2.common.utils.ApiConstants.MEDIA_TYPE_SCIM;
+import static com.unboundid.scim2.common.utils.ApiConstants.MEDIA_TYPE_SCIM_CBOR;
+import static com.unboundid.scim2.common.utils.ApiConstants.MEDIA_TYPE_SCIM_SMILE;
 
 /**
  * A per resource life cycle Resource Endpoint implementation.
@@ -106,7 +108,8 @@ public class TestResourceEndpoint
    * @throws ScimException if an error occurs.
    */
   @GET
-  @Produces({MEDIA_TYPE_SCIM, MediaType.APPLICATION_JSON})
+  @Produces({MEDIA_TYPE_SCIM, MediaType.APPLICATION_JSON,
+      MEDIA_TYPE_SCIM_CBOR, MEDIA_TYPE_SCIM_SMILE})
   public SimpleSearchResults<UserResource> search(
       @Context final UriInfo uriInfo) throws ScimException
   {
@@ -131,7 +134,8 @@ public class TestResourceEndpoint
    */
   @Path("{id}")
   @GET
-  @Produces({MEDIA_TYPE_SCIM, MediaType.APPLICATION_JSON})
+  @Produces({MEDIA_TYPE_SCIM, MediaType.APPLICATION_JSON,
+      MEDIA_TYPE_SCIM_CBOR, MEDIA_TYPE_SCIM_SMILE})
   public ScimResource retrieve(
       @PathParam("id") final String id, @Context final UriInfo uriInfo)
       throws ScimException
@@ -22,6 +22,7 @@ import com.unboundid.scim2.common.types.BulkConfig;
 import com.unboundid.scim2.common.types.ChangePasswordConfig;
 import com.unboundid.scim2.common.types.ETagConfig;
 import com.unboundid.scim2.common.types.FilterConfig;
+import com.unboundid.scim2.common.types.PaginationConfig;
 import com.unboundid.scim2.common.types.PatchConfig;
 import com.unboundid.scim2.common.types.ServiceProviderConfigResource;
 import com.unboundid.scim2.common.exceptions.ScimException;
@@ -64,6 +65,8 @@ public class TestServiceProviderConfigEndpoint
         new ETagConfig(false),
         Collections.singletonList(
             new AuthenticationScheme(
-                "Basic", "HTTP BASIC", null, null, "httpbasic", true)));
+                "Basic", "HTTP BASIC", null, null, "httpbasic", true)),
+        new PaginationConfig(true, true, PaginationConfig.METHOD_INDEX, null,
+            null, null));
   }
 }
@@ -0,0 +1,327 @@
+/*
+ * Copyright 2021 Ping Identity Corporation
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPLv2 only)
+ * or the terms of the GNU Lesser General Public License (LGPLv2.1 only)
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ */
+
+package com.unboundid.scim2.server.utils;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.unboundid.scim2.common.GenericScimResource;
+import com.unboundid.scim2.common.filters.Filter;
+import com.unboundid.scim2.common.types.EnterpriseUserExtension;
+import com.unboundid.scim2.common.types.UserResource;
+import com.unboundid.scim2.common.utils.JsonUtils;
+import com.unboundid.scim2.common.utils.SchemaUtils;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+/**
+ * Test coverage for the CompactResourceCodec, ResourceDictionary and
+ * CompactResourceFilter classes.
+ */
+public class CompactResourceCodecTestCase
+{
+  private static final String ENTERPRISE_URN =
+      "urn:ietf:params:scim:schemas:extension:enterprise:2.0:User";
+
+  private ResourceTypeDefinition coreType;
+  private ResourceTypeDefinition extendedType;
+  private String userJson;
+  private ObjectNode userNode;
+
+  /**
+   * Setup the User resource types and a test user.
+   *
+   * @throws Exception If an error occurs.
+   */
+  @BeforeClass
+  public void setUp() throws Exception
+  {
+    coreType = new ResourceTypeDefinition.Builder("User", "/Users").
+        setCoreSchema(SchemaUtils.getSchema(UserResource.class)).
+        build();
+    extendedType = new ResourceTypeDefinition.Builder("User", "/Users").
+        setCoreSchema(SchemaUtils.getSchema(UserResource.class)).
+        addOptionalSchemaExtension(
+            SchemaUtils.getSchema(EnterpriseUserExtension.class)).
+        build();
+
+    userJson = "{" +
+        "\"schemas\":[\"urn:ietf:params:scim:schemas:core:2.0:User\"," +
+        "\"" + ENTERPRISE_URN + "\",\"urn:example:other\"]," +
+        "\"id\":\"2819c223\"," +
+        "\"userName\":\"bjensen\"," +
+        "\"name\":{\"givenName\":\"Barbara\",\"familyName\":\"Jensen\"}," +
+        "\"emails\":[{\"value\":\"bjensen@example.com\"," +
+        "\"type\":\"work\",\"primary\":true}," +
+        "{\"value\":\"babs@example.com\",\"type\":\"home\"," +
+        "\"primary\":false}]," +
+        "\"active\":true," +
+        "\"nickName\":null," +
+        "\"custom\":{\"int\":-7,\"long\":12345678901234," +
+        "\"big\":123456789012345678901234567890,\"double\":1.5," +
+        "\"text\":\"café\",\"array\":[1,\"two\",[3],{}]}," +
+        "\"meta\":{\"resourceType\":\"User\"," +
+        "\"created\":\"2010-01-23T04:56:22Z\"," +
+        "\"lastModified\":\"2011-05-13T04:42:34.000Z\"," +
+        "\"location\":\"https://example.com/v2/Users/2819c223\"}," +
+        "\"" + ENTERPRISE_URN + "\":{\"employeeNumber\":\"701984\"," +
+        "\"manager\":{\"value\":\"26118915\"},\"undefined\":1}," +
+        "\"urn:example:other\":{\"value\":\"other\"}" +
+        "}";
+    userNode = (ObjectNode) JsonUtils.getObjectReader().readTree(userJson);
+  }
+
+  /**
+   * Test that resources are decoded to the same JSON.
+   *
+   * @throws Exception If an error occurs.
+   */
+  @Test
+  public void testRoundTrip() throws Exception
+  {
+    for(ResourceTypeDefinition resourceType :
+        Arrays.asList(coreType, extendedType))
+    {
+      CompactResourceCodec codec = new CompactResourceCodec(resourceType,
+          new ResourceDictionary(resourceType));
+
+      byte[] encoded = codec.encode(userNode);
+      assertTrue(encoded.length <
+          userJson.getBytes(StandardCharsets.UTF_8).length);
+      assertEquals(codec.decode(encoded), userNode);
+
+      JsonParser parser =
+          JsonUtils.getObjectReader().getFactory().createParser(userJson);
+      assertEquals(codec.encode(parser), encoded);
+      assertEquals(codec.encode(new GenericScimResource(userNode)), encoded);
+      assertEquals(codec.encode(
+          new SchemaIndexedResource(resourceType, userNode)).length,
+          encoded.length);
+
+      StringWriter writer = new StringWriter();
+      JsonGenerator generator =
+          JsonUtils.getObjectReader().getFactory().createGenerator(writer);
+      codec.decode(encoded, 0, encoded.length, generator);
+      generator.close();
+      assertEquals(writer.toString(), userJson);
+
+      byte[] padded = new byte[encoded.length + 4];
+      System.arraycopy(encoded, 0, padded, 2, encoded.length);
+      assertEquals(codec.decode(padded, 2, encoded.length), userNode);
+    }
+  }
+
+  /**
+   * Test that schema URNs, date times and booleans are compacted.
+   *
+   * @throws Exception If an error occurs.
+   */
+  @Test
+  public void testCompactValues() throws Exception
+  {
+    CompactResourceCodec codec = new CompactResourceCodec(coreType,
+        new ResourceDictionary(coreType));
+    ObjectNode node = (ObjectNode) JsonUtils.getObjectReader().readTree(
+        "{\"schemas\":[\"urn:ietf:params:scim:schemas:core:2.0:User\"]," +
+        "\"active\":false," +
+        "\"meta\":{\"created\":\"2010-01-23T04:56:22Z\"}}");
+
+    // Header, object, schemas, active, meta and created with their values.
+    byte[] encoded = codec.encode(node);
+    assertTrue(encoded.length <= 24, String.valueOf(encoded.length));
+    assertEquals(codec.decode(encoded), node);
+
+    // Date times that would not be formatted the same are kept as strings.
+    ((ObjectNode) node.get("meta")).put("created", "2010-01-23T04:56:22.000Z");
+    assertTrue(codec.encode(node).length > encoded.length);
+    assertEquals(codec.decode(codec.encode(node)), node);
+  }
+
+  /**
+   * Test that invalid encoded resources are rejected.
+   *
+   * @throws Exception If an error occurs.
+   */
+  @Test
+  public void testInvalid() throws Exception
+  {
+    CompactResourceCodec codec = new CompactResourceCodec(coreType,
+        new ResourceDictionary(coreType));
+    byte[] encoded = codec.encode(userNode);
+
+    for(int length : new int[] { 0, 1, 2, encoded.length / 2,
+        encoded.length - 1 })
+    {
+      try
+      {
+        codec.decode(Arrays.copyOf(encoded, length));
+        fail("Expected IOException for length " + length);
+      }
+      catch(IOException e)
+      {
+        // Expected.
+      }
+    }
+
+    byte[] unknownVersion = encoded.clone();
+    unknownVersion[1] = 5;
+    try
+    {
+      codec.decode(unknownVersion);
+      fail("Expected IOException");
+    }
+    catch(IOException e)
+    {
+      // Expected.
+    }
+
+    try
+    {
+      codec.encode(JsonUtils.getObjectReader().getFactory().createParser(
+          "[1]"));
+      fail("Expected IOException");
+    }
+    catch(IOException e)
+    {
+      // Expected.
+    }
+  }
+
+  /**
+   * Test decoding resources encoded with earlier dictionary versions.
+   *
+   * @throws Exception If an error occurs.
+   */
+  @Test
+  public void testDictionaryVersions() throws Exception
+  {
+    ResourceDictionary version1 = new ResourceDictionary(coreType);
+    ResourceDictionary version2 = version1.extend(extendedType);
+    assertEquals(version1.getVersion(), 1);
+    assertEquals(version2.getVersion(), 2);
+    assertEquals(version2.getAttributePaths().subList(0,
+        version1.getAttributePaths().size()), version1.getAttributePaths());
+    assertEquals(version2.getSchemaUrns().subList(0,
+        version1.getSchemaUrns().size()), version1.getSchemaUrns());
+    assertTrue(version2.getSchemaUrns().contains(ENTERPRISE_URN));
+
+    byte[] encoded1 =
+        new CompactResourceCodec(coreType, version1).encode(userNode);
+    CompactResourceCodec codec =
+        new CompactResourceCodec(extendedType, version2, version1);
+    assertEquals(codec.getDictionary(), version2);
+    byte[] encoded2 = codec.encode(userNode);
+    assertTrue(encoded2.length < encoded1.length);
+    assertEquals(codec.decode(encoded1), userNode);
+    assertEquals(codec.decode(encoded2), userNode);
+
+    // Saved dictionaries decode the same way.
+    ResourceDictionary restored1 = ResourceDictionary.fromObjectNode(
+        (ObjectNode) JsonUtils.getObjectReader().readTree(
+            version1.toObjectNode().toString()));
+    ResourceDictionary restored2 =
+        ResourceDictionary.fromObjectNode(version2.toObjectNode());
+    assertEquals(restored2.getAttributePaths(), version2.getAttributePaths());
+    CompactResourceCodec restored =
+        new CompactResourceCodec(extendedType, restored1, restored2);
+    assertEquals(restored.decode(encoded1), userNode);
+    assertEquals(restored.decode(encoded2), userNode);
+    assertEquals(restored.encode(userNode), encoded2);
+
+    try
+    {
+      new CompactResourceCodec(extendedType, version2).decode(encoded1);
+      fail("Expected IOException");
+    }
+    catch(IOException e)
+    {
+      // Expected.
+    }
+
+    try
+    {
+      new CompactResourceCodec(extendedType, version1, restored1);
+      fail("Expected IllegalArgumentException");
+    }
+    catch(IllegalArgumentException e)
+    {
+      // Expected.
+    }
+  }
+
+  /**
+   * Retrieves filters to evaluate on the test user.
+   *
+   * @return The filters to evaluate on the test user.
+   */
+  @DataProvider
+  public Object[][] filters()
+  {
+    return new Object[][]
+        {
+            new Object[] { "userName eq \"BJENSEN\"" },
+            new Object[] { "userName eq \"jsmith\"" },
+            new Object[] { "name.givenName sw \"bar\" and active eq true" },
+            new Object[] { "emails[type eq \"work\" and primary eq true]" },
+            new Object[] { "emails[type eq \"work\" and primary eq false]" },
+            new Object[] { "emails.value co \"babs\"" },
+            new Object[] { "meta.created gt \"2010-01-01T00:00:00Z\"" },
+            new Object[] { "meta.lastModified lt \"2011-01-01T00:00:00Z\"" },
+            new Object[] { "not (title pr) and nickName pr" },
+            new Object[] { "custom.int lt 0 or custom.double eq 2" },
+            new Object[] { ENTERPRISE_URN + ":manager.value eq \"26118915\"" },
+            new Object[] { ENTERPRISE_URN + ":employeeNumber pr" },
+            new Object[] {
+                "urn:ietf:params:scim:schemas:core:2.0:User:userName pr" },
+            new Object[] { "urn:example:other:value eq \"other\"" },
+            new Object[] { "schemas eq \"" + ENTERPRISE_URN + "\"" },
+        };
+  }
+
+  /**
+   * Test that filters on encoded resources match like the filter evaluator.
+   *
+   * @param filter The filter string.
+   * @throws Exception If an error occurs.
+   */
+  @Test(dataProvider = "filters")
+  public void testFilter(final String filter) throws Exception
+  {
+    Filter parsed = Filter.fromString(filter);
+    for(ResourceTypeDefinition resourceType :
+        Arrays.asList(coreType, extendedType))
+    {
+      CompactResourceCodec codec = new CompactResourceCodec(resourceType,
+          new ResourceDictionary(resourceType));
+      boolean expected = parsed.visit(
+          new SchemaAwareFilterEvaluator(resourceType), userNode);
+      assertEquals(new CompactResourceFilter(codec, parsed).matches(
+          codec.encode(userNode)), expected, filter);
+    }
+  }
+}
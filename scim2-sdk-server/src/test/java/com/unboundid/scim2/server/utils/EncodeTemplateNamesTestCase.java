@@ -20,10 +20,16 @@ package com.unboundid.scim2.server.utils;
 import org.testng.annotations.DataProvider;
 import org.testng.annotations.Test;
 
+import javax.ws.rs.core.UriBuilder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
 
 /**
- * Test coverage for ServerUtils.EncodeTemplateNames.
+ * Test coverage for ServerUtils.encodeTemplateNames and encodePathSegment.
  */
 public class EncodeTemplateNamesTestCase
 {
@@ -60,4 +66,29 @@ public class EncodeTemplateNamesTestCase
     final String actualOutput = ServerUtils.encodeTemplateNames(input);
     assertEquals(actualOutput, output);
   }
+
+  /**
+   * Test that the encodePathSegment method encodes strings the same way as a
+   * UriBuilder.
+   */
+  @Test
+  public void testEncodePathSegment()
+  {
+    List<String> segments = new ArrayList<String>();
+    for(char c = 0; c < 0x80; c++)
+    {
+      segments.add("a" + c + "b");
+    }
+    Collections.addAll(segments, "", "abc", "%41", "%zz", "%4", "%",
+        "{%7B}", "caf\u00e9", "\ud83d\ude00 x");
+    for(String segment : segments)
+    {
+      String expected = UriBuilder.fromUri("https://test/scim/").segment(
+          ServerUtils.encodeTemplateNames(segment)).build().toString();
+      assertEquals("https://test/scim/" +
+          ServerUtils.encodePathSegment(segment), expected);
+    }
+    String unencoded = "user-1.2_3~x";
+    assertSame(ServerUtils.encodePathSegment(unencoded), unencoded);
+  }
 }
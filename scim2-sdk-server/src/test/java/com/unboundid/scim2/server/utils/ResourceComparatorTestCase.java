@@ -0,0 +1,221 @@
+/*
+ * Copyright 2021 Ping Identity Corporation
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPLv2 only)
+ * or the terms of the GNU Lesser General Public License (LGPLv2.1 only)
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ */
+
+package com.unboundid.scim2.server.utils;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.unboundid.scim2.common.GenericScimResource;
+import com.unboundid.scim2.common.Path;
+import com.unboundid.scim2.common.messages.SortOrder;
+import com.unboundid.scim2.common.types.AttributeDefinition;
+import com.unboundid.scim2.common.types.UserResource;
+import com.unboundid.scim2.common.utils.JsonUtils;
+import com.unboundid.scim2.common.utils.SchemaUtils;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.testng.Assert.assertEquals;
+
+/**
+ * Test coverage for the ResourceComparator class.
+ */
+public class ResourceComparatorTestCase
+{
+  private ResourceTypeDefinition resourceType;
+  private List<GenericScimResource> resources;
+
+  /**
+   * Setup resources with different kinds of sort values.
+   *
+   * @throws Exception If an error occurs.
+   */
+  @BeforeClass
+  public void setUp() throws Exception
+  {
+    resourceType = new ResourceTypeDefinition.Builder("User", "/Users").
+        setCoreSchema(SchemaUtils.getSchema(UserResource.class)).
+        build();
+
+    String[] values =
+        {
+            "\"bjensen\"", "\"BJensen\"", "\"alice\"", "\"Zed\"", "\"\"",
+            "\"2015-01-01T00:00:00Z\"", "\"2015-01-01T00:00:00.000Z\"",
+            "\" 2014-06-01T12:00:00+02:00 \"", "\"2016-02-30\"", "1", "-2.5",
+            "10", "123456789012345678901234567890", "1.25e2", "true", "false",
+            "null", "[]", "[\"b\",\"a\"]",
+            "[{\"value\":\"x\"},{\"value\":\"A\",\"primary\":true}]",
+            "{\"value\":\"nested\"}", null
+        };
+    resources = new ArrayList<GenericScimResource>();
+    for(int i = 0; i < values.length; i++)
+    {
+      StringBuilder json = new StringBuilder("{\"id\":\"" + i + "\"");
+      if(values[i] != null)
+      {
+        json.append(",\"userName\":").append(values[i]);
+        json.append(",\"custom\":").append(values[i]);
+        json.append(",\"emails\":[{\"value\":").append(values[i]);
+        json.append(",\"type\":\"work\"}]");
+      }
+      json.append("}");
+      resources.add(new GenericScimResource((ObjectNode)
+          JsonUtils.getObjectReader().readTree(json.toString())));
+    }
+  }
+
+  /**
+   * Retrieves sort parameters.
+   *
+   * @return The sortBy and sortOrder parameters.
+   */
+  @DataProvider
+  public Object[][] sortParameters()
+  {
+    return new Object[][]
+        {
+            new Object[] { "userName", SortOrder.ASCENDING },
+            new Object[] { "userName", SortOrder.DESCENDING },
+            new Object[] { "custom", SortOrder.ASCENDING },
+            new Object[] { "custom.value", SortOrder.DESCENDING },
+            new Object[] { "emails.value", SortOrder.ASCENDING },
+            new Object[] { "emails", SortOrder.DESCENDING },
+            new Object[] { "id", SortOrder.ASCENDING },
+        };
+  }
+
+  /**
+   * Test that sort keys are compared the same way as the sort values.
+   *
+   * @param sortBy The sortBy parameter.
+   * @param sortOrder The sortOrder parameter.
+   * @throws Exception If an error occurs.
+   */
+  @Test(dataProvider = "sortParameters")
+  public void testCompare(final String sortBy, final SortOrder sortOrder)
+      throws Exception
+  {
+    Path path = Path.fromString(sortBy);
+    ResourceComparator<GenericScimResource> comparator =
+        new ResourceComparator<GenericScimResource>(path, sortOrder,
+            resourceType);
+    AttributeDefinition attributeDefinition =
+        resourceType.getAttributeDefinition(path);
+
+    for(GenericScimResource r1 : resources)
+    {
+      for(GenericScimResource r2 : resources)
+      {
+        int expected = compareValues(getValue(r1, path), getValue(r2, path),
+            sortOrder, attributeDefinition);
+        String message = r1 + " " + r2;
+        assertEquals(Integer.signum(comparator.compare(r1, r2)), expected,
+            message);
+        assertEquals(Integer.signum(comparator.compareSortKeys(
+            comparator.getSortKey(r1), comparator.getSortKey(r2))), expected,
+            message);
+      }
+    }
+  }
+
+  /**
+   * Test that sorting with sort keys is stable.
+   *
+   * @throws Exception If an error occurs.
+   */
+  @Test
+  public void testSort() throws Exception
+  {
+    ResourceComparator<GenericScimResource> comparator =
+        new ResourceComparator<GenericScimResource>(
+            Path.fromString("userName"), resourceType);
+    List<GenericScimResource> expected =
+        new ArrayList<GenericScimResource>(resources);
+    List<GenericScimResource> sorted =
+        new ArrayList<GenericScimResource>(resources);
+    Collections.reverse(expected);
+    Collections.reverse(sorted);
+    Collections.sort(expected, comparator);
+    comparator.sort(sorted);
+    assertEquals(sorted, expected);
+  }
+
+  /**
+   * Retrieve the primary or first sort value of a resource.
+   *
+   * @param resource The resource.
+   * @param path The sortBy path.
+   * @return The sort value or {@code null} if there is none.
+   * @throws Exception If an error occurs.
+   */
+  private static JsonNode getValue(final GenericScimResource resource,
+                                   final Path path)
+      throws Exception
+  {
+    List<JsonNode> values =
+        JsonUtils.findMatchingPaths(path, resource.getObjectNode());
+    if(values.isEmpty())
+    {
+      return null;
+    }
+    JsonNode value = values.get(0);
+    if(!value.isArray())
+    {
+      return value;
+    }
+    for(JsonNode v : value)
+    {
+      if(v.path("primary").booleanValue())
+      {
+        return v;
+      }
+    }
+    return value.size() == 0 ? null : value.get(0);
+  }
+
+  /**
+   * Compare sort values the way RFC 7644 section 3.4.2.3 describes, where
+   * resources without a value are sorted last in ascending order.
+   *
+   * @param v1 The first value or {@code null}.
+   * @param v2 The second value or {@code null}.
+   * @param sortOrder The sort order.
+   * @param attributeDefinition The attribute definition or {@code null}.
+   * @return -1, 0 or 1 as the first value sorts before, with, or after the
+   * second value.
+   */
+  private static int compareValues(final JsonNode v1, final JsonNode v2,
+                                   final SortOrder sortOrder,
+                                   final AttributeDefinition attributeDefinition)
+  {
+    int result;
+    if(v1 == null || v2 == null)
+    {
+      result = v1 == v2 ? 0 : v1 == null ? 1 : -1;
+      return sortOrder == SortOrder.ASCENDING ? result : -result;
+    }
+    result = Integer.signum(sortOrder == SortOrder.ASCENDING ?
+        JsonUtils.compareTo(v1, v2, attributeDefinition) :
+        JsonUtils.compareTo(v2, v1, attributeDefinition));
+    return result;
+  }
+}
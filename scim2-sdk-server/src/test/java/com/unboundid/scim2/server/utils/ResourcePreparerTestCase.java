@@ -17,6 +17,8 @@
 
 package com.unboundid.scim2.server.utils;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.fasterxml.jackson.databind.node.TextNode;
 import com.unboundid.scim2.common.GenericScimResource;
@@ -26,17 +28,27 @@ import com.unboundid.scim2.common.exceptions.BadRequestException;
 import com.unboundid.scim2.common.messages.PatchOperation;
 import com.unboundid.scim2.common.types.AttributeDefinition;
 import com.unboundid.scim2.common.types.SchemaResource;
+import com.unboundid.scim2.common.types.UserResource;
 import com.unboundid.scim2.common.utils.JsonUtils;
 import org.testng.annotations.BeforeClass;
 import org.testng.annotations.DataProvider;
 import org.testng.annotations.Test;
 
+import javax.ws.rs.core.UriBuilder;
+import java.io.StringWriter;
 import java.net.URI;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 
 import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
 import static org.testng.Assert.assertTrue;
 
 /**
@@ -332,6 +344,47 @@ public class ResourcePreparerTestCase
 
 
 
+  /**
+   * Test that writing a retrieved resource directly to a JSON generator
+   * produces the same JSON as serializing the trimmed resource.
+   *
+   * @param attributes The value to test as attributes
+   * @param excludedAttributes the value to test as excludedAttributes.
+   * @throws Exception If an error occurs.
+   */
+  @Test(dataProvider = "dataProvider")
+  public void testWriteRetrieved(String attributes, String excludedAttributes)
+      throws Exception
+  {
+    ResourcePreparer<ScimResource> preparer =
+        new ResourcePreparer<ScimResource>(resourceTypeDefinition,
+            attributes, excludedAttributes, testBaseUri);
+
+    ObjectNode node = testResource.getObjectNode().deepCopy();
+    ArrayNode values = node.putArray("notDeclared");
+    values.addObject().put("value", "here").put("type", "work");
+    values.addObject();
+    values.add("here");
+    values.addArray().addObject().put("value", "here");
+    node.putArray("default").addObject().put("never", "here");
+    node.putObject("urn:ext:1").putObject("never").put("never", "here");
+
+    String expected = JsonUtils.getObjectWriter().writeValueAsString(
+        preparer.trimRetrievedResource(
+            new GenericScimResource(node.deepCopy())));
+
+    StringWriter writer = new StringWriter();
+    JsonGenerator generator =
+        JsonUtils.getObjectReader().getFactory().createGenerator(writer);
+    preparer.writeRetrievedResource(
+        new GenericScimResource(node.deepCopy()), generator);
+    generator.close();
+
+    assertEquals(writer.toString(), expected);
+  }
+
+
+
   /**
    * Test trim on create.
    *
@@ -762,4 +815,250 @@ public class ResourcePreparerTestCase
         new GenericScimResource(node));
     assertFalse(prepared.getObjectNode().has("urn:ext:1"));
   }
+
+  /**
+   * Test that trimming with a compiled attribute projection produces the same
+   * result as evaluating the projection for the path of every attribute.
+   *
+   * @param attributes The value to test as attributes
+   * @param excludedAttributes the value to test as excludedAttributes.
+   * @throws Exception If an error occurs.
+   */
+  @Test(dataProvider = "dataProvider")
+  public void testProjection(String attributes, String excludedAttributes)
+      throws Exception
+  {
+    Set<Path> queryAttributes = new LinkedHashSet<Path>();
+    String queryString = attributes != null ? attributes : excludedAttributes;
+    if (queryString != null)
+    {
+      queryAttributes.add(resourceTypeDefinition.normalizePath(
+          Path.fromString(queryString)));
+    }
+    AttributeProjection projection = new AttributeProjection(
+        resourceTypeDefinition, Collections.<Path>emptySet(), queryAttributes,
+        attributes == null);
+    assertFalse(projection.isIdentity());
+
+    ObjectNode node = testResource.getObjectNode().deepCopy();
+    node.putArray("notDeclared").addObject().put("value", "here");
+    node.putObject("urn:ext:2").put("value", "here");
+
+    // A subclass evaluates shouldReturn for the path of every attribute.
+    ScimResourceTrimmer pathTrimmer = new ScimResourceTrimmer(projection)
+    {
+    };
+    ScimResourceTrimmer compiledTrimmer = new ScimResourceTrimmer(projection);
+    assertEquals(compiledTrimmer.trimObjectNode(node.deepCopy()),
+        pathTrimmer.trimObjectNode(node.deepCopy()));
+
+    assertTrue(projection.shouldReturn(Path.root().attribute("id")));
+    assertTrue(projection.shouldReturn(Path.root().attribute("always")));
+    assertFalse(projection.shouldReturn(Path.root().attribute("never")));
+    assertFalse(projection.shouldReturn(
+        Path.root("urn:ext:1").attribute("never")));
+  }
+
+  /**
+   * Test that projections derived for request attributes are reused for
+   * requests that return the same attributes, and trim resources like a
+   * projection compiled for the request attributes.
+   *
+   * @param attributes The value to test as attributes
+   * @param excludedAttributes the value to test as excludedAttributes.
+   * @throws Exception If an error occurs.
+   */
+  @Test(dataProvider = "dataProvider")
+  public void testRequestProjections(String attributes,
+                                     String excludedAttributes)
+      throws Exception
+  {
+    Set<Path> queryAttributes = new LinkedHashSet<Path>();
+    String queryString = attributes != null ? attributes : excludedAttributes;
+    if (queryString != null)
+    {
+      queryAttributes.add(resourceTypeDefinition.normalizePath(
+          Path.fromString(queryString)));
+    }
+    AttributeProjection projection = new AttributeProjection(
+        resourceTypeDefinition, null, queryAttributes, attributes == null);
+    assertSame(projection.forRequestAttributes(null), projection);
+    assertSame(projection.forRequestAttributes(
+        Collections.<Path>emptySet()), projection);
+
+    String[][] requests = new String[][]
+        {
+            { "default" },
+            { "always", "default.default" },
+            { "request" },
+            { "request.always" },
+            { "request", "request.always" },
+            { "always.request" },
+            { "urn:ext:1:request" },
+            { "notDeclared" },
+        };
+    for (String[] request : requests)
+    {
+      Set<Path> requestAttributes = new LinkedHashSet<Path>();
+      for (String path : request)
+      {
+        requestAttributes.add(resourceTypeDefinition.normalizePath(
+            Path.fromString(path)));
+      }
+      AttributeProjection derived =
+          projection.forRequestAttributes(requestAttributes);
+      assertSame(projection.forRequestAttributes(
+          new LinkedHashSet<Path>(requestAttributes)), derived);
+      assertEquals(derived.trimObjectNode(testResource.getObjectNode()),
+          new AttributeProjection(resourceTypeDefinition, requestAttributes,
+              queryAttributes, attributes == null).trimObjectNode(
+              testResource.getObjectNode()),
+          Arrays.toString(request));
+    }
+
+    // Request attributes that are not returned only by request share a
+    // projection.
+    assertSame(projection.forRequestAttributes(Collections.singleton(
+        Path.root().attribute("always").attribute("always"))),
+        projection.forRequestAttributes(Collections.singleton(
+            Path.root().attribute("default").attribute("default"))));
+  }
+
+  /**
+   * Test that trimming is skipped when a projection returns every attribute.
+   *
+   * @throws Exception If an error occurs.
+   */
+  @Test
+  public void testIdentityProjection()
+      throws Exception
+  {
+    AttributeDefinition.Builder builder = new AttributeDefinition.Builder();
+    builder.setName("default");
+    builder.setType(AttributeDefinition.Type.STRING);
+    builder.setReturned(AttributeDefinition.Returned.DEFAULT);
+    SchemaResource schema = new SchemaResource("urn:identity", "identity",
+        "identity", Collections.singletonList(builder.build()));
+    ResourceTypeDefinition definition = new ResourceTypeDefinition.Builder(
+        "identity", "identity").setCoreSchema(schema).build();
+
+    AttributeProjection projection = new AttributeProjection(definition,
+        Collections.<Path>emptySet(), Collections.<Path>emptySet(), true);
+    assertTrue(projection.isIdentity());
+    assertFalse(new AttributeProjection(definition,
+        Collections.<Path>emptySet(),
+        Collections.singleton(Path.root().attribute("default")),
+        true).isIdentity());
+
+    ObjectNode node =
+        (ObjectNode) JsonUtils.getObjectReader().readTree(
+            "{\n" +
+                "  \"default\": \"here\",\n" +
+                "  \"notDeclared\": { \"value\": \"here\" }\n" +
+                "}");
+    ObjectNode copy = projection.trimObjectNode(node);
+    assertTrue(copy != node);
+    assertEquals(copy, node);
+    ((ObjectNode) copy.get("notDeclared")).put("value", "changed");
+    assertEquals(node.path("notDeclared").path("value").textValue(), "here");
+
+    URI baseUri = URI.create("https://test/scim/identity");
+    assertTrue(new ResourcePreparer<ScimResource>(definition, null, null,
+        baseUri).returnsAllRetrievedAttributes());
+    assertFalse(new ResourcePreparer<ScimResource>(definition, "default", null,
+        baseUri).returnsAllRetrievedAttributes());
+    assertFalse(new ResourcePreparer<ScimResource>(resourceTypeDefinition,
+        null, null, testBaseUri).returnsAllRetrievedAttributes());
+
+    // Empty containers are still removed.
+    node.putArray("empty");
+    ObjectNode trimmed = projection.trimObjectNode(node);
+    assertNotSame(trimmed, node);
+    assertFalse(trimmed.has("empty"));
+    assertEquals(trimmed.size(), 2);
+  }
+
+  /**
+   * Tests that the cached generic view of a frozen resource is not shared
+   * with the prepared resource.
+   *
+   * @throws Exception If an error occurs.
+   */
+  @Test
+  public void testFrozenResource() throws Exception
+  {
+    AttributeDefinition.Builder builder = new AttributeDefinition.Builder();
+    builder.setName("default");
+    builder.setType(AttributeDefinition.Type.STRING);
+    SchemaResource schema = new SchemaResource("urn:cached", "cached",
+        "cached", Collections.singletonList(builder.build()));
+    ResourceTypeDefinition definition = new ResourceTypeDefinition.Builder(
+        "cached", "cached").setCoreSchema(schema).build();
+    ResourcePreparer<ScimResource> preparer = new ResourcePreparer<ScimResource>(
+        definition, null, null, URI.create("https://test/scim/cached"));
+
+    UserResource user = new UserResource();
+    user.setId("1");
+    user.freeze();
+    GenericScimResource prepared = preparer.trimRetrievedResource(user);
+    assertEquals(prepared.getId(), "1");
+    assertEquals(prepared.getMeta().getResourceType(), "cached");
+    assertNull(user.getMeta());
+    ObjectNode cached = user.asGenericScimResource().getObjectNode();
+    assertFalse(cached.has("meta"));
+    assertTrue(prepared.getObjectNode() != cached);
+    prepared.getObjectNode().remove("meta");
+    assertEquals(prepared.getObjectNode(), cached);
+  }
+
+  /**
+   * Tests that the meta attributes of generic resources are set in the meta
+   * object node, and that the locations are the same as those built by a
+   * UriBuilder.
+   *
+   * @throws Exception If an error occurs.
+   */
+  @Test
+  public void testSetResourceTypeAndLocation() throws Exception
+  {
+    ResourcePreparer<ScimResource> preparer = new ResourcePreparer<ScimResource>(
+        resourceTypeDefinition, null, null, testBaseUri);
+    String[] ids = new String[]
+        { "1", "a b", "a/b", "{id}", "%41%4", "caf\u00e9;x=1?#", "" };
+    for(String id : ids)
+    {
+      GenericScimResource resource = new GenericScimResource();
+      resource.getObjectNode().put("id", id);
+      resource.getObjectNode().putObject("meta").put("version", "W/\"1\"");
+      preparer.setResourceTypeAndLocation(resource);
+      ObjectNode meta = (ObjectNode) resource.getObjectNode().get("meta");
+      assertEquals(meta.path("version").textValue(), "W/\"1\"");
+      assertEquals(meta.path("resourceType").textValue(), "test");
+      assertEquals(meta.path("location").textValue(),
+          UriBuilder.fromUri(testBaseUri).segment(
+              ServerUtils.encodeTemplateNames(id)).build().toString());
+    }
+
+    // Attributes that are already set are kept.
+    GenericScimResource resource = new GenericScimResource();
+    resource.getObjectNode().putObject("meta").
+        put("resourceType", "other").put("location", "https://other/1");
+    preparer.setResourceTypeAndLocation(resource);
+    assertEquals(resource.getMeta().getResourceType(), "other");
+    assertEquals(resource.getMeta().getLocation(),
+        URI.create("https://other/1"));
+
+    // Resources without an id are located at the base URI, and base URIs
+    // with a query still use a UriBuilder.
+    resource = new GenericScimResource();
+    preparer.setResourceTypeAndLocation(resource);
+    assertEquals(resource.getMeta().getLocation(), testBaseUri);
+    URI queryUri = URI.create("https://test/scim/?a=b");
+    resource = new GenericScimResource();
+    resource.getObjectNode().put("id", "1");
+    new ResourcePreparer<ScimResource>(resourceTypeDefinition, null, null,
+        queryUri).setResourceTypeAndLocation(resource);
+    assertEquals(resource.getMeta().getLocation(),
+        UriBuilder.fromUri(queryUri).segment("1").build());
+  }
 }
@@ -0,0 +1,253 @@
+/*
+ * Copyright 2021 Ping Identity Corporation
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPLv2 only)
+ * or the terms of the GNU Lesser General Public License (LGPLv2.1 only)
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ */
+
+package com.unboundid.scim2.server.utils;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.unboundid.scim2.common.GenericScimResource;
+import com.unboundid.scim2.common.Path;
+import com.unboundid.scim2.common.filters.Filter;
+import com.unboundid.scim2.common.types.EnterpriseUserExtension;
+import com.unboundid.scim2.common.types.Meta;
+import com.unboundid.scim2.common.types.UserResource;
+import com.unboundid.scim2.common.utils.JsonUtils;
+import com.unboundid.scim2.common.utils.SchemaUtils;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+/**
+ * Test coverage for the SchemaIndexedResource and the attribute slots of
+ * ResourceTypeDefinition.
+ */
+public class SchemaIndexedResourceTestCase
+{
+  private static final String ENTERPRISE_URN =
+      "urn:ietf:params:scim:schemas:extension:enterprise:2.0:User";
+
+  private ResourceTypeDefinition resourceType;
+  private ObjectNode userNode;
+
+  /**
+   * Setup a User resource type with the enterprise extension.
+   *
+   * @throws Exception If an error occurs.
+   */
+  @BeforeClass
+  public void setUp() throws Exception
+  {
+    resourceType = new ResourceTypeDefinition.Builder("User", "/Users").
+        setCoreSchema(SchemaUtils.getSchema(UserResource.class)).
+        addOptionalSchemaExtension(
+            SchemaUtils.getSchema(EnterpriseUserExtension.class)).
+        build();
+
+    userNode = (ObjectNode) JsonUtils.getObjectReader().readTree("{" +
+        "\"schemas\":[\"urn:ietf:params:scim:schemas:core:2.0:User\"," +
+        "\"" + ENTERPRISE_URN + "\"]," +
+        "\"id\":\"2819c223\"," +
+        "\"USERNAME\":\"bjensen\"," +
+        "\"name\":{\"givenName\":\"Barbara\",\"familyName\":\"Jensen\"," +
+        "\"undefined\":\"x\"}," +
+        "\"emails\":[{\"value\":\"bjensen@example.com\"," +
+        "\"type\":\"work\",\"primary\":true}," +
+        "{\"value\":\"babs@example.com\",\"type\":\"home\"}]," +
+        "\"custom\":{\"a\":1}," +
+        "\"meta\":{\"resourceType\":\"User\"," +
+        "\"created\":\"2010-01-23T04:56:22.000Z\"}," +
+        "\"" + ENTERPRISE_URN + "\":{\"employeeNumber\":\"701984\"," +
+        "\"manager\":{\"value\":\"26118915\"},\"undefined\":true}," +
+        "\"urn:example:unknown\":{\"value\":\"other\"}" +
+        "}");
+  }
+
+  /**
+   * Test that every defined attribute is assigned a dense slot.
+   *
+   * @throws Exception If an error occurs.
+   */
+  @Test
+  public void testSlots() throws Exception
+  {
+    assertTrue(resourceType.getSlotCount() > 0);
+    for(int slot = 0; slot < resourceType.getSlotCount(); slot++)
+    {
+      Path path = resourceType.getSlotPath(slot);
+      assertEquals(resourceType.getSlot(path), slot);
+      assertEquals(resourceType.getSlotDefinition(slot),
+          resourceType.getAttributeDefinition(path));
+    }
+
+    int slot = resourceType.getSlot(Path.fromString("name.givenName"));
+    assertTrue(slot >= 0);
+    assertEquals(resourceType.getSlot(Path.fromString(
+        "urn:ietf:params:scim:schemas:core:2.0:User:name.GIVENNAME")), slot);
+    assertEquals(resourceType.getSlot(
+        Path.fromString("emails[type eq \"work\"].value")),
+        resourceType.getSlot(Path.fromString("emails.value")));
+    assertTrue(resourceType.getSlot(
+        Path.fromString(ENTERPRISE_URN + ":manager.value")) >= 0);
+    assertEquals(resourceType.getSlot(Path.fromString("undefined")), -1);
+  }
+
+  /**
+   * Test conversion to and from an ObjectNode.
+   *
+   * @throws Exception If an error occurs.
+   */
+  @Test
+  public void testObjectNode() throws Exception
+  {
+    SchemaIndexedResource resource =
+        new SchemaIndexedResource(resourceType, userNode);
+    assertEquals(resource.toObjectNode(), userNode);
+    assertEquals(resource.asGenericScimResource().getObjectNode(), userNode);
+    assertEquals(JsonUtils.getObjectReader().readTree(
+        JsonUtils.getObjectWriter().writeValueAsString(resource)), userNode);
+    assertEquals(new SchemaIndexedResource(resourceType,
+        resource.toObjectNode()), resource);
+    assertEquals(resource.toString(), resource.toObjectNode().toString());
+
+    // The generic resource is a copy.
+    GenericScimResource generic = resource.asGenericScimResource();
+    generic.replaceValue("emails[type eq \"work\"].type", "other");
+    generic.replaceValue("name.givenName", "Babs");
+    assertEquals(resource.toObjectNode(), userNode);
+
+    ObjectNode empty = JsonUtils.getJsonNodeFactory().objectNode();
+    assertEquals(new SchemaIndexedResource(resourceType, empty).toObjectNode(),
+        empty);
+  }
+
+  /**
+   * Test retrieving values by slot and by path.
+   *
+   * @throws Exception If an error occurs.
+   */
+  @Test
+  public void testGetValue() throws Exception
+  {
+    SchemaIndexedResource resource =
+        new SchemaIndexedResource(resourceType, userNode);
+    GenericScimResource generic = new GenericScimResource(userNode);
+
+    int givenName = resourceType.getSlot(Path.fromString("name.givenName"));
+    assertEquals(resource.getValue(givenName).textValue(), "Barbara");
+    assertEquals(resource.getValue(resourceType.getSlot(
+        Path.fromString("userName"))).textValue(), "bjensen");
+    assertTrue(resource.getValue(resourceType.getSlot(
+        Path.fromString("nickName"))).isNull());
+
+    for(String path : Arrays.asList("userName", "name", "name.givenName",
+        "name.undefined", "emails", "emails.value",
+        "emails[type eq \"home\"].value", "custom", "custom.a", "meta",
+        "meta.created", ENTERPRISE_URN, ENTERPRISE_URN + ":manager",
+        ENTERPRISE_URN + ":manager.value", ENTERPRISE_URN + ":undefined",
+        "urn:example:unknown:value", "nickName", "undefined"))
+    {
+      assertEquals(resource.getValue(Path.fromString(path)),
+          generic.getValue(path), path);
+    }
+
+    try
+    {
+      resource.getValue(resourceType.getSlot(Path.fromString("emails.value")));
+      fail("Expected IllegalArgumentException");
+    }
+    catch (IllegalArgumentException e)
+    {
+      // Expected.
+    }
+
+    assertEquals(resource.getId(), "2819c223");
+    assertNull(resource.getExternalId());
+    assertEquals(resource.getSchemaUrns(), Arrays.asList(
+        "urn:ietf:params:scim:schemas:core:2.0:User", ENTERPRISE_URN));
+    assertEquals(resource.getMeta().getResourceType(), "User");
+
+    // Filters may be evaluated on the generic resource.
+    SchemaAwareFilterEvaluator filterEvaluator =
+        new SchemaAwareFilterEvaluator(resourceType);
+    assertTrue(Filter.fromString("emails[type eq \"work\" and primary eq " +
+        "true] and name.givenName sw \"bar\"").visit(filterEvaluator,
+        resource.asGenericScimResource().getObjectNode()));
+    assertFalse(Filter.fromString("name.familyName eq \"Smith\"").visit(
+        filterEvaluator, resource.asGenericScimResource().getObjectNode()));
+  }
+
+  /**
+   * Test replacing values.
+   *
+   * @throws Exception If an error occurs.
+   */
+  @Test
+  public void testSetValue() throws Exception
+  {
+    SchemaIndexedResource resource =
+        new SchemaIndexedResource(resourceType, userNode);
+
+    int name = resourceType.getSlot(Path.fromString("name"));
+    resource.setValue(name, JsonUtils.getObjectReader().readTree(
+        "{\"formatted\":\"Ms. Barbara J Jensen\"}"));
+    assertEquals(resource.getValue(Path.fromString("name")),
+        JsonUtils.getObjectReader().readTree(
+            "{\"formatted\":\"Ms. Barbara J Jensen\"}"));
+    resource.setValue(name, null);
+    assertTrue(resource.getValue(Path.fromString("name")).isNull());
+    assertFalse(resource.toObjectNode().has("name"));
+
+    resource.setId("other");
+    resource.setExternalId("external");
+    resource.setSchemaUrns(Collections.singleton(
+        "urn:ietf:params:scim:schemas:core:2.0:User"));
+    Meta meta = new Meta();
+    meta.setResourceType("User");
+    meta.setLocation(URI.create("https://example.com/Users/other"));
+    meta.setLastModified(Calendar.getInstance());
+    resource.setMeta(meta);
+    assertEquals(resource.getId(), "other");
+    assertEquals(resource.getExternalId(), "external");
+    assertEquals(resource.getSchemaUrns(), Collections.singletonList(
+        "urn:ietf:params:scim:schemas:core:2.0:User"));
+    assertEquals(resource.getMeta().getLocation(), meta.getLocation());
+    assertEquals(resource.getMeta().getLastModified().getTimeInMillis(),
+        meta.getLastModified().getTimeInMillis());
+    assertTrue(resource.toObjectNode().path("meta").path("created").
+        isMissingNode());
+
+    resource.setMeta(null);
+    assertNull(resource.getMeta());
+
+    SchemaIndexedResource empty = new SchemaIndexedResource(resourceType);
+    empty.setValue(resourceType.getSlot(Path.fromString("userName")),
+        JsonUtils.getJsonNodeFactory().textNode("bjensen"));
+    JsonNode expected = JsonUtils.getObjectReader().readTree(
+        "{\"userName\":\"bjensen\"}");
+    assertEquals(empty.toObjectNode(), expected);
+  }
+}
@@ -0,0 +1,294 @@
+/*
+ * Copyright 2021 Ping Identity Corporation
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPLv2 only)
+ * or the terms of the GNU Lesser General Public License (LGPLv2.1 only)
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ */
+
+package com.unboundid.scim2.server.utils;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.unboundid.scim2.common.GenericScimResource;
+import com.unboundid.scim2.common.Path;
+import com.unboundid.scim2.common.exceptions.BadRequestException;
+import com.unboundid.scim2.common.messages.SortOrder;
+import com.unboundid.scim2.common.types.UserResource;
+import com.unboundid.scim2.common.utils.JsonUtils;
+import com.unboundid.scim2.common.utils.Parser;
+import com.unboundid.scim2.common.utils.ParserOptions;
+import com.unboundid.scim2.common.utils.SchemaUtils;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import javax.ws.rs.core.UriInfo;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+/**
+ * Test coverage for the SearchPlan class.
+ */
+public class SearchPlanTestCase
+{
+  private ResourceTypeDefinition resourceType;
+
+  /**
+   * Setup the User resource type.
+   *
+   * @throws Exception If an error occurs.
+   */
+  @BeforeClass
+  public void setUp() throws Exception
+  {
+    resourceType = new ResourceTypeDefinition.Builder("User", "/Users").
+        setCoreSchema(SchemaUtils.getSchema(UserResource.class)).
+        build();
+  }
+
+  /**
+   * Test that plans are cached by resource type and parameters.
+   *
+   * @throws Exception If an error occurs.
+   */
+  @Test
+  public void testCache() throws Exception
+  {
+    SearchPlan plan = SearchPlan.get(resourceType, "userName sw \"a\"",
+        "name.familyName", "descending", null, "emails");
+    assertEquals(plan.getFilter().toString(), "userName sw \"a\"");
+    assertEquals(plan.getSortBy(), Path.fromString("name.familyName"));
+    assertEquals(plan.getSortOrder(), SortOrder.DESCENDING);
+    assertTrue(plan.getResourceComparator() != null);
+
+    assertSame(SearchPlan.get(resourceType, "userName sw \"a\"",
+        "name.familyName", "descending", null, "emails"), plan);
+    assertNotSame(SearchPlan.get(resourceType, "userName sw \"a\"",
+        "name.familyName", null, null, "emails"), plan);
+    assertNotSame(SearchPlan.get(resourceType, "userName sw \"a\"",
+        "name.familyName", "descending", "emails", null), plan);
+
+    // Each resource type definition has its own cache.
+    ResourceTypeDefinition other =
+        new ResourceTypeDefinition.Builder("User", "/Users").
+            setCoreSchema(SchemaUtils.getSchema(UserResource.class)).
+            build();
+    assertNotSame(SearchPlan.get(other, "userName sw \"a\"",
+        "name.familyName", "descending", null, "emails"), plan);
+
+    UriInfo uriInfo = SimpleSearchResultsTestCase.createUriInfo(
+        "active eq true", null, null, "1", "10");
+    SearchPlan unsorted = SearchPlan.get(resourceType, uriInfo);
+    assertNull(unsorted.getSortBy());
+    assertNull(unsorted.getResourceComparator());
+    assertEquals(unsorted.getSortOrder(), SortOrder.ASCENDING);
+    assertSame(SearchPlan.get(resourceType, "active eq true", null, null,
+        null, null), unsorted);
+  }
+
+  /**
+   * Test that the cache is bounded and may be disabled, and that invalid
+   * parameters are rejected.
+   *
+   * @throws Exception If an error occurs.
+   */
+  @Test
+  public void testBounds() throws Exception
+  {
+    ResourceTypeDefinition bounded =
+        new ResourceTypeDefinition.Builder("User", "/Users").
+            setCoreSchema(SchemaUtils.getSchema(UserResource.class)).
+            setMaxCachedSearchPlans(10).
+            build();
+    assertEquals(bounded.getMaxCachedSearchPlans(), 10);
+    assertEquals(resourceType.getMaxCachedSearchPlans(), 1000);
+    SearchPlan first = SearchPlan.get(bounded, "userName eq \"first\"",
+        null, null, null, null);
+    List<SearchPlan> plans = new ArrayList<SearchPlan>();
+    for(int i = 0; i < 100; i++)
+    {
+      plans.add(SearchPlan.get(bounded, "userName eq \"" + i + "\"",
+          null, null, null, null));
+      // Keep the first plan recently used.
+      assertSame(SearchPlan.get(bounded, "userName eq \"first\"",
+          null, null, null, null), first);
+    }
+    assertEquals(bounded.getSearchPlans().size(), 10);
+
+    // The least recently used plans were evicted.
+    for(int i = 91; i < 100; i++)
+    {
+      assertSame(SearchPlan.get(bounded, "userName eq \"" + i + "\"",
+          null, null, null, null), plans.get(i));
+    }
+    assertTrue(SearchPlan.get(bounded, "userName eq \"0\"",
+        null, null, null, null) != plans.get(0));
+    assertEquals(bounded.getSearchPlans().size(), 10);
+
+    ResourceTypeDefinition uncached =
+        new ResourceTypeDefinition.Builder("User", "/Users").
+            setCoreSchema(SchemaUtils.getSchema(UserResource.class)).
+            setMaxCachedSearchPlans(0).
+            build();
+    assertNotSame(SearchPlan.get(uncached, null, null, null, null, null),
+        SearchPlan.get(uncached, null, null, null, null, null));
+    assertEquals(uncached.getSearchPlans().size(), 0);
+
+    String[][] invalid = new String[][]
+        {
+            { "userName eq", null, null, null },
+            { null, "name..familyName", null, null },
+            { null, "userName", "sideways", null },
+            { null, null, null, "name..familyName" },
+        };
+    for(String[] parameters : invalid)
+    {
+      try
+      {
+        SearchPlan.get(resourceType, parameters[0], parameters[1],
+            parameters[2], parameters[3], null);
+        fail("Expected BadRequestException");
+      }
+      catch(BadRequestException e)
+      {
+        // Expected.
+      }
+    }
+
+    try
+    {
+      new ResourceTypeDefinition.Builder("User", "/Users").
+          setMaxCachedSearchPlans(-1);
+      fail("Expected IllegalArgumentException");
+    }
+    catch(IllegalArgumentException e)
+    {
+      // Expected.
+    }
+  }
+
+  /**
+   * Test that plans are cached by the parser options of the calling thread.
+   *
+   * @throws Exception If an error occurs.
+   */
+  @Test
+  public void testParserOptions() throws Exception
+  {
+    String filter = "urn:ext:1:attr;x eq \"value\"";
+    SearchPlan plan;
+    ParserOptions priorOptions = Parser.setOptions(
+        new ParserOptions().addExtendedAttributeNameCharacters(';'));
+    try
+    {
+      plan = SearchPlan.get(resourceType, filter, null, null, null, null);
+      assertSame(SearchPlan.get(resourceType, filter, null, null, null, null),
+          plan);
+    }
+    finally
+    {
+      Parser.setOptions(priorOptions);
+    }
+
+    // The plan is not returned once the option is no longer set.
+    try
+    {
+      SearchPlan.get(resourceType, filter, null, null, null, null);
+      fail("Expected BadRequestException");
+    }
+    catch(BadRequestException e)
+    {
+      // Expected.
+    }
+
+    priorOptions = Parser.setOptions(
+        new ParserOptions().addExtendedAttributeNameCharacters(';'));
+    try
+    {
+      assertSame(SearchPlan.get(resourceType, filter, null, null, null, null),
+          plan);
+    }
+    finally
+    {
+      Parser.setOptions(priorOptions);
+    }
+  }
+
+  /**
+   * Test that schema checking results are cached by the enabled options.
+   *
+   * @throws Exception If an error occurs.
+   */
+  @Test
+  public void testCheckSearch() throws Exception
+  {
+    SearchPlan plan = SearchPlan.get(resourceType, "undefined eq \"value\"",
+        null, null, null, null);
+    SchemaChecker checker = new SchemaChecker(resourceType);
+    SchemaChecker.Results results = plan.checkSearch(checker);
+    assertEquals(results.getFilterIssues().size(), 1);
+    assertSame(plan.checkSearch(new SchemaChecker(resourceType)), results);
+
+    checker.enable(SchemaChecker.Option.ALLOW_UNDEFINED_ATTRIBUTES);
+    assertEquals(plan.checkSearch(checker).getFilterIssues().size(), 0);
+    checker.disable(SchemaChecker.Option.ALLOW_UNDEFINED_ATTRIBUTES);
+    assertSame(plan.checkSearch(checker), results);
+
+    assertEquals(SearchPlan.get(resourceType, null, null, null, null, null).
+        checkSearch(checker).getFilterIssues().size(), 0);
+  }
+
+  /**
+   * Test that search results created from a plan return the same results
+   * for requests with different pages and base URIs.
+   *
+   * @throws Exception If an error occurs.
+   */
+  @Test
+  public void testSearchResults() throws Exception
+  {
+    List<GenericScimResource> users = new ArrayList<GenericScimResource>();
+    for(int i = 0; i < 20; i++)
+    {
+      ObjectNode node = JsonUtils.getJsonNodeFactory().objectNode();
+      node.put("id", String.valueOf(i));
+      node.put("userName", "user" + (i * 7 % 20));
+      users.add(new GenericScimResource(node));
+    }
+
+    for(String startIndex : new String[] { "1", "6" })
+    {
+      UriInfo uriInfo = SimpleSearchResultsTestCase.createUriInfo(
+          "userName sw \"user1\"", "userName", null, startIndex, "5");
+      SimpleSearchResults<GenericScimResource> expected =
+          new SimpleSearchResults<GenericScimResource>(resourceType, uriInfo);
+      expected.addAll(users);
+      JsonNode response = SimpleSearchResultsTestCase.write(expected);
+
+      SimpleSearchResults<GenericScimResource> results =
+          new SimpleSearchResults<GenericScimResource>(
+              SearchPlan.get(resourceType, uriInfo), uriInfo);
+      results.addAll(users);
+      assertEquals(SimpleSearchResultsTestCase.write(results), response);
+      assertEquals(response.path("Resources").path(0).path("meta").
+          path("location").textValue(), "https://example.com/v2/Users/" +
+          response.path("Resources").path(0).path("id").textValue());
+    }
+  }
+}
@@ -0,0 +1,948 @@
+/*
+ * Copyright 2021 Ping Identity Corporation
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPLv2 only)
+ * or the terms of the GNU Lesser General Public License (LGPLv2.1 only)
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ */
+
+package com.unboundid.scim2.server.utils;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.unboundid.scim2.common.GenericScimResource;
+import com.unboundid.scim2.common.Path;
+import com.unboundid.scim2.common.ScimResource;
+import com.unboundid.scim2.common.exceptions.BadRequestException;
+import com.unboundid.scim2.common.exceptions.ServerErrorException;
+import com.unboundid.scim2.common.filters.Filter;
+import com.unboundid.scim2.common.messages.ListResponse;
+import com.unboundid.scim2.common.messages.SortOrder;
+import com.unboundid.scim2.common.types.UserResource;
+import com.unboundid.scim2.common.utils.JsonUtils;
+import com.unboundid.scim2.common.utils.SchemaUtils;
+import com.unboundid.scim2.server.ListResponseStreamingOutput;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import javax.ws.rs.core.MultivaluedHashMap;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.core.UriBuilder;
+import javax.ws.rs.core.UriInfo;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static com.unboundid.scim2.common.utils.ApiConstants.*;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+/**
+ * Test coverage for the SimpleSearchResults class.
+ */
+public class SimpleSearchResultsTestCase
+{
+  private ResourceTypeDefinition resourceType;
+  private List<GenericScimResource> users;
+
+  /**
+   * Setup the User resource type and test users, some of which have the same
+   * or no userName and title.
+   *
+   * @throws Exception If an error occurs.
+   */
+  @BeforeClass
+  public void setUp() throws Exception
+  {
+    resourceType = new ResourceTypeDefinition.Builder("User", "/Users").
+        setCoreSchema(SchemaUtils.getSchema(UserResource.class)).
+        build();
+
+    Random random = new Random(0);
+    users = new ArrayList<GenericScimResource>();
+    for(int i = 0; i < 200; i++)
+    {
+      ObjectNode node = JsonUtils.getJsonNodeFactory().objectNode();
+      node.putArray("schemas").add(
+          "urn:ietf:params:scim:schemas:core:2.0:User");
+      node.put("id", String.valueOf(i));
+      if(i % 10 != 0)
+      {
+        node.put("userName", "user" + random.nextInt(50));
+      }
+      if(i % 7 != 0)
+      {
+        node.put("title", random.nextBoolean() ? "Engineer" : "MANAGER");
+      }
+      node.put("active", i % 3 == 0);
+      users.add(new GenericScimResource(node));
+    }
+  }
+
+  /**
+   * Retrieves search parameters.
+   *
+   * @return The filter, sortBy, sortOrder, startIndex and count parameters.
+   */
+  @DataProvider
+  public Object[][] searchParameters()
+  {
+    return new Object[][]
+        {
+            new Object[] { null, null, null, null, null },
+            new Object[] { null, null, null, "11", "20" },
+            new Object[] { null, null, null, "190", "20" },
+            new Object[] { null, null, null, "250", "20" },
+            new Object[] { null, null, null, "-5", "0" },
+            new Object[] { null, null, null, "5", null },
+            new Object[] { null, null, null, null, "5" },
+            new Object[] { "active eq true", null, null, "3", "10" },
+            new Object[] { null, "userName", null, null, null },
+            new Object[] { null, "userName", null, "1", "10" },
+            new Object[] { null, "userName", "descending", "21", "10" },
+            new Object[] { null, "title", null, "1", "50" },
+            new Object[] { null, "title", "descending", "40", "30" },
+            new Object[] { null, "title", null, "150", "100" },
+            new Object[] { null, "title", null, "150", null },
+            new Object[] { null, "userName", null, "1", "0" },
+            new Object[] { null, "userName", null, "1", "2147483647" },
+            new Object[] { "active eq false", "userName", null, "5", "25" },
+            new Object[] { "active eq false", "title", null, "300", "25" },
+        };
+  }
+
+  /**
+   * Test that paginated results are the same as returning a page of every
+   * filtered and sorted resource.
+   *
+   * @param filter The filter parameter.
+   * @param sortBy The sortBy parameter.
+   * @param sortOrder The sortOrder parameter.
+   * @param startIndex The startIndex parameter.
+   * @param count The count parameter.
+   * @throws Exception If an error occurs.
+   */
+  @Test(dataProvider = "searchParameters")
+  public void testPagination(final String filter, final String sortBy,
+                             final String sortOrder, final String startIndex,
+                             final String count)
+      throws Exception
+  {
+    SimpleSearchResults<GenericScimResource> results =
+        new SimpleSearchResults<GenericScimResource>(resourceType,
+            createUriInfo(filter, sortBy, sortOrder, startIndex, count));
+    results.addAll(users);
+    JsonNode response = write(results);
+
+    // Filter and stable sort every resource, then return the page.
+    List<GenericScimResource> expected = new ArrayList<GenericScimResource>();
+    for(GenericScimResource user : users)
+    {
+      if(filter == null || Filter.fromString(filter).visit(
+          new SchemaAwareFilterEvaluator(resourceType), user.getObjectNode()))
+      {
+        expected.add(user);
+      }
+    }
+    int totalResults = expected.size();
+    if(sortBy != null)
+    {
+      Collections.sort(expected, new ResourceComparator<ScimResource>(
+          Path.fromString(sortBy), sortOrder == null ?
+          SortOrder.ASCENDING : SortOrder.fromName(sortOrder), resourceType));
+    }
+    int from = startIndex == null ? 0 :
+        Math.max(0, Integer.parseInt(startIndex) - 1);
+    int to = count == null ? expected.size() :
+        (int) Math.min(expected.size(), (long) from + Integer.parseInt(count));
+    List<String> expectedIds = new ArrayList<String>();
+    for(int i = from; i < to; i++)
+    {
+      expectedIds.add(expected.get(i).getId());
+    }
+
+    List<String> ids = new ArrayList<String>();
+    for(JsonNode resource : response.path("Resources"))
+    {
+      ids.add(resource.path("id").textValue());
+    }
+    assertEquals(ids, expectedIds);
+    assertEquals(response.path("totalResults").intValue(), totalResults);
+    if(startIndex != null || count != null)
+    {
+      assertEquals(response.path("itemsPerPage").intValue(),
+          expectedIds.size());
+    }
+    else
+    {
+      assertFalse(response.has("itemsPerPage"));
+    }
+  }
+
+  /**
+   * Test that sorting with runs written to temporary files returns the same
+   * results as sorting in memory, including when there are too many runs to
+   * merge at once, and that the files are deleted.
+   *
+   * @param filter The filter parameter.
+   * @param sortBy The sortBy parameter.
+   * @param sortOrder The sortOrder parameter.
+   * @param startIndex The startIndex parameter.
+   * @param count The count parameter.
+   * @throws Exception If an error occurs.
+   */
+  @Test(dataProvider = "searchParameters")
+  public void testSortedRuns(final String filter, final String sortBy,
+                             final String sortOrder, final String startIndex,
+                             final String count)
+      throws Exception
+  {
+    File directory = Files.createTempDirectory("scim-sort-test").toFile();
+    try
+    {
+      UriInfo uriInfo =
+          createUriInfo(filter, sortBy, sortOrder, startIndex, count);
+      SimpleSearchResults<GenericScimResource> inMemory =
+          new SimpleSearchResults<GenericScimResource>(resourceType, uriInfo);
+      inMemory.addAll(users);
+      JsonNode expected = write(inMemory);
+
+      for(int maxResourcesInMemory : new int[] { 7, 1 })
+      {
+        SimpleSearchResults<GenericScimResource> results =
+            new SimpleSearchResults<GenericScimResource>(resourceType,
+                uriInfo);
+        results.setMaxResourcesInMemory(maxResourcesInMemory).
+            setTemporaryDirectory(directory);
+        results.addAll(users);
+        assertEquals(write(results), expected);
+        assertEquals(directory.list().length, 0);
+      }
+    }
+    finally
+    {
+      directory.delete();
+    }
+  }
+
+  /**
+   * Test that filtering and writing the results in parallel returns the same
+   * results as doing so on the calling thread.
+   *
+   * @param filter The filter parameter.
+   * @param sortBy The sortBy parameter.
+   * @param sortOrder The sortOrder parameter.
+   * @param startIndex The startIndex parameter.
+   * @param count The count parameter.
+   * @throws Exception If an error occurs.
+   */
+  @Test(dataProvider = "searchParameters")
+  public void testParallel(final String filter, final String sortBy,
+                           final String sortOrder, final String startIndex,
+                           final String count)
+      throws Exception
+  {
+    UriInfo uriInfo =
+        createUriInfo(filter, sortBy, sortOrder, startIndex, count);
+    SimpleSearchResults<GenericScimResource> expected =
+        new SimpleSearchResults<GenericScimResource>(resourceType, uriInfo);
+    expected.addAll(users);
+
+    SimpleSearchResults<GenericScimResource> results =
+        new SimpleSearchResults<GenericScimResource>(resourceType, uriInfo);
+    results.setParallelism(4);
+    results.addAll(users);
+    assertEquals(write(results), write(expected));
+
+    // Resources merged from sorted runs are also written in parallel.
+    File directory = Files.createTempDirectory("scim-sort-test").toFile();
+    try
+    {
+      SimpleSearchResults<GenericScimResource> runs =
+          new SimpleSearchResults<GenericScimResource>(resourceType, uriInfo);
+      runs.setParallelism(3).setMaxResourcesInMemory(11).
+          setTemporaryDirectory(directory);
+      runs.addAll(users);
+      assertEquals(write(runs), write(expected));
+      assertEquals(directory.list().length, 0);
+    }
+    finally
+    {
+      directory.delete();
+    }
+  }
+
+  /**
+   * Retrieves cursor pagination parameters.
+   *
+   * @return The filter, sortBy, sortOrder and count parameters and the
+   * maximum number of resources in memory.
+   */
+  @DataProvider
+  public Object[][] cursorParameters()
+  {
+    return new Object[][]
+        {
+            new Object[] { null, null, null, "30", 0 },
+            new Object[] { "active eq true", null, null, "7", 0 },
+            new Object[] { null, "userName", null, "25", 0 },
+            new Object[] { null, "userName", "descending", "25", 10 },
+            new Object[] { null, "title", null, "40", 0 },
+            new Object[] { "active eq false", "title", "descending", "9", 4 },
+            new Object[] { null, "userName", null, "500", 0 },
+        };
+  }
+
+  /**
+   * Test that following the nextCursor of each page returns every result
+   * once, in the same order as a single page, even when the resources are
+   * added in a different order for each page.
+   *
+   * @param filter The filter parameter.
+   * @param sortBy The sortBy parameter.
+   * @param sortOrder The sortOrder parameter.
+   * @param count The count parameter.
+   * @param maxResourcesInMemory The maximum number of resources in memory.
+   * @throws Exception If an error occurs.
+   */
+  @Test(dataProvider = "cursorParameters")
+  public void testCursor(final String filter, final String sortBy,
+                         final String sortOrder, final String count,
+                         final int maxResourcesInMemory)
+      throws Exception
+  {
+    SimpleSearchResults<GenericScimResource> all =
+        new SimpleSearchResults<GenericScimResource>(resourceType,
+            createCursorUriInfo(filter, sortBy, sortOrder, null, ""));
+    all.addAll(users);
+    JsonNode expected = write(all);
+    assertFalse(expected.has("nextCursor"));
+    assertFalse(expected.has("startIndex"));
+
+    List<JsonNode> returned = new ArrayList<JsonNode>();
+    List<GenericScimResource> shuffled =
+        new ArrayList<GenericScimResource>(users);
+    Random random = new Random(1);
+    String cursor = "";
+    int pages = 0;
+    while(cursor != null)
+    {
+      Collections.shuffle(shuffled, random);
+      SimpleSearchResults<GenericScimResource> results =
+          new SimpleSearchResults<GenericScimResource>(resourceType,
+              createCursorUriInfo(filter, sortBy, sortOrder, count, cursor));
+      results.setMaxResourcesInMemory(maxResourcesInMemory);
+      results.addAll(shuffled);
+      JsonNode response = write(results);
+      assertEquals(response.path("totalResults"),
+          expected.path("totalResults"));
+      assertFalse(response.has("startIndex"));
+      assertEquals(response.path("itemsPerPage").intValue(),
+          response.path("Resources").size());
+      for(JsonNode resource : response.path("Resources"))
+      {
+        returned.add(resource);
+      }
+      cursor = response.has("nextCursor") ?
+          response.get("nextCursor").textValue() : null;
+      pages++;
+    }
+
+    List<JsonNode> expectedResources = new ArrayList<JsonNode>();
+    for(JsonNode resource : expected.path("Resources"))
+    {
+      expectedResources.add(resource);
+    }
+    assertEquals(returned, expectedResources);
+    int pageSize = Integer.parseInt(count);
+    assertEquals(pages, Math.max(1,
+        (expectedResources.size() + pageSize - 1) / pageSize));
+  }
+
+  /**
+   * Test that invalid cursors are rejected.
+   *
+   * @throws Exception If an error occurs.
+   */
+  @Test
+  public void testInvalidCursor() throws Exception
+  {
+    SimpleSearchResults<GenericScimResource> results =
+        new SimpleSearchResults<GenericScimResource>(resourceType,
+            createCursorUriInfo("active eq true", "userName", null, "5", ""));
+    results.addAll(users);
+    String cursor = write(results).get("nextCursor").textValue();
+
+    // The cursor may only be used with the same search.
+    new SimpleSearchResults<GenericScimResource>(resourceType,
+        createCursorUriInfo("active eq true", "userName", null, "10", cursor));
+    String[][] invalid = new String[][]
+        {
+            new String[] { "active eq false", "userName", cursor },
+            new String[] { "active eq true", "title", cursor },
+            new String[] { "active eq true", "userName", "abc" },
+            new String[] { "active eq true", "userName", "abc.def" },
+            new String[] { "active eq true", "userName", "x" + cursor },
+        };
+    for(String[] parameters : invalid)
+    {
+      try
+      {
+        new SimpleSearchResults<GenericScimResource>(resourceType,
+            createCursorUriInfo(parameters[0], parameters[1], null, "10",
+                parameters[2]));
+        fail("Expected BadRequestException for " + parameters[2]);
+      }
+      catch(BadRequestException e)
+      {
+        assertEquals(e.getScimError().getScimType(),
+            BadRequestException.INVALID_CURSOR);
+      }
+    }
+
+    MultivaluedMap<String, String> queryParams =
+        new MultivaluedHashMap<String, String>();
+    queryParams.putSingle(QUERY_PARAMETER_PAGE_CURSOR, "");
+    queryParams.putSingle(QUERY_PARAMETER_PAGE_START_INDEX, "1");
+    try
+    {
+      new SimpleSearchResults<GenericScimResource>(resourceType,
+          createUriInfo(queryParams));
+      fail("Expected BadRequestException");
+    }
+    catch(BadRequestException e)
+    {
+      assertEquals(e.getScimError().getScimType(),
+          BadRequestException.INVALID_VALUE);
+    }
+
+    for(int length : new int[] { 8, 16, 31 })
+    {
+      try
+      {
+        SearchCursor.setSigningKey(new byte[length]);
+        fail("Expected IllegalArgumentException");
+      }
+      catch(IllegalArgumentException e)
+      {
+        // Expected.
+      }
+    }
+
+    // Resources without an id cannot be returned with cursors.
+    results = new SimpleSearchResults<GenericScimResource>(resourceType,
+        createCursorUriInfo(null, "userName", null, "5", ""));
+    GenericScimResource noId =
+        new GenericScimResource(users.get(0).getObjectNode().deepCopy());
+    noId.getObjectNode().remove("id");
+    try
+    {
+      results.add(noId);
+      fail("Expected ServerErrorException");
+    }
+    catch(ServerErrorException e)
+    {
+      // Expected.
+    }
+  }
+
+  /**
+   * Test that searches with a count of zero return the same totalResults
+   * without modifying the added resources, and that counts may be set by the
+   * backend or estimated.
+   *
+   * @throws Exception If an error occurs.
+   */
+  @Test
+  public void testCountOnly() throws Exception
+  {
+    String[] filters = new String[]
+        {
+            null,
+            "active eq true",
+            "title eq \"Engineer\" or not (userName pr)",
+            "meta.resourceType eq \"User\" and active eq false",
+        };
+    for(String filter : filters)
+    {
+      SimpleSearchResults<GenericScimResource> all =
+          new SimpleSearchResults<GenericScimResource>(resourceType,
+              createUriInfo(filter, null, null, null, null));
+      assertFalse(all.isCountOnly());
+      all.addAll(users);
+
+      SimpleSearchResults<GenericScimResource> results =
+          new SimpleSearchResults<GenericScimResource>(resourceType,
+              createUriInfo(filter, "userName", null, null, "0"));
+      assertTrue(results.isCountOnly());
+      results.addAll(users);
+      JsonNode response = write(results);
+      assertEquals(response.path("totalResults"),
+          write(all).path("totalResults"));
+      assertEquals(response.path("Resources").size(), 0);
+      assertFalse(response.has(COUNT_EXTENSION_SCHEMA));
+      assertFalse(users.get(1).getObjectNode().has("meta"));
+    }
+
+    // Backends may set the count.
+    SimpleSearchResults<GenericScimResource> results =
+        new SimpleSearchResults<GenericScimResource>(resourceType,
+            createUriInfo("active eq true", null, null, null, "0"));
+    results.setTotalResults(42);
+    JsonNode response = write(results);
+    assertEquals(response.path("totalResults").intValue(), 42);
+    assertFalse(response.has(COUNT_EXTENSION_SCHEMA));
+
+    results.setApproximateTotalResults(1000000);
+    response = write(results);
+    assertEquals(response.path("totalResults").intValue(), 1000000);
+    assertTrue(response.path(COUNT_EXTENSION_SCHEMA).path(
+        "approximate").booleanValue());
+
+    // Every tenth user is filtered: 7 of the 20 sampled users are active.
+    results = new SimpleSearchResults<GenericScimResource>(resourceType,
+        createUriInfo("active eq true", null, null, null, "0"));
+    results.setCountSampleInterval(10).setParallelism(4);
+    results.addAll(users);
+    response = write(results);
+    assertEquals(response.path("totalResults").intValue(), 70);
+    assertTrue(response.path(COUNT_EXTENSION_SCHEMA).path(
+        "approximate").booleanValue());
+
+    // The extension is declared in the schemas of the list response, also
+    // when resources are returned.
+    results = new SimpleSearchResults<GenericScimResource>(resourceType,
+        createUriInfo("active eq true", null, null, null, "5"));
+    results.setApproximateTotalResults(1000000);
+    results.addAll(users);
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    results.write(outputStream);
+    ListResponse<GenericScimResource> listResponse =
+        JsonUtils.getObjectReader().forType(
+            new TypeReference<ListResponse<GenericScimResource>>() {}).
+            readValue(outputStream.toByteArray());
+    assertEquals(listResponse.getTotalResults(), 1000000);
+    assertEquals(listResponse.getResources().size(), 5);
+    assertTrue(listResponse.getSchemaUrns().contains(COUNT_EXTENSION_SCHEMA));
+    assertTrue(listResponse.getSchemaUrns().contains(
+        "urn:ietf:params:scim:api:messages:2.0:ListResponse"));
+    assertTrue(listResponse.getExtensionValues(
+        COUNT_EXTENSION_SCHEMA + ":approximate").get(0).booleanValue());
+
+    try
+    {
+      results.setCountSampleInterval(0);
+      fail("Expected IllegalArgumentException");
+    }
+    catch(IllegalArgumentException e)
+    {
+      // Expected.
+    }
+  }
+
+  /**
+   * Test that the added resources are not modified, including when the
+   * filter or the sort order references the meta attributes, and that owned
+   * resources return the same results.
+   *
+   * @throws Exception If an error occurs.
+   */
+  @Test
+  public void testResourcesNotModified() throws Exception
+  {
+    String[][] parameters = new String[][]
+        {
+            { "meta.location ew \"/Users/15\" or active eq true", null },
+            { "meta.resourceType eq \"User\"", "userName" },
+            { "active eq false", "meta.location" },
+        };
+    for(String[] parameter : parameters)
+    {
+      UriInfo uriInfo =
+          createUriInfo(parameter[0], parameter[1], null, "3", "40");
+      SimpleSearchResults<GenericScimResource> results =
+          new SimpleSearchResults<GenericScimResource>(resourceType, uriInfo);
+      results.addAll(users);
+      JsonNode response = write(results);
+      assertEquals(response.path("Resources").size(), 40);
+      for(JsonNode resource : response.path("Resources"))
+      {
+        assertEquals(resource.path("meta").path("location").textValue(),
+            "https://example.com/v2/Users/" + resource.path("id").textValue());
+        assertEquals(resource.path("meta").path("resourceType").textValue(),
+            "User");
+      }
+
+      File directory = Files.createTempDirectory("scim-sort-test").toFile();
+      try
+      {
+        SimpleSearchResults<GenericScimResource> runs =
+            new SimpleSearchResults<GenericScimResource>(resourceType,
+                uriInfo);
+        runs.setParallelism(4).setMaxResourcesInMemory(11).
+            setTemporaryDirectory(directory);
+        runs.addAll(users);
+        assertEquals(write(runs), response);
+      }
+      finally
+      {
+        directory.delete();
+      }
+      for(GenericScimResource user : users)
+      {
+        assertFalse(user.getObjectNode().has("meta"));
+      }
+
+      // Immutable resources are kept without copying them.
+      SimpleSearchResults<GenericScimResource> immutable =
+          new SimpleSearchResults<GenericScimResource>(resourceType, uriInfo);
+      immutable.setResourcesImmutable(true).addAll(users);
+      assertEquals(write(immutable), response);
+      for(GenericScimResource user : users)
+      {
+        assertFalse(user.getObjectNode().has("meta"));
+      }
+
+      // Other resources are copied when they are added.
+      List<GenericScimResource> copies = new ArrayList<GenericScimResource>();
+      for(GenericScimResource user : users)
+      {
+        copies.add(new GenericScimResource(user.getObjectNode().deepCopy()));
+      }
+      SimpleSearchResults<GenericScimResource> copied =
+          new SimpleSearchResults<GenericScimResource>(resourceType, uriInfo);
+      copied.addAll(copies);
+      for(GenericScimResource copy : copies)
+      {
+        copy.replaceValue("active", JsonUtils.valueToNode(true));
+        copy.replaceValue("userName", JsonUtils.valueToNode("changed"));
+      }
+      assertEquals(write(copied), response);
+    }
+  }
+
+  /**
+   * Test that backends may read the parsed search parameters and return the
+   * same results when they handle the filter, sort order and offset
+   * themselves.
+   *
+   * @throws Exception If an error occurs.
+   */
+  @Test
+  public void testSearchContext() throws Exception
+  {
+    MultivaluedMap<String, String> queryParams =
+        new MultivaluedHashMap<String, String>();
+    queryParams.putSingle(QUERY_PARAMETER_FILTER, "active eq false");
+    queryParams.putSingle(QUERY_PARAMETER_SORT_BY, "userName");
+    queryParams.putSingle(QUERY_PARAMETER_SORT_ORDER, "descending");
+    queryParams.putSingle(QUERY_PARAMETER_PAGE_START_INDEX, "11");
+    queryParams.putSingle(QUERY_PARAMETER_PAGE_SIZE, "20");
+    queryParams.putSingle(QUERY_PARAMETER_ATTRIBUTES, "userName");
+    UriInfo uriInfo = createUriInfo(queryParams);
+    SimpleSearchResults<GenericScimResource> expected =
+        new SimpleSearchResults<GenericScimResource>(resourceType, uriInfo);
+    expected.addAll(users);
+    JsonNode response = write(expected);
+    assertEquals(response.path("Resources").size(), 20);
+
+    SimpleSearchResults<GenericScimResource> results =
+        new SimpleSearchResults<GenericScimResource>(resourceType, uriInfo);
+    SearchContext context = results.getSearchContext();
+    assertEquals(context.getResourceType(), resourceType);
+    assertEquals(context.getFilter(), Filter.fromString("active eq false"));
+    assertEquals(context.getSortBy(), Path.fromString("userName"));
+    assertEquals(context.getSortOrder(), SortOrder.DESCENDING);
+    assertEquals(context.getStartIndex(), Integer.valueOf(11));
+    assertEquals(context.getCount(), Integer.valueOf(20));
+    assertEquals(context.getAttributes(), Collections.singleton(
+        resourceType.normalizePath(Path.fromString("userName"))));
+    assertTrue(context.getExcludedAttributes().isEmpty());
+
+    // The backend filters, sorts and skips the first page itself, keeping
+    // resources with the same userName in their original order.
+    List<GenericScimResource> unsorted = new ArrayList<GenericScimResource>();
+    for(GenericScimResource user : users)
+    {
+      if(!user.getObjectNode().path("active").booleanValue())
+      {
+        unsorted.add(user);
+      }
+    }
+    List<GenericScimResource> matching =
+        new ArrayList<GenericScimResource>(unsorted);
+    Collections.sort(matching, new ResourceComparator<GenericScimResource>(
+        context.getSortBy(), context.getSortOrder(), resourceType));
+    context.setFilterHandled(true).setSortHandled(true).setOffsetHandled(true);
+    results.setTotalResults(matching.size());
+    results.addAll(matching.subList(10, 30));
+    assertEquals(write(results), response);
+
+    // Only the filter is handled.
+    results =
+        new SimpleSearchResults<GenericScimResource>(resourceType, uriInfo);
+    results.getSearchContext().setFilterHandled(true);
+    results.addAll(unsorted);
+    assertEquals(write(results), response);
+
+    try
+    {
+      results.getSearchContext().setFilterHandled(false);
+      fail("Expected IllegalStateException");
+    }
+    catch(IllegalStateException e)
+    {
+      // Expected: resources were already added.
+    }
+
+    // The offset may only be handled together with the filter and sort.
+    results =
+        new SimpleSearchResults<GenericScimResource>(resourceType, uriInfo);
+    results.getSearchContext().setFilterHandled(true).setOffsetHandled(true);
+    try
+    {
+      results.add(users.get(1));
+      fail("Expected IllegalStateException");
+    }
+    catch(IllegalStateException e)
+    {
+      // Expected.
+    }
+
+    try
+    {
+      new SimpleSearchResults<GenericScimResource>(resourceType,
+          createCursorUriInfo(null, "userName", null, "10", "")).
+          getSearchContext().setSortHandled(true);
+      fail("Expected IllegalStateException");
+    }
+    catch(IllegalStateException e)
+    {
+      // Expected.
+    }
+  }
+
+  /**
+   * Test that temporary files are deleted when writing the results fails,
+   * when adding a resource fails and when the results are closed without
+   * writing them.
+   *
+   * @throws Exception If an error occurs.
+   */
+  @Test
+  public void testSortedRunsDeleted() throws Exception
+  {
+    File directory = Files.createTempDirectory("scim-sort-test").toFile();
+    try
+    {
+      SimpleSearchResults<GenericScimResource> results =
+          new SimpleSearchResults<GenericScimResource>(resourceType,
+              createUriInfo(null, "userName", null, null, null));
+      results.setMaxResourcesInMemory(50).setTemporaryDirectory(directory);
+      results.addAll(users);
+      assertEquals(directory.list().length, 4);
+
+      try
+      {
+        results.write(new OutputStream()
+        {
+          private int written;
+
+          @Override
+          public void write(final int b) throws IOException
+          {
+            if(++written > 1000)
+            {
+              throw new IOException("Client disconnected");
+            }
+          }
+        });
+        fail("Expected IOException");
+      }
+      catch(IOException e)
+      {
+        // Expected.
+      }
+      assertEquals(directory.list().length, 0);
+
+      // Resources without an id cannot be returned with cursor pagination.
+      results = new SimpleSearchResults<GenericScimResource>(resourceType,
+          createCursorUriInfo(null, "userName", null, null, ""));
+      results.setMaxResourcesInMemory(50).setTemporaryDirectory(directory);
+      results.addAll(users);
+      assertEquals(directory.list().length, 4);
+      try
+      {
+        results.add(new GenericScimResource());
+        fail("Expected ServerErrorException");
+      }
+      catch(ServerErrorException e)
+      {
+        // Expected.
+      }
+      assertEquals(directory.list().length, 0);
+
+      results = new SimpleSearchResults<GenericScimResource>(resourceType,
+          createUriInfo(null, "userName", null, null, null));
+      results.setMaxResourcesInMemory(50).setTemporaryDirectory(directory);
+      results.addAll(users);
+      assertEquals(directory.list().length, 4);
+      results.close();
+      assertEquals(directory.list().length, 0);
+      try
+      {
+        results.add(users.get(0));
+        fail("Expected IllegalStateException");
+      }
+      catch(IllegalStateException e)
+      {
+        // Expected.
+      }
+    }
+    finally
+    {
+      directory.delete();
+    }
+
+    try
+    {
+      new SimpleSearchResults<GenericScimResource>(resourceType,
+          createUriInfo(null, null, null, null, null)).
+          setMaxResourcesInMemory(-1);
+      fail("Expected IllegalArgumentException");
+    }
+    catch(IllegalArgumentException e)
+    {
+      // Expected.
+    }
+  }
+
+  /**
+   * Create a UriInfo for a search request.
+   *
+   * @param filter The filter parameter.
+   * @param sortBy The sortBy parameter.
+   * @param sortOrder The sortOrder parameter.
+   * @param startIndex The startIndex parameter.
+   * @param count The count parameter.
+   * @return The UriInfo.
+   */
+  static UriInfo createUriInfo(final String filter, final String sortBy,
+                               final String sortOrder, final String startIndex,
+                               final String count)
+  {
+    MultivaluedMap<String, String> queryParams =
+        new MultivaluedHashMap<String, String>();
+    if(filter != null)
+    {
+      queryParams.putSingle(QUERY_PARAMETER_FILTER, filter);
+    }
+    if(sortBy != null)
+    {
+      queryParams.putSingle(QUERY_PARAMETER_SORT_BY, sortBy);
+    }
+    if(sortOrder != null)
+    {
+      queryParams.putSingle(QUERY_PARAMETER_SORT_ORDER, sortOrder);
+    }
+    if(startIndex != null)
+    {
+      queryParams.putSingle(QUERY_PARAMETER_PAGE_START_INDEX, startIndex);
+    }
+    if(count != null)
+    {
+      queryParams.putSingle(QUERY_PARAMETER_PAGE_SIZE, count);
+    }
+    return createUriInfo(queryParams);
+  }
+
+  /**
+   * Create a UriInfo for a search request with cursor pagination.
+   *
+   * @param filter The filter parameter.
+   * @param sortBy The sortBy parameter.
+   * @param sortOrder The sortOrder parameter.
+   * @param count The count parameter.
+   * @param cursor The cursor parameter.
+   * @return The UriInfo.
+   */
+  static UriInfo createCursorUriInfo(final String filter, final String sortBy,
+                                     final String sortOrder,
+                                     final String count, final String cursor)
+  {
+    UriInfo uriInfo = createUriInfo(filter, sortBy, sortOrder, null, count);
+    uriInfo.getQueryParameters().putSingle(QUERY_PARAMETER_PAGE_CURSOR,
+        cursor);
+    return uriInfo;
+  }
+
+  /**
+   * Write search results.
+   *
+   * @param results The search results.
+   * @return The list response.
+   * @throws Exception If an error occurs.
+   */
+  static JsonNode write(final ListResponseStreamingOutput<?> results)
+      throws Exception
+  {
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    results.write(outputStream);
+    return JsonUtils.getObjectReader().readTree(outputStream.toByteArray());
+  }
+
+  /**
+   * Create a UriInfo for a search request.
+   *
+   * @param queryParams The query parameters of the request.
+   * @return The UriInfo.
+   */
+  static UriInfo createUriInfo(
+      final MultivaluedMap<String, String> queryParams)
+  {
+    return (UriInfo) Proxy.newProxyInstance(
+        SimpleSearchResultsTestCase.class.getClassLoader(),
+        new Class<?>[] { UriInfo.class }, new InvocationHandler()
+        {
+          public Object invoke(final Object proxy, final Method method,
+                               final Object[] args)
+          {
+            if(method.getName().equals("getQueryParameters"))
+            {
+              return queryParams;
+            }
+            else if(method.getName().equals("getPathParameters"))
+            {
+              return new MultivaluedHashMap<String, String>();
+            }
+            else if(method.getName().equals("getBaseUriBuilder"))
+            {
+              return UriBuilder.fromUri("https://example.com/v2/");
+            }
+            throw new UnsupportedOperationException(method.getName());
+          }
+        });
+  }
+}
@@ -0,0 +1,355 @@
+/*
+ * Copyright 2021 Ping Identity Corporation
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPLv2 only)
+ * or the terms of the GNU Lesser General Public License (LGPLv2.1 only)
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ */
+
+package com.unboundid.scim2.server.utils;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.unboundid.scim2.common.GenericScimResource;
+import com.unboundid.scim2.common.RawScimResource;
+import com.unboundid.scim2.common.ScimResource;
+import com.unboundid.scim2.common.exceptions.NotImplementedException;
+import com.unboundid.scim2.common.types.UserResource;
+import com.unboundid.scim2.common.utils.JsonUtils;
+import com.unboundid.scim2.common.utils.SchemaUtils;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import javax.ws.rs.core.UriInfo;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+/**
+ * Test coverage for the StreamingSearchResults class.
+ */
+public class StreamingSearchResultsTestCase
+{
+  private ResourceTypeDefinition resourceType;
+  private List<GenericScimResource> users;
+
+  /**
+   * Setup the User resource type and test users.
+   *
+   * @throws Exception If an error occurs.
+   */
+  @BeforeClass
+  public void setUp() throws Exception
+  {
+    resourceType = new ResourceTypeDefinition.Builder("User", "/Users").
+        setCoreSchema(SchemaUtils.getSchema(UserResource.class)).
+        build();
+
+    users = new ArrayList<GenericScimResource>();
+    for(int i = 0; i < 50; i++)
+    {
+      ObjectNode node = JsonUtils.getJsonNodeFactory().objectNode();
+      node.putArray("schemas").add(
+          "urn:ietf:params:scim:schemas:core:2.0:User");
+      node.put("id", String.valueOf(i));
+      node.put("userName", "user" + i);
+      node.put("active", i % 3 == 0);
+      users.add(new GenericScimResource(node));
+    }
+  }
+
+  /**
+   * Retrieves search parameters.
+   *
+   * @return The filter, startIndex and count parameters.
+   */
+  @DataProvider
+  public Object[][] searchParameters()
+  {
+    return new Object[][]
+        {
+            new Object[] { null, null, null },
+            new Object[] { "active eq true", null, null },
+            new Object[] { "active eq true", "3", "5" },
+            new Object[] { null, "45", "10" },
+            new Object[] { null, "60", "10" },
+            new Object[] { null, null, "0" },
+            new Object[] { "userName sw \"user1\"", "2", null },
+            new Object[] { "meta.resourceType eq \"User\"", null, "5" },
+        };
+  }
+
+  /**
+   * Test that streamed results are the same as the results of
+   * SimpleSearchResults.
+   *
+   * @param filter The filter parameter.
+   * @param startIndex The startIndex parameter.
+   * @param count The count parameter.
+   * @throws Exception If an error occurs.
+   */
+  @Test(dataProvider = "searchParameters")
+  public void testSearch(final String filter, final String startIndex,
+                         final String count)
+      throws Exception
+  {
+    UriInfo uriInfo = SimpleSearchResultsTestCase.createUriInfo(
+        filter, null, null, startIndex, count);
+    SimpleSearchResults<GenericScimResource> expected =
+        new SimpleSearchResults<GenericScimResource>(resourceType, uriInfo);
+    expected.addAll(users);
+
+    StreamingSearchResults<GenericScimResource> results =
+        new StreamingSearchResults<GenericScimResource>(resourceType, uriInfo,
+            users.iterator());
+    assertEquals(SimpleSearchResultsTestCase.write(results),
+        SimpleSearchResultsTestCase.write(expected));
+
+    // Resources may also be pushed by a source.
+    StreamingSearchResults<GenericScimResource> pushed =
+        new StreamingSearchResults<GenericScimResource>(resourceType, uriInfo,
+            new StreamingSearchResults.ResourceSource<GenericScimResource>()
+            {
+              public void produce(
+                  final StreamingSearchResults.ResourceHandler<
+                      GenericScimResource> handler)
+                  throws IOException
+              {
+                for(GenericScimResource user : users)
+                {
+                  handler.resource(user);
+                }
+              }
+            });
+    assertEquals(SimpleSearchResultsTestCase.write(pushed),
+        SimpleSearchResultsTestCase.write(expected));
+
+    // The added resources are not modified.
+    assertFalse(users.get(0).getObjectNode().has("meta"));
+  }
+
+  /**
+   * Test that resources are produced while the results are written.
+   *
+   * @throws Exception If an error occurs.
+   */
+  @Test
+  public void testStreaming() throws Exception
+  {
+    final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    final List<String> written = new ArrayList<String>();
+    final Iterator<GenericScimResource> userIterator = users.iterator();
+    Iterator<ScimResource> resources = new Iterator<ScimResource>()
+    {
+      public boolean hasNext()
+      {
+        return userIterator.hasNext();
+      }
+
+      public ScimResource next()
+      {
+        written.add(new String(outputStream.toByteArray(),
+            StandardCharsets.UTF_8));
+        GenericScimResource user = userIterator.next();
+        return new RawScimResource(user.getObjectNode().toString().getBytes(
+            StandardCharsets.UTF_8));
+      }
+
+      public void remove()
+      {
+        throw new UnsupportedOperationException();
+      }
+    };
+
+    StreamingSearchResults<ScimResource> results =
+        new StreamingSearchResults<ScimResource>(resourceType,
+            SimpleSearchResultsTestCase.createUriInfo(
+                null, null, null, null, null), resources);
+    assertTrue(written.isEmpty());
+    results.write(outputStream);
+
+    // Each resource was written before the next one was produced.
+    assertEquals(written.size(), users.size());
+    assertTrue(written.get(1).contains("\"user0\""));
+    assertFalse(written.get(1).contains("\"user1\""));
+    assertTrue(written.get(2).contains("\"user1\""));
+  }
+
+  /**
+   * Test that filtering and writing the results in parallel returns the same
+   * results in the same order.
+   *
+   * @param filter The filter parameter.
+   * @param startIndex The startIndex parameter.
+   * @param count The count parameter.
+   * @throws Exception If an error occurs.
+   */
+  @Test(dataProvider = "searchParameters")
+  public void testParallel(final String filter, final String startIndex,
+                           final String count)
+      throws Exception
+  {
+    UriInfo uriInfo = SimpleSearchResultsTestCase.createUriInfo(
+        filter, null, null, startIndex, count);
+    StreamingSearchResults<GenericScimResource> expected =
+        new StreamingSearchResults<GenericScimResource>(resourceType, uriInfo,
+            users.iterator());
+
+    StreamingSearchResults<GenericScimResource> results =
+        new StreamingSearchResults<GenericScimResource>(resourceType, uriInfo,
+            users.iterator());
+    results.setParallelism(4);
+    assertEquals(SimpleSearchResultsTestCase.write(results),
+        SimpleSearchResultsTestCase.write(expected));
+    assertFalse(users.get(0).getObjectNode().has("meta"));
+  }
+
+  /**
+   * Test that resources are processed on the executor set by the caller, and
+   * on the calling thread when that executor rejects them.
+   *
+   * @throws Exception If an error occurs.
+   */
+  @Test
+  public void testExecutor() throws Exception
+  {
+    UriInfo uriInfo = SimpleSearchResultsTestCase.createUriInfo(
+        "active eq true", null, null, null, null);
+    StreamingSearchResults<GenericScimResource> expected =
+        new StreamingSearchResults<GenericScimResource>(resourceType, uriInfo,
+            users.iterator());
+    JsonNode expectedResponse = SimpleSearchResultsTestCase.write(expected);
+
+    ExecutorService executorService = Executors.newFixedThreadPool(2);
+    final AtomicInteger executed = new AtomicInteger();
+    try
+    {
+      final Executor executor = executorService;
+      StreamingSearchResults<GenericScimResource> results =
+          new StreamingSearchResults<GenericScimResource>(resourceType,
+              uriInfo, users.iterator());
+      results.setParallelism(4).setExecutor(new Executor()
+      {
+        public void execute(final Runnable command)
+        {
+          executed.incrementAndGet();
+          executor.execute(command);
+        }
+      });
+      assertEquals(SimpleSearchResultsTestCase.write(results),
+          expectedResponse);
+      assertEquals(executed.get(), users.size());
+    }
+    finally
+    {
+      executorService.shutdown();
+    }
+
+    StreamingSearchResults<GenericScimResource> results =
+        new StreamingSearchResults<GenericScimResource>(resourceType, uriInfo,
+            users.iterator());
+    results.setParallelism(4).setExecutor(new Executor()
+    {
+      public void execute(final Runnable command)
+      {
+        throw new RejectedExecutionException();
+      }
+    });
+    assertEquals(SimpleSearchResultsTestCase.write(results),
+        expectedResponse);
+  }
+
+  /**
+   * Test that failures to process a resource in parallel are returned to
+   * the writer, and that invalid parallelism settings are rejected.
+   *
+   * @throws Exception If an error occurs.
+   */
+  @Test
+  public void testParallelFailure() throws Exception
+  {
+    List<ScimResource> resources = new ArrayList<ScimResource>(users);
+    resources.add(new RawScimResource(
+        "{\"id\":\"bad\"".getBytes(StandardCharsets.UTF_8)));
+    StreamingSearchResults<ScimResource> results =
+        new StreamingSearchResults<ScimResource>(resourceType,
+            SimpleSearchResultsTestCase.createUriInfo(
+                "active eq true", null, null, null, null),
+            resources.iterator());
+    results.setParallelism(4);
+    try
+    {
+      results.write(new ByteArrayOutputStream());
+      fail("Expected IllegalStateException");
+    }
+    catch(IllegalStateException e)
+    {
+      // Expected: the same failure as when filtering on the writing thread.
+    }
+
+    try
+    {
+      results.setParallelism(0);
+      fail("Expected IllegalArgumentException");
+    }
+    catch(IllegalArgumentException e)
+    {
+      // Expected.
+    }
+
+    try
+    {
+      ParallelSearchPipeline.setMaxThreads(0);
+      fail("Expected IllegalArgumentException");
+    }
+    catch(IllegalArgumentException e)
+    {
+      // Expected.
+    }
+    assertTrue(ParallelSearchPipeline.getMaxThreads() >= 1);
+  }
+
+  /**
+   * Test that sorted searches are rejected.
+   *
+   * @throws Exception If an error occurs.
+   */
+  @Test
+  public void testSortBy() throws Exception
+  {
+    try
+    {
+      new StreamingSearchResults<GenericScimResource>(resourceType,
+          SimpleSearchResultsTestCase.createUriInfo(
+              null, "userName", null, null, null), users.iterator());
+      fail("Expected NotImplementedException");
+    }
+    catch(NotImplementedException e)
+    {
+      // Expected.
+    }
+  }
+}
@@ -99,6 +99,7 @@ public class EmailValidationRequest extends BaseScimResource
     */
    public void setAttributePath(final String attributePath)
    {
+     checkNotFrozen();
      this.attributePath = attributePath;
    }
 
@@ -121,6 +122,7 @@ public class EmailValidationRequest extends BaseScimResource
     */
    public void setAttributeValue(final String attributeValue)
    {
+     checkNotFrozen();
      this.attributeValue = attributeValue;
    }
 
@@ -143,6 +145,7 @@ public class EmailValidationRequest extends BaseScimResource
     */
    public void setValidated(final Boolean validated)
    {
+     checkNotFrozen();
      this.validated = validated;
    }
 
@@ -165,6 +168,7 @@ public class EmailValidationRequest extends BaseScimResource
     */
    public void setValidatedAt(final Calendar validatedAt)
    {
+     checkNotFrozen();
      this.validatedAt = validatedAt;
    }
 
@@ -189,6 +193,7 @@ public class EmailValidationRequest extends BaseScimResource
     */
    public void setCodeSent(final Boolean codeSent)
    {
+     checkNotFrozen();
      this.codeSent = codeSent;
    }
 
@@ -211,6 +216,7 @@ public class EmailValidationRequest extends BaseScimResource
    */
   public void setVerifyCode(final String verifyCode)
   {
+    checkNotFrozen();
     this.verifyCode = verifyCode;
   }
 }
@@ -112,6 +112,7 @@ public class TelephonyValidationRequest extends BaseScimResource
    */
   public void setAttributePath(final String attributePath)
   {
+    checkNotFrozen();
     this.attributePath = attributePath;
   }
 
@@ -134,6 +135,7 @@ public class TelephonyValidationRequest extends BaseScimResource
    */
   public void setAttributeValue(final String attributeValue)
   {
+    checkNotFrozen();
     this.attributeValue = attributeValue;
   }
 
@@ -156,6 +158,7 @@ public class TelephonyValidationRequest extends BaseScimResource
    */
   public void setValidated(final Boolean validated)
   {
+    checkNotFrozen();
     this.validated = validated;
   }
 
@@ -178,6 +181,7 @@ public class TelephonyValidationRequest extends BaseScimResource
    */
   public void setValidatedAt(final Calendar validatedAt)
   {
+    checkNotFrozen();
     this.validatedAt = validatedAt;
   }
 
@@ -202,6 +206,7 @@ public class TelephonyValidationRequest extends BaseScimResource
    */
   public void setCodeSent(final Boolean codeSent)
   {
+    checkNotFrozen();
     this.codeSent = codeSent;
   }
 
@@ -222,6 +227,7 @@ public class TelephonyValidationRequest extends BaseScimResource
    */
   public void setLanguage(final String language)
   {
+    checkNotFrozen();
     this.language = language;
   }
 
@@ -242,6 +248,7 @@ public class TelephonyValidationRequest extends BaseScimResource
   public void setMessagingProvider(
       final String messagingProvider)
   {
+    checkNotFrozen();
     this.messagingProvider = messagingProvider;
   }
 
@@ -262,6 +269,7 @@ public class TelephonyValidationRequest extends BaseScimResource
    */
   public void setVerifyCode(final String verifyCode)
   {
+    checkNotFrozen();
     this.verifyCode = verifyCode;
   }
 }
@@ -227,6 +227,7 @@ public final class ExternalIdentity extends BaseScimResource
    */
   public void setCallbackParameters(final ObjectNode callbackParameters)
   {
+    checkNotFrozen();
     this.callbackParameters = callbackParameters;
   }
 
@@ -171,6 +171,7 @@ public class AccountState extends BaseScimResource
    */
   public void setAccountDisabled(final Boolean accountDisabled)
   {
+    checkNotFrozen();
     this.accountDisabled = new JsonReference<Boolean>(accountDisabled);
   }
 
@@ -193,6 +194,7 @@ public class AccountState extends BaseScimResource
   public void setAccountExpirationTime(
       final Calendar accountExpirationTime)
   {
+    checkNotFrozen();
     this.accountExpirationTime =
         new JsonReference<Calendar>(accountExpirationTime);
   }
@@ -237,6 +239,7 @@ public class AccountState extends BaseScimResource
    */
   public void setPasswordChangedTime(final Calendar passwordChangedTime)
   {
+    checkNotFrozen();
     this.passwordChangedTime = new JsonReference<Calendar>(passwordChangedTime);
   }
 
@@ -259,6 +262,7 @@ public class AccountState extends BaseScimResource
   public void setPasswordExpirationWarnedTime(
       final Calendar passwordExpirationWarnedTime)
   {
+    checkNotFrozen();
     this.passwordExpirationWarnedTime =
         new JsonReference<Calendar>(passwordExpirationWarnedTime);
   }
@@ -376,6 +380,7 @@ public class AccountState extends BaseScimResource
    */
   public void setLastLoginTime(final Calendar lastLoginTime)
   {
+    checkNotFrozen();
     this.lastLoginTime = new JsonReference<Calendar>(lastLoginTime);
   }
 
@@ -420,6 +425,7 @@ public class AccountState extends BaseScimResource
    */
   public void setMustChangePassword(final Boolean mustChangePassword)
   {
+    checkNotFrozen();
     this.mustChangePassword = new JsonReference<Boolean>(mustChangePassword);
   }
 
@@ -489,6 +495,7 @@ public class AccountState extends BaseScimResource
   public void setPasswordChangedByRequiredTime(
       final Calendar passwordChangedByRequiredTime)
   {
+    checkNotFrozen();
     this.passwordChangedByRequiredTime =
         new JsonReference<Calendar>(passwordChangedByRequiredTime);
   }
@@ -536,6 +543,7 @@ public class AccountState extends BaseScimResource
   public void setAuthenticationFailureTimes(
       final List<Calendar> authenticationFailureTimes)
   {
+    checkNotFrozen();
     this.authenticationFailureTimes =
         new JsonReference<List<Calendar>>(authenticationFailureTimes);
   }
@@ -557,6 +565,7 @@ public class AccountState extends BaseScimResource
    */
   public void setGraceLoginTimes(final List<Calendar> graceLoginTimes)
   {
+    checkNotFrozen();
     this.graceLoginTimes = new JsonReference<List<Calendar>>(graceLoginTimes);
   }
 
@@ -635,6 +644,7 @@ public class AccountState extends BaseScimResource
   public void setAccountActivationTime(
       final Calendar accountActivationTime)
   {
+    checkNotFrozen();
     this.accountActivationTime =
         new JsonReference<Calendar>(accountActivationTime);
   }
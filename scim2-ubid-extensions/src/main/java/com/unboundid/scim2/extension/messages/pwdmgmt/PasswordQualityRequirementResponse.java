@@ -71,6 +71,7 @@ public class PasswordQualityRequirementResponse extends BaseScimResource
    */
   public void setCurrentPasswordRequired(final Boolean currentPasswordRequired)
   {
+    checkNotFrozen();
     this.currentPasswordRequired = currentPasswordRequired;
   }
 
@@ -92,6 +93,7 @@ public class PasswordQualityRequirementResponse extends BaseScimResource
    */
   public void setMustChangePassword(final Boolean mustChangePassword)
   {
+    checkNotFrozen();
     this.mustChangePassword = mustChangePassword;
   }
 
@@ -114,6 +116,7 @@ public class PasswordQualityRequirementResponse extends BaseScimResource
   public void setSecondsUntilPasswordExpiration(
       final Integer secondsUntilPasswordExpiration)
   {
+    checkNotFrozen();
     this.secondsUntilPasswordExpiration = secondsUntilPasswordExpiration;
   }
 
@@ -124,6 +127,6 @@ public class PasswordQualityRequirementResponse extends BaseScimResource
    */
   public List<PasswordRequirementResult> getPasswordRequirements()
   {
-    return passwordRequirements;
+    return frozenList(passwordRequirements);
   }
 }
@@ -138,6 +138,7 @@ public final class PasswordUpdateRequest extends BaseScimResource
   public PasswordUpdateRequest setCurrentPassword(
       final String currentPassword)
   {
+    checkNotFrozen();
     this.currentPassword = currentPassword;
     return this;
   }
@@ -151,6 +152,7 @@ public final class PasswordUpdateRequest extends BaseScimResource
   public PasswordUpdateRequest setNewPassword(
       final String newPassword)
   {
+    checkNotFrozen();
     this.newPassword = newPassword;
     return this;
   }
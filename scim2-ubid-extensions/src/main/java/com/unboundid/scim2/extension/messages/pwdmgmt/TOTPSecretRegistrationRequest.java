@@ -88,6 +88,7 @@ public class TOTPSecretRegistrationRequest extends BaseScimResource
   public TOTPSecretRegistrationRequest setSharedSecret(
       final String sharedSecret)
   {
+    checkNotFrozen();
     this.sharedSecret = sharedSecret;
     return this;
   }
@@ -111,6 +112,7 @@ public class TOTPSecretRegistrationRequest extends BaseScimResource
   public TOTPSecretRegistrationRequest setOtpAuthUri(
       final URI otpAuthUri)
   {
+    checkNotFrozen();
     this.otpAuthUri = otpAuthUri;
     return this;
   }
@@ -133,6 +135,7 @@ public class TOTPSecretRegistrationRequest extends BaseScimResource
    */
   public TOTPSecretRegistrationRequest setRegistered(final Boolean registered)
   {
+    checkNotFrozen();
     this.registered = registered;
     return this;
   }
@@ -155,6 +158,7 @@ public class TOTPSecretRegistrationRequest extends BaseScimResource
    */
   public TOTPSecretRegistrationRequest setVerifyTotp(final String verifyTotp)
   {
+    checkNotFrozen();
     this.verifyTotp = verifyTotp;
     return this;
   }
@@ -181,6 +185,7 @@ public class TOTPSecretRegistrationRequest extends BaseScimResource
    */
   public TOTPSecretRegistrationRequest setVerifyState(final String verifyState)
   {
+    checkNotFrozen();
     this.verifyState = verifyState;
     return this;
   }
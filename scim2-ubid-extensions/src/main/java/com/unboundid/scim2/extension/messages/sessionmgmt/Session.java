@@ -88,7 +88,7 @@ public class Session extends BaseScimResource
    */
   public List<String> getLastLoginMethods()
   {
-    return lastLoginMethods;
+    return frozenList(lastLoginMethods);
   }
 
   /**
@@ -101,7 +101,7 @@ public class Session extends BaseScimResource
    */
   public List<String> getLastSecondFactorMethods()
   {
-    return lastSecondFactorMethods;
+    return frozenList(lastSecondFactorMethods);
   }
 
   /**
@@ -121,6 +121,7 @@ public class Session extends BaseScimResource
    */
   public void setLastLogin(final Calendar lastLogin)
   {
+    checkNotFrozen();
     this.lastLogin = lastLogin;
   }
 
@@ -141,6 +142,7 @@ public class Session extends BaseScimResource
    */
   public void setLastSecondFactor(final Calendar lastSecondFactor)
   {
+    checkNotFrozen();
     this.lastSecondFactor = lastSecondFactor;
   }
 
@@ -165,6 +167,7 @@ public class Session extends BaseScimResource
    */
   public void setIpAddress(final String ipAddress)
   {
+    checkNotFrozen();
     this.ipAddress = ipAddress;
   }
 
@@ -189,6 +192,7 @@ public class Session extends BaseScimResource
    */
   public void setUserAgentString(final String userAgentString)
   {
+    checkNotFrozen();
     this.userAgentString = userAgentString;
   }
 
@@ -202,7 +206,7 @@ public class Session extends BaseScimResource
    */
   public List<OAuth2Client> getClients()
   {
-    return clients;
+    return frozenList(clients);
   }
 
   @Override